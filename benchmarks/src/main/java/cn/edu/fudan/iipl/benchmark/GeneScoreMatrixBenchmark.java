@@ -0,0 +1,98 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cn.edu.fudan.iipl.ourvaast.Statistic;
+
+/**
+ * <pre>
+ * Benchmark of building the gene score matrix of N ".genescore" files sorted by gene name:
+ * {@link Statistic#mergeGeneScoreMatrixFromGeneScoreFiles} merges them, with intermediate
+ * matrices when there are more files than it merges at once, and
+ * {@link Statistic#getGeneScoreMatrixFromGeneScoreFiles}, the fallback for unsorted files, reads
+ * them into memory, spilling parts of the matrix when it is over a small heap budget.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeneScoreMatrixBenchmark {
+
+    @Param({"100", "1000"})
+    public int samples;
+
+    @Param({"18000"})
+    public int geneCount;
+
+    /** heap budget of the spilling benchmark, about 40 samples of 18000 genes. */
+    private static final long SPILL_HEAP_MB = 4;
+
+    private File dataFolder = null;
+    private String geneScoreFolderPath = null;
+    private String outputFolderPath = null;
+    private Statistic statistic = null;
+    private Statistic spillingStatistic = null;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataFolder = SyntheticData.createTempFolder("geneScoreMatrixBenchmark");
+        geneScoreFolderPath =
+                SyntheticData.writeGeneScores(new File(dataFolder, "geneScore"), samples,
+                        geneCount, 2015L).getCanonicalPath();
+        File outputFolder = new File(dataFolder, "output");
+        outputFolder.mkdir();
+        outputFolderPath = outputFolder.getCanonicalPath();
+        statistic = new Statistic();
+        spillingStatistic = new Statistic();
+        spillingStatistic.setMaxHeapMb(SPILL_HEAP_MB);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dataFolder);
+    }
+
+    @Benchmark
+    public void mergeGeneScoreMatrixFromGeneScoreFiles() {
+        statistic.mergeGeneScoreMatrixFromGeneScoreFiles(geneScoreFolderPath, "control",
+                "recessive_model", outputFolderPath, null);
+    }
+
+    @Benchmark
+    public void getGeneScoreMatrixFromGeneScoreFiles() {
+        statistic.getGeneScoreMatrixFromGeneScoreFiles(geneScoreFolderPath, "control",
+                "recessive_model", outputFolderPath);
+    }
+
+    @Benchmark
+    public void getGeneScoreMatrixFromGeneScoreFilesWithSpill() {
+        spillingStatistic.getGeneScoreMatrixFromGeneScoreFiles(geneScoreFolderPath, "control",
+                "recessive_model", outputFolderPath);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import cn.edu.fudan.iipl.ourvaast.Score;
+
+/**
+ * <pre>
+ * Benchmarks of Score.
+ * Per line: average score of a variant by {@link Score#getAverageScoreString(String[])} and
+ * {@link Score#countAverage(List)}.
+ * Per sample: ".avgScore" by {@link Score#getAverageScoreForVariants}, ".genescore" from
+ * ".avgScore" by {@link Score#scoreEachGene}, and ".genescore" directly from the sample by
+ * {@link Score#scoreEachGeneFromSamples}.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoreBenchmark {
+
+    /** number of variant lines used by per line benchmarks. */
+    private static final int LINES = 10000;
+
+    /** column of average score in ".avgScore" files. */
+    private static final int AVERAGE_SCORE_COLUMN = 5;
+
+    @Param({"20000"})
+    public int variantsPerSample;
+
+    @Param({"18000"})
+    public int geneCount;
+
+    /** "-p inheritanceModel=dominant_model" for dominant model. */
+    @Param({"recessive_model"})
+    public String inheritanceModel;
+
+    private File dataFolder = null;
+    private String sampleFolderPath = null;
+    private String avgScoreFolderPath = null;
+    private String outputFolderPath = null;
+    private String[][] features = null;
+    private List<List<String>> rankScoresList = null;
+    private Score score = null;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataFolder = SyntheticData.createTempFolder("scoreBenchmark");
+        File sampleFolder = new File(dataFolder, "samples");
+        SyntheticData.writeSamples(sampleFolder, 1, variantsPerSample, geneCount, 2015L);
+        sampleFolderPath = sampleFolder.getCanonicalPath();
+        avgScoreFolderPath = new File(dataFolder, "avgScore").getCanonicalPath();
+        outputFolderPath = new File(dataFolder, "output").getCanonicalPath();
+        /** Score creates one level of output folders only. */
+        new File(outputFolderPath, "twoPass").mkdirs();
+        new File(outputFolderPath, "geneScore").mkdirs();
+
+        score = new Score();
+        score.setThreads(1);
+        score.getAverageScoreForVariants(sampleFolderPath, "control", avgScoreFolderPath);
+
+        features = new String[LINES][];
+        rankScoresList = new ArrayList<List<String>>(LINES);
+        BufferedReader br =
+                new BufferedReader(new FileReader(new File(sampleFolder, sampleFolder.list()[0])));
+        try {
+            br.readLine();
+            for (int i = 0; i < LINES; i++) {
+                String line = br.readLine();
+                if (line == null) {
+                    br.close();
+                    br = new BufferedReader(new FileReader(new File(sampleFolder,
+                            sampleFolder.list()[0])));
+                    br.readLine();
+                    line = br.readLine();
+                }
+                features[i] = line.split("\\s+");
+                rankScoresList.add(Arrays.asList(features[i][6], features[i][9],
+                        features[i][13], features[i][15]));
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dataFolder);
+    }
+
+    /** per line. */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void averageScoreString(Blackhole blackhole) {
+        for (String[] feature : features)
+            blackhole.consume(score.getAverageScoreString(feature));
+    }
+
+    /** per line. */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void countAverage(Blackhole blackhole) {
+        for (List<String> rankScores : rankScoresList)
+            blackhole.consume(score.countAverage(rankScores));
+    }
+
+    /** per sample. */
+    @Benchmark
+    public void averageScoreForVariants() {
+        score.getAverageScoreForVariants(sampleFolderPath, "control", outputFolderPath
+                + File.separator + "variantAvgScore");
+    }
+
+    /** per sample, reads the ".avgScore" file. */
+    @Benchmark
+    public void scoreEachGeneFromAverageScore() {
+        score.scoreEachGene(avgScoreFolderPath, "control", inheritanceModel, outputFolderPath
+                + File.separator + "twoPass", AVERAGE_SCORE_COLUMN);
+    }
+
+    /** per sample, reads the sample directly. */
+    @Benchmark
+    public void scoreEachGeneFromSample() {
+        score.scoreEachGeneFromSamples(sampleFolderPath, "control", inheritanceModel,
+                outputFolderPath + File.separator + "geneScore", null);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cn.edu.fudan.iipl.ourvaast.Shuffle;
+
+/**
+ * <pre>
+ * Benchmark of {@link Shuffle#shuffleAccordingToGeneName} with three concentrations, full copies of
+ * shuffled case files or overlay manifests.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShuffleBenchmark {
+
+    @Param({"100"})
+    public int cases;
+
+    @Param({"5000"})
+    public int variantsPerSample;
+
+    @Param({"100000"})
+    public int diseaseVariants;
+
+    @Param({"false", "true"})
+    public boolean useOverlay;
+
+    private static final int GENE_COUNT = 18000;
+    private static final int SHUFFLED_GENE_COUNT = 10;
+
+    private File dataFolder = null;
+    private String diseaseVariantsFilePath = null;
+    private List<String> diseaseGeneNameList = null;
+    private List<Double> concentrationList = Arrays.asList(0.05, 0.1, 0.2);
+    private Shuffle shuffle = null;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataFolder = SyntheticData.createTempFolder("shuffleBenchmark");
+        File caseFolder =
+                SyntheticData.writeSamples(new File(dataFolder, "case"), cases,
+                        variantsPerSample, GENE_COUNT, 2015L);
+        File diseaseVariantsFile = new File(dataFolder, "disease_variants.txt");
+        SyntheticData.writeDiseaseVariants(diseaseVariantsFile, diseaseVariants, GENE_COUNT, 2015L);
+        diseaseVariantsFilePath = diseaseVariantsFile.getCanonicalPath();
+        diseaseGeneNameList = new ArrayList<String>();
+        for (int i = 0; i < SHUFFLED_GENE_COUNT; i++)
+            diseaseGeneNameList.add(SyntheticData.getGeneName(i));
+
+        File outputFolder = new File(dataFolder, "shuffledCase");
+        outputFolder.mkdir();
+        shuffle = new Shuffle();
+        shuffle.setCaseFolderPath(caseFolder.getCanonicalPath());
+        shuffle.setShuffledCaseOutputPath(outputFolder.getCanonicalPath());
+        shuffle.setUseOverlay(useOverlay);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticData.delete(dataFolder);
+    }
+
+    @Benchmark
+    public boolean shuffleAccordingToGeneName() {
+        return shuffle.shuffleAccordingToGeneName(diseaseVariantsFilePath, diseaseGeneNameList,
+                concentrationList, 2);
+    }
+}
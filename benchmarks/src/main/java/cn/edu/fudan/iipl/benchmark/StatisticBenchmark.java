@@ -0,0 +1,89 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cn.edu.fudan.iipl.ourvaast.Statistic;
+
+/**
+ * <pre>
+ * Benchmarks of the statistic of a gene, for realistic numbers of case and control samples.
+ * {@link Statistic#computeRankSum(List, List)} is given boxed scores without "N/A",
+ * {@link Statistic#computeRankSumAndStatistic(String, String)} is given lines of gene score
+ * matrices, which is what {@link Statistic#getStatisticMatrix} does for every gene.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatisticBenchmark {
+
+    /** number of samples in both case and control. */
+    @Param({"500", "2500"})
+    public int samples;
+
+    /** rate of "N/A" in gene score matrix. */
+    @Param({"0.5"})
+    public double naRate;
+
+    private String caseScores = null;
+    private String controlScores = null;
+    private List<Double> caseScoreList = null;
+    private List<Double> totalScoreList = null;
+    private Statistic statistic = null;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(2015L);
+        caseScores = SyntheticData.getGeneScoreMatrixLine(samples, naRate, random);
+        controlScores = SyntheticData.getGeneScoreMatrixLine(samples, naRate, random);
+        caseScoreList = getNonNAScores(caseScores);
+        totalScoreList = new ArrayList<Double>(caseScoreList);
+        totalScoreList.addAll(getNonNAScores(controlScores));
+        statistic = new Statistic();
+    }
+
+    @Benchmark
+    public double computeRankSum() {
+        return statistic.computeRankSum(caseScoreList, totalScoreList);
+    }
+
+    @Benchmark
+    public List<Double> computeRankSumAndStatistic() {
+        return statistic.computeRankSumAndStatistic(caseScores, controlScores);
+    }
+
+    private static List<Double> getNonNAScores(String scores) {
+        List<Double> scoreList = new ArrayList<Double>();
+        for (String score : scores.split("\t")) {
+            if (!score.equals("N/A"))
+                scoreList.add(Double.parseDouble(score));
+        }
+        return scoreList;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * <pre>
+ * Generator of synthetic inputs for benchmarks, so that benchmarks run offline without real
+ * samples or a real HGMD release. All data is generated from a seed, the same seed gets the same
+ * files.
+ * Samples have the layout of ".score.out" files annotated by dbNSFP: columns 0-4 are chr, pos,
+ * ref, alt, gene name, rank scores of four algorithms are at columns 6, 9, 13, 15, 15% of the
+ * scores are ".".
+ * Disease variants files have the same columns plus two trailing columns.
+ *
+ * Also runnable to write a whole data set for manual runs of Pickup, Shuffle, Score and Statistic:
+ *     java -cp benchmarks.jar cn.edu.fudan.iipl.benchmark.SyntheticData outputFolderPath [sampleCount] [variantsPerSample] [geneCount] [seed]
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class SyntheticData {
+
+    public static final String SAMPLE_HEADER =
+            "#chr\tpos\tref\talt\tgenename\tSVM_score\tSVM_rankscore\tSVM_pred\tLR_score"
+                    + "\tLR_rankscore\tLR_pred\tRadialSVM_pred\tVEST3_score\tVEST3_rankscore"
+                    + "\tCADD_raw\tCADD_raw_rankscore\tMutationTaster_pred\tPolyphen2_HVAR_pred";
+
+    private static final String BASES = "ACGT";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: java SyntheticData outputFolderPath [sampleCount] "
+                    + "[variantsPerSample] [geneCount] [seed]");
+            return;
+        }
+        File outputFolder = new File(args[0]);
+        int sampleCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int variantsPerSample = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        int geneCount = args.length > 3 ? Integer.parseInt(args[3]) : 18000;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 2015L;
+
+        writeSamples(new File(outputFolder, "samples"), sampleCount, variantsPerSample, geneCount,
+                seed);
+        writeDiseaseVariants(new File(outputFolder, "disease_variants.txt"), 100000, geneCount,
+                seed);
+        writeGeneNames(new File(outputFolder, "genes.txt"), 10);
+        writeFrequencies(new File(outputFolder, "frequencies.txt"), 0.05, 0.1, 0.2);
+        System.out.println("Synthetic data output at " + outputFolder.getCanonicalPath() + "!");
+    }
+
+    /**
+     * @param geneIndex
+     * @return synthetic gene name, "GENE0", "GENE1" ...
+     */
+    public static String getGeneName(int geneIndex) {
+        return "GENE" + geneIndex;
+    }
+
+    /**
+     * write samples "S0000.score.out", "S0001.score.out" ... into the folder.
+     *
+     * @return the folder.
+     */
+    public static File writeSamples(File folder, int sampleCount, int variantsPerSample,
+            int geneCount, long seed) throws IOException {
+        mkdirs(folder);
+        Random random = new Random(seed);
+        for (int i = 0; i < sampleCount; i++) {
+            writeSample(new File(folder, String.format(Locale.ROOT, "S%04d.score.out", i)),
+                    variantsPerSample, geneCount, random);
+        }
+        return folder;
+    }
+
+    /**
+     * write a sample with a header and variantCount variant lines.
+     */
+    public static void writeSample(File file, int variantCount, int geneCount, Random random)
+            throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        try {
+            bw.write(SAMPLE_HEADER);
+            bw.write('\n');
+            for (int i = 0; i < variantCount; i++) {
+                bw.write(getVariantLine(random, geneCount, 0));
+                bw.write('\n');
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * write a disease variants file(like clinvar or hgmd scored by dbNSFP) without header.
+     */
+    public static void writeDiseaseVariants(File file, int variantCount, int geneCount, long seed)
+            throws IOException {
+        mkdirs(file.getAbsoluteFile().getParentFile());
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        try {
+            for (int i = 0; i < variantCount; i++) {
+                bw.write(getVariantLine(random, geneCount, 2));
+                bw.write('\n');
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * write ".genescore" files "S0000.genescore" ... into the folder, every sample scores a random
+     * half of the genes. Genes are sorted by name like Score writes them, so the files are read
+     * by the k-way merge of Statistic.
+     *
+     * @return the folder.
+     */
+    public static File writeGeneScores(File folder, int sampleCount, int geneCount, long seed)
+            throws IOException {
+        mkdirs(folder);
+        String[] geneNames = new String[geneCount];
+        for (int j = 0; j < geneCount; j++)
+            geneNames[j] = getGeneName(j);
+        Arrays.sort(geneNames);
+        Random random = new Random(seed);
+        for (int i = 0; i < sampleCount; i++) {
+            BufferedWriter bw =
+                    new BufferedWriter(new FileWriter(new File(folder, String.format(Locale.ROOT,
+                            "S%04d.genescore", i))));
+            try {
+                bw.write("#genename\tgeneScore\n");
+                for (int j = 0; j < geneCount; j++) {
+                    if (random.nextBoolean())
+                        continue;
+                    bw.write(geneNames[j]);
+                    bw.write('\t');
+                    bw.write(random.nextInt(10) == 0 ? "N/A" : formatScore(random.nextDouble() * 2));
+                    bw.write('\n');
+                }
+            } finally {
+                bw.close();
+            }
+        }
+        return folder;
+    }
+
+    /**
+     * write the first geneCount gene names, one per line.
+     */
+    public static void writeGeneNames(File file, int geneCount) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        try {
+            for (int i = 0; i < geneCount; i++) {
+                bw.write(getGeneName(i));
+                bw.write('\n');
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    public static void writeFrequencies(File file, double... frequencies) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        try {
+            for (double frequency : frequencies) {
+                bw.write(Double.toString(frequency));
+                bw.write('\n');
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * <pre>
+     * scores of a line of gene score matrix, seperated by '\t', with "N/A" for samples the gene is
+     * not scored in. Scores have 6 fraction digits like ".genescore" files, so ties are common.
+     * </pre>
+     */
+    public static String getGeneScoreMatrixLine(int sampleCount, double naRate, Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sampleCount; i++) {
+            if (i > 0)
+                sb.append('\t');
+            if (random.nextDouble() < naRate)
+                sb.append("N/A");
+            else
+                sb.append(formatScore(random.nextDouble() * 2));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param extraColumns number of trailing columns after the 18 columns of a sample.
+     */
+    public static String getVariantLine(Random random, int geneCount, int extraColumns) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append("chr").append(1 + random.nextInt(22)).append('\t')
+                .append(1 + random.nextInt(100000000)).append('\t')
+                .append(BASES.charAt(random.nextInt(4))).append('\t')
+                .append(BASES.charAt(random.nextInt(4))).append('\t')
+                .append(getGeneName(random.nextInt(geneCount))).append('\t')
+                .append(getRandomScore(random)).append('\t')
+                .append(getRandomScore(random)).append('\t')
+                .append("D\t")
+                .append(getRandomScore(random)).append('\t')
+                .append(getRandomScore(random)).append('\t')
+                .append("T\t")
+                .append(".\t")
+                .append(getRandomScore(random)).append('\t')
+                .append(getRandomScore(random)).append('\t')
+                .append(getRandomScore(random)).append('\t')
+                .append(getRandomScore(random)).append('\t')
+                .append("D\t")
+                .append("P");
+        for (int i = 0; i < extraColumns; i++)
+            sb.append("\tx");
+        return sb.toString();
+    }
+
+    /**
+     * create a new empty folder under the system temporary folder.
+     */
+    public static File createTempFolder(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, "");
+        if (!file.delete() || !file.mkdir())
+            throw new IOException("create temporary folder " + file + " failed!");
+        return file;
+    }
+
+    /**
+     * delete the file or folder and everything in it.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    private static String getRandomScore(Random random) {
+        if (random.nextInt(100) < 15)
+            return ".";
+        return String.format(Locale.ROOT, "%.5f", random.nextDouble());
+    }
+
+    private static String formatScore(double score) {
+        return String.format(Locale.ROOT, "%.6f", score);
+    }
+
+    private static void mkdirs(File folder) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs())
+            throw new IOException("create directory " + folder + " failed!");
+    }
+}
@@ -19,13 +19,18 @@ import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Locale;
+import java.util.Random;
 
+import cn.edu.fudan.iipl.ourvaast.GeneDictionary;
 import cn.edu.fudan.iipl.ourvaast.Identify;
 import cn.edu.fudan.iipl.ourvaast.Pickup;
 import cn.edu.fudan.iipl.ourvaast.Score;
 import cn.edu.fudan.iipl.ourvaast.Shuffle;
 import cn.edu.fudan.iipl.ourvaast.Statistic;
+import cn.edu.fudan.iipl.util.CompressionUtil;
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.Metrics;
 
 /**
  * <pre>
@@ -44,32 +49,57 @@ public class Onekey {
     private String inheritanceModel = null;              // -m
     private int toBeShuffledVariantsNumber = 0;          // -n
     private String outputPath = null;                    // -o
-
-    public static void main(String[] args) throws InterruptedException {
+    private int threads = Runtime.getRuntime().availableProcessors(); // -t
+    private boolean resume = true;                       // -r
+    private boolean bgzf = false;                        // -z
+    private boolean useOverlay = false;                  // -d
+    private Long seed = null;                            // -s, null if not given
+
+    /** names of stages, frequency is appended to names of stages of a frequency branch. */
+    private static final String PICKUP = "pickup";
+    private static final String SHUFFLE = "shuffle";
+    private static final String SCORE_CONTROL = "score control";
+    private static final String MATRIX_CONTROL = "gene score matrix control";
+    private static final String SCORE_CASE = "score case ";
+    private static final String MATRIX_CASE = "gene score matrix case ";
+    private static final String STATISTIC = "statistic ";
+    private static final String IDENTIFY = "identify ";
+
+    private static final String METRICS_JSON = "metrics.json";
+    private static final String METRICS_PROMETHEUS = "metrics.prom";
+
+    public static void main(String[] args) {
         if (args.length < 14) {
             usage();
             return;
         }
 
-        Onekey onekey = new Onekey();
+        final Onekey onekey = new Onekey();
 
         /** process input, preserve input args. */
         onekey.processInput(args);
 
-        String caseFolderPath = onekey.getOutputPath() + File.separator + "case_with_score";
-        String controlWithScoreFolderPath =
+        /** data files written by stages are BGZF if "-z true". */
+        CompressionUtil.setCompressionThreads(onekey.getThreads());
+        CompressionUtil.setBgzfOutput(onekey.isBgzf());
+
+        final String caseFolderPath = onekey.getOutputPath() + File.separator + "case_with_score";
+        final String controlWithScoreFolderPath =
                 onekey.getOutputPath() + File.separator + "control_with_score";
-        String controlFolderPath = onekey.getOutputPath() + File.separator + "control";
-        String shuffledCaseFolderPath = onekey.getOutputPath() + File.separator + "shuffledCase";
+        final String controlFolderPath = onekey.getOutputPath() + File.separator + "control";
+        final String shuffledCaseFolderPath =
+                onekey.getOutputPath() + File.separator + "shuffledCase";
+        final String checkpointFolderPath = onekey.getOutputPath() + File.separator + "checkpoint";
 
         dirCreate(caseFolderPath);
         dirCreate(controlWithScoreFolderPath);
         dirCreate(controlFolderPath);
         dirCreate(shuffledCaseFolderPath);
+        dirCreate(checkpointFolderPath);
 
 
         /** read disease names. */
-        List<String> diseaseGeneNameList = new ArrayList<String>();
+        final List<String> diseaseGeneNameList = new ArrayList<String>();
         BufferedReader geneNameFileReader = null;
         try {
             geneNameFileReader =
@@ -95,7 +125,7 @@ public class Onekey {
 
 
         /** read frequency list. */
-        List<Double> frequencyList = new ArrayList<Double>();
+        final List<Double> frequencyList = new ArrayList<Double>();
         BufferedReader frequencyFileReader = null;
         try {
             frequencyFileReader =
@@ -120,165 +150,249 @@ public class Onekey {
         }
 
 
-        Pickup pickup = new Pickup();
-        pickup.pickup(onekey.getInputFolderPath(), onekey.getOutputPath());
-        System.out.println("Pickup finished! Case and control are generated at "
-                + onekey.getOutputPath() + "!");
-        TimeUnit.SECONDS.sleep(1);
-
-
-        Shuffle shuffle = new Shuffle();
-        shuffle.setCaseFolderPath(caseFolderPath);
-        shuffle.setDiseaseVariantsFilePath(onekey.getDiseaseVariantsFilePath());
-        shuffle.setShuffledCaseOutputPath(shuffledCaseFolderPath);
-        shuffle.setToBeShuffledFrequencyFilePath(onekey.getToBeShuffledFrequencyFilePath());
-        shuffle.setToBeShuffledGeneNameFilePath(onekey.getToBeShuffledGeneNameFilePath());
-        shuffle.setToBeShuffledVariantsNumber(onekey.getToBeShuffledVariantsNumber());
-        /** shuffle. */
-        shuffle.shuffleAccordingToGeneName(shuffle.getDiseaseVariantsFilePath(),
-                diseaseGeneNameList, frequencyList, shuffle.getToBeShuffledVariantsNumber());
-        /** copy. */
-        shuffle.copyCaseFilesToShuffledCaseFolder(shuffle.getCaseFolderPath(), frequencyList);
-        /** finished shuffling. */
-        System.out.println("Shuffle finished! ShuffledCase are generated at "
-                + shuffle.getShuffledCaseOutputPath() + "!");
-        TimeUnit.SECONDS.sleep(1);
-
-
-        Score score = new Score();
-        score.setCaseFolderPath(shuffledCaseFolderPath);
-        score.setControlFolderPath(controlWithScoreFolderPath);
-        score.setInheritanceModel(onekey.getInheritanceModel());
-        score.setToBeShuffledFrequencyFilePath(onekey.getToBeShuffledFrequencyFilePath());
-        score.setCaseOutputPath(shuffledCaseFolderPath);
-        score.setControlOutputPath(controlFolderPath);
-        /** create case variant average score output path and case gene score output path. */
-        String caseVariantAvgScoreOutputPath =
-                score.getCaseOutputPath() + File.separator + "variantAvgScore";
-        String caseGeneScoreOutputPath = score.getCaseOutputPath() + File.separator + "geneScore";
-        dirCreate(caseVariantAvgScoreOutputPath);
+        /**
+         * stages of ourvaast: pickup, shuffle and control run once, then every frequency has its
+         * own branch of case scoring, gene score matrix, statistic and identification, which are
+         * independent of other frequencies and run concurrently.
+         */
+        final String inheritanceModel = onekey.getInheritanceModel();
+        final String caseGeneScoreOutputPath =
+                shuffledCaseFolderPath + File.separator + "geneScore";
+        final String controlGeneScoreOutputPath = controlFolderPath + File.separator + "geneScore";
+        final String caseGeneScoreMatrixOutputPath =
+                shuffledCaseFolderPath + File.separator + "geneScoreMatrix" + File.separator
+                        + inheritanceModel;
+        final String controlGeneScoreMatrixOutputPath =
+                controlFolderPath + File.separator + "geneScoreMatrix" + File.separator
+                        + inheritanceModel;
+        final String controlGeneScoreMatrixPath =
+                controlGeneScoreMatrixOutputPath + File.separator + "control_" + inheritanceModel
+                        + ".geneScoreMatrix";
+
+        /** folders shared by branches are created before branches start. */
         dirCreate(caseGeneScoreOutputPath);
-        /** create case variant average score output path and case gene score output path. */
-        String controlVariantAvgScoreOutputPath =
-                score.getControlOutputPath() + File.separator + "variantAvgScore";
-        String controlGeneScoreOutputPath =
-                score.getControlOutputPath() + File.separator + "geneScore";
-        dirCreate(controlVariantAvgScoreOutputPath);
+        dirCreate(caseGeneScoreOutputPath + File.separator + inheritanceModel);
         dirCreate(controlGeneScoreOutputPath);
-        /** get average score of each variant. */
-        /** case. */
-        for (Double frequency : frequencyList) {
-            score.getAverageScoreForVariants(score.getCaseFolderPath() + File.separator
-                    + getPercentFormat(frequency, 2, 0), "case", caseVariantAvgScoreOutputPath);
+        dirsCreate(caseGeneScoreMatrixOutputPath);
+        dirsCreate(controlGeneScoreMatrixOutputPath);
+
+        /** all stages key genes on ids of the same dictionary. */
+        final GeneDictionary geneDictionary = new GeneDictionary();
+
+        /** threads of Score are shared by control and frequency branches. */
+        final int scoreThreads =
+                Math.max(1, onekey.getThreads()
+                        / Math.min(onekey.getThreads(), frequencyList.size() + 1));
+
+        /** heap budget of gene score matrices is shared by matrix stages running concurrently. */
+        final long matrixHeapMb =
+                Math.max(1, new Statistic().getMaxHeapMb()
+                        / Math.min(onekey.getThreads(), frequencyList.size() + 1));
+
+        /**
+         * every stage has a checkpoint of its inputs and outputs, a rerun only runs stages whose
+         * inputs or outputs changed, such as identification of a frequency after a crash, and
+         * stages depending on them.
+         */
+        StageScheduler scheduler = new StageScheduler(onekey.getThreads());
+        scheduler.setResume(onekey.isResume());
+        StageCheckpoint pickupCheckpoint = new StageCheckpoint(PICKUP, checkpointFolderPath);
+
+        /**
+         * pickup and shuffling are replayed by the seed. Without "-s", a resumed run keeps the
+         * seed of the last run so that its outputs are reused, otherwise a new seed is drawn.
+         */
+        if (onekey.getSeed() == null) {
+            String recordedSeed =
+                    onekey.isResume() ? pickupCheckpoint.getRecordedParameter("seed") : null;
+            onekey.setSeed(recordedSeed != null ? Long.parseLong(recordedSeed) : new Random()
+                    .nextLong());
         }
-        /** control. */
-        score.getAverageScoreForVariants(score.getControlFolderPath(), "control",
-                controlVariantAvgScoreOutputPath);
-        System.out.println("Getting average score for variants finished!");
-        System.out.println("Now we will begin to score each gene in 5 seconds!");
-        for (int i = 5; i >= 1;) {
-            try {
-                TimeUnit.SECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        final long seed = onekey.getSeed();
+        pickupCheckpoint.addParameter("seed", seed).addInput(onekey.getInputFolderPath())
+                .addOutput(caseFolderPath).addOutput(controlWithScoreFolderPath);
+        scheduler.addStage(PICKUP, new Runnable() {
+            @Override
+            public void run() {
+                Pickup pickup = new Pickup();
+                pickup.setSeed(seed);
+                if (!pickup.pickup(onekey.getInputFolderPath(), onekey.getOutputPath()))
+                    throw new IllegalStateException("pickup failed!");
+                System.out.println("Pickup finished! Case and control are generated at "
+                        + onekey.getOutputPath() + "!");
             }
-            System.out.println("Now we will begin to score each gene in " + (--i) + " seconds!");
-        }
-        /* score each gene. */
-        for (int j = 0; j < frequencyList.size(); j++) {
-            System.out.println("\n------- Score Each Gene start! Now processing frequency "
-                    + getPercentFormat(frequencyList.get(j), 2, 0) + "!\n");
-            // case
-            score.scoreEachGene(
-                    caseVariantAvgScoreOutputPath + File.separator
-                            + getPercentFormat(frequencyList.get(j), 2, 0), "case",
-                    score.getInheritanceModel(), caseGeneScoreOutputPath, 5);
-        }
-        // control
-        score.scoreEachGene(controlVariantAvgScoreOutputPath, "control",
-                score.getInheritanceModel(), controlGeneScoreOutputPath, 5);
-        System.out.println("Score finished!");
-        TimeUnit.SECONDS.sleep(1);
-
-
-        Statistic statistic = new Statistic();
-        statistic.setCaseFolderPath(caseGeneScoreOutputPath);
-        statistic.setControlFolderPath(controlGeneScoreOutputPath);
-        statistic.setInheritanceModel(onekey.getInheritanceModel());
-        statistic.setToBeShuffledFrequencyFilePath(onekey.getToBeShuffledFrequencyFilePath());
-        statistic.setCaseOutputPath(shuffledCaseFolderPath);
-        statistic.setControlOutputPath(controlFolderPath);
-        /** enter the inheritance model folder. */
-        statistic.setCaseFolderPath(statistic.getCaseFolderPath() + File.separator
-                + statistic.getInheritanceModel());
-        dirJudge(statistic.getCaseFolderPath());
-        statistic.setControlFolderPath(statistic.getControlFolderPath() + File.separator
-                + statistic.getInheritanceModel());
-        dirJudge(statistic.getControlFolderPath());
-        /** create gene score matrix output folder path. */
-        statistic.setCaseOutputPath(statistic.getCaseOutputPath() + File.separator
-                + "geneScoreMatrix" + File.separator + statistic.getInheritanceModel());
-        dirsCreate(statistic.getCaseOutputPath());
-        statistic.setControlOutputPath(statistic.getControlOutputPath() + File.separator
-                + "geneScoreMatrix" + File.separator + statistic.getInheritanceModel());
-        dirsCreate(statistic.getControlOutputPath());
-        /** get gene score matrix for case and control. */
-        for (int j = 0; j < frequencyList.size(); j++) {
-            // case
-            statistic.getGeneScoreMatrixFromGeneScoreFiles(statistic.getCaseFolderPath()
-                    + File.separator + getPercentFormat(frequencyList.get(j), 2, 0), "case",
-                    statistic.getInheritanceModel(), statistic.getCaseOutputPath());
-        }
-        // control
-        statistic.getGeneScoreMatrixFromGeneScoreFiles(statistic.getControlFolderPath(), "control",
-                statistic.getInheritanceModel(), statistic.getControlOutputPath());
-        /** get statistic matrix of rank sum&two parts test. */
-        for (int j = 0; j < frequencyList.size(); j++) {
-            String caseGeneScoreMatrixPath =
-                    getCanonicalPath(statistic.getCaseOutputPath() + File.separator
-                            + getPercentFormat(frequencyList.get(j), 2, 0) + File.separator
-                            + "case_" + statistic.getInheritanceModel() + ".geneScoreMatrix");
-            String controlGeneScoreMatrixPath =
-                    getCanonicalPath(statistic.getControlOutputPath() + File.separator + "control_"
-                            + statistic.getInheritanceModel() + ".geneScoreMatrix");
-            statistic.getStatisticMatrix(caseGeneScoreMatrixPath, statistic.getInheritanceModel(),
-                    controlGeneScoreMatrixPath);
+        }, pickupCheckpoint);
+        StageCheckpoint shuffleCheckpoint = new StageCheckpoint(SHUFFLE, checkpointFolderPath);
+        shuffleCheckpoint.addParameter("seed", seed)
+                .addParameter("toBeShuffledVariantsNumber", onekey.getToBeShuffledVariantsNumber())
+                .addParameter("useOverlay", onekey.isUseOverlay()).addInput(caseFolderPath)
+                .addInput(onekey.getDiseaseVariantsFilePath())
+                .addInput(onekey.getToBeShuffledGeneNameFilePath())
+                .addInput(onekey.getToBeShuffledFrequencyFilePath());
+        for (Double frequency : frequencyList)
+            shuffleCheckpoint.addOutput(shuffledCaseFolderPath + File.separator
+                    + getPercentFormat(frequency, 2, 0));
+        scheduler.addStage(SHUFFLE, new Runnable() {
+            @Override
+            public void run() {
+                Shuffle shuffle = new Shuffle();
+                shuffle.setCaseFolderPath(caseFolderPath);
+                shuffle.setDiseaseVariantsFilePath(onekey.getDiseaseVariantsFilePath());
+                shuffle.setShuffledCaseOutputPath(shuffledCaseFolderPath);
+                shuffle.setToBeShuffledFrequencyFilePath(onekey
+                        .getToBeShuffledFrequencyFilePath());
+                shuffle.setToBeShuffledGeneNameFilePath(onekey
+                        .getToBeShuffledGeneNameFilePath());
+                shuffle.setToBeShuffledVariantsNumber(onekey.getToBeShuffledVariantsNumber());
+                shuffle.setThreads(onekey.getThreads());
+                shuffle.setSeed(seed);
+                /** overlays are only read by Score, VAAST scripts need full samples. */
+                shuffle.setUseOverlay(onekey.isUseOverlay());
+                if (!shuffle.shuffleAccordingToGeneName(shuffle.getDiseaseVariantsFilePath(),
+                        diseaseGeneNameList, frequencyList,
+                        shuffle.getToBeShuffledVariantsNumber()))
+                    throw new IllegalStateException("shuffling failed!");
+                if (!shuffle.copyCaseFilesToShuffledCaseFolder(shuffle.getCaseFolderPath(),
+                        frequencyList))
+                    throw new IllegalStateException("copying case files failed!");
+                System.out.println("Shuffle finished! ShuffledCase are generated at "
+                        + shuffle.getShuffledCaseOutputPath() + "!");
+            }
+        }, shuffleCheckpoint, PICKUP);
+        scheduler.addStage(SCORE_CONTROL, new Runnable() {
+            @Override
+            public void run() {
+                Score score = new Score();
+                score.setThreads(scoreThreads);
+                score.setGeneDictionary(geneDictionary);
+                if (!score.scoreEachGeneFromSamples(controlWithScoreFolderPath, "control",
+                        inheritanceModel, controlGeneScoreOutputPath, null))
+                    throw new IllegalStateException("scoring control failed!");
+            }
+        }, new StageCheckpoint(SCORE_CONTROL, checkpointFolderPath)
+                .addParameter("inheritanceModel", inheritanceModel)
+                .addInput(controlWithScoreFolderPath)
+                .addOutput(controlGeneScoreOutputPath + File.separator + inheritanceModel), PICKUP);
+        scheduler.addStage(MATRIX_CONTROL, new Runnable() {
+            @Override
+            public void run() {
+                Statistic statistic = new Statistic();
+                statistic.setGeneDictionary(geneDictionary);
+                statistic.setMaxHeapMb(matrixHeapMb);
+                if (!statistic.mergeGeneScoreMatrixFromGeneScoreFiles(controlGeneScoreOutputPath
+                        + File.separator + inheritanceModel, "control", inheritanceModel,
+                        controlGeneScoreMatrixOutputPath, null))
+                    throw new IllegalStateException("gene score matrix of control failed!");
+            }
+        }, new StageCheckpoint(MATRIX_CONTROL, checkpointFolderPath)
+                .addParameter("inheritanceModel", inheritanceModel)
+                .addInput(controlGeneScoreOutputPath + File.separator + inheritanceModel)
+                .addOutput(controlGeneScoreMatrixPath), SCORE_CONTROL);
+
+        for (Double frequency : frequencyList) {
+            final String percent = getPercentFormat(frequency, 2, 0);
+            final String caseGeneScorePath =
+                    caseGeneScoreOutputPath + File.separator + inheritanceModel + File.separator
+                            + percent;
+            final String caseGeneScoreMatrixPath =
+                    caseGeneScoreMatrixOutputPath + File.separator + percent + File.separator
+                            + "case_" + inheritanceModel + ".geneScoreMatrix";
+            final String statisticMatrixPath =
+                    caseGeneScoreMatrixOutputPath + File.separator + percent + File.separator
+                            + inheritanceModel + ".statisticMatrix";
+            final String resultPath =
+                    onekey.getOutputPath() + File.separator + percent + "_" + inheritanceModel
+                            + ".txt";
+            scheduler.addStage(SCORE_CASE + percent, new Runnable() {
+                @Override
+                public void run() {
+                    Score score = new Score();
+                    score.setThreads(scoreThreads);
+                    score.setGeneDictionary(geneDictionary);
+                    if (!score.scoreEachGeneFromSamples(shuffledCaseFolderPath + File.separator
+                            + percent, "case", inheritanceModel, caseGeneScoreOutputPath, null))
+                        throw new IllegalStateException("scoring case " + percent + " failed!");
+                }
+            }, new StageCheckpoint(SCORE_CASE + percent, checkpointFolderPath)
+                    .addParameter("inheritanceModel", inheritanceModel)
+                    .addInput(shuffledCaseFolderPath + File.separator + percent)
+                    /** overlays of shuffled case(-d true) read samples from case folder. */
+                    .addInput(caseFolderPath).addOutput(caseGeneScorePath), SHUFFLE);
+            scheduler.addStage(MATRIX_CASE + percent, new Runnable() {
+                @Override
+                public void run() {
+                    Statistic statistic = new Statistic();
+                    statistic.setGeneDictionary(geneDictionary);
+                    statistic.setMaxHeapMb(matrixHeapMb);
+                    if (!statistic.mergeGeneScoreMatrixFromGeneScoreFiles(caseGeneScorePath,
+                            "case", inheritanceModel, caseGeneScoreMatrixOutputPath, null))
+                        throw new IllegalStateException("gene score matrix of case " + percent
+                                + " failed!");
+                }
+            }, new StageCheckpoint(MATRIX_CASE + percent, checkpointFolderPath)
+                    .addParameter("inheritanceModel", inheritanceModel)
+                    .addInput(caseGeneScorePath).addOutput(caseGeneScoreMatrixPath),
+                    SCORE_CASE + percent);
+            scheduler.addStage(STATISTIC + percent, new Runnable() {
+                @Override
+                public void run() {
+                    /** get statistic matrix of rank sum&two parts test. */
+                    Statistic statistic = new Statistic();
+                    statistic.setGeneDictionary(geneDictionary);
+                    if (!statistic.getStatisticMatrix(caseGeneScoreMatrixPath, inheritanceModel,
+                            controlGeneScoreMatrixPath))
+                        throw new IllegalStateException("statistic of case " + percent
+                                + " failed!");
+                }
+            }, new StageCheckpoint(STATISTIC + percent, checkpointFolderPath)
+                    .addParameter("inheritanceModel", inheritanceModel)
+                    .addInput(caseGeneScoreMatrixPath).addInput(controlGeneScoreMatrixPath)
+                    .addOutput(statisticMatrixPath), MATRIX_CASE + percent, MATRIX_CONTROL);
+            scheduler.addStage(IDENTIFY + percent, new Runnable() {
+                @Override
+                public void run() {
+                    Identify identify = new Identify();
+                    identify.setCaseFolderPath(caseGeneScoreMatrixOutputPath);
+                    identify.setInheritanceModel(inheritanceModel);
+                    identify.setOutputPath(onekey.getOutputPath());
+                    identify.setToBeShuffledFrequencyFilePath(onekey
+                            .getToBeShuffledFrequencyFilePath());
+                    if (!identify.identifyWithStatisticMatrix(statisticMatrixPath, percent))
+                        throw new IllegalStateException("identification of case " + percent
+                                + " failed!");
+
+                    /** copy result file to output folder. */
+                    String src =
+                            new File(statisticMatrixPath).getParent() + File.separator + percent
+                                    + "_" + inheritanceModel + ".txt";
+                    copyFile(src, resultPath);
+                    System.out.println("Result file output at " + resultPath + "!");
+                }
+            }, new StageCheckpoint(IDENTIFY + percent, checkpointFolderPath)
+                    .addParameter("inheritanceModel", inheritanceModel)
+                    .addInput(statisticMatrixPath)
+                    .addOutput(new File(statisticMatrixPath).getParent() + File.separator
+                            + percent + "_" + inheritanceModel + ".txt")
+                    .addOutput(statisticMatrixPath + ".r")
+                    .addOutput(new File(statisticMatrixPath).getParent() + File.separator
+                            + inheritanceModel + "_" + percent + ".txt").addOutput(resultPath),
+                    STATISTIC + percent);
         }
-        System.out.println("Statistic finished!");
-        TimeUnit.SECONDS.sleep(1);
-
-
-        Identify identify = new Identify();
-        identify.setCaseFolderPath(shuffledCaseFolderPath + File.separator + "geneScoreMatrix");
-        identify.setInheritanceModel(onekey.getInheritanceModel());
-        identify.setOutputPath(onekey.getOutputPath());
-        identify.setToBeShuffledFrequencyFilePath(onekey.getToBeShuffledFrequencyFilePath());
-        /** enter the inheritance model folder. */
-        identify.setCaseFolderPath(identify.getCaseFolderPath() + File.separator
-                + identify.getInheritanceModel());
-        dirJudge(identify.getCaseFolderPath());
-        for (int j = 0; j < frequencyList.size(); j++) {
-            String statisticMatrixPath =
-                    identify.getCaseFolderPath() + File.separator
-                            + getPercentFormat(frequencyList.get(j), 2, 0) + File.separator
-                            + identify.getInheritanceModel() + ".statisticMatrix";
-            fileJudge(statisticMatrixPath);
-            identify.generateRScriptWithStatisticMatrix(statisticMatrixPath);
-            identify.runRscrpt(statisticMatrixPath + ".r",
-                    getPercentFormat(frequencyList.get(j), 2, 0));
-
-            /** copy result file to output folder. */
-            String src =
-                    new File(statisticMatrixPath).getParent() + File.separator
-                            + getPercentFormat(frequencyList.get(j), 2, 0) + "_"
-                            + identify.getInheritanceModel() + ".txt";
-            String obj =
-                    identify.getOutputPath() + File.separator
-                            + getPercentFormat(frequencyList.get(j), 2, 0) + "_"
-                            + identify.getInheritanceModel() + ".txt";
-            copyFile(src, obj);
-            System.out.println("Result file output at " + obj + "!");
+
+        boolean succeeded = scheduler.run();
+
+        /** timings, records/s, bytes read and written, heap and GC of every stage. */
+        try {
+            Metrics.writeJson(onekey.getOutputPath() + File.separator + METRICS_JSON);
+            Metrics.writePrometheus(onekey.getOutputPath() + File.separator + METRICS_PROMETHEUS);
+            System.out.println("Metrics output at " + onekey.getOutputPath() + File.separator
+                    + METRICS_JSON + "!");
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        Log.flush();
+        if (!succeeded)
+            System.exit(1);
     }
 
     /**
@@ -343,12 +457,40 @@ public class Onekey {
                         + "For each sample, we randomly picked up this number(you input from [-n shuffledVariantsNumber]) of variants from all these pathogenic variants, "
                         + "and shuffled them into samples according to frequency.";
         usage += "\n\t";
-        usage += "-o outputPath: [required] The output path.";
+        usage +=
+                "-o outputPath: [required] The output path. Metrics of stages are written to \"metrics.json\" and \"metrics.prom\"(Prometheus text format) in it.";
+        usage += "\n\t";
+        usage +=
+                "-t threads: [optional] Thread budget. Frequencies are processed concurrently after shuffling, "
+                        + "threads are shared by stages and by samples of a stage. Default is the number of processors.";
+        usage += "\n\t";
+        usage +=
+                "-r resume: [optional] true or false. Every stage records parameters, inputs and outputs in \"checkpoint\" folder of output path, "
+                        + "if true, stages whose inputs and outputs are not changed since last run are skipped. Default is true.";
+        usage += "\n\t";
+        usage +=
+                "-z bgzf: [optional] true or false. If true, samples, scores and matrices written by stages are compressed in BGZF(blocked gzip) by \"threads\" threads, "
+                        + "names of files are not changed. Inputs in gzip or BGZF are always read. Default is false.";
+        usage += "\n\t";
+        usage +=
+                "-l logLevel: [optional] DEBUG, INFO, WARN or ERROR. Messages of every sample, gene and file are DEBUG, "
+                        + "stages report their progress at INFO. Default is INFO.";
+        usage += "\n\t";
+        usage +=
+                "-s seed: [optional] Seed of pickup and shuffling, the same seed and inputs give the same case, control and shuffled case. "
+                        + "Default is the seed of the last run if resume is true and it is recorded, otherwise a random seed. The seed is printed.";
+        usage += "\n\t";
+        usage +=
+                "-d useOverlay: [optional] true or false. If true, shuffled case folders only keep a manifest of shuffled variants instead of full samples, "
+                        + "which is read by Score and GetVcfAfterShuffling, but not by VAAST scripts. Default is false.";
+        usage += "\n\t";
+        usage +=
+                "-p progressSeconds: [optional] Minimum seconds between two progress reports of a stage. Default is 10.";
         System.out.println(usage);
     }
 
     public void processInput(String[] args) {
-        for (int i = 0; i < 14; i++) {
+        for (int i = 0; i < args.length; i++) {
             if (i % 2 == 0) {
                 switch (args[i].charAt(1)) {
                     case 'i':
@@ -382,6 +524,43 @@ public class Onekey {
                         dirCreate(args[++i]);
                         setOutputPath(getCanonicalPath(args[i]));
                         break;
+                    case 't':
+                        setThreads(Integer.parseInt(args[++i]));
+                        if (getThreads() < 1) {
+                            System.err.println("-t parameter error! threads must be positive!");
+                            System.exit(1);
+                        }
+                        break;
+                    case 'r':
+                        setResume(Boolean.parseBoolean(args[++i]));
+                        break;
+                    case 'z':
+                        setBgzf(Boolean.parseBoolean(args[++i]));
+                        break;
+                    case 'l':
+                        try {
+                            Log.setLevel(Log.Level.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("-l parameter error! Please input 'DEBUG', 'INFO',"
+                                    + " 'WARN' or 'ERROR'!");
+                            System.exit(1);
+                        }
+                        break;
+                    case 'd':
+                        setUseOverlay(Boolean.parseBoolean(args[++i]));
+                        break;
+                    case 's':
+                        setSeed(Long.parseLong(args[++i]));
+                        break;
+                    case 'p':
+                        try {
+                            Log.setProgressSeconds(Double.parseDouble(args[++i]));
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("-p parameter error! progressSeconds must be"
+                                    + " positive!");
+                            System.exit(1);
+                        }
+                        break;
                 }
             }
         }
@@ -435,6 +614,46 @@ public class Onekey {
         this.outputPath = outputPath;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public boolean isBgzf() {
+        return bgzf;
+    }
+
+    public void setBgzf(boolean bgzf) {
+        this.bgzf = bgzf;
+    }
+
+    public boolean isUseOverlay() {
+        return useOverlay;
+    }
+
+    public void setUseOverlay(boolean useOverlay) {
+        this.useOverlay = useOverlay;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
     public int getToBeShuffledVariantsNumber() {
         return toBeShuffledVariantsNumber;
     }
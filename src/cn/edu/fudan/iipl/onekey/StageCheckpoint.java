@@ -0,0 +1,394 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.onekey;
+
+import static cn.edu.fudan.iipl.util.FileUtil.deleteRecursively;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <pre>
+ * Manifest of a stage: parameters, inputs and outputs of the last successful run.
+ * Every input or output path(a file, or a folder with everything in it) is recorded with an md5
+ * digest of its content. A stage is up to date if parameters are the same and every input and
+ * output still has the recorded digest, then the stage needs not run again.
+ * Hashing big samples is slow, so md5 of a file is reused while its size and last modified
+ * time are the same as recorded.
+ *
+ * Format of the manifest file:
+ * #checkpoint	stageName
+ * parameter	name	value
+ * input	path	digest
+ * output	path	digest
+ * file	path	size	lastModified	md5
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class StageCheckpoint {
+
+    private static final String HEADER = "#checkpoint";
+    private static final String PARAMETER = "parameter";
+    private static final String INPUT = "input";
+    private static final String OUTPUT = "output";
+    private static final String FILE = "file";
+    private static final String MISSING = "missing";
+
+    /** md5 of files hashed in this run, shared by checkpoints of all stages. */
+    private static final ConcurrentMap<String, FileHash> hashedFileMap =
+            new ConcurrentHashMap<String, FileHash>();
+
+    private String stageName = null;
+    private File manifestFile = null;
+    private Map<String, String> parameterMap = new LinkedHashMap<String, String>();
+    private List<String> inputPathList = new ArrayList<String>();
+    private List<String> outputPathList = new ArrayList<String>();
+
+    /**
+     * @param stageName
+     * @param checkpointFolderPath folder of manifests of all stages.
+     */
+    public StageCheckpoint(String stageName, String checkpointFolderPath) {
+        this.stageName = stageName;
+        this.manifestFile =
+                new File(checkpointFolderPath, stageName.replaceAll("[^A-Za-z0-9._-]", "_")
+                        + ".manifest");
+    }
+
+    public StageCheckpoint addParameter(String name, Object value) {
+        parameterMap.put(name, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * @param path a file or a folder read by the stage.
+     */
+    public StageCheckpoint addInput(String path) {
+        inputPathList.add(path);
+        return this;
+    }
+
+    /**
+     * @param path a file or a folder written by the stage, it is deleted before the stage runs.
+     */
+    public StageCheckpoint addOutput(String path) {
+        outputPathList.add(path);
+        return this;
+    }
+
+    /**
+     * @return true if the manifest exists and parameters, inputs and outputs are the same as it.
+     */
+    public boolean isUpToDate() {
+        if (!manifestFile.isFile())
+            return false;
+        Map<String, String> recordedParameterMap = new LinkedHashMap<String, String>();
+        Map<String, String> recordedInputMap = new LinkedHashMap<String, String>();
+        Map<String, String> recordedOutputMap = new LinkedHashMap<String, String>();
+        Map<String, FileHash> recordedFileMap = new HashMap<String, FileHash>();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(manifestFile));
+            String tempString = br.readLine();
+            if (tempString == null || !tempString.equals(HEADER + "\t" + stageName))
+                return false;
+            while ((tempString = br.readLine()) != null) {
+                String[] feature = tempString.split("\t");
+                if (feature[0].equals(PARAMETER) && feature.length == 3)
+                    recordedParameterMap.put(feature[1], feature[2]);
+                else if (feature[0].equals(INPUT) && feature.length == 3)
+                    recordedInputMap.put(feature[1], feature[2]);
+                else if (feature[0].equals(OUTPUT) && feature.length == 3)
+                    recordedOutputMap.put(feature[1], feature[2]);
+                else if (feature[0].equals(FILE) && feature.length == 5)
+                    recordedFileMap.put(feature[1], new FileHash(Long.parseLong(feature[2]),
+                            Long.parseLong(feature[3]), feature[4]));
+                else
+                    return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            try {
+                if (br != null)
+                    br.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (!recordedParameterMap.equals(parameterMap)
+                || !recordedInputMap.keySet().equals(new HashSet<String>(inputPathList))
+                || !recordedOutputMap.keySet().equals(new HashSet<String>(outputPathList)))
+            return false;
+        Hasher hasher = new Hasher(recordedFileMap);
+        try {
+            for (String path : inputPathList) {
+                if (!hasher.digest(path).equals(recordedInputMap.get(path))) {
+                    System.out.println("stage '" + stageName + "': input " + path
+                            + " changed!");
+                    return false;
+                }
+            }
+            for (String path : outputPathList) {
+                if (!hasher.digest(path).equals(recordedOutputMap.get(path))) {
+                    System.out.println("stage '" + stageName + "': output " + path
+                            + " changed!");
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param name
+     * @return value of the parameter recorded by the last successful run, null if there is no
+     *         manifest or the parameter is not recorded.
+     */
+    public String getRecordedParameter(String name) {
+        if (!manifestFile.isFile())
+            return null;
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(manifestFile));
+            String tempString = br.readLine();
+            if (tempString == null || !tempString.equals(HEADER + "\t" + stageName))
+                return null;
+            while ((tempString = br.readLine()) != null) {
+                String[] feature = tempString.split("\t");
+                if (feature[0].equals(PARAMETER) && feature.length == 3 && feature[1].equals(name))
+                    return feature[2];
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (br != null)
+                    br.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * delete the manifest and outputs of the last run, so a stage never runs over stale outputs.
+     *
+     * @return true if all of them are deleted.
+     */
+    public boolean clearOutputs() {
+        boolean success = deleteRecursively(manifestFile.getPath());
+        for (String path : outputPathList) {
+            if (new File(path).exists()) {
+                System.out.println("stage '" + stageName + "': delete stale output " + path);
+                success &= deleteRecursively(path);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * hash inputs and outputs, then write the manifest. It is written to a temporary file first,
+     * so a crash never leaves a broken manifest.
+     *
+     * @return true if success.
+     */
+    public boolean save() {
+        Hasher hasher = new Hasher(new HashMap<String, FileHash>());
+        File tempFile = new File(manifestFile.getPath() + ".tmp");
+        BufferedWriter bw = null;
+        try {
+            Map<String, String> inputMap = new LinkedHashMap<String, String>();
+            for (String path : inputPathList)
+                inputMap.put(path, hasher.digest(path));
+            Map<String, String> outputMap = new LinkedHashMap<String, String>();
+            for (String path : outputPathList)
+                outputMap.put(path, hasher.digest(path));
+
+            bw = new BufferedWriter(new FileWriter(tempFile));
+            bw.write(HEADER + "\t" + stageName + "\n");
+            for (Map.Entry<String, String> entry : parameterMap.entrySet())
+                bw.write(PARAMETER + "\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+            for (Map.Entry<String, String> entry : inputMap.entrySet())
+                bw.write(INPUT + "\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+            for (Map.Entry<String, String> entry : outputMap.entrySet())
+                bw.write(OUTPUT + "\t" + entry.getKey() + "\t" + entry.getValue() + "\n");
+            for (Map.Entry<String, FileHash> entry : hasher.getUsedFileMap().entrySet()) {
+                FileHash fileHash = entry.getValue();
+                bw.write(FILE + "\t" + entry.getKey() + "\t" + fileHash.size + "\t"
+                        + fileHash.lastModified + "\t" + fileHash.md5 + "\n");
+            }
+            bw.close();
+            bw = null;
+            if (!tempFile.renameTo(manifestFile)) {
+                System.err.println("rename " + tempFile + " to " + manifestFile + " failed!");
+                tempFile.delete();
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return false;
+        } finally {
+            try {
+                if (bw != null)
+                    bw.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    public File getManifestFile() {
+        return manifestFile;
+    }
+
+    /**
+     * digests of paths, md5 of a file is reused if it is known with the same size and last
+     * modified time.
+     */
+    private static class Hasher {
+
+        private Map<String, FileHash> knownFileMap = null;
+        private Map<String, FileHash> usedFileMap = new TreeMap<String, FileHash>();
+        private byte[] buffer = new byte[1 << 16];
+
+        public Hasher(Map<String, FileHash> knownFileMap) {
+            this.knownFileMap = knownFileMap;
+        }
+
+        /**
+         * @param path
+         * @return md5 of a file, md5 of relative paths, sizes and md5s of all files in a folder,
+         *         or "missing".
+         */
+        public String digest(String path) throws IOException {
+            File file = new File(path);
+            if (file.isFile())
+                return hash(file).md5;
+            if (!file.isDirectory())
+                return MISSING;
+            MessageDigest messageDigest = newMessageDigest();
+            digestFolder(file, "", messageDigest);
+            return toHex(messageDigest.digest());
+        }
+
+        public Map<String, FileHash> getUsedFileMap() {
+            return usedFileMap;
+        }
+
+        private void digestFolder(File folder, String relativePath, MessageDigest messageDigest)
+                throws IOException {
+            File[] children = folder.listFiles();
+            if (children == null)
+                throw new IOException("list " + folder + " failed!");
+            Arrays.sort(children);
+            for (File child : children) {
+                String childRelativePath = relativePath + "/" + child.getName();
+                if (child.isDirectory()) {
+                    digestFolder(child, childRelativePath, messageDigest);
+                } else {
+                    FileHash fileHash = hash(child);
+                    messageDigest.update((childRelativePath + "\t" + fileHash.size + "\t"
+                            + fileHash.md5 + "\n").getBytes("UTF-8"));
+                }
+            }
+        }
+
+        private FileHash hash(File file) throws IOException {
+            String path = file.getPath();
+            long size = file.length();
+            long lastModified = file.lastModified();
+            FileHash fileHash = hashedFileMap.get(path);
+            if (fileHash == null || !fileHash.isSameAs(size, lastModified))
+                fileHash = knownFileMap.get(path);
+            if (fileHash == null || !fileHash.isSameAs(size, lastModified)) {
+                MessageDigest messageDigest = newMessageDigest();
+                InputStream is = new FileInputStream(file);
+                try {
+                    int length = 0;
+                    while ((length = is.read(buffer)) != -1)
+                        messageDigest.update(buffer, 0, length);
+                } finally {
+                    is.close();
+                }
+                fileHash = new FileHash(size, lastModified, toHex(messageDigest.digest()));
+            }
+            hashedFileMap.put(path, fileHash);
+            usedFileMap.put(path, fileHash);
+            return fileHash;
+        }
+
+        private static MessageDigest newMessageDigest() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                /** every java platform supports MD5. */
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static String toHex(byte[] bytes) {
+            char[] digits = "0123456789abcdef".toCharArray();
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+                chars[2 * i + 1] = digits[bytes[i] & 0xf];
+            }
+            return new String(chars);
+        }
+    }
+
+    private static class FileHash {
+
+        private long size = 0;
+        private long lastModified = 0;
+        private String md5 = null;
+
+        public FileHash(long size, long lastModified, String md5) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.md5 = md5;
+        }
+
+        public boolean isSameAs(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+}
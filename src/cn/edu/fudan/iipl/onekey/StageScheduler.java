@@ -0,0 +1,266 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.onekey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.Metrics;
+
+/**
+ * <pre>
+ * Run stages of ourvaast as a DAG.
+ * A stage starts as soon as all stages it depends on succeeded, at most "threads" stages run at
+ * the same time. If a stage fails, stages depending on it(directly or not) are skipped, other
+ * stages still run. Elapsed time of every stage is recorded for the timing summary, and metrics
+ * of a stage(including threads it creates) are counted under its name in {@link Metrics}.
+ * Stages must be added after the stages they depend on, so there is no cycle.
+ * A stage with a {@link StageCheckpoint} is not run again if it is up to date, its outputs of the
+ * last run are reused. Otherwise its stale outputs are deleted before it runs, and its manifest
+ * is saved after it succeeded.
+ * A stage succeeded only if its task returns normally, so a task must throw when any part of it
+ * failed, or partial outputs would be saved as up to date and reused by every later run.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class StageScheduler {
+
+    enum StageState {
+        WAITING, RUNNING, SUCCEEDED, REUSED, FAILED, SKIPPED
+    }
+
+    private int threads = 1;
+    private boolean resume = true;
+    private Map<String, Stage> stageMap = new LinkedHashMap<String, Stage>();
+    private long startTime = 0;
+    private long endTime = 0;
+
+    /**
+     * @param threads maximum number of stages running at the same time.
+     */
+    public StageScheduler(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * add a stage.
+     *
+     * @param name unique name of the stage, such as "score case 10%".
+     * @param task it throws if the stage failed.
+     * @param dependencies names of stages which must succeed before this stage starts.
+     */
+    public void addStage(String name, Runnable task, String... dependencies) {
+        addStage(name, task, null, dependencies);
+    }
+
+    /**
+     * add a stage which is skipped if its checkpoint is up to date.
+     *
+     * @param name unique name of the stage, such as "score case 10%".
+     * @param task it throws if the stage failed.
+     * @param checkpoint parameters, inputs and outputs of the stage, null for always running.
+     * @param dependencies names of stages which must succeed before this stage starts.
+     */
+    public void addStage(String name, Runnable task, StageCheckpoint checkpoint,
+            String... dependencies) {
+        if (stageMap.containsKey(name))
+            throw new IllegalArgumentException("stage '" + name + "' already exists!");
+        Stage stage = new Stage(name, task, checkpoint, this);
+        for (String dependency : dependencies) {
+            Stage dependencyStage = stageMap.get(dependency);
+            if (dependencyStage == null)
+                throw new IllegalArgumentException("stage '" + name + "' depends on '"
+                        + dependency + "' which is not added!");
+            dependencyStage.dependents.add(stage);
+            stage.remainingDependencies++;
+        }
+        stageMap.put(name, stage);
+    }
+
+    /**
+     * run all stages, then print the timing summary.
+     *
+     * @return true if all stages succeeded.
+     */
+    public boolean run() {
+        startTime = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<Stage> completionService =
+                new ExecutorCompletionService<Stage>(executor);
+        int running = 0;
+        try {
+            for (Stage stage : stageMap.values()) {
+                if (stage.remainingDependencies == 0) {
+                    submit(completionService, stage);
+                    running++;
+                }
+            }
+            while (running > 0) {
+                Stage stage = completionService.take().get();
+                running--;
+                for (Stage dependent : stage.dependents) {
+                    if (!stage.isSucceeded()) {
+                        skip(dependent, stage.name);
+                    } else if (--dependent.remainingDependencies == 0
+                            && dependent.state == StageState.WAITING) {
+                        submit(completionService, dependent);
+                        running++;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            /** stages never throw, see Stage#call. */
+            e.printStackTrace();
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        endTime = System.nanoTime();
+
+        Log.flush();
+        System.out.println(getTimingSummary());
+        for (Stage stage : stageMap.values()) {
+            if (!stage.isSucceeded())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a table of state, start time and elapsed time of each stage.
+     */
+    public String getTimingSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n------- Stage timing summary -------\n");
+        sb.append(String.format(Locale.ROOT, "%-40s %-10s %10s %10s\n", "#stage", "state",
+                "start(s)", "elapsed(s)"));
+        double stageSeconds = 0;
+        for (Stage stage : stageMap.values()) {
+            String start = "-", elapsed = "-";
+            if (stage.startTime != 0) {
+                start = String.format(Locale.ROOT, "%.3f", seconds(stage.startTime - startTime));
+                elapsed =
+                        String.format(Locale.ROOT, "%.3f", seconds(stage.endTime
+                                - stage.startTime));
+                stageSeconds += seconds(stage.endTime - stage.startTime);
+            }
+            sb.append(String.format(Locale.ROOT, "%-40s %-10s %10s %10s\n", stage.name,
+                    stage.state, start, elapsed));
+        }
+        sb.append(String.format(Locale.ROOT, "wall time %.3fs, sum of stages %.3fs, %d threads\n",
+                seconds(endTime - startTime), stageSeconds, threads));
+        return sb.toString();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * @param resume false for running all stages even if they are up to date.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    private void submit(CompletionService<Stage> completionService, Stage stage) {
+        stage.state = StageState.RUNNING;
+        completionService.submit(stage);
+    }
+
+    private void skip(Stage stage, String failedStageName) {
+        if (stage.state != StageState.WAITING)
+            return;
+        stage.state = StageState.SKIPPED;
+        System.err.println("stage '" + stage.name + "' is skipped because '" + failedStageName
+                + "' did not succeed!");
+        for (Stage dependent : stage.dependents)
+            skip(dependent, stage.name);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static class Stage implements Callable<Stage> {
+
+        private String name = null;
+        private Runnable task = null;
+        private StageCheckpoint checkpoint = null;
+        private StageScheduler scheduler = null;
+        private List<Stage> dependents = new ArrayList<Stage>();
+        private int remainingDependencies = 0;
+        private volatile StageState state = StageState.WAITING;
+        private volatile long startTime = 0;
+        private volatile long endTime = 0;
+
+        public Stage(String name, Runnable task, StageCheckpoint checkpoint,
+                StageScheduler scheduler) {
+            this.name = name;
+            this.task = task;
+            this.checkpoint = checkpoint;
+            this.scheduler = scheduler;
+        }
+
+        public boolean isSucceeded() {
+            return state == StageState.SUCCEEDED || state == StageState.REUSED;
+        }
+
+        @Override
+        public Stage call() {
+            startTime = System.nanoTime();
+            Metrics.setStage(name);
+            System.out.println("\n------- Stage '" + name + "' start! -------\n");
+            try {
+                if (checkpoint == null) {
+                    task.run();
+                    state = StageState.SUCCEEDED;
+                } else if (scheduler.isResume() && checkpoint.isUpToDate()) {
+                    System.out.println("stage '" + name + "' is up to date, outputs of last run"
+                            + " are reused!");
+                    state = StageState.REUSED;
+                } else {
+                    if (!checkpoint.clearOutputs())
+                        throw new IllegalStateException("deleting stale outputs failed!");
+                    task.run();
+                    if (!checkpoint.save())
+                        System.err.println("saving manifest of stage '" + name
+                                + "' failed! it will run again next time.");
+                    state = StageState.SUCCEEDED;
+                }
+            } catch (Throwable e) {
+                System.err.println("stage '" + name + "' failed!");
+                e.printStackTrace();
+                state = StageState.FAILED;
+            }
+            endTime = System.nanoTime();
+            Metrics.observe(Metrics.STAGE_SECONDS, endTime - startTime);
+            Metrics.sampleHeap();
+            Metrics.setStage(null);
+            Log.flush();
+            System.out.println("\n------- Stage '" + name + "' "
+                    + state.toString().toLowerCase(Locale.ROOT) + "! -------\n");
+            return this;
+        }
+    }
+}
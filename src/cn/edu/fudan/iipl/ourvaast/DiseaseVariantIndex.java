@@ -0,0 +1,510 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+import static cn.edu.fudan.iipl.util.FileUtil.fileJudge;
+import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+import cn.edu.fudan.iipl.util.Log;
+
+/**
+ * <pre>
+ * Index of pathogenic variants(clinvar or hgmd, scored by dbNSFP) by gene name(column 4) and by
+ * bins of chromosome(column 0) and position(column 1). Variants are stored the way they are
+ * shuffled into case files, that is columns joined by '\t' without the last two columns.
+ *
+ * The index is persisted to a sidecar file "diseaseVariantsFilePath.variantIndex", built once
+ * for a release of the disease variants file and shared by all runs, it is rebuilt if size or
+ * last modified time of the disease variants file changed. Variants of a gene, and variants in a
+ * bin, are contiguous in the sidecar file, so a lookup reads its sections by seeking, after the
+ * directory of sections at the end of the file is read.
+ * Sidecar format:
+ *     #variantIndex	size	lastModified
+ *     variant lines grouped by gene
+ *     variant lines grouped by bin, sorted by position in a bin
+ *     #gene	geneName	offset	length	variantCount
+ *     #bin	chromosome	bin	offset	length	variantCount
+ *     ...
+ *     #directory	offset of the first directory line(20 digits)
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class DiseaseVariantIndex {
+
+    public static final String SIDECAR_SUFFIX = ".variantIndex";
+
+    /** a bin covers positions [bin * BIN_SIZE, (bin + 1) * BIN_SIZE). */
+    public static final int BIN_SIZE = 1 << 16;
+
+    private static final String HEADER_PREFIX = "#variantIndex\t";
+    private static final String GENE_PREFIX = "#gene\t";
+    private static final String BIN_PREFIX = "#bin\t";
+    private static final String DIRECTORY_PREFIX = "#directory\t";
+    private static final int TRAILER_LENGTH = DIRECTORY_PREFIX.length() + 20 + 1;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private File sidecarFile = null;
+    private Map<String, Section> geneSectionMap = new HashMap<String, Section>();
+    private Map<String, Section> binSectionMap = new HashMap<String, Section>();
+
+    enum InputEnum {
+        DISEASE, GENE, REGION
+    }
+
+    private DiseaseVariantIndex(File sidecarFile) {
+        this.sidecarFile = sidecarFile;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+
+        String diseaseFilePath = null;
+        String geneNames = null;
+        String region = null;
+        for (int i = 0; i < args.length; i++) {
+            if (i % 2 == 0) {
+                switch (InputEnum.valueOf(args[i].substring(1).toUpperCase())) {
+                    case DISEASE:
+                        fileJudge(args[++i]);
+                        diseaseFilePath = getCanonicalPath(args[i]);
+                        break;
+                    case GENE:
+                        geneNames = args[++i];
+                        break;
+                    case REGION:
+                        region = args[++i];
+                        break;
+                }
+            }
+        }
+        if (diseaseFilePath == null) {
+            usage();
+            System.exit(1);
+        }
+
+        try {
+            DiseaseVariantIndex index = open(diseaseFilePath);
+            if (geneNames != null) {
+                Map<String, List<String>> geneVariantsMap =
+                        index.getVariantsOfGenes(new HashSet<String>(Arrays.asList(geneNames
+                                .split(","))));
+                for (List<String> variantList : new TreeMap<String, List<String>>(
+                        geneVariantsMap).values()) {
+                    for (String variant : variantList)
+                        System.out.println(variant);
+                }
+            }
+            if (region != null) {
+                /** chromosome:start-end */
+                String[] feature = region.split("[:-]");
+                if (feature.length != 3) {
+                    System.err
+                            .println("-region parameter error! Please input such as 'chr1:10000-20000'!");
+                    System.exit(1);
+                }
+                for (String variant : index.getVariantsInRegion(feature[0],
+                        Long.parseLong(feature[1]), Long.parseLong(feature[2])))
+                    System.out.println(variant);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public static void usage() {
+        String usage = "\n\t";
+        usage +=
+                "This modual builds the index of a disease variants file in \"diseaseVariantsFilePath" + SIDECAR_SUFFIX
+                        + "\" if it is missing or out of date, then prints variants of genes or in a region.";
+        usage += "\n\t";
+        usage +=
+                "Usage: java DiseaseVariantIndex"
+                        + "\n\t"
+                        + "-disease diseaseVariantsFilePath: [required] The path to pathogenic variants file(all variants are scored by dbNSFP tool), such as Clinvar or HGMD."
+                        + "\n\t"
+                        + "-gene geneNames: [optional] Gene names seperated by ',', variants of them are printed."
+                        + "\n\t"
+                        + "-region region: [optional] Such as 'chr1:10000-20000', variants whose positions are in it(both ends included) are printed.";
+        System.out.println(usage);
+    }
+
+    /**
+     * get variants of the genes by parsing the disease variants file once.
+     *
+     * @param diseaseFilePath
+     * @param geneNameSet genes wanted, null for all genes.
+     * @return key is gene name, value is variants of the gene in file order.
+     * @throws IOException
+     */
+    public static Map<String, List<String>> parse(String diseaseFilePath, Set<String> geneNameSet)
+            throws IOException {
+        Map<String, List<String>> geneVariantsMap = new HashMap<String, List<String>>();
+        LineTokenizer tokenizer = new LineTokenizer(openReader(diseaseFilePath));
+        try {
+            StringBuilder variantBuilder = new StringBuilder();
+            while (tokenizer.readLine()) {
+                String geneName = tokenizer.getField(4);
+                if (geneNameSet != null && !geneNameSet.contains(geneName))
+                    continue;
+
+                /** the last two columns are dropped. */
+                variantBuilder.setLength(0);
+                tokenizer.appendFields(0, tokenizer.getFieldCount() - 2, variantBuilder);
+                List<String> variantList = geneVariantsMap.get(geneName);
+                if (variantList == null) {
+                    variantList = new ArrayList<String>();
+                    geneVariantsMap.put(geneName, variantList);
+                }
+                variantList.add(variantBuilder.toString());
+            }
+        } finally {
+            tokenizer.close();
+        }
+        return geneVariantsMap;
+    }
+
+    /**
+     * <pre>
+     * get variants of the genes from the index, the index is built first if it is missing or out
+     * of date. If the index can not be written(e.g. folder of the disease variants file is read
+     * only), the disease variants file is parsed.
+     * </pre>
+     *
+     * @param diseaseFilePath
+     * @param geneNameSet genes wanted.
+     * @return key is gene name, value is variants of the gene in file order.
+     * @throws IOException
+     */
+    public static Map<String, List<String>> load(String diseaseFilePath, Set<String> geneNameSet)
+            throws IOException {
+        DiseaseVariantIndex index = null;
+        try {
+            index = open(diseaseFilePath);
+        } catch (IOException e) {
+            System.err.println("Open disease variants index of " + diseaseFilePath
+                    + " failed! parse the whole file.");
+            return parse(diseaseFilePath, geneNameSet);
+        }
+        return index.getVariantsOfGenes(geneNameSet);
+    }
+
+    /**
+     * open the index of the disease variants file, build it if it is missing or out of date.
+     *
+     * @param diseaseFilePath
+     * @return the index whose directory is read.
+     * @throws IOException if the index can not be built.
+     */
+    public static DiseaseVariantIndex open(String diseaseFilePath) throws IOException {
+        File diseaseFile = new File(diseaseFilePath);
+        File sidecarFile = new File(diseaseFilePath + SIDECAR_SUFFIX);
+        DiseaseVariantIndex index = new DiseaseVariantIndex(sidecarFile);
+        if (sidecarFile.isFile()) {
+            if (index.readDirectory(getHeader(diseaseFile))) {
+                Log.debug("Read disease variants index " + sidecarFile + " success!");
+                return index;
+            }
+            Log.info(sidecarFile + " is out of date, rebuild it!");
+        }
+
+        build(diseaseFilePath, sidecarFile);
+        Log.debug("Write disease variants index " + sidecarFile + " success!");
+        if (!index.readDirectory(getHeader(diseaseFile)))
+            throw new IOException(sidecarFile + " is broken!");
+        return index;
+    }
+
+    /**
+     * @param geneNameSet
+     * @return key is gene name, value is variants of the gene in file order, genes without
+     *         variants are not in it.
+     * @throws IOException
+     */
+    public Map<String, List<String>> getVariantsOfGenes(Set<String> geneNameSet)
+            throws IOException {
+        Map<String, List<String>> geneVariantsMap = new HashMap<String, List<String>>();
+        RandomAccessFile raf = new RandomAccessFile(sidecarFile, "r");
+        try {
+            for (String geneName : geneNameSet) {
+                Section section = geneSectionMap.get(geneName);
+                if (section != null)
+                    geneVariantsMap.put(geneName, readSection(raf, section));
+            }
+        } finally {
+            raf.close();
+        }
+        return geneVariantsMap;
+    }
+
+    /**
+     * @param chromosome such as "chr1".
+     * @param start
+     * @param end
+     * @return variants whose positions are in [start, end], sorted by position.
+     * @throws IOException
+     */
+    public List<String> getVariantsInRegion(String chromosome, long start, long end)
+            throws IOException {
+        List<String> variantList = new ArrayList<String>();
+        RandomAccessFile raf = new RandomAccessFile(sidecarFile, "r");
+        LineTokenizer tokenizer = new LineTokenizer();
+        try {
+            for (long bin = Math.max(0, start) / BIN_SIZE; bin <= end / BIN_SIZE; bin++) {
+                Section section = binSectionMap.get(chromosome + "\t" + bin);
+                if (section == null)
+                    continue;
+                for (String variant : readSection(raf, section)) {
+                    tokenizer.setLine(variant);
+                    long position = tokenizer.parseInt(1);
+                    if (position >= start && position <= end)
+                        variantList.add(variant);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        return variantList;
+    }
+
+    /**
+     * @return variants in the section.
+     */
+    private static List<String> readSection(RandomAccessFile raf, Section section)
+            throws IOException {
+        byte[] bytes = new byte[section.length];
+        raf.seek(section.offset);
+        raf.readFully(bytes);
+        List<String> variantList = new ArrayList<String>(section.variantCount);
+        String text = new String(bytes, CHARSET);
+        int lineStart = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                variantList.add(text.substring(lineStart, i));
+                lineStart = i + 1;
+            }
+        }
+        return variantList;
+    }
+
+    /**
+     * read the directory at the end of the sidecar file.
+     *
+     * @param header the header the sidecar file must start with.
+     * @return false if the sidecar file does not match the disease variants file, or is broken.
+     */
+    private boolean readDirectory(String header) throws IOException {
+        geneSectionMap.clear();
+        binSectionMap.clear();
+        RandomAccessFile raf = new RandomAccessFile(sidecarFile, "r");
+        try {
+            if (!header.equals(raf.readLine()) || raf.length() < TRAILER_LENGTH)
+                return false;
+            byte[] trailer = new byte[TRAILER_LENGTH];
+            raf.seek(raf.length() - TRAILER_LENGTH);
+            raf.readFully(trailer);
+            String trailerString = new String(trailer, CHARSET);
+            if (!trailerString.startsWith(DIRECTORY_PREFIX))
+                return false;
+            long directoryOffset =
+                    Long.parseLong(trailerString.substring(DIRECTORY_PREFIX.length()).trim());
+            if (directoryOffset < 0 || directoryOffset > raf.length() - TRAILER_LENGTH)
+                return false;
+
+            Section directory =
+                    new Section(directoryOffset,
+                            (int) (raf.length() - TRAILER_LENGTH - directoryOffset), 0);
+            for (String line : readSection(raf, directory)) {
+                String[] feature = line.split("\t");
+                if (line.startsWith(GENE_PREFIX) && feature.length == 5)
+                    geneSectionMap.put(feature[1], new Section(Long.parseLong(feature[2]),
+                            Integer.parseInt(feature[3]), Integer.parseInt(feature[4])));
+                else if (line.startsWith(BIN_PREFIX) && feature.length == 6)
+                    binSectionMap.put(feature[1] + "\t" + feature[2], new Section(Long
+                            .parseLong(feature[3]), Integer.parseInt(feature[4]), Integer
+                            .parseInt(feature[5])));
+                else
+                    return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            raf.close();
+        }
+        return true;
+    }
+
+    /**
+     * parse the disease variants file and write the sidecar file. It is written to a temporary
+     * file first, so a crash never leaves a broken index.
+     */
+    private static void build(String diseaseFilePath, File sidecarFile) throws IOException {
+        File diseaseFile = new File(diseaseFilePath);
+        String header = getHeader(diseaseFile);
+        Map<String, List<String>> geneVariantsMap = parse(diseaseFilePath, null);
+
+        File temporaryFile = new File(sidecarFile.getPath() + ".tmp");
+        CountingOutputStream os =
+                new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        temporaryFile), 1 << 16));
+        StringBuilder directoryBuilder = new StringBuilder();
+        try {
+            os.writeLine(header);
+
+            /** variants grouped by gene. */
+            List<String> geneNameList = new ArrayList<String>(geneVariantsMap.keySet());
+            Collections.sort(geneNameList);
+            Map<String, List<BinnedVariant>> binVariantsMap =
+                    new TreeMap<String, List<BinnedVariant>>();
+            LineTokenizer tokenizer = new LineTokenizer();
+            for (String geneName : geneNameList) {
+                List<String> variantList = geneVariantsMap.get(geneName);
+                long offset = os.count;
+                for (String variant : variantList) {
+                    os.writeLine(variant);
+
+                    tokenizer.setLine(variant);
+                    if (!tokenizer.hasField(1))
+                        continue;
+                    long position = 0;
+                    try {
+                        position = Long.parseLong(tokenizer.getField(1));
+                    } catch (NumberFormatException e) {
+                        /** not in any bin, still found by gene. */
+                        continue;
+                    }
+                    String binKey = tokenizer.getField(0) + "\t" + position / BIN_SIZE;
+                    List<BinnedVariant> binVariantList = binVariantsMap.get(binKey);
+                    if (binVariantList == null) {
+                        binVariantList = new ArrayList<BinnedVariant>();
+                        binVariantsMap.put(binKey, binVariantList);
+                    }
+                    binVariantList.add(new BinnedVariant(position, variant));
+                }
+                directoryBuilder.append(GENE_PREFIX).append(geneName).append('\t')
+                        .append(offset).append('\t').append(os.count - offset).append('\t')
+                        .append(variantList.size()).append('\n');
+            }
+
+            /** variants grouped by bin, sorted by position, the sort is stable. */
+            for (Map.Entry<String, List<BinnedVariant>> entry : binVariantsMap.entrySet()) {
+                List<BinnedVariant> binVariantList = entry.getValue();
+                Collections.sort(binVariantList);
+                long offset = os.count;
+                for (BinnedVariant binnedVariant : binVariantList)
+                    os.writeLine(binnedVariant.variant);
+                directoryBuilder.append(BIN_PREFIX).append(entry.getKey()).append('\t')
+                        .append(offset).append('\t').append(os.count - offset).append('\t')
+                        .append(binVariantList.size()).append('\n');
+            }
+
+            long directoryOffset = os.count;
+            os.write(directoryBuilder.toString().getBytes(CHARSET));
+            os.writeLine(DIRECTORY_PREFIX + String.format("%020d", directoryOffset));
+        } finally {
+            os.close();
+        }
+        sidecarFile.delete();
+        if (!temporaryFile.renameTo(sidecarFile)) {
+            temporaryFile.delete();
+            throw new IOException("rename " + temporaryFile + " failed!");
+        }
+    }
+
+    private static String getHeader(File diseaseFile) {
+        return HEADER_PREFIX + diseaseFile.length() + "\t" + diseaseFile.lastModified();
+    }
+
+    /**
+     * bytes of the sidecar file.
+     */
+    private static class Section {
+
+        private long offset = 0;
+        private int length = 0;
+        private int variantCount = 0;
+
+        public Section(long offset, int length, int variantCount) {
+            this.offset = offset;
+            this.length = length;
+            this.variantCount = variantCount;
+        }
+    }
+
+    private static class BinnedVariant implements Comparable<BinnedVariant> {
+
+        private long position = 0;
+        private String variant = null;
+
+        public BinnedVariant(long position, String variant) {
+            this.position = position;
+            this.variant = variant;
+        }
+
+        @Override
+        public int compareTo(BinnedVariant o) {
+            return position < o.position ? -1 : (position == o.position ? 0 : 1);
+        }
+    }
+
+    /**
+     * count bytes written, they are offsets of sections.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private OutputStream out = null;
+        private long count = 0;
+
+        public CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        public void writeLine(String line) throws IOException {
+            write(line.getBytes(CHARSET));
+            write('\n');
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+
+/**
+ * <pre>
+ * Dictionary of gene symbols, every gene gets a dense int id in the order it is first seen,
+ * so per-gene data of Score and Statistic is kept in arrays indexed by gene id, and
+ * symbols are only restored when results are written.
+ * Symbols are found by an open addressing table, fields of a {@link LineTokenizer} are looked up
+ * without creating Strings. A dictionary is shared by threads and may be persisted by
+ * {@link #save(String)} and {@link #load(String)} so that ids are the same between runs.
+ * Threads of Score look genes up in their hot loop, so lookups take no lock: a table is only
+ * appended to, and replaced by a bigger copy when it is half full. Only adding a gene is
+ * synchronized, a lookup missing in the table it read tries again under the lock.
+ *
+ * file format:
+ *     #geneDictionary
+ *     geneOfId0
+ *     geneOfId1
+ *     ...
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class GeneDictionary {
+
+    private static final String HEADER = "#geneDictionary";
+
+    /** the current table, replaced as a whole when it is half full. */
+    private volatile Table table = new Table(2048);
+
+    /** number of genes, written under the lock. */
+    private volatile int size = 0;
+
+    /**
+     * get id of the gene, the gene is added if it is not in the dictionary.
+     *
+     * @param gene
+     * @return id of the gene.
+     */
+    public int getId(String gene) {
+        int hash = gene.hashCode();
+        Entry entry = table.find(gene, hash);
+        return entry != null ? entry.id : add(gene, hash);
+    }
+
+    /**
+     * get id of a field of the current line, the gene is added if it is not in the dictionary.
+     * A String of the field is created only when the gene is added.
+     *
+     * @param tokenizer
+     * @param index column index of gene name.
+     * @return id of the gene.
+     */
+    public int getId(LineTokenizer tokenizer, int index) {
+        int hash = tokenizer.fieldHashCode(index);
+        Table currentTable = table;
+        int mask = currentTable.slots.length() - 1;
+        for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+            Entry entry = currentTable.slots.get(slot);
+            if (entry == null)
+                return add(tokenizer.getField(index), hash);
+            if (entry.hash == hash && tokenizer.fieldEquals(index, entry.gene))
+                return entry.id;
+        }
+    }
+
+    /**
+     * @param id
+     * @return symbol of the gene.
+     */
+    public String getGene(int id) {
+        Table currentTable = table;
+        if (id >= 0 && id < currentTable.genes.length()) {
+            String gene = currentTable.genes.get(id);
+            if (gene != null)
+                return gene;
+        }
+        synchronized (this) {
+            if (id < 0 || id >= size)
+                throw new IndexOutOfBoundsException("gene id " + id + " is not in the dictionary!");
+            return table.genes.get(id);
+        }
+    }
+
+    /**
+     * @return number of genes, ids are in [0, size).
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * write all genes in the order of their ids.
+     *
+     * @param filePath
+     * @throws IOException
+     */
+    public synchronized void save(String filePath) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(filePath));
+        try {
+            bw.write(HEADER);
+            bw.write('\n');
+            for (int i = 0; i < size; i++) {
+                bw.write(table.genes.get(i));
+                bw.write('\n');
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * read a dictionary written by {@link #save(String)}.
+     *
+     * @param filePath
+     * @return the dictionary, genes get the same ids as they had.
+     * @throws IOException
+     */
+    public static GeneDictionary load(String filePath) throws IOException {
+        GeneDictionary geneDictionary = new GeneDictionary();
+        LineTokenizer tokenizer = new LineTokenizer(openReader(filePath));
+        try {
+            while (tokenizer.readLine()) {
+                if (tokenizer.isBlank() || tokenizer.startsWith('#'))
+                    continue;
+                int id = geneDictionary.getId(tokenizer, 0);
+                if (id != geneDictionary.size() - 1)
+                    throw new IOException("gene " + tokenizer.getField(0)
+                            + " is duplicated in " + filePath + "!");
+            }
+        } finally {
+            tokenizer.close();
+        }
+        return geneDictionary;
+    }
+
+    /**
+     * add a gene missing in the table a lookup read, it may have been added by another thread
+     * since then.
+     */
+    private synchronized int add(String gene, int hash) {
+        Entry entry = table.find(gene, hash);
+        if (entry != null)
+            return entry.id;
+        entry = new Entry(gene, hash, size);
+
+        /** the gene is set before the entry is published, so readers of the entry see it. */
+        table.genes.set(entry.id, gene);
+        table.insert(entry);
+        size++;
+
+        /** keep the table at most half full, genes of a table fill half of its slots. */
+        if (size == table.genes.length()) {
+            Table biggerTable = new Table(table.slots.length() * 2);
+            for (int id = 0; id < size; id++) {
+                String addedGene = table.genes.get(id);
+                biggerTable.genes.set(id, addedGene);
+                biggerTable.insert(new Entry(addedGene, addedGene.hashCode(), id));
+            }
+            table = biggerTable;
+        }
+        return entry.id;
+    }
+
+    /** mix high bits of String hash into low bits, symbols of genes often share prefixes. */
+    private static int spread(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * a gene and its id, immutable so that it is safely read without the lock.
+     */
+    private static class Entry {
+        private final String gene;
+        private final int hash;
+        private final int id;
+
+        Entry(String gene, int hash, int id) {
+            this.gene = gene;
+            this.hash = hash;
+            this.id = id;
+        }
+    }
+
+    /**
+     * slots of an open addressing table and genes indexed by id, a table holds at most half of
+     * its slots.
+     */
+    private static class Table {
+        private final AtomicReferenceArray<Entry> slots;
+        private final AtomicReferenceArray<String> genes;
+
+        Table(int capacity) {
+            slots = new AtomicReferenceArray<Entry>(capacity);
+            genes = new AtomicReferenceArray<String>(capacity / 2);
+        }
+
+        Entry find(String gene, int hash) {
+            int mask = slots.length() - 1;
+            for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+                Entry entry = slots.get(slot);
+                if (entry == null || entry.hash == hash && entry.gene.equals(gene))
+                    return entry;
+            }
+        }
+
+        void insert(Entry entry) {
+            int mask = slots.length() - 1;
+            int slot = spread(entry.hash) & mask;
+            while (slots.get(slot) != null)
+                slot = (slot + 1) & mask;
+            slots.set(slot, entry);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+/**
+ * <pre>
+ * Accumulate variant scores of a gene in a sample.
+ * Only the two highest scores are kept as primitive doubles, which is all the recessive
+ * model(sum of two highest scores) and the dominant model(the highest score) need, so no list
+ * of scores is kept and no sorting is needed.
+ * Score "." (not scored by any algorithm) counts as a variant but is lower than any number.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class GeneScoreAccumulator {
+
+    private int variantCount = 0;
+    private int scoredCount = 0;
+    private double highest = Double.NEGATIVE_INFINITY;
+    private double secondHighest = Double.NEGATIVE_INFINITY;
+
+    /**
+     * add score of a variant.
+     *
+     * @param score a number, or "." if the variant is not scored.
+     */
+    public void add(String score) {
+        if (score.equals("."))
+            addMissing();
+        else
+            add(Double.parseDouble(score));
+    }
+
+    /**
+     * add score of a variant.
+     *
+     * @param score
+     */
+    public void add(double score) {
+        variantCount++;
+        scoredCount++;
+        if (score > highest) {
+            secondHighest = highest;
+            highest = score;
+        } else if (score > secondHighest) {
+            secondHighest = score;
+        }
+    }
+
+    /**
+     * add a variant without score, that is '.'.
+     */
+    public void addMissing() {
+        variantCount++;
+    }
+
+    /**
+     * @return true if gene can be scored in recessive model, that is, two highest variants are
+     *         both scored.
+     */
+    public boolean hasRecessiveScore() {
+        return scoredCount >= 2;
+    }
+
+    /**
+     * @return sum of the two highest scores, only valid if {@link #hasRecessiveScore()}.
+     */
+    public double getRecessiveScore() {
+        return highest + secondHighest;
+    }
+
+    /**
+     * @return true if gene can be scored in dominant model, that is, one or more variants are
+     *         scored.
+     */
+    public boolean hasDominantScore() {
+        return scoredCount >= 1;
+    }
+
+    /**
+     * @return the highest score, only valid if {@link #hasDominantScore()}.
+     */
+    public double getDominantScore() {
+        return highest;
+    }
+
+    /**
+     * @return the second highest score, negative infinity if less than two variants are scored.
+     */
+    public double getSecondHighestScore() {
+        return secondHighest;
+    }
+
+    public int getVariantCount() {
+        return variantCount;
+    }
+
+    public int getScoredCount() {
+        return scoredCount;
+    }
+}
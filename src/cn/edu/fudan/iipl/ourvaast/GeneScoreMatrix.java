@@ -0,0 +1,246 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+
+/**
+ * <pre>
+ * Sparse gene x sample score matrix, the in-memory form of ".geneScoreMatrix" files.
+ * Rows are genes(ids of a {@link GeneDictionary}) in the order they are added, columns are samples.
+ * Most genes are not scored in most samples, so a column keeps a bitmap of scored rows and only
+ * the scores of those rows, packed in row order. A rank(count of scored rows before a word of the
+ * bitmap) is kept for every 64 rows, so a score is found in constant time without any "N/A".
+ *
+ * usage:
+ *     GeneScoreMatrix matrix = new GeneScoreMatrix();
+ *     int column = matrix.addColumn(sampleName);
+ *     matrix.setScore(matrix.addRow(geneId), column, score);
+ *     ...
+ *     matrix.finish();
+ *     if (matrix.isScored(row, column))
+ *         score = matrix.getScore(row, column);
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class GeneScoreMatrix {
+
+    private List<String> sampleNameList = new ArrayList<String>();
+    private List<Column> columnList = new ArrayList<Column>();
+
+    /** gene id of every row. */
+    private int[] geneIds = new int[1024];
+    private int rowCount = 0;
+
+    /** row of every gene id, -1 if the gene is not in the matrix. */
+    private int[] rows = new int[0];
+
+    private boolean finished = false;
+
+    /**
+     * add a sample.
+     *
+     * @param sampleName
+     * @return column of the sample.
+     */
+    public int addColumn(String sampleName) {
+        checkNotFinished();
+        sampleNameList.add(sampleName);
+        columnList.add(new Column());
+        return columnList.size() - 1;
+    }
+
+    /**
+     * add a gene, it is not scored in any sample until scores are set.
+     *
+     * @param geneId
+     * @return row of the gene, the existing row if the gene is already added.
+     */
+    public int addRow(int geneId) {
+        checkNotFinished();
+        if (geneId >= rows.length) {
+            int length = rows.length;
+            rows = Arrays.copyOf(rows, Math.max(geneId + 1, length * 2));
+            Arrays.fill(rows, length, rows.length, -1);
+        }
+        if (rows[geneId] < 0) {
+            if (rowCount == geneIds.length)
+                geneIds = Arrays.copyOf(geneIds, rowCount * 2);
+            geneIds[rowCount] = geneId;
+            rows[geneId] = rowCount++;
+        }
+        return rows[geneId];
+    }
+
+    /**
+     * set score of a gene in a sample, scores of a column may be set in any order of rows.
+     *
+     * @param row
+     * @param column
+     * @param score
+     */
+    public void setScore(int row, int column, double score) {
+        checkNotFinished();
+        columnList.get(column).add(row, score);
+    }
+
+    /**
+     * pack scores of all columns, no gene or score can be added after it.
+     */
+    public void finish() {
+        if (finished)
+            return;
+        for (Column column : columnList)
+            column.pack(rowCount);
+        finished = true;
+    }
+
+    /**
+     * @param row
+     * @param column
+     * @return true if the gene is scored in the sample, false for "N/A".
+     */
+    public boolean isScored(int row, int column) {
+        return columnList.get(column).isScored(row);
+    }
+
+    /**
+     * @param row
+     * @param column
+     * @return score of the gene in the sample, it must be scored.
+     */
+    public double getScore(int row, int column) {
+        return columnList.get(column).getScore(row);
+    }
+
+    /**
+     * @param geneId
+     * @return row of the gene, -1 if the gene is not in the matrix.
+     */
+    public int getRow(int geneId) {
+        return geneId < rows.length ? rows[geneId] : -1;
+    }
+
+    /**
+     * @param row
+     * @return gene id of the row.
+     */
+    public int getGeneId(int row) {
+        return geneIds[row];
+    }
+
+    /**
+     * @return estimated bytes of the matrix in heap, scores not packed yet are counted as well.
+     */
+    public long getEstimatedBytes() {
+        long bytes = 4L * geneIds.length + 4L * rows.length;
+        for (int i = 0; i < columnList.size(); i++) {
+            bytes += 64 + 2L * sampleNameList.get(i).length();
+            bytes += columnList.get(i).getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnList.size();
+    }
+
+    public String getSampleName(int column) {
+        return sampleNameList.get(column);
+    }
+
+    /**
+     * @param tokenizer
+     * @param index
+     * @return false if the field is "N/A", or "." of a gene without scored variant.
+     */
+    static boolean isScored(LineTokenizer tokenizer, int index) {
+        return !tokenizer.fieldEquals(index, "N/A") && !tokenizer.fieldEquals(index, ".");
+    }
+
+    private void checkNotFinished() {
+        if (finished)
+            throw new IllegalStateException("gene score matrix is finished!");
+    }
+
+    /**
+     * scores of a sample. Scores are kept unordered while they are added, then packed by
+     * {@link #pack(int)}.
+     */
+    private static class Column {
+
+        private long[] bits = null;
+        private int[] ranks = null;
+        private double[] scores = new double[16];
+
+        /** rows of added scores, dropped when packed. */
+        private int[] addedRows = new int[16];
+        private int count = 0;
+
+        void add(int row, double score) {
+            if (count == addedRows.length) {
+                addedRows = Arrays.copyOf(addedRows, count * 2);
+                scores = Arrays.copyOf(scores, count * 2);
+            }
+            addedRows[count] = row;
+            scores[count++] = score;
+        }
+
+        /**
+         * build the bitmap and ranks, then put scores in order of rows. The last score of a row
+         * wins if a row is added more than once.
+         */
+        void pack(int rowCount) {
+            bits = new long[(rowCount + 63) >>> 6];
+            for (int i = 0; i < count; i++)
+                bits[addedRows[i] >>> 6] |= 1L << addedRows[i];
+            ranks = new int[bits.length];
+            int rank = 0;
+            for (int i = 0; i < bits.length; i++) {
+                ranks[i] = rank;
+                rank += Long.bitCount(bits[i]);
+            }
+            double[] packedScores = new double[rank];
+            for (int i = 0; i < count; i++)
+                packedScores[rank(addedRows[i])] = scores[i];
+            scores = packedScores;
+            addedRows = null;
+        }
+
+        long getEstimatedBytes() {
+            long bytes = 8L * scores.length;
+            if (addedRows != null)
+                bytes += 4L * addedRows.length;
+            if (bits != null)
+                bytes += 8L * bits.length + 4L * ranks.length;
+            return bytes;
+        }
+
+        boolean isScored(int row) {
+            return (bits[row >>> 6] & (1L << row)) != 0;
+        }
+
+        double getScore(int row) {
+            return scores[rank(row)];
+        }
+
+        /**
+         * @return number of scored rows before the row.
+         */
+        private int rank(int row) {
+            return ranks[row >>> 6] + Long.bitCount(bits[row >>> 6] & ((1L << row) - 1));
+        }
+    }
+}
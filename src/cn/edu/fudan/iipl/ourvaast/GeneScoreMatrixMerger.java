@@ -0,0 +1,221 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+
+/**
+ * <pre>
+ * K-way merge of files sorted by gene name into rows of a gene score matrix, only the current
+ * line of every file and the current row are in memory.
+ * An input is a ".genescore" file of a sample(one column), or a ".geneScoreMatrix" file(one
+ * column per sample in its header). Rows come in the order of gene names, columns are in the
+ * order of inputs. A gene not in an input is "N/A" in its columns.
+ * If an input turns out not to be sorted, {@link #nextRow()} returns false and
+ * {@link #isSorted()} is false, the caller should read the inputs in another way.
+ *
+ * usage:
+ *     GeneScoreMatrixMerger merger = new GeneScoreMatrixMerger();
+ *     try {
+ *         merger.addInput(geneScoreFilePath, sampleName);
+ *         ...
+ *         while (merger.nextRow()) {
+ *             if (merger.isScored(column))
+ *                 score = merger.getScore(column);
+ *         }
+ *     } finally {
+ *         merger.close();
+ *     }
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class GeneScoreMatrixMerger {
+
+    private List<String> sampleNameList = new ArrayList<String>();
+    private List<Input> inputList = new ArrayList<Input>();
+    private PriorityQueue<Input> inputQueue = new PriorityQueue<Input>(16,
+            new Comparator<Input>() {
+                @Override
+                public int compare(Input input1, Input input2) {
+                    int result = input1.gene.compareTo(input2.gene);
+                    return result != 0 ? result : input1.index - input2.index;
+                }
+            });
+
+    private String gene = null;
+    private boolean[] scored = new boolean[0];
+    private double[] scores = new double[0];
+    private boolean sorted = true;
+
+    /**
+     * open an input and read its first gene.
+     *
+     * @param filePath
+     * @param sampleNames names of its columns, read from the header of the file if none is given.
+     * @throws IOException
+     */
+    public void addInput(String filePath, String... sampleNames) throws IOException {
+        Input input = new Input();
+        input.index = inputList.size();
+        input.offset = sampleNameList.size();
+        input.tokenizer = new LineTokenizer(openReader(filePath));
+        inputList.add(input);
+
+        boolean hasHeader = false;
+        while (input.tokenizer.readLine()) {
+            if (input.tokenizer.startsWith('#')) {
+                if (!hasHeader && sampleNames.length == 0) {
+                    for (int i = 1; i < input.tokenizer.getFieldCount(); i++)
+                        sampleNameList.add(input.tokenizer.getField(i));
+                }
+                hasHeader = true;
+                continue;
+            }
+            if (input.tokenizer.isBlank())
+                continue;
+            input.gene = input.tokenizer.getField(0);
+            break;
+        }
+        sampleNameList.addAll(Arrays.asList(sampleNames));
+        input.columnCount = sampleNameList.size() - input.offset;
+        scored = new boolean[sampleNameList.size()];
+        scores = new double[sampleNameList.size()];
+
+        if (input.gene != null)
+            inputQueue.add(input);
+        else
+            input.tokenizer.close();
+    }
+
+    /**
+     * merge lines of the next gene into the current row.
+     *
+     * @return false if all inputs are merged, or an input is not sorted.
+     * @throws IOException
+     */
+    public boolean nextRow() throws IOException {
+        if (!sorted || inputQueue.isEmpty())
+            return false;
+        Arrays.fill(scored, false);
+        gene = inputQueue.peek().gene;
+        while (!inputQueue.isEmpty() && inputQueue.peek().gene.equals(gene))
+            mergeLines(inputQueue.poll());
+        return sorted;
+    }
+
+    /**
+     * @return false if an input is found not sorted by gene name.
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * @return gene name of the current row.
+     */
+    public String getGene() {
+        return gene;
+    }
+
+    /**
+     * @param column
+     * @return true if the gene of the current row is scored in the sample.
+     */
+    public boolean isScored(int column) {
+        return scored[column];
+    }
+
+    /**
+     * @param column
+     * @return score of the gene of the current row in the sample, it must be scored.
+     */
+    public double getScore(int column) {
+        return scores[column];
+    }
+
+    public int getColumnCount() {
+        return sampleNameList.size();
+    }
+
+    public String getSampleName(int column) {
+        return sampleNameList.get(column);
+    }
+
+    /**
+     * close all inputs.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        IOException exception = null;
+        for (Input input : inputList) {
+            try {
+                input.tokenizer.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        inputQueue.clear();
+        if (exception != null)
+            throw exception;
+    }
+
+    /**
+     * read scores of lines of the current gene in the input, the last score wins if the gene is
+     * duplicated, like {@link GeneScoreMatrix#setScore(int, int, double)}, then read the next
+     * gene of the input.
+     */
+    private void mergeLines(Input input) throws IOException {
+        LineTokenizer tokenizer = input.tokenizer;
+        do {
+            for (int i = 0; i < input.columnCount; i++) {
+                int column = input.offset + i;
+                if (tokenizer.hasField(i + 1) && GeneScoreMatrix.isScored(tokenizer, i + 1)) {
+                    scored[column] = true;
+                    scores[column] = tokenizer.parseDouble(i + 1);
+                }
+            }
+            input.gene = null;
+            while (tokenizer.readLine()) {
+                if (tokenizer.isBlank() || tokenizer.startsWith('#'))
+                    continue;
+                input.gene = tokenizer.getField(0);
+                break;
+            }
+        } while (input.gene != null && input.gene.equals(gene));
+
+        if (input.gene == null) {
+            tokenizer.close();
+        } else if (input.gene.compareTo(gene) < 0) {
+            sorted = false;
+        } else {
+            inputQueue.add(input);
+        }
+    }
+
+    /**
+     * an input file and its current line.
+     */
+    private static class Input {
+        int index = 0;
+        int offset = 0;
+        int columnCount = 0;
+        LineTokenizer tokenizer = null;
+
+        /** gene of the current line, null if the input is finished. */
+        String gene = null;
+    }
+}
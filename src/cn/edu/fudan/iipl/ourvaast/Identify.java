@@ -4,14 +4,17 @@
 
 package cn.edu.fudan.iipl.ourvaast;
 
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
 import static cn.edu.fudan.iipl.util.FileUtil.fileCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.dirCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.fileJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.dirJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
 import static cn.edu.fudan.iipl.util.FileUtil.copyFile;
+import static cn.edu.fudan.iipl.util.ChiSquareUtil.upperTail;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -20,17 +23,19 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.Metrics;
 
 /**
  * <pre>
- * Generate R script with statistic matrix file and run it.
+ * Compute p-value of the two parts test with statistic matrix file.
  * Identity disease genes.
+ * By default p-values are computed in JVM, generating R script and running it is optional.
  * </pre>
  *
  * @author Yong Chen
@@ -43,6 +48,7 @@ public class Identify {
     private String toBeShuffledFrequencyFilePath = null;
     private String inheritanceModel = null;
     private String outputPath = null;
+    private boolean useRscript = false;
 
     public static void main(String[] args) {
         if (args.length < 8) {
@@ -90,10 +96,9 @@ public class Identify {
                     identify.getCaseFolderPath() + File.separator
                             + getPercentFormat(frequencyList.get(j), 2, 0) + File.separator
                             + identify.getInheritanceModel() + ".statisticMatrix";
-            fileJudge(statisticMatrixPath);
-            identify.generateRScriptWithStatisticMatrix(statisticMatrixPath);
-            identify.runRscrpt(statisticMatrixPath + ".r",
-                    getPercentFormat(frequencyList.get(j), 2, 0));
+            if (!identify.identifyWithStatisticMatrix(statisticMatrixPath,
+                    getPercentFormat(frequencyList.get(j), 2, 0)))
+                System.exit(1);
 
             /** copy result file to output folder. */
             String src =
@@ -105,7 +110,7 @@ public class Identify {
                             + getPercentFormat(frequencyList.get(j), 2, 0) + "_"
                             + identify.getInheritanceModel() + ".txt";
             copyFile(src, obj);
-            System.out.println("Result file output at " + obj + "!");
+            Log.info("Result file output at " + obj + "!");
         }
     }
 
@@ -141,7 +146,7 @@ public class Identify {
 
         String usageString = "\n\t";
         usageString +=
-                "This modual generates Rscript with statistic maxtrix file. Then run the script to get the result.";
+                "This modual computes p-values of the two parts test with statistic maxtrix file. Optionally generates Rscript and runs it to get the result.";
         usageString += "\n\n";
         usageString +=
                 "usage: java Identify"
@@ -152,12 +157,14 @@ public class Identify {
                         + "-frequency toBeShuffledFrequencyFilePath: [required] The path to the file whose content is a list of frequency, such as \"0.02, 0.03 ...\"."
                         + "\n\t"
                         + "-inheritance inheritanceModel: [required] The inheritance model. Two values will be accepted, such as 'recessive_model' or 'dominant_model'."
-                        + "\n\t" + "-out outputPath: [required] The output path.";
+                        + "\n\t" + "-out outputPath: [required] The output path."
+                        + "\n\t"
+                        + "-rscript true|false: [optional] Generate Rscript and run it by 'Rscript' to compute p-values instead of computing in JVM. Both write '-' in gene names as '___', like R variable names. Default is false.";
         System.out.println(usageString);
     }
 
     public void processInput(String[] args) {
-        for (int i = 0; i < 8; i++) {
+        for (int i = 0; i < args.length; i++) {
             if (i % 2 == 0) {
                 switch (InputEnum.valueOf(args[i].substring(1).toUpperCase())) {
                     case CASEIN:
@@ -180,69 +187,187 @@ public class Identify {
                         dirCreate(args[++i]);
                         this.outputPath = getCanonicalPath(args[i]);
                         break;
+                    case RSCRIPT:
+                        this.useRscript = Boolean.parseBoolean(args[++i]);
+                        break;
                 }
             }
         }
     }
 
+    /**
+     * get p-values of genes in statistic matrix file, output file "frequency_inheritanceModel.txt"
+     * will be generated in the same folder.
+     *
+     * @param statisticMatrixPath the path to statistic matrix file.
+     * @param frequency percentage style of frequency, such as "2%".
+     * @return false if p-values are not computed.
+     * @see Identify#computePvalueWithStatisticMatrix(String, String)
+     * @see Identify#runRscrpt(String, String)
+     */
+    public boolean identifyWithStatisticMatrix(String statisticMatrixPath, String frequency) {
+        fileJudge(statisticMatrixPath);
+        long startTime = System.nanoTime();
+        boolean success = false;
+        if (useRscript) {
+            success =
+                    generateRScriptWithStatisticMatrix(statisticMatrixPath)
+                            && runRscrpt(statisticMatrixPath + ".r", frequency);
+        } else {
+            success = computePvalueWithStatisticMatrix(statisticMatrixPath, frequency);
+        }
+        Metrics.observeSince(Metrics.SAMPLE_SECONDS, startTime);
+        return success;
+    }
+
+    /**
+     * <pre>
+     * compute p-values of genes with X2(column 4) in statistic matrix file directly, that is
+     * "pchisq(X2, 2, lower.tail=FALSE)", then write genes sorted by p-value into
+     * "frequency_inheritanceModel.txt" in the same folder.
+     * Gene names joined with ';' are split like the Rscript does.
+     * </pre>
+     *
+     * @param statisticMatrixPath the path to statistic matrix file.
+     * @param frequency percentage style of frequency, such as "2%".
+     * @return false if reading or writing failed.
+     */
+    public boolean computePvalueWithStatisticMatrix(String statisticMatrixPath, String frequency) {
+        String readableFilePath =
+                new File(statisticMatrixPath).getParent() + File.separator + frequency + "_"
+                        + this.getInheritanceModel() + ".txt";
+        fileCreate(readableFilePath);
+
+        /** genes and p-values in the order they are read, a gene may be read more than once. */
+        String[] geneNames = new String[1024];
+        double[] pvalues = new double[1024];
+        int count = 0;
+        LineTokenizer tokenizer = null;
+        FileWriter fw = null;
+        boolean success = false;
+        try {
+            tokenizer = new LineTokenizer(openReader(statisticMatrixPath));
+            while (tokenizer.readLine()) {
+
+                /** skip the header. */
+                if (tokenizer.startsWith('#'))
+                    continue;
+
+                /** genes are named like the Rscript path names its R variables. */
+                double pvalue = upperTail(tokenizer.parseDouble(4), 2);
+                for (String geneName : tokenizer.getField(0).replace("-", "___").split(";")) {
+                    if (count == pvalues.length) {
+                        geneNames = Arrays.copyOf(geneNames, count * 2);
+                        pvalues = Arrays.copyOf(pvalues, count * 2);
+                    }
+                    geneNames[count] = geneName;
+                    pvalues[count] = pvalue;
+                    count++;
+                }
+            }
+
+            int[] order = sortByPvalue(geneNames, pvalues, count);
+            Metrics.add(Metrics.RECORDS, order.length);
+
+            fw = new FileWriter(readableFilePath);
+            String writeString = "#Gene\tTwopart_P_value\n";
+            fw.write(writeString, 0, writeString.length());
+            for (int index : order) {
+                writeString = geneNames[index] + "\t" + pvalues[index] + "\n";
+                fw.write(writeString, 0, writeString.length());
+            }
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (tokenizer != null)
+                    tokenizer.close();
+                if (fw != null)
+                    fw.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+        if (!success) {
+            System.err.println("Computing p-values of " + statisticMatrixPath + " failed!");
+            return false;
+        }
+        Log.info("Computing p-values finished! Output at " + readableFilePath + "!");
+        return true;
+    }
+
     /**
      * Generate RScript with statistic matrix file.
      *
      * @param statisticMatrixPath the path to statistic matrix file.
+     * @return false if reading or writing failed.
      */
-    public void generateRScriptWithStatisticMatrix(String statisticMatrixPath) {
+    public boolean generateRScriptWithStatisticMatrix(String statisticMatrixPath) {
         String rscriptFilePath = statisticMatrixPath + ".r";
         fileCreate(rscriptFilePath);
 
-        BufferedReader br = null;
-        FileWriter fw = null;
+        LineTokenizer tokenizer = null;
+        BufferedWriter bw = null;
+        boolean success = false;
+        Log.Progress progress = Log.progress("generating Rscript", "genes");
         try {
-            String readTempString = null;
             String writeString = null;
-            br = new BufferedReader(new FileReader(statisticMatrixPath));
-            fw = new FileWriter(rscriptFilePath);
-            while ((readTempString = br.readLine()) != null) {
+            tokenizer = new LineTokenizer(openReader(statisticMatrixPath));
+            bw = new BufferedWriter(new FileWriter(rscriptFilePath));
+            while (tokenizer.readLine()) {
 
                 /** skip the header. */
-                if (readTempString.startsWith("#"))
+                if (tokenizer.startsWith('#'))
                     continue;
 
-                String[] columns = readTempString.split("\\s+");
+                String geneName = tokenizer.getField(0);
+                String x2 = tokenizer.getField(4);
+                progress.step();
 
-                if (columns[0].contains("-")) {
-                    System.out.print("Converted " + columns[0]);
-                    columns[0] = columns[0].replace("-", "___");
-                    System.out.println(" to " + columns[0] + "!");
+                if (geneName.contains("-")) {
+                    String convertedGeneName = geneName.replace("-", "___");
+                    if (Log.isDebugEnabled())
+                        Log.debug("Converted " + geneName + " to " + convertedGeneName + "!");
+                    geneName = convertedGeneName;
                 }
-                if (columns[0].contains(";")) {
-                    String[] subFeature = columns[0].split(";");
+                if (geneName.contains(";")) {
+                    String[] subFeature = geneName.split(";");
                     for (String subFeatureItem : subFeature) {
                         writeString =
-                                subFeatureItem + "=pchisq(" + columns[4]
-                                        + ",2, lower.tail=FALSE)\n\"" + subFeatureItem + "\"\n"
-                                        + subFeatureItem + "\n";
-                        fw.write(writeString, 0, writeString.length());
-                        fw.flush();
+                                subFeatureItem + "=pchisq(" + x2 + ",2, lower.tail=FALSE)\n\""
+                                        + subFeatureItem + "\"\n" + subFeatureItem + "\n";
+                        bw.write(writeString, 0, writeString.length());
                     }
                     continue;
                 }
                 writeString =
-                        columns[0] + "=pchisq(" + columns[4] + ",2, lower.tail=FALSE)\n\""
-                                + columns[0] + "\"\n" + columns[0] + "\n";
-                fw.write(writeString, 0, writeString.length());
-                fw.flush();
+                        geneName + "=pchisq(" + x2 + ",2, lower.tail=FALSE)\n\"" + geneName
+                                + "\"\n" + geneName + "\n";
+                bw.write(writeString, 0, writeString.length());
             }
+            success = true;
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
             try {
-                fw.close();
-                br.close();
+                if (bw != null)
+                    bw.close();
+                if (tokenizer != null)
+                    tokenizer.close();
             } catch (IOException e) {
                 e.printStackTrace();
+                success = false;
             }
         }
-        System.out.println("Generating Rscript at " + rscriptFilePath + "!");
+        progress.done();
+        if (!success) {
+            System.err.println("Generating Rscript at " + rscriptFilePath + " failed!");
+            return false;
+        }
+        Log.info("Generating Rscript at " + rscriptFilePath + "!");
+        return true;
     }
 
     /**
@@ -250,8 +375,9 @@ public class Identify {
      * generated in the same folder
      *
      * @param rscriptFilePath path of rscript
+     * @return false if Rscript failed or its output is not converted.
      */
-    public void runRscrpt(String rscriptFilePath, String frequency) {
+    public boolean runRscrpt(String rscriptFilePath, String frequency) {
         try {
             rscriptFilePath = getCanonicalPath(rscriptFilePath);
             fileJudge(rscriptFilePath);
@@ -261,7 +387,7 @@ public class Identify {
                             + this.getInheritanceModel() + "_" + frequency + ".txt";
             String[] cmds = {"/bin/bash", "-c", "Rscript " + rscriptFilePath + " > " + resultPath};
             Process pb = Runtime.getRuntime().exec(cmds);
-            System.out.println(rscriptFilePath + " running success!");
+            Log.info(rscriptFilePath + " running success!");
             BufferedReader outputbr = null;
             String tempString = null;
             try {
@@ -282,16 +408,21 @@ public class Identify {
                 errbr.close();
             }
             int exitValue = pb.waitFor();
-            if (exitValue != 0)
+            if (exitValue != 0) {
                 pb.destroy();
+                System.err.println(rscriptFilePath + " exited with " + exitValue + "!");
+                return false;
+            }
 
-            convertRawoutToReadable(resultPath, frequency);
+            return convertRawoutToReadable(resultPath, frequency);
 
         } catch (IOException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
+            Thread.currentThread().interrupt();
         }
+        return false;
     }
 
     /**
@@ -299,8 +430,9 @@ public class Identify {
      *
      * @param rawoutFilePath
      * @param frequency
+     * @return false if reading or writing failed.
      */
-    public void convertRawoutToReadable(String rawoutFilePath, String frequency) {
+    public boolean convertRawoutToReadable(String rawoutFilePath, String frequency) {
         File rawoutFile = new File(rawoutFilePath);
         fileJudge(rawoutFilePath);
         String readableFilePath =
@@ -308,49 +440,120 @@ public class Identify {
                         + this.getInheritanceModel() + ".txt";
         fileCreate(readableFilePath);
 
-        String readTempString = null;
         String writeString = null;
-        BufferedReader bReader = null;
+        LineTokenizer tokenizer = null;
         FileWriter fWriter = null;
 
-        Map<String, String> genePvalueMap = new HashMap<String, String>();
-
-        List<Map.Entry<String, String>> genePvalueList =
-                new LinkedList<Map.Entry<String, String>>();
+        /** genes and p-values as R prints them, in the order they are read. */
+        String[] geneNames = new String[1024];
+        String[] pvalueStrings = new String[1024];
+        double[] pvalues = new double[1024];
+        int count = 0;
+        boolean success = false;
+        Log.Progress progress = Log.progress("converting R output", "genes");
         try {
-            bReader = new BufferedReader(new FileReader(rawoutFilePath));
+            tokenizer = new LineTokenizer(openReader(rawoutFilePath));
             fWriter = new FileWriter(readableFilePath);
             writeString = "#Gene\tTwopart_P_value\n";
             fWriter.write(writeString, 0, writeString.length());
-            while ((readTempString = bReader.readLine()) != null) {
-                String[] geneNameFeature = readTempString.split("\\s+");
-                readTempString = bReader.readLine();
-                System.out.println("converting " + geneNameFeature[1].replace("\"", ""));
-                String[] pvalueFeature = readTempString.split("\\s+");
-                genePvalueMap.put(geneNameFeature[1].replaceAll("\"", ""), pvalueFeature[1]);
+            while (tokenizer.readLine()) {
+                /** R prints '[1] "geneName"' then '[1] pvalue'. */
+                String geneName = tokenizer.getField(1).replace("\"", "");
+                tokenizer.readLine();
+                if (Log.isDebugEnabled())
+                    Log.debug("converting " + geneName);
+                progress.step();
+                if (count == pvalues.length) {
+                    geneNames = Arrays.copyOf(geneNames, count * 2);
+                    pvalueStrings = Arrays.copyOf(pvalueStrings, count * 2);
+                    pvalues = Arrays.copyOf(pvalues, count * 2);
+                }
+                geneNames[count] = geneName;
+                pvalueStrings[count] = tokenizer.getField(1);
+                pvalues[count] = Double.parseDouble(pvalueStrings[count]);
+                count++;
             }
 
-            genePvalueList.addAll(genePvalueMap.entrySet());
-            Collections.sort(genePvalueList, new PvalueComparator());
-            for (Map.Entry<String, String> genePvalue : genePvalueList) {
-                writeString = genePvalue.getKey() + "\t" + genePvalue.getValue() + "\n";
+            for (int index : sortByPvalue(geneNames, pvalues, count)) {
+                writeString = geneNames[index] + "\t" + pvalueStrings[index] + "\n";
                 fWriter.write(writeString, 0, writeString.length());
             }
-            genePvalueList = null;
-            genePvalueMap = null;
+            progress.done();
+            success = true;
 
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
             try {
-                bReader.close();
-                fWriter.close();
+                if (tokenizer != null)
+                    tokenizer.close();
+                if (fWriter != null)
+                    fWriter.close();
             } catch (IOException e) {
                 e.printStackTrace();
+                success = false;
             }
         }
+        if (!success) {
+            System.err.println("Converting " + rawoutFilePath + " failed!");
+            return false;
+        }
         if (rawoutFile.exists())
             rawoutFile.delete();
+        return true;
+    }
+
+    /**
+     * <pre>
+     * order genes like a map from gene to the p-value it is read with last, sorted by p-value,
+     * genes of the same p-value in the order they first appear.
+     * Indexes are sorted like genes of Score and Statistic, Arrays.sort of objects is stable.
+     * </pre>
+     *
+     * @param geneNames genes in the order they are read.
+     * @param pvalues p-values of the genes.
+     * @param count number of genes read.
+     * @return indexes of the last appearances of the genes, in the order to write them.
+     */
+    private static int[] sortByPvalue(final String[] geneNames, final double[] pvalues, int count) {
+
+        /** group appearances of a gene, a group stays in the order it is read. */
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer index1, Integer index2) {
+                return geneNames[index1].compareTo(geneNames[index2]);
+            }
+        });
+
+        /** the first appearance of a gene keeps its place, the last one gives the p-value. */
+        int[] lastAppearance = new int[count];
+        Arrays.fill(lastAppearance, -1);
+        int end = 0;
+        for (int start = 0; start < count; start = end) {
+            end = start + 1;
+            while (end < count && geneNames[order[end]].equals(geneNames[order[start]]))
+                end++;
+            lastAppearance[order[start]] = order[end - 1];
+        }
+        int geneCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (lastAppearance[i] >= 0)
+                order[geneCount++] = lastAppearance[i];
+        }
+
+        Arrays.sort(order, 0, geneCount, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer index1, Integer index2) {
+                return Double.compare(pvalues[index1], pvalues[index2]);
+            }
+        });
+        int[] geneOrder = new int[geneCount];
+        for (int i = 0; i < geneCount; i++)
+            geneOrder[i] = order[i];
+        return geneOrder;
     }
 
     public String getCaseFolderPath() {
@@ -385,21 +588,20 @@ public class Identify {
         this.outputPath = outputPath;
     }
 
+    public boolean isUseRscript() {
+        return useRscript;
+    }
+
+    public void setUseRscript(boolean useRscript) {
+        this.useRscript = useRscript;
+    }
+
     enum InputEnum {
         CASEIN,      // input option "-casein"
         FREQUENCY,   // input option "-frequency"
         INHERITANCE, // input option "-inheritance"
         OUT,         // input option "-out"
+        RSCRIPT,     // input option "-rscript"
     }
 
-
-    class PvalueComparator implements Comparator<Map.Entry<String, String>> {
-
-        @Override
-        public int compare(Map.Entry<String, String> entry1, Map.Entry<String, String> entry2) {
-            Double pvalue1 = Double.valueOf(entry1.getValue());
-            Double pvalue2 = Double.valueOf(entry2.getValue());
-            return pvalue1.compareTo(pvalue2);
-        }
-    }
 }
@@ -0,0 +1,354 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+import static cn.edu.fudan.iipl.util.CompressionUtil.openWriter;
+import static cn.edu.fudan.iipl.util.FileUtil.fileCreate;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+import cn.edu.fudan.iipl.util.SplitMix64;
+
+/**
+ * <pre>
+ * Empirical p-values of genes by permutations of case/control labels, with gene score matrices
+ * of case and control generated by {@link Statistic#getGeneScoreMatrixFromGeneScoreFiles}.
+ * For a gene, all scores of case and control are pooled, and labels are permuted: n1 of the
+ * pooled scores are drawn as case, the others are control, then X2 is computed like
+ * {@link TwoPartStatistic#compute()}. Scores that are not "N/A" are the same whatever the labels,
+ * so their midranks are computed once, and a permutation only sums midranks of the drawn scores.
+ * Permutations of a gene stop once "exceedances" permuted X2 are not less than the observed X2
+ * (the gene is clearly not significant), or "maxPermutations" are done. p-value is
+ * (exceedances + 1) / (permutations + 1).
+ * Genes run concurrently, every gene has its own random stream seeded by the seed and the index of
+ * the gene, so results are the same whatever the number of threads.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class PermutationTest {
+
+    private long seed = 2015L;
+    private long maxPermutations = 1000000;
+    private int exceedances = 20;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private GeneDictionary geneDictionary = new GeneDictionary();
+
+    /**
+     * <pre>
+     * write empirical p-values of genes into "inheritanceModel.permutationMatrix" in the folder of
+     * case gene score matrix, genes are in the order of case gene score matrix.
+     * </pre>
+     *
+     * @param caseGeneScoreMatrixFilePath
+     * @param inheritanceModel
+     * @param controlGeneScoreMatrixFilePath
+     * @return false if reading, writing or a permutation task failed.
+     */
+    public boolean getPermutationMatrix(String caseGeneScoreMatrixFilePath,
+            String inheritanceModel, String controlGeneScoreMatrixFilePath) {
+        String permutationMatrixPath =
+                new File(caseGeneScoreMatrixFilePath).getParent() + File.separator
+                        + inheritanceModel + ".permutationMatrix";
+        fileCreate(permutationMatrixPath);
+
+        List<String> controlGeneScoreList = new ArrayList<String>();
+        int controlCount = 0;
+        List<Future<String>> futureList = new ArrayList<Future<String>>();
+        ThreadPoolExecutor executor = null;
+        if (threads > 1) {
+            /** the reading thread runs tasks too if the queue is full, so memory is bounded. */
+            executor =
+                    new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<Runnable>(threads * 4),
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        LineTokenizer tokenizer = null;
+        BufferedWriter bw = null;
+        boolean success = false;
+        try {
+            tokenizer = new LineTokenizer(openReader(controlGeneScoreMatrixFilePath));
+            while (tokenizer.readLine()) {
+                if (tokenizer.startsWith('#')) {
+                    controlCount = tokenizer.getFieldCount() - 1;
+                    continue;
+                }
+
+                /** scores of control indexed by gene id, null if the gene is not in control. */
+                int geneId = geneDictionary.getId(tokenizer, 0);
+                while (controlGeneScoreList.size() <= geneId)
+                    controlGeneScoreList.add(null);
+                controlGeneScoreList.set(geneId, tokenizer.getLineFrom(1));
+            }
+            tokenizer.close();
+
+            System.out.println("Permutations for " + caseGeneScoreMatrixFilePath + " start!");
+            tokenizer = new LineTokenizer(openReader(caseGeneScoreMatrixFilePath));
+            LineTokenizer controlTokenizer = new LineTokenizer();
+            int geneIndex = 0;
+            while (tokenizer.readLine()) {
+                if (tokenizer.startsWith('#'))
+                    continue;
+                int geneId = geneDictionary.getId(tokenizer, 0);
+                String geneName = geneDictionary.getGene(geneId);
+                String controlScores =
+                        geneId < controlGeneScoreList.size() ? controlGeneScoreList.get(geneId)
+                                : null;
+                int caseCount = tokenizer.getFieldCount() - 1;
+                int count = caseCount;
+                if (controlScores != null) {
+                    controlTokenizer.setLine(controlScores);
+                    count += Math.max(controlCount, controlTokenizer.getFieldCount());
+                } else {
+                    count += controlCount;
+                }
+
+                /** scores of case at first, then control. */
+                double[] scores = new double[count];
+                boolean[] scored = new boolean[count];
+                for (int i = 0; i < caseCount; i++)
+                    readScore(tokenizer, i + 1, scores, scored, i);
+                if (controlScores != null) {
+                    for (int i = 0; i < controlTokenizer.getFieldCount(); i++)
+                        readScore(controlTokenizer, i, scores, scored, caseCount + i);
+                }
+
+                FutureTask<String> task =
+                        new FutureTask<String>(new GeneTask(geneName, geneIndex++, caseCount,
+                                midranks(scores, scored)));
+                futureList.add(task);
+                if (executor == null)
+                    task.run();
+                else
+                    executor.execute(task);
+            }
+
+            bw = new BufferedWriter(openWriter(permutationMatrixPath));
+            bw.write("#Gene\tX2\tpermutations\texceedances\tP_value\n");
+            for (Future<String> future : futureList)
+                bw.write(future.get());
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+            try {
+                if (tokenizer != null)
+                    tokenizer.close();
+                if (bw != null)
+                    bw.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+        if (!success) {
+            System.err.println("Getting permutation matrix failed!");
+            return false;
+        }
+        System.out.println("Getting permutation matrix finished!");
+        System.out.println("Permutation matrix output at " + permutationMatrixPath);
+        return true;
+    }
+
+    /**
+     * @param tokenizer
+     * @param field index of the field in tokenizer.
+     * @param scores
+     * @param scored set true if the field is scored, "N/A" and "." are not(see
+     *        {@link GeneScoreMatrix#isScored(LineTokenizer, int)}).
+     * @param index index in scores.
+     */
+    private static void readScore(LineTokenizer tokenizer, int field, double[] scores,
+            boolean[] scored, int index) {
+        if (!GeneScoreMatrix.isScored(tokenizer, field))
+            return;
+        /** adding 0.0 turns -0.0 into 0.0, they are tied. */
+        scores[index] = tokenizer.parseDouble(field) + 0.0;
+        scored[index] = true;
+    }
+
+    /**
+     * @param scores
+     * @param scored false for "N/A".
+     * @return midranks among scores that are not "N/A", 0 for "N/A".
+     */
+    private static double[] midranks(double[] scores, boolean[] scored) {
+        double[] sortedScores = new double[scores.length];
+        int scoredCount = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (scored[i])
+                sortedScores[scoredCount++] = scores[i];
+        }
+        Arrays.sort(sortedScores, 0, scoredCount);
+
+        /** distinct scores and their midranks. */
+        double[] distinctScores = new double[scoredCount];
+        double[] distinctMidranks = new double[scoredCount];
+        int distinctCount = 0;
+        for (int i = 0; i < scoredCount;) {
+            int j = i + 1;
+            while (j < scoredCount && Double.compare(sortedScores[j], sortedScores[i]) == 0)
+                j++;
+            distinctScores[distinctCount] = sortedScores[i];
+            /** ranks i+1 ... j share the midrank. */
+            distinctMidranks[distinctCount++] = (i + 1 + j) / 2.0;
+            i = j;
+        }
+
+        double[] midranks = new double[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            if (scored[i])
+                midranks[i] =
+                        distinctMidranks[Arrays.binarySearch(distinctScores, 0, distinctCount,
+                                scores[i])];
+        }
+        return midranks;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getMaxPermutations() {
+        return maxPermutations;
+    }
+
+    public void setMaxPermutations(long maxPermutations) {
+        this.maxPermutations = maxPermutations;
+    }
+
+    public int getExceedances() {
+        return exceedances;
+    }
+
+    public void setExceedances(int exceedances) {
+        this.exceedances = exceedances;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public GeneDictionary getGeneDictionary() {
+        return geneDictionary;
+    }
+
+    public void setGeneDictionary(GeneDictionary geneDictionary) {
+        this.geneDictionary = geneDictionary;
+    }
+
+    /**
+     * permutations of a gene, the result is a line of permutation matrix.
+     */
+    private class GeneTask implements Callable<String> {
+
+        private String geneName = null;
+        private int geneIndex = 0;
+        private int caseCount = 0;
+        private double[] midranks = null;
+
+        public GeneTask(String geneName, int geneIndex, int caseCount, double[] midranks) {
+            this.geneName = geneName;
+            this.geneIndex = geneIndex;
+            this.caseCount = caseCount;
+            this.midranks = midranks;
+        }
+
+        @Override
+        public String call() {
+            int count = midranks.length;
+            double totalRankSum = 0;
+            int totalScoredCount = 0;
+            double observedRankSum = 0;
+            int observedScoredCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (midranks[i] > 0) {
+                    totalRankSum += midranks[i];
+                    totalScoredCount++;
+                    if (i < caseCount) {
+                        observedRankSum += midranks[i];
+                        observedScoredCount++;
+                    }
+                }
+            }
+            TwoPartStatistic statistic = new TwoPartStatistic();
+            statistic.compute(observedRankSum, caseCount, observedScoredCount, totalScoredCount
+                    - observedScoredCount);
+            double observedX2 = statistic.getX2();
+            if (Double.isNaN(observedX2) || caseCount == 0)
+                return geneName + "\t" + observedX2 + "\t0\t0\tNaN\n";
+
+            /** draw the smaller one of case and control, the other one is the rest. */
+            boolean drawControl = caseCount > count - caseCount;
+            int drawCount = drawControl ? count - caseCount : caseCount;
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++)
+                order[i] = i;
+            SplitMix64 random = new SplitMix64(seed, geneIndex);
+
+            long permutations = 0;
+            int exceeded = 0;
+            while (permutations < maxPermutations && exceeded < exceedances) {
+                /** partial Fisher-Yates, the first drawCount of order are a random subset. */
+                double rankSum = 0;
+                int scoredCount = 0;
+                for (int i = 0; i < drawCount; i++) {
+                    int j = i + random.nextInt(count - i);
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                    double midrank = midranks[order[i]];
+                    if (midrank > 0) {
+                        rankSum += midrank;
+                        scoredCount++;
+                    }
+                }
+                if (drawControl) {
+                    rankSum = totalRankSum - rankSum;
+                    scoredCount = totalScoredCount - scoredCount;
+                }
+                statistic.compute(rankSum, caseCount, scoredCount, totalScoredCount
+                        - scoredCount);
+                permutations++;
+
+                /** NaN is as extreme as the observed, p-value is never too small. */
+                if (!(statistic.getX2() < observedX2))
+                    exceeded++;
+            }
+            return geneName + "\t" + observedX2 + "\t" + permutations + "\t" + exceeded + "\t"
+                    + (exceeded + 1.0) / (permutations + 1.0) + "\n";
+        }
+    }
+}
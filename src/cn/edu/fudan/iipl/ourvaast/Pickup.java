@@ -14,11 +14,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+
+import cn.edu.fudan.iipl.util.FileUtil.CopyStrategy;
+import cn.edu.fudan.iipl.util.Metrics;
 
 /**
  * <pre>
  * Randomly pick up half number of total samples in input folder as case.
- * Then repeat it for control.
+ * Then repeat it for control. The same seed picks up the same samples.
  * </pre>
  *
  * @author Yong Chen
@@ -28,6 +32,8 @@ public class Pickup {
 
     private String inputFolder = null;
     private String outputFolder = null;
+    private CopyStrategy copyStrategy = CopyStrategy.HARD_LINK;
+    private long seed = new Random().nextLong();
 
     public static void main(String[] args) {
         if (args.length < 4) {
@@ -40,7 +46,8 @@ public class Pickup {
         /** process input, preserve args. */
         pickup.processInput(args);
 
-        pickup.pickup(pickup.getInputFolder(), pickup.getOutputFolder());
+        if (!pickup.pickup(pickup.getInputFolder(), pickup.getOutputFolder()))
+            System.exit(1);
     }
 
     /**
@@ -55,12 +62,17 @@ public class Pickup {
         usageString +=
                 "usage: java Pickup" + "\n\t"
                         + "-in inputPath: [required] The input folder contains all samples."
-                        + "\n\t" + "-out outputPath: [required] The output path.";
+                        + "\n\t" + "-out outputPath: [required] The output path."
+                        + "\n\t"
+                        + "-copy copyStrategy: [optional] How samples are put into case and control folder, 'copy', 'hard_link', 'symbolic_link' or 'reflink'."
+                        + "\n\t\t Default is 'hard_link', samples are copied if it is not supported."
+                        + "\n\t"
+                        + "-seed seed: [optional] Seed of picking up, the same seed picks up the same samples. Default is a random seed, which is printed.";
         System.out.println(usageString);
     }
 
     public void processInput(String[] args) {
-        for (int i = 0; i < 4; i++) {
+        for (int i = 0; i < args.length; i++) {
             if (i % 2 == 0) {
                 switch (InputEnum.valueOf(args[i].substring(1).toUpperCase())) {
                     case IN:
@@ -71,54 +83,81 @@ public class Pickup {
                         dirCreate(args[++i]);
                         setOutputFolder(getCanonicalPath(args[i]));
                         break;
+                    case COPY:
+                        setCopyStrategy(CopyStrategy.parse(args[++i]));
+                        break;
+                    case SEED:
+                        setSeed(Long.parseLong(args[++i]));
+                        break;
                 }
             }
         }
     }
 
-    public void pickup(String inputFolder, String outputFolder) {
+    /**
+     * pick up case and control from samples in the input folder.
+     *
+     * @param inputFolder
+     * @param outputFolder "case_with_score" and "control_with_score" are created in it.
+     * @return false if a sample already exists in case or control, or copying it failed.
+     */
+    public boolean pickup(String inputFolder, String outputFolder) {
         List<String> fileNameList = new ArrayList<String>();
         fileNameList.addAll(Arrays.asList(new File(inputFolder).list()));
 
+        /** sorted, so picked up samples do not depend on the order of the file system. */
+        Collections.sort(fileNameList);
+        Random random = new Random(seed);
+        System.out.println("seed of pickup: " + seed + ", use it to replay the pickup.");
+
         File caseFolderFile = new File(outputFolder + File.separator + "case_with_score");
         File controlFolderFile = new File(outputFolder + File.separator + "control_with_score");
 
         dirCreate(getCanonicalPath(caseFolderFile));
         dirCreate(getCanonicalPath(controlFolderFile));
 
-        Collections.shuffle(fileNameList);
+        Collections.shuffle(fileNameList, random);
 
         int halfNumber = (int) Math.floor((double) fileNameList.size() / 2);
         for (int i = 0; i < halfNumber; i++) {
             String fileName = fileNameList.get(i);
+            long startTime = System.nanoTime();
 
             String src = getCanonicalPath(inputFolder) + File.separator + fileName;
             String obj = getCanonicalPath(caseFolderFile) + File.separator + fileName;
             if (new File(obj).exists()) {
-                System.out.println(fileName + " already exists at "
-                        + getCanonicalPath(caseFolderFile));
-                System.exit(1);
+                System.err.println(fileName + " already exists at "
+                        + getCanonicalPath(caseFolderFile) + "!");
+                return false;
             }
-            copyFile(src, obj);
+            if (!copyFile(src, obj, copyStrategy))
+                return false;
+            Metrics.add(Metrics.RECORDS, 1);
+            Metrics.observeSince(Metrics.SAMPLE_SECONDS, startTime);
         }
 
         System.out.println("case done!");
 
-        Collections.shuffle(fileNameList);
+        Collections.shuffle(fileNameList, random);
         for (int i = 0; i < halfNumber; i++) {
             String fileName = fileNameList.get(i);
+            long startTime = System.nanoTime();
 
             String src = getCanonicalPath(inputFolder) + File.separator + fileName;
             String obj = getCanonicalPath(controlFolderFile) + File.separator + fileName;
             if (new File(obj).exists()) {
-                System.out.println(fileName + " already exists at "
-                        + getCanonicalPath(controlFolderFile));
-                System.exit(1);
+                System.err.println(fileName + " already exists at "
+                        + getCanonicalPath(controlFolderFile) + "!");
+                return false;
             }
-            copyFile(src, obj);
+            if (!copyFile(src, obj, copyStrategy))
+                return false;
+            Metrics.add(Metrics.RECORDS, 1);
+            Metrics.observeSince(Metrics.SAMPLE_SECONDS, startTime);
         }
         System.out.println("control done!");
         System.out.println("pickup finished!");
+        return true;
     }
 
     public String getInputFolder() {
@@ -137,8 +176,26 @@ public class Pickup {
         this.outputFolder = outputFolder;
     }
 
+    public CopyStrategy getCopyStrategy() {
+        return copyStrategy;
+    }
+
+    public void setCopyStrategy(CopyStrategy copyStrategy) {
+        this.copyStrategy = copyStrategy;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
     enum InputEnum {
         IN, // input option "-in"
         OUT, // input option "-out"
+        COPY, // input option "-copy"
+        SEED, // input option "-seed"
     }
 }
@@ -0,0 +1,866 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+import static cn.edu.fudan.iipl.util.ChiSquareUtil.upperTail;
+import static cn.edu.fudan.iipl.util.FileUtil.dirCreate;
+import static cn.edu.fudan.iipl.util.FileUtil.dirJudge;
+import static cn.edu.fudan.iipl.util.FileUtil.fileCreate;
+import static cn.edu.fudan.iipl.util.FileUtil.fileJudge;
+import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.FieldPosition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.SplitMix64;
+import cn.edu.fudan.iipl.util.TaskUtil;
+
+/**
+ * <pre>
+ * Power of ourvaast by replicates in memory.
+ * One Onekey run is one random Pickup split and one Shuffle. This modual parses all samples and
+ * disease variants once, then every replicate picks up case and control like {@link Pickup},
+ * shuffles variants of disease genes into case like {@link Shuffle}, scores genes like
+ * {@link Score} and computes the statistic like {@link Statistic}, all in memory. Only the power
+ * is written: fraction of replicates where a disease gene passes the p-value threshold, or ranks
+ * within the top genes, for every frequency and inheritance model.
+ * Shuffled variants only change scores of disease genes, so statistic of other genes is computed
+ * once for a replicate and an inheritance model, and shared by all frequencies.
+ * Every replicate has its own random stream seeded by the seed and the index of the replicate, so
+ * the power is the same whatever the number of threads.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class PowerSimulation {
+
+    private String inputFolderPath = null;               // -i
+    private String diseaseVariantsFilePath = null;       // -v
+    private String toBeShuffledGeneNameFilePath = null;  // -g
+    private String toBeShuffledFrequencyFilePath = null; // -f
+    private List<String> inheritanceModelList = null;    // -m
+    private int toBeShuffledVariantsNumber = 0;          // -n
+    private String outputPath = null;                    // -o
+    private int replicates = 100;                        // -r
+    private double alpha = 2.5e-6;                       // -a
+    private int top = 10;                                // -k
+    private long seed = 2015L;                           // -s
+    private int threads = Runtime.getRuntime().availableProcessors(); // -t
+
+    private static final String GENE_SCORE_FORMAT = "#####0.000000";
+
+    /** samples of cohort, gene scores are kept by gene, see {@link GeneColumn}. */
+    private List<String> sampleNameList = new ArrayList<String>();
+    private List<String> geneNameList = new ArrayList<String>();
+    private List<GeneColumn> geneColumnList = new ArrayList<GeneColumn>();
+
+    /** disease genes, and rounded average scores of their variants. */
+    private List<String> diseaseGeneNameList = new ArrayList<String>();
+    private int[] diseaseGeneIds = null;
+    private double[][] diseaseVariantScores = null;
+
+    public static void main(String[] args) {
+        if (args.length < 14) {
+            usage();
+            return;
+        }
+
+        PowerSimulation simulation = new PowerSimulation();
+
+        /** process input, preserve args. */
+        simulation.processInput(args);
+
+        List<String> diseaseGeneNameList = readWords(simulation.getToBeShuffledGeneNameFilePath());
+        List<Double> frequencyList = new ArrayList<Double>();
+        for (String frequency : readWords(simulation.getToBeShuffledFrequencyFilePath()))
+            frequencyList.add(Double.parseDouble(frequency));
+
+        if (!simulation.simulate(diseaseGeneNameList, frequencyList))
+            System.exit(1);
+    }
+
+    /**
+     * print usage message
+     */
+    public static void usage() {
+        String usageString = "\n\t";
+        usageString +=
+                "This modual estimates power of ourvaast. Samples and disease variants are parsed once, then each replicate picks up case and control, "
+                        + "shuffles disease variants into case, scores genes and computes the statistic in memory. Only the power is written, "
+                        + "that is, fraction of replicates where a disease gene passes the p-value threshold or ranks within the top genes.";
+        usageString += "\n\n";
+        usageString +=
+                "usage: java PowerSimulation"
+                        + "\n\t"
+                        + "-i inputFolderPath: [required] The path to folder contains all samples. Each replicate randomly picks up half number of them as case, then repeats it for control."
+                        + "\n\t"
+                        + "-v diseaseVariantsFilePath: [required] The path to pathogenic variants file(all variants are scored by dbNSFP tool), such as Clinvar or HGMD."
+                        + "\n\t"
+                        + "-g toBeShuffledGeneNameFilePath: [required] The path to the file whose content is a list of disease gene names."
+                        + "\n\t"
+                        + "-f toBeShuffledFrequencyFilePath: [required] The path to the file whose content is a list of frequency, such as \"0.02, 0.03 ...\"."
+                        + "\n\t"
+                        + "-m inheritanceModel: [required] Inheritance models seperated by ',', such as \"recessive_model\" or \"recessive_model,dominant_model\"."
+                        + "\n\t"
+                        + "-n toBeShuffledVariantsNumber: [required] Number of variants of each disease gene shuffled into each picked up case sample."
+                        + "\n\t"
+                        + "-o outputPath: [required] The output path, power of an inheritance model is written into \"power_inheritanceModel.txt\"."
+                        + "\n\t"
+                        + "-r replicates: [optional] Number of replicates. Default is 100."
+                        + "\n\t"
+                        + "-a alpha: [optional] A disease gene passes if its p-value is not greater than alpha. Default is 2.5E-6."
+                        + "\n\t"
+                        + "-k top: [optional] A disease gene ranks if its rank among all genes sorted by p-value is not greater than top. Default is 10."
+                        + "\n\t"
+                        + "-s seed: [optional] Seed of replicates, the same seed gives the same power. Default is 2015."
+                        + "\n\t"
+                        + "-t threads: [optional] Maximum number of samples parsed or replicates run concurrently. Default is the number of processors.";
+        System.out.println(usageString);
+    }
+
+    public void processInput(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i % 2 == 0) {
+                switch (args[i].charAt(1)) {
+                    case 'i':
+                        dirJudge(args[++i]);
+                        this.inputFolderPath = getCanonicalPath(args[i]);
+                        break;
+                    case 'v':
+                        fileJudge(args[++i]);
+                        this.diseaseVariantsFilePath = getCanonicalPath(args[i]);
+                        break;
+                    case 'g':
+                        fileJudge(args[++i]);
+                        this.toBeShuffledGeneNameFilePath = getCanonicalPath(args[i]);
+                        break;
+                    case 'f':
+                        fileJudge(args[++i]);
+                        this.toBeShuffledFrequencyFilePath = getCanonicalPath(args[i]);
+                        break;
+                    case 'm':
+                        this.inheritanceModelList = Arrays.asList(args[++i].split(","));
+                        for (String inheritanceModel : inheritanceModelList) {
+                            if (!inheritanceModel.matches("(.*recessive.*|.*dominant.*)")) {
+                                System.err
+                                        .println("-m parameter error! Please input 'recessive_model' or 'dominant_model'!");
+                                System.exit(1);
+                            }
+                        }
+                        break;
+                    case 'n':
+                        this.toBeShuffledVariantsNumber = Integer.parseInt(args[++i]);
+                        break;
+                    case 'o':
+                        dirCreate(args[++i]);
+                        this.outputPath = getCanonicalPath(args[i]);
+                        break;
+                    case 'r':
+                        this.replicates = Integer.parseInt(args[++i]);
+                        break;
+                    case 'a':
+                        this.alpha = Double.parseDouble(args[++i]);
+                        break;
+                    case 'k':
+                        this.top = Integer.parseInt(args[++i]);
+                        break;
+                    case 's':
+                        this.seed = Long.parseLong(args[++i]);
+                        break;
+                    case 't':
+                        this.threads = Integer.parseInt(args[++i]);
+                        if (this.threads < 1) {
+                            System.err.println("-t parameter error! threads must be positive!");
+                            System.exit(1);
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * <pre>
+     * parse samples and disease variants, run replicates, then write power of every inheritance
+     * model into "power_inheritanceModel.txt" in the output path.
+     * </pre>
+     *
+     * @param diseaseGeneNameList disease genes whose variants are shuffled into case.
+     * @param frequencyList frequencies of case samples with shuffled variants.
+     * @return false if parsing, a replicate or writing power failed.
+     */
+    public boolean simulate(List<String> diseaseGeneNameList, List<Double> frequencyList) {
+        try {
+            readSamples();
+            if (!readDiseaseVariants(new ArrayList<String>(new LinkedHashSet<String>(
+                    diseaseGeneNameList))))
+                return false;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        /** passed[model][frequency][disease gene] and ranked[...] count replicates. */
+        int[][][] passed =
+                new int[inheritanceModelList.size()][frequencyList.size()][diseaseGeneIds.length];
+        int[][][] ranked =
+                new int[inheritanceModelList.size()][frequencyList.size()][diseaseGeneIds.length];
+        List<Callable<double[][][]>> taskList = new ArrayList<Callable<double[][][]>>();
+        for (int i = 0; i < replicates; i++)
+            taskList.add(new Replicate(i, frequencyList));
+        List<double[][][]> resultList = runTasks(taskList);
+        if (resultList == null)
+            return false;
+        for (double[][][] result : resultList) {
+            for (int m = 0; m < passed.length; m++) {
+                for (int f = 0; f < frequencyList.size(); f++) {
+                    for (int d = 0; d < diseaseGeneIds.length; d++) {
+                        if (result[m][f][2 * d] <= alpha)
+                            passed[m][f][d]++;
+                        if (result[m][f][2 * d + 1] <= top)
+                            ranked[m][f][d]++;
+                    }
+                }
+            }
+        }
+
+        try {
+            for (int m = 0; m < inheritanceModelList.size(); m++)
+                writePower(inheritanceModelList.get(m), frequencyList, passed[m], ranked[m]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("writing power failed!");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * read words seperated by whitespace in a file, such as disease genes and frequencies.
+     *
+     * @param filePath
+     * @return words in the file.
+     */
+    private static List<String> readWords(String filePath) {
+        List<String> wordList = new ArrayList<String>();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(filePath));
+            String tempString = null;
+            while ((tempString = br.readLine()) != null) {
+                for (String word : tempString.trim().split("\\s+")) {
+                    if (!word.isEmpty())
+                        wordList.add(word);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (br != null)
+                    br.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return wordList;
+    }
+
+    /**
+     * parse samples concurrently, gene scores are added to {@link GeneColumn}s in the order of
+     * samples.
+     */
+    private void readSamples() throws IOException {
+        String[] fileNames = new File(inputFolderPath).list();
+        Arrays.sort(fileNames);
+        Map<String, Integer> geneIdMap = new HashMap<String, Integer>();
+        int batchSize = threads * 4;
+        for (int from = 0; from < fileNames.length; from += batchSize) {
+            List<Callable<Map<String, GeneScoreAccumulator>>> taskList =
+                    new ArrayList<Callable<Map<String, GeneScoreAccumulator>>>();
+            for (int i = from; i < Math.min(from + batchSize, fileNames.length); i++) {
+                final String filePath = inputFolderPath + File.separator + fileNames[i];
+                taskList.add(new Callable<Map<String, GeneScoreAccumulator>>() {
+                    @Override
+                    public Map<String, GeneScoreAccumulator> call() throws IOException {
+                        return readSample(filePath);
+                    }
+                });
+            }
+            List<Map<String, GeneScoreAccumulator>> sampleList = runTasks(taskList);
+            if (sampleList == null)
+                throw new IOException("reading samples failed!");
+
+            DecimalFormat dFormat = new DecimalFormat(GENE_SCORE_FORMAT);
+            StringBuffer buffer = new StringBuffer();
+            char[] chars = new char[64];
+            for (Map<String, GeneScoreAccumulator> geneScoreMap : sampleList) {
+                int sample = sampleNameList.size();
+                sampleNameList.add(fileNames[sample].split("\\.")[0]);
+                for (Entry<String, GeneScoreAccumulator> entry : geneScoreMap.entrySet()) {
+                    Integer geneId = geneIdMap.get(entry.getKey());
+                    if (geneId == null) {
+                        geneId = geneNameList.size();
+                        geneIdMap.put(entry.getKey(), geneId);
+                        geneNameList.add(entry.getKey());
+                        geneColumnList.add(new GeneColumn());
+                    }
+                    GeneScoreAccumulator accumulator = entry.getValue();
+                    geneColumnList.get(geneId).add(sample, accumulator.getDominantScore(),
+                            accumulator.hasRecessiveScore() ? round(
+                                    accumulator.getRecessiveScore(), dFormat, buffer, chars)
+                                    : Double.NaN, accumulator.getSecondHighestScore());
+                }
+            }
+            Log.debug("Parsed " + sampleNameList.size() + " samples!");
+        }
+        Log.info("Parsing samples finished! " + sampleNameList.size() + " samples, "
+                + geneNameList.size() + " genes!");
+    }
+
+    /**
+     * score genes of a sample like {@link Score#scoreEachGeneFromSamples}.
+     *
+     * @param filePath
+     * @return key is gene name, value is rounded average scores of variants in the gene.
+     */
+    private static Map<String, GeneScoreAccumulator> readSample(String filePath)
+            throws IOException {
+        HashMap<String, GeneScoreAccumulator> geneScoreMap =
+                new HashMap<String, GeneScoreAccumulator>();
+        DecimalFormat dFormat = new DecimalFormat(GENE_SCORE_FORMAT);
+        StringBuffer averageScoreBuffer = new StringBuffer();
+        char[] averageScoreChars = new char[64];
+        LineTokenizer tokenizer = new LineTokenizer(openReader(filePath));
+        try {
+            /** skip the header. */
+            tokenizer.readLine();
+            while (tokenizer.readLine()) {
+                Score.appendAverageScore(tokenizer, dFormat, averageScoreBuffer);
+                String geneName = tokenizer.getField(4);
+                GeneScoreAccumulator accumulator = geneScoreMap.get(geneName);
+                if (accumulator == null) {
+                    accumulator = new GeneScoreAccumulator();
+                    geneScoreMap.put(geneName, accumulator);
+                }
+                accumulator.add(LineTokenizer.parseDouble(averageScoreBuffer, averageScoreChars));
+            }
+        } finally {
+            tokenizer.close();
+        }
+        return geneScoreMap;
+    }
+
+    /**
+     * read variants of disease genes like {@link Shuffle#shuffleAccordingToGeneName}.
+     *
+     * @param diseaseGeneNames disease genes without duplicates.
+     * @return false if a disease gene has less variants than are shuffled into a sample.
+     */
+    private boolean readDiseaseVariants(List<String> diseaseGeneNames) throws IOException {
+        Map<String, List<String>> geneVariantsMap =
+                DiseaseVariantIndex.parse(diseaseVariantsFilePath, new LinkedHashSet<String>(
+                        diseaseGeneNames));
+        Map<String, Integer> geneIdMap = new HashMap<String, Integer>();
+        for (int i = 0; i < geneNameList.size(); i++)
+            geneIdMap.put(geneNameList.get(i), i);
+
+        diseaseGeneNameList = diseaseGeneNames;
+        diseaseGeneIds = new int[diseaseGeneNames.size()];
+        diseaseVariantScores = new double[diseaseGeneNames.size()][];
+        DecimalFormat dFormat = new DecimalFormat(GENE_SCORE_FORMAT);
+        StringBuffer buffer = new StringBuffer();
+        char[] chars = new char[64];
+        LineTokenizer tokenizer = new LineTokenizer();
+        for (int d = 0; d < diseaseGeneNames.size(); d++) {
+            String geneName = diseaseGeneNames.get(d);
+
+            /** a disease gene not in any sample gets a column too, shuffled variants fill it. */
+            Integer geneId = geneIdMap.get(geneName);
+            if (geneId == null) {
+                geneId = geneNameList.size();
+                geneIdMap.put(geneName, geneId);
+                geneNameList.add(geneName);
+                geneColumnList.add(new GeneColumn());
+            }
+            diseaseGeneIds[d] = geneId;
+            geneColumnList.get(geneId).indexSamples(sampleNameList.size());
+
+            List<String> variantList = geneVariantsMap.get(geneName);
+            if (variantList == null) {
+                Log.warn("No variant of disease gene " + geneName + "!");
+                variantList = new ArrayList<String>();
+            } else if (variantList.size() < toBeShuffledVariantsNumber) {
+                System.err.println("Disease gene " + geneName + " has " + variantList.size()
+                        + " variants, less than " + toBeShuffledVariantsNumber + "!");
+                return false;
+            }
+            diseaseVariantScores[d] = new double[variantList.size()];
+            for (int i = 0; i < variantList.size(); i++) {
+                tokenizer.setLine(variantList.get(i));
+                Score.appendAverageScore(tokenizer, dFormat, buffer);
+                diseaseVariantScores[d][i] = LineTokenizer.parseDouble(buffer, chars);
+            }
+        }
+        Log.info("Reading disease variants finished!");
+        return true;
+    }
+
+    /**
+     * format a gene score like ".genescore" files, then parse it back.
+     */
+    private static double round(double score, DecimalFormat dFormat, StringBuffer buffer,
+            char[] chars) {
+        buffer.setLength(0);
+        dFormat.format(score, buffer, new FieldPosition(0));
+        return LineTokenizer.parseDouble(buffer, chars);
+    }
+
+    /**
+     * run tasks by {@link TaskUtil#runTasks}.
+     *
+     * @param taskList
+     * @return results in the order of tasks, null if a task failed.
+     */
+    private <T> List<T> runTasks(List<Callable<T>> taskList) {
+        try {
+            return TaskUtil.runTasks(taskList, threads);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * write "power_inheritanceModel.txt".
+     *
+     * @throws IOException
+     */
+    private void writePower(String inheritanceModel, List<Double> frequencyList,
+            int[][] passed, int[][] ranked) throws IOException {
+        String powerFilePath =
+                outputPath + File.separator + "power_" + inheritanceModel + ".txt";
+        fileCreate(powerFilePath);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(powerFilePath));
+        try {
+            bw.write("#frequency\tgene\treplicates\tpassed(p<=" + alpha + ")\tpower\tranked(top"
+                    + top + ")\trankPower\n");
+            for (int f = 0; f < frequencyList.size(); f++) {
+                for (int d = 0; d < diseaseGeneIds.length; d++) {
+                    bw.write(frequencyList.get(f) + "\t" + diseaseGeneNameList.get(d) + "\t"
+                            + replicates + "\t" + passed[f][d] + "\t"
+                            + (double) passed[f][d] / replicates + "\t" + ranked[f][d] + "\t"
+                            + (double) ranked[f][d] / replicates + "\n");
+                }
+            }
+        } finally {
+            bw.close();
+        }
+        Log.info("Power of " + inheritanceModel + " output at " + powerFilePath + "!");
+    }
+
+    public String getInputFolderPath() {
+        return inputFolderPath;
+    }
+
+    public void setInputFolderPath(String inputFolderPath) {
+        this.inputFolderPath = inputFolderPath;
+    }
+
+    public String getDiseaseVariantsFilePath() {
+        return diseaseVariantsFilePath;
+    }
+
+    public void setDiseaseVariantsFilePath(String diseaseVariantsFilePath) {
+        this.diseaseVariantsFilePath = diseaseVariantsFilePath;
+    }
+
+    public String getToBeShuffledGeneNameFilePath() {
+        return toBeShuffledGeneNameFilePath;
+    }
+
+    public void setToBeShuffledGeneNameFilePath(String toBeShuffledGeneNameFilePath) {
+        this.toBeShuffledGeneNameFilePath = toBeShuffledGeneNameFilePath;
+    }
+
+    public String getToBeShuffledFrequencyFilePath() {
+        return toBeShuffledFrequencyFilePath;
+    }
+
+    public void setToBeShuffledFrequencyFilePath(String toBeShuffledFrequencyFilePath) {
+        this.toBeShuffledFrequencyFilePath = toBeShuffledFrequencyFilePath;
+    }
+
+    public List<String> getInheritanceModelList() {
+        return inheritanceModelList;
+    }
+
+    public void setInheritanceModelList(List<String> inheritanceModelList) {
+        this.inheritanceModelList = inheritanceModelList;
+    }
+
+    public int getToBeShuffledVariantsNumber() {
+        return toBeShuffledVariantsNumber;
+    }
+
+    public void setToBeShuffledVariantsNumber(int toBeShuffledVariantsNumber) {
+        this.toBeShuffledVariantsNumber = toBeShuffledVariantsNumber;
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+    }
+
+    public int getReplicates() {
+        return replicates;
+    }
+
+    public void setReplicates(int replicates) {
+        this.replicates = replicates;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public void setTop(int top) {
+        this.top = top;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * <pre>
+     * scores of a gene in the samples which have variants in it, the same as a line of gene score
+     * matrix without "N/A" of samples which have no variant in the gene.
+     * dominant score is the highest variant score, recessive score is the rounded sum of the two
+     * highest, NaN if less than two variants. The second highest is kept to combine shuffled
+     * variants.
+     * </pre>
+     */
+    private static class GeneColumn {
+
+        private int size = 0;
+        private int[] samples = new int[4];
+        private double[] dominantScores = new double[4];
+        private double[] recessiveScores = new double[4];
+        private double[] secondHighestScores = new double[4];
+
+        /** index of a sample in the column, -1 if not in, only for disease genes. */
+        private int[] sampleIndex = null;
+
+        public void add(int sample, double dominantScore, double recessiveScore,
+                double secondHighestScore) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+                dominantScores = Arrays.copyOf(dominantScores, size * 2);
+                recessiveScores = Arrays.copyOf(recessiveScores, size * 2);
+                secondHighestScores = Arrays.copyOf(secondHighestScores, size * 2);
+            }
+            samples[size] = sample;
+            dominantScores[size] = dominantScore;
+            recessiveScores[size] = recessiveScore;
+            secondHighestScores[size] = secondHighestScore;
+            size++;
+        }
+
+        public void indexSamples(int sampleCount) {
+            sampleIndex = new int[sampleCount];
+            Arrays.fill(sampleIndex, -1);
+            for (int i = 0; i < size; i++)
+                sampleIndex[samples[i]] = i;
+        }
+    }
+
+    /**
+     * <pre>
+     * a replicate, the result is result[model][frequency][2 * d] = p-value of disease gene d, and
+     * result[model][frequency][2 * d + 1] = rank of disease gene d, infinity if the gene is not in
+     * case.
+     * </pre>
+     */
+    private class Replicate implements Callable<double[][][]> {
+
+        private int replicate = 0;
+        private List<Double> frequencyList = null;
+        private SplitMix64 random = null;
+        private TwoPartStatistic statistic = new TwoPartStatistic();
+        private DecimalFormat dFormat = new DecimalFormat(GENE_SCORE_FORMAT);
+        private StringBuffer buffer = new StringBuffer();
+        private char[] chars = new char[64];
+
+        public Replicate(int replicate, List<Double> frequencyList) {
+            this.replicate = replicate;
+            this.frequencyList = frequencyList;
+        }
+
+        @Override
+        public double[][][] call() {
+            random = new SplitMix64(seed, replicate);
+            int sampleCount = sampleNameList.size();
+            int halfNumber = sampleCount / 2;
+
+            /** pick up case, then control independently, like Pickup. */
+            int[] caseSamples = pick(sampleCount, halfNumber);
+            boolean[] isCase = new boolean[sampleCount];
+            for (int sample : caseSamples)
+                isCase[sample] = true;
+            boolean[] isControl = new boolean[sampleCount];
+            for (int sample : pick(sampleCount, halfNumber))
+                isControl[sample] = true;
+
+            boolean[] isDiseaseGene = new boolean[geneColumnList.size()];
+            for (int geneId : diseaseGeneIds)
+                isDiseaseGene[geneId] = true;
+
+            /** X2 of genes that are not disease genes, sorted, for every model. */
+            double[][] sortedX2 = new double[inheritanceModelList.size()][];
+            for (int m = 0; m < inheritanceModelList.size(); m++) {
+                boolean recessive = inheritanceModelList.get(m).matches("(.)*recessive(.)*");
+                double[] x2 = new double[geneColumnList.size()];
+                int x2Count = 0;
+                for (int g = 0; g < geneColumnList.size(); g++) {
+                    if (isDiseaseGene[g])
+                        continue;
+                    double geneX2 =
+                            computeX2(geneColumnList.get(g), recessive, isCase, isControl,
+                                    halfNumber);
+                    if (!Double.isNaN(geneX2))
+                        x2[x2Count++] = geneX2;
+                }
+                sortedX2[m] = Arrays.copyOf(x2, x2Count);
+                Arrays.sort(sortedX2[m]);
+            }
+
+            double[][][] result =
+                    new double[inheritanceModelList.size()][frequencyList.size()][];
+            int[] injectedIndex = new int[sampleCount];
+            for (int f = 0; f < frequencyList.size(); f++) {
+                /** pick up case samples to be shuffled into, like Shuffle. */
+                int counts = (int) Math.ceil(halfNumber * frequencyList.get(f));
+                int[] order = Arrays.copyOf(caseSamples, caseSamples.length);
+                partialShuffle(order, counts);
+                Arrays.fill(injectedIndex, -1);
+                for (int i = 0; i < counts; i++)
+                    injectedIndex[order[i]] = i;
+
+                /** scores of disease genes in shuffled samples, [d][2 * i] and [d][2 * i + 1]. */
+                double[][] injectedScores = new double[diseaseGeneIds.length][];
+                for (int d = 0; d < diseaseGeneIds.length; d++)
+                    injectedScores[d] = inject(d, order, counts);
+
+                for (int m = 0; m < inheritanceModelList.size(); m++) {
+                    boolean recessive = inheritanceModelList.get(m).matches("(.)*recessive(.)*");
+                    double[] diseaseX2 = new double[diseaseGeneIds.length];
+                    for (int d = 0; d < diseaseGeneIds.length; d++)
+                        diseaseX2[d] =
+                                computeDiseaseX2(d, recessive, caseSamples, isControl,
+                                        injectedIndex, injectedScores[d]);
+                    result[m][f] = new double[2 * diseaseGeneIds.length];
+                    for (int d = 0; d < diseaseGeneIds.length; d++) {
+                        result[m][f][2 * d] = upperTail(diseaseX2[d], 2);
+                        result[m][f][2 * d + 1] = rank(diseaseX2, d, sortedX2[m]);
+                    }
+                }
+            }
+            Log.debug("Replicate " + (replicate + 1) + " finished!");
+            return result;
+        }
+
+        /**
+         * @return count samples randomly picked up from sampleCount samples.
+         */
+        private int[] pick(int sampleCount, int count) {
+            int[] order = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++)
+                order[i] = i;
+            partialShuffle(order, count);
+            return Arrays.copyOf(order, count);
+        }
+
+        /**
+         * partial Fisher-Yates, the first count of array are a random subset of it.
+         */
+        private void partialShuffle(int[] array, int count) {
+            for (int i = 0; i < count; i++) {
+                int j = i + random.nextInt(array.length - i);
+                int temp = array[i];
+                array[i] = array[j];
+                array[j] = temp;
+            }
+        }
+
+        /**
+         * shuffle variants of disease gene d into the first counts samples of order.
+         *
+         * @return dominant and recessive scores of the gene in these samples.
+         */
+        private double[] inject(int d, int[] order, int counts) {
+            GeneColumn column = geneColumnList.get(diseaseGeneIds[d]);
+            double[] variantScores = diseaseVariantScores[d];
+            int number = Math.min(toBeShuffledVariantsNumber, variantScores.length);
+            int[] variants = new int[variantScores.length];
+            for (int i = 0; i < variants.length; i++)
+                variants[i] = i;
+            double[] scores = new double[2 * counts];
+            for (int i = 0; i < counts; i++) {
+                GeneScoreAccumulator accumulator = new GeneScoreAccumulator();
+                int index = column.sampleIndex[order[i]];
+                if (index >= 0) {
+                    accumulator.add(column.dominantScores[index]);
+                    if (!Double.isInfinite(column.secondHighestScores[index]))
+                        accumulator.add(column.secondHighestScores[index]);
+                }
+                partialShuffle(variants, number);
+                for (int j = 0; j < number; j++)
+                    accumulator.add(variantScores[variants[j]]);
+                scores[2 * i] =
+                        accumulator.hasDominantScore() ? accumulator.getDominantScore()
+                                : Double.NaN;
+                scores[2 * i + 1] =
+                        accumulator.hasRecessiveScore() ? round(accumulator.getRecessiveScore(),
+                                dFormat, buffer, chars) : Double.NaN;
+            }
+            return scores;
+        }
+
+        /**
+         * X2 of a gene without shuffled variants, NaN if the gene is not in case.
+         */
+        private double computeX2(GeneColumn column, boolean recessive, boolean[] isCase,
+                boolean[] isControl, int caseCount) {
+            statistic.clear();
+            boolean inCase = false;
+            int caseScoreCount = 0;
+            double[] scores = recessive ? column.recessiveScores : column.dominantScores;
+            for (int i = 0; i < column.size; i++) {
+                int sample = column.samples[i];
+                double score = scores[i];
+                if (isCase[sample]) {
+                    inCase = true;
+                    if (!Double.isNaN(score)) {
+                        statistic.addCaseScore(score);
+                        caseScoreCount++;
+                    }
+                }
+                if (isControl[sample] && !Double.isNaN(score))
+                    statistic.addControlScore(score);
+            }
+            if (!inCase)
+                return Double.NaN;
+            statistic.addCaseNA(caseCount - caseScoreCount);
+            statistic.compute();
+            return statistic.getX2();
+        }
+
+        /**
+         * X2 of disease gene d with shuffled variants, NaN if the gene is not in case.
+         */
+        private double computeDiseaseX2(int d, boolean recessive, int[] caseSamples,
+                boolean[] isControl, int[] injectedIndex, double[] injectedScores) {
+            GeneColumn column = geneColumnList.get(diseaseGeneIds[d]);
+            double[] scores = recessive ? column.recessiveScores : column.dominantScores;
+            statistic.clear();
+            boolean inCase = false;
+            for (int sample : caseSamples) {
+                double score = Double.NaN;
+                if (injectedIndex[sample] >= 0) {
+                    inCase = true;
+                    score = injectedScores[2 * injectedIndex[sample] + (recessive ? 1 : 0)];
+                } else if (column.sampleIndex[sample] >= 0) {
+                    inCase = true;
+                    score = scores[column.sampleIndex[sample]];
+                }
+                if (Double.isNaN(score))
+                    statistic.addCaseNA();
+                else
+                    statistic.addCaseScore(score);
+            }
+            for (int i = 0; i < column.size; i++) {
+                if (isControl[column.samples[i]] && !Double.isNaN(scores[i]))
+                    statistic.addControlScore(scores[i]);
+            }
+            if (!inCase)
+                return Double.NaN;
+            statistic.compute();
+            return statistic.getX2();
+        }
+
+        /**
+         * @return 1 + number of genes with greater X2, infinity if X2 is NaN.
+         */
+        private double rank(double[] diseaseX2, int d, double[] sortedX2) {
+            double x2 = diseaseX2[d];
+            if (Double.isNaN(x2))
+                return Double.POSITIVE_INFINITY;
+            int greater = 0;
+            for (int i = 0; i < diseaseX2.length; i++) {
+                if (diseaseX2[i] > x2)
+                    greater++;
+            }
+            /** first index whose X2 is greater. */
+            int low = 0, high = sortedX2.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sortedX2[middle] > x2)
+                    high = middle;
+                else
+                    low = middle + 1;
+            }
+            greater += sortedX2.length - low;
+            return greater + 1;
+        }
+    }
+}
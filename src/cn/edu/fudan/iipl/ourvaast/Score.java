@@ -4,6 +4,8 @@
 
 package cn.edu.fudan.iipl.ourvaast;
 
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+import static cn.edu.fudan.iipl.util.CompressionUtil.openWriter;
 import static cn.edu.fudan.iipl.util.FileUtil.dirCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.dirJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.fileCreate;
@@ -12,21 +14,29 @@ import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
 import static cn.edu.fudan.iipl.util.FileUtil.getFileName;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.text.DecimalFormat;
+import java.text.FieldPosition;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.Metrics;
 
 /**
  * Score each gene
@@ -36,12 +46,18 @@ import java.util.concurrent.TimeUnit;
  */
 public class Score {
 
+    /** columns of rank scores of four algorithms, see {@link Score#getAverageScoreString}. */
+    private static final int[] AVERAGE_SCORE_COLUMNS = {6, 9, 13, 15};
+
     private String caseFolderPath = null;
     private String controlFolderPath = null;
     private String toBeShuffledFrequencyFilePath = null;
     private String inheritanceModel = null;
     private String caseOutputPath = null;
     private String controlOutputPath = null;
+    private boolean outputAverageScore = false;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private GeneDictionary geneDictionary = new GeneDictionary();
 
     public static void main(String[] args) {
         if (args.length < 12) {
@@ -55,23 +71,27 @@ public class Score {
         score.processInput(args);
 
 
-        /** create case variant average score output path and case gene score output path. */
-        String caseVariantAvgScoreOutputPath =
-                score.getCaseOutputPath() + File.separator + "variantAvgScore";
+        /** create case gene score output path and control gene score output path. */
         String caseGeneScoreOutputPath = score.getCaseOutputPath() + File.separator + "geneScore";
-        dirCreate(caseVariantAvgScoreOutputPath);
-        dirCreate(caseGeneScoreOutputPath);
-
-
-        /** create case variant average score output path and case gene score output path. */
-        String controlVariantAvgScoreOutputPath =
-                score.getControlOutputPath() + File.separator + "variantAvgScore";
         String controlGeneScoreOutputPath =
                 score.getControlOutputPath() + File.separator + "geneScore";
-        dirCreate(controlVariantAvgScoreOutputPath);
+        dirCreate(caseGeneScoreOutputPath);
         dirCreate(controlGeneScoreOutputPath);
 
 
+        /** variant average score output path, only if '-avgscore true'. */
+        String caseVariantAvgScoreOutputPath = null;
+        String controlVariantAvgScoreOutputPath = null;
+        if (score.isOutputAverageScore()) {
+            caseVariantAvgScoreOutputPath =
+                    score.getCaseOutputPath() + File.separator + "variantAvgScore";
+            controlVariantAvgScoreOutputPath =
+                    score.getControlOutputPath() + File.separator + "variantAvgScore";
+            dirCreate(caseVariantAvgScoreOutputPath);
+            dirCreate(controlVariantAvgScoreOutputPath);
+        }
+
+
         /** read frequency list. */
         List<Double> frequencyList = new ArrayList<Double>();
         BufferedReader frequencyFileReader = null;
@@ -98,41 +118,23 @@ public class Score {
         }
 
 
-        /** get average score of each variant. */
-        /** case. */
-        for (Double frequency : frequencyList)
-            score.getAverageScoreForVariants(score.getCaseFolderPath() + File.separator
-                    + getPercentFormat(frequency, 2, 0), "case", caseVariantAvgScoreOutputPath);
-        /** control. */
-        score.getAverageScoreForVariants(score.getControlFolderPath(), "control",
-                controlVariantAvgScoreOutputPath);
-
-
-        System.out.println("Getting average score for variants finished!");
-        System.out.println("Now we will begin to score each gene in 5 seconds!");
-        for (int i = 5; i >= 1;) {
-            try {
-                TimeUnit.SECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            System.out.println("Now we will begin to score each gene in " + (--i) + " seconds!");
-        }
-
-
         /* score each gene. */
+        boolean success = true;
         for (int j = 0; j < frequencyList.size(); j++) {
-            System.out.println("\n------- Score Each Gene start! Now processing frequency "
-                    + getPercentFormat(frequencyList.get(j), 2, 0) + "!\n");
+            Log.info("------- Score Each Gene start! Now processing frequency "
+                    + getPercentFormat(frequencyList.get(j), 2, 0) + "! -------");
             // case
-            score.scoreEachGene(
-                    caseVariantAvgScoreOutputPath + File.separator
-                            + getPercentFormat(frequencyList.get(j), 2, 0), "case",
-                    score.getInheritanceModel(), caseGeneScoreOutputPath, 5);
+            success &= score.scoreEachGeneFromSamples(score.getCaseFolderPath() + File.separator
+                    + getPercentFormat(frequencyList.get(j), 2, 0), "case",
+                    score.getInheritanceModel(), caseGeneScoreOutputPath,
+                    caseVariantAvgScoreOutputPath);
         }
         // control
-        score.scoreEachGene(controlVariantAvgScoreOutputPath, "control",
-                score.getInheritanceModel(), controlGeneScoreOutputPath, 5);
+        success &= score.scoreEachGeneFromSamples(score.getControlFolderPath(), "control",
+                score.getInheritanceModel(), controlGeneScoreOutputPath,
+                controlVariantAvgScoreOutputPath);
+        if (!success)
+            System.exit(1);
     }
 
     /**
@@ -184,12 +186,17 @@ public class Score {
                         + "-inheritance inheritanceModel: [required] The inheritance model. Two values will be accepted, such as 'recessive_model' or 'dominant_model'."
                         + "\n\t" + "-caseout caseOutputPath: [required] The case output path."
                         + "\n\t"
-                        + "-controlout controlOutputPath: [required] The control output path.";
+                        + "-controlout controlOutputPath: [required] The control output path."
+                        + "\n\t"
+                        + "-avgscore true|false: [optional] Also output variants' average score files with suffix '.avgScore'. Default is false,"
+                        + "\n\t\t\t gene scores are computed from samples directly."
+                        + "\n\t"
+                        + "-threads threads: [optional] Maximum number of samples processed concurrently. Default is the number of processors.";
         System.out.println(usageString);
     }
 
     public void processInput(String[] args) {
-        for (int i = 0; i < 12; i++) {
+        for (int i = 0; i < args.length; i++) {
             if (i % 2 == 0) {
                 switch (InputEnum.valueOf(args[i].substring(1).toUpperCase())) {
                     case CASEIN:
@@ -220,6 +227,16 @@ public class Score {
                         dirCreate(args[++i]);
                         this.controlOutputPath = getCanonicalPath(args[i]);
                         break;
+                    case AVGSCORE:
+                        this.outputAverageScore = Boolean.parseBoolean(args[++i]);
+                        break;
+                    case THREADS:
+                        this.threads = Integer.parseInt(args[++i]);
+                        if (this.threads < 1) {
+                            System.err.println("-threads parameter error! Please input a positive integer!");
+                            System.exit(1);
+                        }
+                        break;
                 }
             }
         }
@@ -238,78 +255,142 @@ public class Score {
      * @param folderPath
      * @param caseOrControl
      * @param outputFolderPath
+     * @return false if a sample failed.
      */
-    public void getAverageScoreForVariants(String folderPath, String caseOrControl,
+    public boolean getAverageScoreForVariants(final String folderPath, String caseOrControl,
             String outputFolderPath) {
-        try {
-            File folder = new File(folderPath);
-            System.out.println(folderPath);
-            List<String> fileList = Arrays.asList(folder.list());
-
+        Log.info(folderPath);
+        final ShuffledCaseOverlay overlay = readOverlay(folderPath);
+        List<String> fileList = listSamples(folderPath, overlay);
+        if (fileList == null)
+            return false;
+
+        dirCreate(outputFolderPath);
+        if (caseOrControl.equals("case")) {
+            String frequency = getFileName(folderPath);
+            outputFolderPath += File.separator + frequency;
             dirCreate(outputFolderPath);
-            if (caseOrControl.equals("case")) {
-                String frequency = getFileName(folderPath);
-                outputFolderPath += File.separator + frequency;
-                dirCreate(outputFolderPath);
-            }
+        }
 
-            for (String fileItem : fileList) {
-                File file = new File(folderPath + File.separator + fileItem);
-                BufferedReader bReader = new BufferedReader(new FileReader(file));
+        final String averageScoreFolderPath = outputFolderPath;
+        List<Callable<Void>> taskList = new ArrayList<Callable<Void>>();
+        for (final String fileItem : fileList) {
+            taskList.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    getAverageScoreForSample(folderPath, fileItem, overlay,
+                            averageScoreFolderPath);
+                    return null;
+                }
+            });
+        }
+        if (!runSampleTasks(fileList, taskList)) {
+            System.err.println("counting average score failed!");
+            return false;
+        }
+        Log.info("counting average score finished!");
+        return true;
+    }
 
-                File averageScoreFile =
-                        new File(outputFolderPath + File.separator + fileItem + ".avgScore");
-                FileWriter fWriter = new FileWriter(averageScoreFile);
-                try {
-                    String tempString = bReader.readLine();
-                    String[] feature = tempString.trim().split("\\s+");
-                    String writeString =
-                            feature[0] + "\t" + feature[1] + "\t" + feature[2] + "\t" + feature[3]
-                                    + "\t" + feature[4] + "\t" + "average_score";
-                    for (int i = 5; i < feature.length; i++)
-                        writeString += "\t" + feature[i];
-                    writeString += "\n";
-                    fWriter.write(writeString, 0, writeString.length());
-                    fWriter.flush();
-
-                    while ((tempString = bReader.readLine()) != null) {
-                        feature = tempString.trim().split("\\s+");
-                        writeString = "";
-                        for (int i = 0; i < 5; i++) {
-                            writeString += feature[i] + "\t";
-                        }
+    /**
+     * get average score for every variant in a sample, output file has suffix ".avgScore".
+     *
+     * @param folderPath
+     * @param fileItem file name of the sample.
+     * @param overlay overlay of the folder, null if the folder is not an overlay folder.
+     * @param outputFolderPath
+     * @throws IOException
+     */
+    private void getAverageScoreForSample(String folderPath, String fileItem,
+            ShuffledCaseOverlay overlay, String outputFolderPath) throws IOException {
+        LineTokenizer tokenizer = new LineTokenizer(openSample(folderPath, fileItem, overlay));
 
-                        /** calculate average. */
-                        double averageScore =
-                                countAverage(Arrays.asList(feature[6], feature[9], feature[13],
-                                        feature[15]));
-                        String averageScoreString = null;
-                        DecimalFormat dFormat = new DecimalFormat("#####0.000000");
-                        if (averageScore == -1) {
-                            averageScoreString = ".";
-                        } else {
-                            averageScoreString = dFormat.format(averageScore);
-                        }
+        File averageScoreFile = new File(outputFolderPath + File.separator + fileItem + ".avgScore");
+        BufferedWriter bWriter = new BufferedWriter(openWriter(averageScoreFile));
+        try {
+            DecimalFormat dFormat = new DecimalFormat("#####0.000000");
+            StringBuffer averageScoreBuffer = new StringBuffer();
 
-                        writeString += averageScoreString;
-                        for (int i = 5; i < feature.length; i++) {
-                            writeString += "\t" + feature[i];
-                        }
-                        writeString += "\n";
-                        fWriter.write(writeString, 0, writeString.length());
-                        fWriter.flush();
-                    }
-                } finally {
-                    bReader.close();
-                    fWriter.close();
-                }
-                System.out.println(fileItem + " got variants' average score at "
-                        + averageScoreFile.getCanonicalPath() + " !");
+            tokenizer.readLine();
+            averageScoreBuffer.append("average_score");
+            writeAverageScoreLine(tokenizer, averageScoreBuffer, bWriter);
+
+            while (tokenizer.readLine()) {
+                appendAverageScore(tokenizer, dFormat, averageScoreBuffer);
+                writeAverageScoreLine(tokenizer, averageScoreBuffer, bWriter);
             }
-            System.out.println("counting average score finished!");
-        } catch (IOException e) {
-            e.printStackTrace();
+        } finally {
+            tokenizer.close();
+            bWriter.close();
         }
+        Log.debug(fileItem + " got variants' average score at "
+                + averageScoreFile.getCanonicalPath() + " !");
+    }
+
+    /**
+     * <pre>
+     * get average score of the variant, rank scores of four algorithms are located at column 6, 9,
+     *  13, 15 respectively (column starts from 0).
+     * </pre>
+     *
+     * @param feature columns of a variant line in a sample.
+     * @return average score formatted like "0.123456".
+     */
+    public String getAverageScoreString(String[] feature) {
+        double averageScore =
+                countAverage(Arrays.asList(feature[6], feature[9], feature[13], feature[15]));
+        DecimalFormat dFormat = new DecimalFormat("#####0.000000");
+        if (averageScore == -1)
+            return ".";
+        return dFormat.format(averageScore);
+    }
+
+    /**
+     * <pre>
+     * get average score of the variant in the tokenizer without creating Strings, the same as
+     * {@link Score#getAverageScoreString(String[])}.
+     * </pre>
+     *
+     * @param tokenizer current line is a variant in a sample.
+     * @param dFormat format "#####0.000000".
+     * @param averageScoreBuffer cleared, then the average score is appended.
+     */
+    static void appendAverageScore(LineTokenizer tokenizer, DecimalFormat dFormat,
+            StringBuffer averageScoreBuffer) {
+        double average = 0;
+        int count = 0;
+        for (int column : AVERAGE_SCORE_COLUMNS) {
+            if (!tokenizer.fieldEquals(column, ".")) {
+                average += tokenizer.parseDouble(column);
+                count++;
+            }
+        }
+        if (average != 0)
+            average /= count;
+        averageScoreBuffer.setLength(0);
+        dFormat.format(average, averageScoreBuffer, new FieldPosition(0));
+    }
+
+    /**
+     * write a line of ".avgScore" file, average score is inserted at column 5.
+     *
+     * @param tokenizer current line is a line in a sample.
+     * @param averageScoreBuffer average score, or column name for the header.
+     * @param writer
+     * @throws IOException
+     */
+    private void writeAverageScoreLine(LineTokenizer tokenizer, StringBuffer averageScoreBuffer,
+            Writer writer) throws IOException {
+        for (int i = 0; i < 5; i++) {
+            tokenizer.writeField(i, writer);
+            writer.write('\t');
+        }
+        writer.append(averageScoreBuffer);
+        if (tokenizer.hasField(5)) {
+            writer.write('\t');
+            tokenizer.writeFields(5, Integer.MAX_VALUE, writer);
+        }
+        writer.write('\n');
     }
 
     /**
@@ -347,133 +428,413 @@ public class Score {
      * @note we haven't do
      *       "remove one of two variants in cis (the two variants closely reside on the same read) and keep the one with the higher score"
      *       .
+     * @return false if inheritance model error or a sample failed.
      */
-    public void scoreEachGene(String samplesFolderPath, String caseOrControl,
-            String inheritanceModel, String outputPath, int column) {
-        try {
+    public boolean scoreEachGene(final String samplesFolderPath, String caseOrControl,
+            final String inheritanceModel, String outputPath, final int column) {
+        if (!checkInheritanceModel(inheritanceModel))
+            return false;
 
+        /** get frequency(percentage format). */
+        String frequency = getFileName(samplesFolderPath);
 
-            /** get frequency(percentage format). */
-            String frequency = getFileName(samplesFolderPath);
+        outputPath = outputPath + File.separator + inheritanceModel;
+        dirCreate(outputPath);
 
-            outputPath = outputPath + File.separator + inheritanceModel;
+        if (caseOrControl.equals("case")) {
+            outputPath = outputPath + File.separator + frequency;
             dirCreate(outputPath);
+        }
 
-            if (caseOrControl.equals("case")) {
-                outputPath = outputPath + File.separator + frequency;
-                dirCreate(outputPath);
+        Log.info("You choose \"" + inheritanceModel + "\" model!");
+
+        final ShuffledCaseOverlay overlay = readOverlay(samplesFolderPath);
+        List<String> fileList = listSamples(samplesFolderPath, overlay);
+        if (fileList == null)
+            return false;
+
+        final String geneScoreFolderPath = outputPath;
+        List<Callable<Void>> taskList = new ArrayList<Callable<Void>>();
+        for (final String fileItemName : fileList) {
+            taskList.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    scoreEachGeneForSample(samplesFolderPath, fileItemName, overlay,
+                            inheritanceModel, geneScoreFolderPath, column);
+                    return null;
+                }
+            });
+        }
+        if (!runSampleTasks(fileList, taskList)) {
+            System.err.println("scoreEachGene failed!");
+            return false;
+        }
+        Log.info("scoreEachGene finished!");
+        return true;
+    }
+
+    /**
+     * score each gene in a sample with variants' average score, output file has suffix
+     * ".genescore".
+     *
+     * @see Score#scoreEachGene(String, String, String, String, int)
+     */
+    private void scoreEachGeneForSample(String samplesFolderPath, String fileItemName,
+            ShuffledCaseOverlay overlay, String inheritanceModel, String outputPath, int column)
+            throws IOException {
+        Log.debug("scoreEachGene: processing " + samplesFolderPath + File.separator
+                + fileItemName);
+
+
+        /** remove the suffix ".score.out.avgScore" from the file name. */
+        String[] sampleName = fileItemName.split("\\.");
+        File geneScoreFile = new File(outputPath + File.separator + sampleName[0] + ".genescore");
+        fileCreate(geneScoreFile.getCanonicalPath());
+
+        /** accumulators of gene scores, indexed by gene id. */
+        SampleGeneScores geneScores = new SampleGeneScores(geneDictionary);
+
+
+        LineTokenizer tokenizer = null;
+        BufferedWriter bWriter = null;
+        try {
+            tokenizer =
+                    new LineTokenizer(openSample(samplesFolderPath, fileItemName, overlay));
+            bWriter = new BufferedWriter(openWriter(geneScoreFile));
+
+            /** get the header. */
+            tokenizer.readLine();
+            String writeString = "#" + tokenizer.getField(4) + "\t" + "geneScore" + "\n";
+            bWriter.write(writeString, 0, writeString.length());
+
+
+            while (tokenizer.readLine()) {
+
+                /**
+                 * column 4 is gene name, column 5 is the average score of the variant.
+                 */
+                GeneScoreAccumulator accumulator = geneScores.getAccumulator(tokenizer, 4);
+                if (tokenizer.fieldEquals(column, "."))
+                    accumulator.addMissing();
+                else
+                    accumulator.add(tokenizer.parseDouble(column));
             }
 
-            System.out.println("You choose \"" + inheritanceModel + "\" model!");
+            writeGeneScore(geneScores, inheritanceModel, bWriter);
+        } finally {
+            if (bWriter != null)
+                bWriter.close();
+            if (tokenizer != null)
+                tokenizer.close();
+        }
+    }
 
-            File folderFile = new File(samplesFolderPath);
-            List<String> fileList = Arrays.asList(folderFile.list());
+    /**
+     * <pre>
+     * fused version of {@link Score#getAverageScoreForVariants} and {@link Score#scoreEachGene}.
+     * Average score of every variant is folded into the gene it belongs to as soon as the line is
+     * read, so ".genescore" files are generated in a single pass over the samples, without
+     * writing and re-reading the ".avgScore" intermediate files.
+     * </pre>
+     *
+     * @param samplesFolderPath folder path of samples, for case it is the frequency folder.
+     * @param caseOrControl ("case" or "control")
+     * @param inheritanceModel "recessive_model" or "dominant_model"
+     * @param geneScoreOutputPath
+     * @param avgScoreOutputPath ".avgScore" files are written into this folder(like
+     *        {@link Score#getAverageScoreForVariants}) if it is not null.
+     * @return false if inheritance model error or a sample failed, ".genescore" files of the
+     *         folder are incomplete then.
+     */
+    public boolean scoreEachGeneFromSamples(final String samplesFolderPath,
+            String caseOrControl, final String inheritanceModel, String geneScoreOutputPath,
+            String avgScoreOutputPath) {
+        if (!checkInheritanceModel(inheritanceModel))
+            return false;
+
+        /** get frequency(percentage format). */
+        String frequency = getFileName(samplesFolderPath);
+
+        geneScoreOutputPath = geneScoreOutputPath + File.separator + inheritanceModel;
+        dirCreate(geneScoreOutputPath);
+        if (caseOrControl.equals("case")) {
+            geneScoreOutputPath = geneScoreOutputPath + File.separator + frequency;
+            dirCreate(geneScoreOutputPath);
+        }
+        if (avgScoreOutputPath != null) {
+            dirCreate(avgScoreOutputPath);
+            if (caseOrControl.equals("case")) {
+                avgScoreOutputPath += File.separator + frequency;
+                dirCreate(avgScoreOutputPath);
+            }
+        }
 
-            for (String fileItemName : fileList) {
-                System.out.println("scoreEachGene: processing " + samplesFolderPath
-                        + File.separator + fileItemName);
+        Log.info("You choose \"" + inheritanceModel + "\" model!");
+
+        final ShuffledCaseOverlay overlay = readOverlay(samplesFolderPath);
+        List<String> fileList = listSamples(samplesFolderPath, overlay);
+        if (fileList == null)
+            return false;
+
+        final String geneScoreFolderPath = geneScoreOutputPath;
+        final String avgScoreFolderPath = avgScoreOutputPath;
+        List<Callable<Void>> taskList = new ArrayList<Callable<Void>>();
+        for (final String fileItemName : fileList) {
+            taskList.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    scoreEachGeneFromSample(samplesFolderPath, fileItemName, overlay,
+                            inheritanceModel, geneScoreFolderPath, avgScoreFolderPath);
+                    return null;
+                }
+            });
+        }
+        if (!runSampleTasks(fileList, taskList)) {
+            System.err.println("scoreEachGene failed!");
+            return false;
+        }
+        Log.info("scoreEachGene finished!");
+        return true;
+    }
 
+    /**
+     * score each gene in a sample directly, output file has suffix ".genescore".
+     *
+     * @see Score#scoreEachGeneFromSamples(String, String, String, String, String)
+     */
+    private void scoreEachGeneFromSample(String samplesFolderPath, String fileItemName,
+            ShuffledCaseOverlay overlay, String inheritanceModel, String geneScoreOutputPath,
+            String avgScoreOutputPath) throws IOException {
+        Log.debug("scoreEachGene: processing " + samplesFolderPath + File.separator
+                + fileItemName);
+
+        /** remove the suffix ".score.out" from the file name. */
+        String[] sampleName = fileItemName.split("\\.");
+        File geneScoreFile =
+                new File(geneScoreOutputPath + File.separator + sampleName[0] + ".genescore");
+        fileCreate(geneScoreFile.getCanonicalPath());
+
+        SampleGeneScores geneScores = new SampleGeneScores(geneDictionary);
+
+        LineTokenizer tokenizer = null;
+        BufferedWriter bWriter = null;
+        BufferedWriter avgScoreWriter = null;
+        try {
+            tokenizer =
+                    new LineTokenizer(openSample(samplesFolderPath, fileItemName, overlay));
+            bWriter = new BufferedWriter(openWriter(geneScoreFile));
+            if (avgScoreOutputPath != null)
+                avgScoreWriter =
+                        new BufferedWriter(openWriter(avgScoreOutputPath + File.separator
+                                + fileItemName + ".avgScore"));
+
+            DecimalFormat dFormat = new DecimalFormat("#####0.000000");
+            StringBuffer averageScoreBuffer = new StringBuffer();
+            char[] averageScoreChars = new char[64];
+
+            /** get the header. */
+            tokenizer.readLine();
+            String writeString = "#" + tokenizer.getField(4) + "\t" + "geneScore" + "\n";
+            bWriter.write(writeString, 0, writeString.length());
+            if (avgScoreWriter != null) {
+                averageScoreBuffer.append("average_score");
+                writeAverageScoreLine(tokenizer, averageScoreBuffer, avgScoreWriter);
+            }
 
-                /** remove the suffix ".score.out.avgScore" from the file name. */
-                String[] sampleName = fileItemName.split("\\.");
-                File geneScoreFile =
-                        new File(outputPath + File.separator + sampleName[0] + ".genescore");
-                fileCreate(geneScoreFile.getCanonicalPath());
+            while (tokenizer.readLine()) {
+                appendAverageScore(tokenizer, dFormat, averageScoreBuffer);
+                if (avgScoreWriter != null)
+                    writeAverageScoreLine(tokenizer, averageScoreBuffer, avgScoreWriter);
+
+                /**
+                 * column 4 is gene name, gene score is computed with the formatted average score
+                 * so that it is the same as reading ".avgScore" files.
+                 */
+                geneScores.getAccumulator(tokenizer, 4).add(
+                        LineTokenizer.parseDouble(averageScoreBuffer, averageScoreChars));
+            }
 
-                /** create a hashmap to store gene score matrix. */
-                HashMap<String, List<String>> geneScoreMap = new HashMap<String, List<String>>();
+            writeGeneScore(geneScores, inheritanceModel, bWriter);
+        } finally {
+            if (avgScoreWriter != null)
+                avgScoreWriter.close();
+            if (bWriter != null)
+                bWriter.close();
+            if (tokenizer != null)
+                tokenizer.close();
+        }
+    }
 
+    /**
+     * @param folderPath
+     * @return overlay of the folder(see {@link ShuffledCaseOverlay}), null if the folder is not
+     *         an overlay folder or the overlay manifest is broken.
+     */
+    private ShuffledCaseOverlay readOverlay(String folderPath) {
+        try {
+            return ShuffledCaseOverlay.readIfPresent(folderPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-                BufferedReader bReader = null;
-                FileWriter fWriter = null;
-                String tempString = null;
+    /**
+     * @param folderPath
+     * @param overlay overlay of the folder, null if the folder is not an overlay folder.
+     * @return file names of samples, null if the overlay manifest of the folder is broken.
+     */
+    private List<String> listSamples(String folderPath, ShuffledCaseOverlay overlay) {
+        if (overlay != null)
+            return overlay.getSampleNames();
+        if (ShuffledCaseOverlay.isOverlayFolder(folderPath)) {
+            System.err.println("reading overlay manifest of " + folderPath + " failed!");
+            return null;
+        }
+        return Arrays.asList(new File(folderPath).list());
+    }
 
+    /**
+     * @param folderPath
+     * @param fileItemName file name of the sample.
+     * @param overlay overlay of the folder, null if the folder is not an overlay folder.
+     * @return reader of the sample.
+     * @throws IOException
+     */
+    private Reader openSample(String folderPath, String fileItemName, ShuffledCaseOverlay overlay)
+            throws IOException {
+        if (overlay != null)
+            return overlay.openSample(fileItemName);
+        return openReader(folderPath + File.separator + fileItemName);
+    }
 
+    /**
+     * <pre>
+     * run tasks of samples in a thread pool whose size is at most "threads", or in the calling
+     * thread if the pool would have a single thread.
+     * Samples are independent, failure of a sample is reported and does not stop the others,
+     * but the result is false so that callers never take partial outputs as complete.
+     * Time of every sample is recorded in {@link Metrics#SAMPLE_SECONDS}, and progress of samples
+     * is logged.
+     * </pre>
+     *
+     * @param fileList file names of samples.
+     * @param taskList task of each sample, in the same order as fileList.
+     * @return false if a sample failed or the calling thread is interrupted.
+     */
+    private boolean runSampleTasks(List<String> fileList, List<Callable<Void>> taskList) {
+        if (taskList.isEmpty())
+            return true;
+        Log.Progress progress = Log.progress("scoring", "samples");
+        for (int i = 0; i < taskList.size(); i++) {
+            taskList.set(i, progress.stepAfter(Metrics.timed(Metrics.SAMPLE_SECONDS,
+                    taskList.get(i))));
+        }
+        boolean success = true;
+        int poolSize = Math.max(1, Math.min(threads, taskList.size()));
+        if (poolSize == 1) {
+            for (int i = 0; i < taskList.size(); i++) {
                 try {
-                    bReader =
-                            new BufferedReader(new FileReader(samplesFolderPath + File.separator
-                                    + fileItemName));
-                    fWriter = new FileWriter(geneScoreFile);
-
-                    /** get the header. */
-                    tempString = bReader.readLine();
-                    String[] columns = tempString.trim().split("\\s");
-                    String writeString = "#" + columns[4] + "\t" + "geneScore" + "\n";
-                    fWriter.write(writeString, 0, writeString.length());
-                    fWriter.flush();
-
-
-                    while ((tempString = bReader.readLine()) != null) {
-                        columns = tempString.trim().split("\\s+");
-
-                        /**
-                         * columns[4] is gene name, columns[5] is the average score of the variant.
-                         */
-                        if (geneScoreMap.containsKey(columns[4])) {
-                            List<String> keyList = new ArrayList<String>();
-                            for (String string : geneScoreMap.get(columns[4]))
-                                keyList.add(string);
-                            keyList.add(columns[column]);
-                            geneScoreMap.put(columns[4], keyList);
-                        } else
-                            geneScoreMap.put(columns[4], Arrays.asList(columns[column]));
-                    }
-
-
-                    for (Entry<String, List<String>> entry : geneScoreMap.entrySet()) {
-                        writeString = entry.getKey() + "\t";
-                        List<String> scoreList = entry.getValue();
-                        if (inheritanceModel.matches("(.)*recessive(.)*")) {
-                            if (scoreList.size() < 2)
-                                writeString += "N/A\n";
-                            else {
-                                writeString += getGeneScoreRecessiveModel(scoreList) + "\n";
-                            }
-                        } else if (inheritanceModel.matches("(.)*dominant(.)*")) {
-                            Collections.sort(scoreList);
-
-                            /**
-                             * The highest score located at the last position after sorting
-                             * operation.
-                             */
-                            writeString += scoreList.get(scoreList.size() - 1) + "\n";
-                        } else {
-                            System.out.println("inheritance model error!");
-                            return;
-                        }
-                        fWriter.write(writeString, 0, writeString.length());
-                    }
-                } finally {
-                    fWriter.close();
-                    bReader.close();
+                    taskList.get(i).call();
+                } catch (Exception e) {
+                    System.err.println("processing " + fileList.get(i) + " failed!");
+                    e.printStackTrace();
+                    success = false;
                 }
             }
-            System.out.println("scoreEachGene finished!");
-        } catch (IOException e) {
+            progress.done();
+            return success;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        try {
+            List<Future<Void>> futureList = executor.invokeAll(taskList);
+            for (int i = 0; i < futureList.size(); i++) {
+                try {
+                    futureList.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println("processing " + fileList.get(i) + " failed!");
+                    e.getCause().printStackTrace();
+                    success = false;
+                }
+            }
+        } catch (InterruptedException e) {
             e.printStackTrace();
+            Thread.currentThread().interrupt();
+            success = false;
+        } finally {
+            executor.shutdownNow();
         }
+        progress.done();
+        return success;
     }
 
     /**
-     * get sum of two highest score in a list.
+     * @param inheritanceModel
+     * @return true if inheritanceModel is recessive or dominant.
+     */
+    private boolean checkInheritanceModel(String inheritanceModel) {
+        if (inheritanceModel.matches("(.)*recessive(.)*")
+                || inheritanceModel.matches("(.)*dominant(.)*"))
+            return true;
+        System.out.println("inheritance model error!");
+        return false;
+    }
+
+    /**
+     * <pre>
+     * write score of every gene of a sample, sorted by gene name so that Statistic merges the
+     * samples without loading them.
+     * recessive model: sum of the two highest scores, "N/A" if less than two variants are scored.
+     * dominant model: the highest score, "." if no variant is scored.
+     * </pre>
      *
-     * @param list list of scores
-     * @return the sum of two highest score in a list.
+     * @param geneScores accumulators of variant scores in genes.
+     * @param inheritanceModel "recessive_model" or "dominant_model"
+     * @param writer writer of ".genescore" file.
+     * @return false if inheritance model error.
+     * @throws IOException
      */
-    public String getGeneScoreRecessiveModel(List<String> list) {
-        if (list.size() < 2) {
-            System.out.println("getGeneScoreRecessiveModel error! length of list is less than 2");
-            return null;
+    private boolean writeGeneScore(SampleGeneScores geneScores, String inheritanceModel,
+            Writer writer) throws IOException {
+        boolean recessive = inheritanceModel.matches("(.)*recessive(.)*");
+        if (!recessive && !inheritanceModel.matches("(.)*dominant(.)*")) {
+            System.out.println("inheritance model error!");
+            return false;
         }
-        Collections.sort(list, new MyComparator());
         DecimalFormat dFormat = new DecimalFormat("#####0.000000");
-        if (list.get(list.size() - 1).trim().equals(".")
-                || list.get(list.size() - 2).trim().equals("."))
-            return "N/A";
-        double sum =
-                Double.parseDouble(list.get(list.size() - 1))
-                        + Double.parseDouble(list.get(list.size() - 2));
-        return dFormat.format(sum);
+        StringBuilder writeStringBuilder = new StringBuilder();
+        final String[] geneNames = new String[geneScores.getGeneCount()];
+        Integer[] geneOrder = new Integer[geneNames.length];
+        for (int i = 0; i < geneNames.length; i++) {
+            geneNames[i] = geneDictionary.getGene(geneScores.getGeneId(i));
+            geneOrder[i] = i;
+        }
+        Metrics.add(Metrics.RECORDS, geneNames.length);
+        Arrays.sort(geneOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer gene1, Integer gene2) {
+                return geneNames[gene1].compareTo(geneNames[gene2]);
+            }
+        });
+        for (int i : geneOrder) {
+            GeneScoreAccumulator accumulator = geneScores.getAccumulatorOfGene(i);
+            writeStringBuilder.setLength(0);
+            writeStringBuilder.append(geneNames[i]).append("\t");
+            if (recessive) {
+                if (accumulator.hasRecessiveScore())
+                    writeStringBuilder.append(dFormat.format(accumulator.getRecessiveScore()));
+                else
+                    writeStringBuilder.append("N/A");
+            } else {
+                if (accumulator.hasDominantScore())
+                    writeStringBuilder.append(dFormat.format(accumulator.getDominantScore()));
+                else
+                    writeStringBuilder.append(".");
+            }
+            writeStringBuilder.append("\n");
+            writer.append(writeStringBuilder);
+        }
+        return true;
     }
 
     public String getCaseFolderPath() {
@@ -524,33 +885,116 @@ public class Score {
         this.controlOutputPath = controlOutputPath;
     }
 
+    public boolean isOutputAverageScore() {
+        return outputAverageScore;
+    }
+
+    public void setOutputAverageScore(boolean outputAverageScore) {
+        this.outputAverageScore = outputAverageScore;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public GeneDictionary getGeneDictionary() {
+        return geneDictionary;
+    }
+
+    /**
+     * @param geneDictionary dictionary shared with other steps of the pipeline.
+     */
+    public void setGeneDictionary(GeneDictionary geneDictionary) {
+        this.geneDictionary = geneDictionary;
+    }
+
     enum InputEnum {
         CASEIN, // input option "-casein"
         CONTROLIN, // input option "-controlin"
         FREQUENCY, // input option "-frequency"
         INHERITANCE, // input option "-inheritance"
         CASEOUT, // input option "-caseout"
-        CONTROLOUT // input option "-controlout"
+        CONTROLOUT, // input option "-controlout"
+        AVGSCORE, // input option "-avgscore"
+        THREADS // input option "-threads"
     }
 
+    /**
+     * <pre>
+     * accumulators of gene scores in a sample, indexed by gene id of the shared dictionary.
+     * Variants of a gene are adjacent in sorted samples, so the gene of the previous line is
+     * compared first and the dictionary is only searched when the gene changes.
+     * </pre>
+     */
+    static class SampleGeneScores {
+
+        private GeneDictionary geneDictionary = null;
+        private GeneScoreAccumulator[] accumulators = new GeneScoreAccumulator[1024];
 
-    class MyComparator implements Comparator<String> {
-        @Override
-        public int compare(String o1, String o2) {
-            o1 = o1.trim();
-            o2 = o2.trim();
-            if (o1.equals(".")) {
-                if (o2.equals(".")) // o1 is "." and o2 is "."
-                    return 0;
-                if (!o2.equals(".")) // o1 is "." and o2 is not "."
-                    return -1;
-            } else {
-                if (o2.equals(".")) // o1 is not "." and o2 is "."
-                    return 1;
+        /** ids of genes in the order they first appear. */
+        private int[] geneIds = new int[256];
+        private int geneCount = 0;
+
+        private String lastGene = null;
+        private GeneScoreAccumulator lastAccumulator = null;
+
+        SampleGeneScores(GeneDictionary geneDictionary) {
+            this.geneDictionary = geneDictionary;
+        }
+
+        /**
+         * get accumulator of the gene in a field of the current line, create it if the gene first
+         * appears.
+         *
+         * @param tokenizer
+         * @param index column index of gene name.
+         * @return accumulator of the gene.
+         */
+        GeneScoreAccumulator getAccumulator(LineTokenizer tokenizer, int index) {
+            if (lastGene != null && tokenizer.fieldEquals(index, lastGene))
+                return lastAccumulator;
+            int id = geneDictionary.getId(tokenizer, index);
+            if (id >= accumulators.length)
+                accumulators =
+                        Arrays.copyOf(accumulators, Math.max(id + 1, accumulators.length * 2));
+            GeneScoreAccumulator accumulator = accumulators[id];
+            if (accumulator == null) {
+                accumulator = new GeneScoreAccumulator();
+                accumulators[id] = accumulator;
+                if (geneCount == geneIds.length)
+                    geneIds = Arrays.copyOf(geneIds, geneCount * 2);
+                geneIds[geneCount++] = id;
             }
+            lastGene = geneDictionary.getGene(id);
+            lastAccumulator = accumulator;
+            return accumulator;
+        }
+
+        /**
+         * @return number of genes in the sample.
+         */
+        int getGeneCount() {
+            return geneCount;
+        }
+
+        /**
+         * @param i order of the gene in the sample.
+         * @return id of the gene.
+         */
+        int getGeneId(int i) {
+            return geneIds[i];
+        }
 
-            /** both o1 and o2 are numbers. */
-            return Double.valueOf(o1).compareTo(Double.valueOf(o2));
+        /**
+         * @param i order of the gene in the sample.
+         * @return accumulator of the gene.
+         */
+        GeneScoreAccumulator getAccumulatorOfGene(int i) {
+            return accumulators[geneIds[i]];
         }
     }
 }
@@ -4,18 +4,21 @@
 
 package cn.edu.fudan.iipl.ourvaast;
 
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+import static cn.edu.fudan.iipl.util.CompressionUtil.openWriter;
 import static cn.edu.fudan.iipl.util.FileUtil.copyFile;
 import static cn.edu.fudan.iipl.util.FileUtil.dirCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.dirJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.fileCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.fileJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
+import static cn.edu.fudan.iipl.util.TaskUtil.runTasks;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
@@ -25,10 +28,23 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+
+import cn.edu.fudan.iipl.util.FileUtil.CopyStrategy;
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.Metrics;
+import cn.edu.fudan.iipl.util.SplitMix64;
 
 /**
+ * <pre>
  * Shuffle positive variants into case.
+ * Randomness comes from the seed only: case samples of a frequency are picked up by a random
+ * stream of (seed, frequency), variants shuffled into a sample are picked up by a random stream
+ * of (seed, frequency, sample name). So samples are shuffled concurrently, and a run is replayed
+ * exactly by its seed.
+ * </pre>
  *
  * @author Yong Chen
  * @since 2015-01-28
@@ -41,6 +57,11 @@ public class Shuffle {
     private String toBeShuffledFrequencyFilePath = null;
     private int toBeShuffledVariantsNumber = 0;
     private String shuffledCaseOutputPath = null;
+    private CopyStrategy copyStrategy = CopyStrategy.HARD_LINK;
+    private boolean useDiseaseVariantIndex = false;
+    private boolean useOverlay = false;
+    private long seed = new Random().nextLong();
+    private int threads = Runtime.getRuntime().availableProcessors();
 
     public static void main(String[] args) {
         if (args.length < 12) {
@@ -113,12 +134,14 @@ public class Shuffle {
 
 
         /** shuffle. */
-        shuffle.shuffleAccordingToGeneName(shuffle.getDiseaseVariantsFilePath(),
-                diseaseGeneNameList, frequencyList, shuffle.getToBeShuffledVariantsNumber());
+        if (!shuffle.shuffleAccordingToGeneName(shuffle.getDiseaseVariantsFilePath(),
+                diseaseGeneNameList, frequencyList, shuffle.getToBeShuffledVariantsNumber()))
+            System.exit(1);
 
 
         /** copy. */
-        shuffle.copyCaseFilesToShuffledCaseFolder(shuffle.getCaseFolderPath(), frequencyList);
+        if (!shuffle.copyCaseFilesToShuffledCaseFolder(shuffle.getCaseFolderPath(), frequencyList))
+            System.exit(1);
         /** finished shuffling. */
     }
 
@@ -171,12 +194,25 @@ public class Shuffle {
                         + "First we extract all pathogenic variants from the file [-v diseaseVariantsFilePath] you input. So we get all pathogenic variants you are interested in. \n\t\t"
                         + "For each sample, we randomly picked up this number(you input from [-n shuffledVariantsNumber]) of variants from all these pathogenic variants, \n\t\t"
                         + "and shuffled them into samples according to frequency." + "\n\t"
-                        + "-o shuffledCaseOutputPath: [required] The output path.";
+                        + "-o shuffledCaseOutputPath: [required] The output path."
+                        + "\n\t"
+                        + "-c copyStrategy: [optional] How case files without shuffled variants are put into concentration folders, "
+                        + "'copy', 'hard_link', 'symbolic_link' or 'reflink'. \n\t\tDefault is 'hard_link', files are copied if it is not supported."
+                        + "\n\t"
+                        + "-i useDiseaseVariantIndex: [optional] 'true' or 'false', keep an index of [-v diseaseVariantsFilePath] by gene and position in \"diseaseVariantsFilePath" + DiseaseVariantIndex.SIDECAR_SUFFIX + "\", \n\t\t"
+                        + "later runs against the same file seek variants of the genes in the index instead of parsing the whole file. Default is 'false'."
+                        + "\n\t"
+                        + "-d useOverlay: [optional] 'true' or 'false', write a delta manifest \"" + ShuffledCaseOverlay.MANIFEST_FILE_NAME + "\" of shuffled variants into each concentration folder \n\t\t"
+                        + "instead of full copies of case files. Score and GetVcfAfterShuffling read the manifest transparently, other tools need full copies. Default is 'false'."
+                        + "\n\t"
+                        + "-s seed: [optional] Seed of shuffling, the same seed shuffles the same variants into the same samples. Default is a random seed, which is printed."
+                        + "\n\t"
+                        + "-p threads: [optional] Maximum number of case samples shuffled concurrently. Default is the number of processors.";
         System.out.println(usageString);
     }
 
     public void processInput(String[] args) {
-        for (int i = 0; i < 12; i++) {
+        for (int i = 0; i < args.length; i++) {
             if (i % 2 == 0) {
                 switch (args[i].charAt(1)) {
                     case 't':
@@ -202,6 +238,25 @@ public class Shuffle {
                         dirCreate(args[++i]);
                         this.shuffledCaseOutputPath = getCanonicalPath(args[i]);
                         break;
+                    case 'c':
+                        this.copyStrategy = CopyStrategy.parse(args[++i]);
+                        break;
+                    case 'i':
+                        this.useDiseaseVariantIndex = Boolean.parseBoolean(args[++i]);
+                        break;
+                    case 'd':
+                        this.useOverlay = Boolean.parseBoolean(args[++i]);
+                        break;
+                    case 's':
+                        this.seed = Long.parseLong(args[++i]);
+                        break;
+                    case 'p':
+                        this.threads = Integer.parseInt(args[++i]);
+                        if (this.threads < 1) {
+                            System.err.println("-p parameter error! threads must be positive!");
+                            System.exit(1);
+                        }
+                        break;
                 }
             }
         }
@@ -229,111 +284,120 @@ public class Shuffle {
             dirJudge(caseFolderPath.toString());
             fileJudge(diseaseFilePath);
             if (diseaseGeneNameList.isEmpty()) {
-                System.out.println("diseaseGeneNameList is empty!");
-                System.exit(1);
+                System.err.println("diseaseGeneNameList is empty!");
+                return false;
             }
             if (concentrationList.isEmpty()) {
-                System.out.println("concentrationList is empty!");
-                System.exit(1);
+                System.err.println("concentrationList is empty!");
+                return false;
+            }
+
+            /**
+             * put variants of genes exist in diseaseGeneNameList into a map in memory once for all
+             * concentrations, key of the map is gene name, value of the map is a list of variants
+             * of corresponding gene
+             */
+            Set<String> diseaseGeneNameSet = new HashSet<String>(diseaseGeneNameList);
+            Map<String, List<String>> geneVariantsMap =
+                    useDiseaseVariantIndex ? DiseaseVariantIndex.load(diseaseFilePath,
+                            diseaseGeneNameSet) : DiseaseVariantIndex.parse(diseaseFilePath,
+                            diseaseGeneNameSet);
+            int variantCount = 0;
+            for (List<String> variantList : geneVariantsMap.values())
+                variantCount += variantList.size();
+            Log.info("Putting variants in diseaseGeneNameList into a list success!");
+            Log.info("length of variant list related to a certain disease:"
+                    + variantCount);
+
+            /** genes in a fixed order, so picked up variants only depend on the random stream. */
+            final List<String> geneNameList = new ArrayList<String>(geneVariantsMap.keySet());
+            Collections.sort(geneNameList);
+            for (String geneName : geneNameList) {
+                if (geneVariantsMap.get(geneName).size() < variantSampleNumber) {
+                    System.err.println("gene " + geneName + " has "
+                            + geneVariantsMap.get(geneName).size() + " variants, less than "
+                            + variantSampleNumber + "!");
+                    return false;
+                }
             }
+            Log.info("seed of shuffling: " + seed + ", use \"-s " + seed
+                    + "\" to replay it.");
 
             // now shuffle starts
             for (Double concentration : concentrationList) {
-                File diseaseFile = new File(diseaseFilePath);
-                File caseFolderFile = new File(caseFolderPath.toString());
+                // get case file list, sorted so that picked up samples do not depend on the order
+                // of the file system
+                String[] caseFileNames = new File(caseFolderPath).list();
+                Arrays.sort(caseFileNames);
+                Log.info("get case file list success!");
 
-                // get case file list
-                List<File> caseFileList = Arrays.asList(caseFolderFile.listFiles());
-                System.out.println("get case file list success!");
+                int counts = (int) Math.ceil(caseFileNames.length * concentration);
 
-                int counts = (int) Math.ceil(caseFileList.size() * concentration);
+                // check and create "concentration folder", such as "5%"
+                StringBuilder concentrationPath =
+                        new StringBuilder(getShuffledCaseOutputPath()).append(File.separatorChar)
+                                .append(getPercentFormat(concentration, 2, 0));
+                final String concentrationFolderPath = dirCreate(concentrationPath.toString());
+
+                // pick up case files by partial Fisher-Yates
+                int[] order = new int[caseFileNames.length];
+                for (int i = 0; i < order.length; i++)
+                    order[i] = i;
+                SplitMix64 random = new SplitMix64(seed, frequencyStream(concentration));
+                for (int i = 0; i < Math.min(counts, order.length); i++) {
+                    int j = i + random.nextInt(order.length - i);
+                    int temp = order[i];
+                    order[i] = order[j];
+                    order[j] = temp;
+                }
+                boolean[] picked = new boolean[caseFileNames.length];
+                for (int i = 0; i < Math.min(counts, order.length); i++)
+                    picked[order[i]] = true;
+                Log.info("pick up case file list success!");
 
                 /**
-                 * put variants of genes exist in diseaseGeneNameList into a map in memory, key of
-                 * the map is gene name, value of the map is a list of variants of corresponding
-                 * gene
+                 * in overlay mode only a manifest of shuffled variants is written, see
+                 * {@link ShuffledCaseOverlay}, otherwise remove the manifest of an earlier run.
                  */
-                Map<String, List<String>> geneVariantsMap = new HashMap<String, List<String>>();
-                BufferedReader diseaseBufferedReader =
-                        new BufferedReader(new FileReader(diseaseFile));
-                String tempString = null;
-                List<String> variantList = new ArrayList<String>();
-                while ((tempString = diseaseBufferedReader.readLine()) != null) {
-                    String[] diseaseFeature = tempString.trim().split("\\s+");
-                    if (diseaseGeneNameList.contains(diseaseFeature[4])) {
-                        if (!geneVariantsMap.containsKey(diseaseFeature[4])) {
-                            List<String> variantsList = new ArrayList<String>();
-                            StringBuilder writeString = new StringBuilder();
-                            for (int i = 0; i < diseaseFeature.length - 3; i++) {
-                                writeString.append(diseaseFeature[i] + "\t");
-                            }
-                            writeString.append(diseaseFeature[diseaseFeature.length - 3]);
-                            variantsList.add(writeString.toString());
-                            geneVariantsMap.put(diseaseFeature[4], variantsList);
-                        } else {
-                            StringBuilder writeString = new StringBuilder();
-                            for (int i = 0; i < diseaseFeature.length - 3; i++) {
-                                writeString.append(diseaseFeature[i] + "\t");
-                            }
-                            writeString.append(diseaseFeature[diseaseFeature.length - 3]);
-                            List<String> variantsList = geneVariantsMap.get(diseaseFeature[4]);
-                            variantsList.add(writeString.toString());
-                        }
+                File manifestFile =
+                        new File(concentrationFolderPath, ShuffledCaseOverlay.MANIFEST_FILE_NAME);
+                manifestFile.delete();
+                if (useOverlay) {
+                    ShuffledCaseOverlay overlay = new ShuffledCaseOverlay(caseFolderPath);
+                    for (int i = 0; i < caseFileNames.length; i++) {
+                        long startTime = System.nanoTime();
+                        List<String> shuffledVariants =
+                                picked[i] ? getShuffledVariants(geneVariantsMap, geneNameList,
+                                        variantSampleNumber, concentration, caseFileNames[i])
+                                        : new ArrayList<String>();
+                        overlay.addSample(caseFileNames[i], shuffledVariants);
+                        Metrics.observeSince(Metrics.SAMPLE_SECONDS, startTime);
                     }
+                    overlay.write(concentrationFolderPath);
+                    Log.info("shuffleAccordingToGeneName finished!");
+                    continue;
                 }
-                diseaseBufferedReader.close();
-                System.out.println("Putting variants in diseaseGeneNameList into a list success!");
-                System.out.println("length of variant list related to a certain disease:"
-                        + variantList.size());
 
-                // check and create "concentration folder", such as "5%"
-                StringBuilder concentrationPath =
-                        new StringBuilder(getShuffledCaseOutputPath()).append(File.separatorChar)
-                                .append(getPercentFormat(concentration, 2, 0));
-                concentrationPath = new StringBuilder(dirCreate(concentrationPath.toString()));
-
-                // shuffle list of case File
-                List<File> shuffledCaseFileList = new ArrayList<File>(caseFileList);
-                Collections.shuffle(shuffledCaseFileList);
-                System.out.println("shuffle case file list success!");
-
-                for (int i = 0; i < shuffledCaseFileList.size(); i++) {
-                    if (i < counts) {
-                        StringBuilder caseFilePathItemShuffled =
-                                new StringBuilder(concentrationPath).append(File.separatorChar)
-                                        .append(shuffledCaseFileList.get(i).getName());
-                        caseFilePathItemShuffled =
-                                new StringBuilder(fileCreate(caseFilePathItemShuffled.toString()));
-                        BufferedReader caseFileBufferedReader =
-                                new BufferedReader(new FileReader(caseFolderPath.toString()
-                                        + File.separatorChar
-                                        + shuffledCaseFileList.get(i).getName()));
-                        try {
-                            FileWriter fw = new FileWriter(caseFilePathItemShuffled.toString());
-                            try {
-                                tempString = caseFileBufferedReader.readLine();
-                                fw.write(tempString + "\n", 0, (tempString + "\n").length());
-                                for (String geneName : geneVariantsMap.keySet()) {
-                                    List<String> shuffledVariantList =
-                                            geneVariantsMap.get(geneName);
-                                    Collections.shuffle(shuffledVariantList);
-                                    for (int j = 0; j < variantSampleNumber; j++)
-                                        fw.write(shuffledVariantList.get(j) + "\n", 0,
-                                                (shuffledVariantList.get(j) + "\n").length());
-                                }
-                                for (tempString = caseFileBufferedReader.readLine(); tempString != null;) {
-                                    fw.write(tempString + "\n", 0, (tempString + "\n").length());
-                                    tempString = caseFileBufferedReader.readLine();
-                                }
-                            } finally {
-                                fw.close();
-                            }
-                        } finally {
-                            caseFileBufferedReader.close();
+                List<Callable<Boolean>> taskList = new ArrayList<Callable<Boolean>>();
+                for (int i = 0; i < caseFileNames.length; i++) {
+                    if (!picked[i])
+                        continue;
+                    final String caseFileName = caseFileNames[i];
+                    final Map<String, List<String>> variantsMap = geneVariantsMap;
+                    final int sampleNumber = variantSampleNumber;
+                    final double frequency = concentration;
+                    taskList.add(Metrics.timed(Metrics.SAMPLE_SECONDS, new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws IOException {
+                            writeShuffledCaseFile(caseFileName, concentrationFolderPath,
+                                    getShuffledVariants(variantsMap, geneNameList, sampleNumber,
+                                            frequency, caseFileName));
+                            return true;
                         }
-                    }
+                    }));
                 }
-                System.out.println("shuffleAccordingToGeneName finished!");
+                runTasks(taskList, threads);
+                Log.info("shuffleAccordingToGeneName finished!");
             }
             return true;
         } catch (Exception e) {
@@ -342,13 +406,99 @@ public class Shuffle {
         return false;
     }
 
+    /**
+     * write a case file with shuffled variants after the header into the concentration folder.
+     *
+     * @param caseFileName
+     * @param concentrationFolderPath
+     * @param shuffledVariants
+     */
+    void writeShuffledCaseFile(String caseFileName, String concentrationFolderPath,
+            List<String> shuffledVariants) throws IOException {
+        String caseFilePathItemShuffled =
+                concentrationFolderPath + File.separatorChar + caseFileName;
+
+        /**
+         * the file may be a link to the original case file made by an earlier run, remove it
+         * instead of writing through the link.
+         */
+        new File(caseFilePathItemShuffled).delete();
+        caseFilePathItemShuffled = fileCreate(caseFilePathItemShuffled);
+        BufferedReader caseFileBufferedReader =
+                new BufferedReader(openReader(caseFolderPath + File.separatorChar
+                        + caseFileName));
+        try {
+            BufferedWriter bw = new BufferedWriter(openWriter(caseFilePathItemShuffled));
+            try {
+                String tempString = caseFileBufferedReader.readLine();
+                bw.write(tempString + "\n");
+                for (String variant : shuffledVariants)
+                    bw.write(variant + "\n");
+                while ((tempString = caseFileBufferedReader.readLine()) != null)
+                    bw.write(tempString + "\n");
+            } finally {
+                bw.close();
+            }
+        } finally {
+            caseFileBufferedReader.close();
+        }
+    }
+
+    /**
+     * randomly pick up variants of each gene to be shuffled into a case file, by the random stream
+     * of (seed, frequency, sample name).
+     *
+     * @param geneVariantsMap key is gene name, value is variants of the gene.
+     * @param geneNameList sorted gene names.
+     * @param variantSampleNumber number of variants picked up from each gene.
+     * @param concentration
+     * @param caseFileName
+     * @return picked up variants.
+     */
+    private List<String> getShuffledVariants(Map<String, List<String>> geneVariantsMap,
+            List<String> geneNameList, int variantSampleNumber, double concentration,
+            String caseFileName) {
+        SplitMix64 random =
+                new SplitMix64(seed, SplitMix64.mix(frequencyStream(concentration)
+                        + caseFileName.hashCode()));
+        List<String> shuffledVariants = new ArrayList<String>();
+        Map<Integer, Integer> swappedMap = new HashMap<Integer, Integer>();
+        for (String geneName : geneNameList) {
+            List<String> variantList = geneVariantsMap.get(geneName);
+
+            /**
+             * partial Fisher-Yates over indexes of the variant list, only swapped indexes are
+             * kept in the map, so picking up k variants costs O(k) whatever the size of the list.
+             */
+            swappedMap.clear();
+            for (int i = 0; i < variantSampleNumber; i++) {
+                int j = i + random.nextInt(variantList.size() - i);
+                Integer swapped = swappedMap.get(j);
+                Integer current = swappedMap.get(i);
+                swappedMap.put(j, current == null ? i : current);
+                shuffledVariants.add(variantList.get(swapped == null ? j : swapped));
+            }
+        }
+        Metrics.add(Metrics.RECORDS, shuffledVariants.size());
+        return shuffledVariants;
+    }
+
+    /**
+     * @param concentration
+     * @return index of the random stream of a frequency.
+     */
+    private static long frequencyStream(double concentration) {
+        return SplitMix64.mix(Double.doubleToLongBits(concentration));
+    }
+
     /**
      * step 2# copy case files to shuffled case folder if and only if case files those not exists in
      * objective folder
      *
      * @param caseFolderPath
+     * @return false if copying a case file failed.
      */
-    public void copyCaseFilesToShuffledCaseFolder(String caseFolderPath,
+    public boolean copyCaseFilesToShuffledCaseFolder(String caseFolderPath,
             List<Double> concentrationList) {
         dirJudge(caseFolderPath);
         dirJudge(getShuffledCaseOutputPath());
@@ -364,23 +514,31 @@ public class Shuffle {
             concentrationPath = new StringBuilder(dirCreate(concentrationPath.toString()));
 
             File objectiveFolderFile = new File(concentrationPath.toString());
+            if (ShuffledCaseOverlay.isOverlayFolder(concentrationPath.toString())) {
+                /** all case files are in the overlay manifest. */
+                Log.info("percent " + getPercentFormat(concentration, 2, 0)
+                        + " is an overlay, nothing to copy!");
+                continue;
+            }
             Set<String> shuffledDiseaseSet = new HashSet<String>();
             Collections.addAll(shuffledDiseaseSet, objectiveFolderFile.list());
 
             for (String caseFile : caseFileList) {
                 if (!shuffledDiseaseSet.contains(caseFile)) {
-                    System.out.println("copying " + caseFile);
+                    Log.debug("copying " + caseFile);
 
                     StringBuilder shuffledCaseFilePath =
                             new StringBuilder(getCanonicalPath(objectiveFolderFile)).append(
                                     File.separatorChar).append(caseFile);
-                    copyFile(caseFolderPath + File.separatorChar + caseFile,
-                            shuffledCaseFilePath.toString());
+                    if (!copyFile(caseFolderPath + File.separatorChar + caseFile,
+                            shuffledCaseFilePath.toString(), copyStrategy))
+                        return false;
                 }
             }
-            System.out.println("percent " + getPercentFormat(concentration, 2, 0) + " done!");
+            Log.info("percent " + getPercentFormat(concentration, 2, 0) + " done!");
         }
-        System.out.println("copyCaseFilesToShuffledCaseFolder done!");
+        Log.info("copyCaseFilesToShuffledCaseFolder done!");
+        return true;
     }
 
     public String getCaseFolderPath() {
@@ -423,6 +581,46 @@ public class Shuffle {
         this.toBeShuffledVariantsNumber = shuffledVariantsNumber;
     }
 
+    public CopyStrategy getCopyStrategy() {
+        return copyStrategy;
+    }
+
+    public void setCopyStrategy(CopyStrategy copyStrategy) {
+        this.copyStrategy = copyStrategy;
+    }
+
+    public boolean isUseDiseaseVariantIndex() {
+        return useDiseaseVariantIndex;
+    }
+
+    public void setUseDiseaseVariantIndex(boolean useDiseaseVariantIndex) {
+        this.useDiseaseVariantIndex = useDiseaseVariantIndex;
+    }
+
+    public boolean isUseOverlay() {
+        return useOverlay;
+    }
+
+    public void setUseOverlay(boolean useOverlay) {
+        this.useOverlay = useOverlay;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     public String getShuffledCaseOutputPath() {
         return shuffledCaseOutputPath;
     }
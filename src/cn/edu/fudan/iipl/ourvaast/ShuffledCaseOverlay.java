@@ -0,0 +1,207 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * <pre>
+ * Overlay of shuffled case samples of a concentration folder.
+ * Instead of a full copy of every case file, a concentration folder keeps a manifest which refers
+ * to the folder of original case files and records the variants shuffled into each sample. Reading
+ * a sample gives the same lines as the full copy: header of the original case file, shuffled
+ * variants, then the rest of the original case file.
+ * Manifest format:
+ *     #overlay	baseFolderPath
+ *     #sample	sampleFileName	shuffledVariantCount
+ *     shuffled variant lines of the sample
+ *     ...
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class ShuffledCaseOverlay {
+
+    public static final String MANIFEST_FILE_NAME = "overlay.manifest";
+
+    private static final String OVERLAY_PREFIX = "#overlay\t";
+    private static final String SAMPLE_PREFIX = "#sample\t";
+
+    private String baseFolderPath = null;
+    private Map<String, List<String>> sampleVariantsMap = new LinkedHashMap<String, List<String>>();
+
+    public ShuffledCaseOverlay(String baseFolderPath) {
+        this.baseFolderPath = baseFolderPath;
+    }
+
+    /**
+     * @param folderPath
+     * @return true if there is an overlay manifest in the folder.
+     */
+    public static boolean isOverlayFolder(String folderPath) {
+        return new File(folderPath, MANIFEST_FILE_NAME).isFile();
+    }
+
+    /**
+     * read the overlay manifest in the folder.
+     *
+     * @param folderPath
+     * @return overlay of the folder.
+     * @throws IOException if the manifest is broken.
+     */
+    public static ShuffledCaseOverlay read(String folderPath) throws IOException {
+        File manifestFile = new File(folderPath, MANIFEST_FILE_NAME);
+        BufferedReader br = new BufferedReader(new FileReader(manifestFile));
+        try {
+            String tempString = br.readLine();
+            if (tempString == null || !tempString.startsWith(OVERLAY_PREFIX))
+                throw new IOException(manifestFile + " is not an overlay manifest!");
+            ShuffledCaseOverlay overlay =
+                    new ShuffledCaseOverlay(tempString.substring(OVERLAY_PREFIX.length()));
+            while ((tempString = br.readLine()) != null) {
+                if (!tempString.startsWith(SAMPLE_PREFIX))
+                    throw new IOException(manifestFile + " is broken at \"" + tempString + "\"!");
+                String[] columns = tempString.split("\t");
+                int variantCount = Integer.parseInt(columns[2]);
+                List<String> variantList = new ArrayList<String>(variantCount);
+                for (int i = 0; i < variantCount; i++) {
+                    tempString = br.readLine();
+                    if (tempString == null)
+                        throw new IOException(manifestFile + " is truncated!");
+                    variantList.add(tempString);
+                }
+                overlay.addSample(columns[1], variantList);
+            }
+            return overlay;
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * @param folderPath
+     * @return overlay of the folder, null if it is not an overlay folder.
+     * @throws IOException if the manifest is broken.
+     */
+    public static ShuffledCaseOverlay readIfPresent(String folderPath) throws IOException {
+        if (isOverlayFolder(folderPath))
+            return read(folderPath);
+        return null;
+    }
+
+    /**
+     * add a sample, the original case file is baseFolderPath/sampleName.
+     *
+     * @param sampleName file name of the sample.
+     * @param variantList variants shuffled into the sample, may be empty.
+     */
+    public void addSample(String sampleName, List<String> variantList) {
+        sampleVariantsMap.put(sampleName, variantList);
+    }
+
+    /**
+     * open a sample of the overlay.
+     *
+     * @param sampleName
+     * @return reader of the sample.
+     * @throws IOException
+     */
+    public Reader openSample(String sampleName) throws IOException {
+        List<String> variantList = sampleVariantsMap.get(sampleName);
+        if (variantList == null)
+            throw new IOException(sampleName + " is not in the overlay of " + baseFolderPath + "!");
+
+        Reader baseReader = openReader(baseFolderPath + File.separator + sampleName);
+        if (variantList.isEmpty())
+            return baseReader;
+        return new OverlayReader(new BufferedReader(baseReader), variantList);
+    }
+
+    /**
+     * write the overlay manifest into the folder.
+     *
+     * @param folderPath
+     * @throws IOException
+     */
+    public void write(String folderPath) throws IOException {
+        BufferedWriter bw =
+                new BufferedWriter(new FileWriter(new File(folderPath, MANIFEST_FILE_NAME)));
+        try {
+            bw.write(OVERLAY_PREFIX + baseFolderPath + "\n");
+            for (Entry<String, List<String>> entry : sampleVariantsMap.entrySet()) {
+                bw.write(SAMPLE_PREFIX + entry.getKey() + "\t" + entry.getValue().size() + "\n");
+                for (String variant : entry.getValue()) {
+                    bw.write(variant);
+                    bw.write('\n');
+                }
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    public String getBaseFolderPath() {
+        return baseFolderPath;
+    }
+
+    public List<String> getSampleNames() {
+        return Collections.unmodifiableList(new ArrayList<String>(sampleVariantsMap.keySet()));
+    }
+
+    /**
+     * header line of the base file, shuffled variants, then the rest of the base file.
+     */
+    private static class OverlayReader extends Reader {
+
+        private BufferedReader baseReader = null;
+        private char[] prefix = null;
+        private int prefixPosition = 0;
+
+        public OverlayReader(BufferedReader baseReader, List<String> variantList)
+                throws IOException {
+            this.baseReader = baseReader;
+            StringBuilder prefixBuilder = new StringBuilder();
+            String header = baseReader.readLine();
+            if (header != null)
+                prefixBuilder.append(header).append('\n');
+            for (String variant : variantList)
+                prefixBuilder.append(variant).append('\n');
+            this.prefix = prefixBuilder.toString().toCharArray();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (prefixPosition < prefix.length) {
+                int count = Math.min(len, prefix.length - prefixPosition);
+                System.arraycopy(prefix, prefixPosition, cbuf, off, count);
+                prefixPosition += count;
+                return count;
+            }
+            return baseReader.read(cbuf, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            baseReader.close();
+        }
+    }
+}
@@ -4,6 +4,8 @@
 
 package cn.edu.fudan.iipl.ourvaast;
 
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+import static cn.edu.fudan.iipl.util.CompressionUtil.openWriter;
 import static cn.edu.fudan.iipl.util.FileUtil.fileCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.fileJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.dirCreate;
@@ -13,22 +15,21 @@ import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
 import static cn.edu.fudan.iipl.util.FileUtil.getFileName;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.Map.Entry;
-import java.util.concurrent.TimeUnit;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.Metrics;
 
 /**
  * <pre>
@@ -41,6 +42,10 @@ import java.util.concurrent.TimeUnit;
  */
 public class Statistic {
 
+    /** maximum number of files merged at once, more files are merged into intermediate files. */
+    private static final int MERGE_FAN_IN = 128;
+    private static final String STATISTIC_MATRIX_HEADER = "#Gene\tRS\tB\tW\tX2\tn1\tn2\tm1\tm2\n";
+
     private String caseFolderPath = null;
     // recessive_model folder in this path, then the frequencies folder.
     private String controlFolderPath = null;
@@ -49,6 +54,16 @@ public class Statistic {
     private String inheritanceModel = null;
     private String caseOutputPath = null;
     private String controlOutputPath = null;
+    private LineTokenizer scoreTokenizer = new LineTokenizer();
+    private TwoPartStatistic twoPartStatistic = new TwoPartStatistic();
+    private long permutations = 0;
+    private long seed = 2015L;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String geneDictionaryFilePath = null;
+    private GeneDictionary geneDictionary = new GeneDictionary();
+
+    /** heap budget of a gene score matrix in memory, it is spilled to disk when over budget. */
+    private long maxHeapMb = Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024);
 
     public static void main(String[] args) {
         if (args.length < 12) {
@@ -80,6 +95,19 @@ public class Statistic {
         dirsCreate(statistic.getControlOutputPath());
 
 
+        /** ids of genes are the same as the persisted dictionary, or given by the first pass. */
+        if (statistic.getGeneDictionaryFilePath() != null
+                && new File(statistic.getGeneDictionaryFilePath()).isFile()) {
+            try {
+                statistic.setGeneDictionary(GeneDictionary.load(statistic
+                        .getGeneDictionaryFilePath()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+
         /** read frequency list. */
         List<Double> frequencyList = new ArrayList<Double>();
         BufferedReader frequencyFileReader = null;
@@ -106,31 +134,57 @@ public class Statistic {
         }
 
 
-        /** get gene score matrix for case and control. */
-        for (int j = 0; j < frequencyList.size(); j++) {
-            // case
-            statistic.getGeneScoreMatrixFromGeneScoreFiles(statistic.getCaseFolderPath()
-                    + File.separator + getPercentFormat(frequencyList.get(j), 2, 0), "case",
-                    statistic.getInheritanceModel(), statistic.getCaseOutputPath());
-        }
-        // control
-        statistic.getGeneScoreMatrixFromGeneScoreFiles(statistic.getControlFolderPath(), "control",
-                statistic.getInheritanceModel(), statistic.getControlOutputPath());
+        /** get gene score matrix for control, it is shared by all frequencies. */
+        boolean success = true;
+        success &=
+                statistic.mergeGeneScoreMatrixFromGeneScoreFiles(statistic.getControlFolderPath(),
+                        "control", statistic.getInheritanceModel(),
+                        statistic.getControlOutputPath(), null);
+        String controlGeneScoreMatrixPath =
+                getCanonicalPath(statistic.getControlOutputPath() + File.separator + "control_"
+                        + statistic.getInheritanceModel() + ".geneScoreMatrix");
 
 
-        /** get statistic matrix of rank sum&two parts test. */
+        /**
+         * get gene score matrix for case of every frequency, and statistic matrix of rank
+         * sum&two parts test in the same pass.
+         */
         for (int j = 0; j < frequencyList.size(); j++) {
+            String percent = getPercentFormat(frequencyList.get(j), 2, 0);
+            success &=
+                    statistic.mergeGeneScoreMatrixFromGeneScoreFiles(
+                            statistic.getCaseFolderPath() + File.separator + percent, "case",
+                            statistic.getInheritanceModel(), statistic.getCaseOutputPath(),
+                            controlGeneScoreMatrixPath);
             String caseGeneScoreMatrixPath =
-                    getCanonicalPath(statistic.getCaseOutputPath() + File.separator
-                            + getPercentFormat(frequencyList.get(j), 2, 0) + File.separator
-                            + "case_" + statistic.getInheritanceModel() + ".geneScoreMatrix");
-            String controlGeneScoreMatrixPath =
-                    getCanonicalPath(statistic.getControlOutputPath() + File.separator + "control_"
-                            + statistic.getInheritanceModel() + ".geneScoreMatrix");
-            statistic.getStatisticMatrix(caseGeneScoreMatrixPath, statistic.getInheritanceModel(),
-                    controlGeneScoreMatrixPath);
+                    getCanonicalPath(statistic.getCaseOutputPath() + File.separator + percent
+                            + File.separator + "case_" + statistic.getInheritanceModel()
+                            + ".geneScoreMatrix");
+
+            /** empirical p-values by permutations of case/control labels. */
+            if (statistic.getPermutations() > 0) {
+                PermutationTest permutationTest = new PermutationTest();
+                permutationTest.setMaxPermutations(statistic.getPermutations());
+                permutationTest.setSeed(statistic.getSeed());
+                permutationTest.setThreads(statistic.getThreads());
+                permutationTest.setGeneDictionary(statistic.getGeneDictionary());
+                success &= permutationTest.getPermutationMatrix(caseGeneScoreMatrixPath,
+                        statistic.getInheritanceModel(), controlGeneScoreMatrixPath);
+            }
         }
 
+
+        /** persist the dictionary, a later run gives genes the same ids. */
+        if (statistic.getGeneDictionaryFilePath() != null) {
+            try {
+                statistic.getGeneDictionary().save(statistic.getGeneDictionaryFilePath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+        if (!success)
+            System.exit(1);
     }
 
     /**
@@ -181,12 +235,25 @@ public class Statistic {
                         + "-inheritance inheritanceModel: [required] The inheritance model. Two values will be accepted, such as 'recessive_model' or 'dominant_model'."
                         + "\n\t" + "-caseout caseOutputPath: [required] The case output path."
                         + "\n\t"
-                        + "-controlout controlOutputPath: [required] The control output path.";
+                        + "-controlout controlOutputPath: [required] The control output path."
+                        + "\n\t"
+                        + "-permutations maxPermutations: [optional] Also compute empirical p-values of genes by at most this number of permutations of case/control labels,"
+                        + "\n\t\t\t permutations of a gene stop early once it is clearly not significant. Default is 0, no permutation."
+                        + "\n\t"
+                        + "-seed seed: [optional] Seed of permutations, the same seed gives the same p-values. Default is 2015."
+                        + "\n\t"
+                        + "-threads threads: [optional] Maximum number of genes permuted concurrently. Default is the number of processors."
+                        + "\n\t"
+                        + "-dictionary geneDictionaryFilePath: [optional] The gene dictionary giving every gene an int id. It is loaded if the file exists,"
+                        + "\n\t\t\t otherwise it is built from the gene score files and saved to the file. Default is a dictionary built in memory."
+                        + "\n\t"
+                        + "-maxHeapMb maxHeapMb: [optional] Heap budget in MB of a gene score matrix read into memory(gene score files not sorted by gene name),"
+                        + "\n\t\t\t parts of the matrix are spilled to temporary files and merged when it is over budget. Default is half of the maximum heap.";
         System.out.println(usageString);
     }
 
     public void processInput(String[] args) {
-        for (int i = 0; i < 12; i++) {
+        for (int i = 0; i < args.length; i++) {
             if (i % 2 == 0) {
                 switch (InputEnum.valueOf(args[i].substring(1).toUpperCase())) {
                     case CASEIN:
@@ -217,137 +284,466 @@ public class Statistic {
                         dirCreate(args[++i]);
                         this.controlOutputPath = getCanonicalPath(args[i]);
                         break;
+                    case PERMUTATIONS:
+                        this.permutations = Long.parseLong(args[++i]);
+                        break;
+                    case SEED:
+                        this.seed = Long.parseLong(args[++i]);
+                        break;
+                    case THREADS:
+                        this.threads = Integer.parseInt(args[++i]);
+                        if (this.threads < 1) {
+                            System.err.println("-threads parameter error! Please input a positive integer!");
+                            System.exit(1);
+                        }
+                        break;
+                    case DICTIONARY:
+                        this.geneDictionaryFilePath = getCanonicalPath(args[++i]);
+                        break;
+                    case MAXHEAPMB:
+                        this.maxHeapMb = Long.parseLong(args[++i]);
+                        if (this.maxHeapMb < 1) {
+                            System.err.println("-maxHeapMb parameter error! Please input a positive integer!");
+                            System.exit(1);
+                        }
+                        break;
                 }
             }
         }
     }
 
     /**
-     * get matrix of gene score from ".geneScore" files in the input folder.
+     * <pre>
+     * get matrix of gene score from ".geneScore" files in the input folder, and write it into
+     * "caseOrControl_inheritanceModel.geneScoreMatrix" in the output folder, rows are sorted by
+     * gene name.
+     * Files may be in any order of genes, so they are read into memory. When the estimated size
+     * of the matrix is over {@link #getMaxHeapMb()}, samples read so far are spilled to a
+     * temporary matrix file, and spilled files are merged into the output at the end.
+     * </pre>
      *
      * @param geneScoreFileFolder
      * @param caseOrControl ("case" or "control")
      * @param inheritanceModel ("dominant_model" or "recessive_model")
      * @param outputFolder
+     * @return false if reading or writing failed.
      */
-    public void getGeneScoreMatrixFromGeneScoreFiles(String geneScoreFileFolder,
+    public boolean getGeneScoreMatrixFromGeneScoreFiles(String geneScoreFileFolder,
             String caseOrControl, String inheritanceModel, String outputFolder) {
-        LinkedHashMap<String, List<String>> geneScoreMap =
-                new LinkedHashMap<String, List<String>>();
+        GeneScoreMatrix geneScoreMatrix = new GeneScoreMatrix();
 
         if (caseOrControl.equals("case")) {
             outputFolder += File.separator + getFileName(geneScoreFileFolder);
-            System.out.println("Getting gene score matrix for case "
+            Log.info("Getting gene score matrix for case "
                     + getFileName(geneScoreFileFolder) + "!");
-            try {
-                TimeUnit.SECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
             dirCreate(outputFolder);
         } else {
-            System.out.println("Getting gene score matrix for control!");
-            try {
-                TimeUnit.SECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            Log.info("Getting gene score matrix for control!");
         }
 
         List<String> fileNameList =
                 new ArrayList<String>(Arrays.asList(new File(geneScoreFileFolder).list()));
 
-        File outputFile =
-                new File(outputFolder + File.separator + caseOrControl + "_" + inheritanceModel
-                        + ".geneScoreMatrix");
-        fileCreate(getCanonicalPath(outputFile));
+        String outputFilePath =
+                getCanonicalPath(outputFolder + File.separator + caseOrControl + "_"
+                        + inheritanceModel + ".geneScoreMatrix");
+        fileCreate(outputFilePath);
 
-        FileWriter fWriter = null;
+        long maxHeapBytes = maxHeapMb * 1024 * 1024;
+        List<String> spillFileList = new ArrayList<String>();
+        Log.Progress progress = Log.progress("reading gene score files", "samples");
         try {
-            fWriter = new FileWriter(outputFile);
             for (int i = 0; i < fileNameList.size(); i++) {
                 String fileNameItem = fileNameList.get(i);
-                System.out.println("Reading " + (i + 1) + " :" + fileNameItem + "!");
+                Log.debug("Reading " + (i + 1) + " :" + fileNameItem + "!");
+                long startTime = System.nanoTime();
 
-                BufferedReader br = null;
+                /** get the sampel's name, remove the suffix ".geneScore" from it. */
+                int column = geneScoreMatrix.addColumn(fileNameItem.split("\\.")[0]);
+                LineTokenizer tokenizer =
+                        new LineTokenizer(openReader(geneScoreFileFolder + File.separator
+                                + fileNameItem));
                 try {
-                    br =
-                            new BufferedReader(new FileReader(geneScoreFileFolder + File.separator
-                                    + fileNameItem));
-                    String tempString = null;
-                    while ((tempString = br.readLine()) != null) {
-                        tempString = tempString.trim();
+                    while (tokenizer.readLine()) {
 
                         /** skip the header in the file. */
-                        if (tempString.startsWith("#"))
+                        if (tokenizer.isBlank() || tokenizer.fieldStartsWith(0, '#'))
                             continue;
 
-                        String[] columns = tempString.split("\\s+");
-
-                        /** columns[0] is gene name, columns[1] is gene score. */
-                        if (geneScoreMap.get(columns[0]) == null) {
-                            List<String> individualGeneScoreItemList = new ArrayList<String>();
-                            for (int j = 0; j < i; j++) {
-                                individualGeneScoreItemList.add("N/A");
-                            }
-                            individualGeneScoreItemList.add(columns[1]);
-                            geneScoreMap.put(columns[0], individualGeneScoreItemList);
-                        } else {
-                            List<String> individualGeneScoreItemList = geneScoreMap.get(columns[0]);
-                            for (int j = individualGeneScoreItemList.size(); j < i; j++) {
-                                individualGeneScoreItemList.add("N/A");
-                            }
-                            individualGeneScoreItemList.add(columns[1]);
-                        }
+                        /** column 0 is gene name, column 1 is gene score. */
+                        int row = geneScoreMatrix.addRow(geneDictionary.getId(tokenizer, 0));
+                        if (GeneScoreMatrix.isScored(tokenizer, 1))
+                            geneScoreMatrix.setScore(row, column, tokenizer.parseDouble(1));
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
                 } finally {
-                    br.close();
+                    tokenizer.close();
+                }
+                Metrics.observeSince(Metrics.SAMPLE_SECONDS, startTime);
+                progress.step();
+
+                /** spill samples read so far, the next samples go to a new matrix. */
+                if (geneScoreMatrix.getEstimatedBytes() > maxHeapBytes) {
+                    String spillFilePath = outputFilePath + "." + spillFileList.size() + ".spill";
+                    spillFileList.add(spillFilePath);
+                    Log.info("Gene score matrix is over " + maxHeapMb
+                            + "MB, spilling it to " + spillFilePath + "!");
+                    geneScoreMatrix.finish();
+                    writeGeneScoreMatrix(geneScoreMatrix, spillFilePath);
+                    geneScoreMatrix = new GeneScoreMatrix();
                 }
             }
-            System.out.println("Got the gene score matrix in memory!");
-            System.out.println("Now output it into a file!");
-            StringBuilder writeStringBuilder = new StringBuilder();
 
-            /** get and write the header of gene score matrix file. */
-            writeStringBuilder.append("#geneName");
-            for (String fileNameItem : fileNameList) {
-                /** get the sampel's name, remove the suffix ".geneScore" from it. */
-                String[] columns = fileNameItem.split("\\.");
-                writeStringBuilder.append("\t" + columns[0]);
-            }
-            writeStringBuilder.append("\n");
-            fWriter.write(writeStringBuilder.toString(), 0, writeStringBuilder.toString().length());
-            fWriter.flush();
-
-            for (Entry<String, List<String>> geneEntry : geneScoreMap.entrySet()) {
-                writeStringBuilder = new StringBuilder();
-                writeStringBuilder.append(geneEntry.getKey());
-                for (String geneScore : geneEntry.getValue()) {
-                    writeStringBuilder.append("\t" + geneScore);
-                }
-                if (geneEntry.getValue().size() < fileNameList.size()) {
-                    for (int j = geneEntry.getValue().size(); j < fileNameList.size(); j++) {
-                        writeStringBuilder.append("\tN/A");
-                    }
+            progress.done();
+            if (spillFileList.isEmpty()) {
+                geneScoreMatrix.finish();
+                Log.info("Got the gene score matrix in memory!");
+                Log.info("Now output it into a file!");
+                writeGeneScoreMatrix(geneScoreMatrix, outputFilePath);
+            } else {
+                if (geneScoreMatrix.getColumnCount() > 0) {
+                    String spillFilePath = outputFilePath + "." + spillFileList.size() + ".spill";
+                    spillFileList.add(spillFilePath);
+                    geneScoreMatrix.finish();
+                    writeGeneScoreMatrix(geneScoreMatrix, spillFilePath);
                 }
-                writeStringBuilder.append("\n");
-                fWriter.write(writeStringBuilder.toString(), 0, writeStringBuilder.toString()
-                        .length());
-                fWriter.flush();
+                Log.info("Merging " + spillFileList.size()
+                        + " spilled parts of the gene score matrix!");
+                mergeFiles(spillFileList, null, outputFilePath, null, null);
             }
         } catch (IOException e) {
             e.printStackTrace();
+            System.err.println("Getting gene score matrix failed!");
+            return false;
         } finally {
-            try {
+            for (String spillFile : spillFileList)
+                new File(spillFile).delete();
+        }
+        Log.info("Getting gene score matrix done!");
+        Log.info("Output file at " + outputFolder);
+        return true;
+    }
+
+    /**
+     * <pre>
+     * get matrix of gene score from ".genescore" files sorted by gene name(written by Score), by
+     * a k-way merge of the files. Only a row is in memory, so memory is proportional to the number
+     * of samples but not genes. Rows of the matrix are sorted by gene name.
+     * If the control gene score matrix is given, statistic matrix of case is computed in the same
+     * pass, like {@link #getStatisticMatrix(String, String, String)}.
+     * Files not sorted(written by older versions) are read by
+     * {@link #getGeneScoreMatrixFromGeneScoreFiles(String, String, String, String)} instead.
+     * </pre>
+     *
+     * @param geneScoreFileFolder
+     * @param caseOrControl ("case" or "control")
+     * @param inheritanceModel ("dominant_model" or "recessive_model")
+     * @param outputFolder
+     * @param controlGeneScoreMatrixFilePath null if no statistic matrix is computed.
+     * @return false if reading or writing failed.
+     */
+    public boolean mergeGeneScoreMatrixFromGeneScoreFiles(String geneScoreFileFolder,
+            String caseOrControl, String inheritanceModel, String outputFolder,
+            String controlGeneScoreMatrixFilePath) {
+        String matrixOutputFolder = outputFolder;
+        if (caseOrControl.equals("case")) {
+            matrixOutputFolder += File.separator + getFileName(geneScoreFileFolder);
+            Log.info("Merging gene score matrix for case "
+                    + getFileName(geneScoreFileFolder) + "!");
+            dirCreate(matrixOutputFolder);
+        } else {
+            Log.info("Merging gene score matrix for control!");
+        }
+
+        String outputFilePath =
+                getCanonicalPath(matrixOutputFolder + File.separator + caseOrControl + "_"
+                        + inheritanceModel + ".geneScoreMatrix");
+        fileCreate(outputFilePath);
+
+        List<String> filePathList = new ArrayList<String>();
+        List<String> sampleNameList = new ArrayList<String>();
+        for (String fileNameItem : new File(geneScoreFileFolder).list()) {
+            filePathList.add(geneScoreFileFolder + File.separator + fileNameItem);
+
+            /** get the sampel's name, remove the suffix ".geneScore" from it. */
+            sampleNameList.add(fileNameItem.split("\\.")[0]);
+        }
+
+        boolean sorted = true;
+        try {
+            sorted =
+                    mergeFiles(filePathList, sampleNameList, outputFilePath,
+                            controlGeneScoreMatrixFilePath,
+                            controlGeneScoreMatrixFilePath == null ? null
+                                    : getStatisticMatrixPath(outputFilePath, inheritanceModel));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Merging gene score matrix failed!");
+            return false;
+        }
+
+        if (!sorted) {
+            Log.info("Gene score files are not sorted by gene name, "
+                    + "getting the gene score matrix in memory!");
+            if (!getGeneScoreMatrixFromGeneScoreFiles(geneScoreFileFolder, caseOrControl,
+                    inheritanceModel, outputFolder))
+                return false;
+            if (controlGeneScoreMatrixFilePath != null)
+                return getStatisticMatrix(outputFilePath, inheritanceModel,
+                        controlGeneScoreMatrixFilePath);
+            return true;
+        }
+        Log.info("Getting gene score matrix done!");
+        Log.info("Output file at " + matrixOutputFolder);
+        return true;
+    }
+
+    /**
+     * merge files sorted by gene name into a gene score matrix file, files are merged into
+     * intermediate matrices first if there are more than {@link #MERGE_FAN_IN} of them.
+     *
+     * @param filePathList
+     * @param sampleNameList sample name of every file, or null if files are gene score matrices.
+     * @param outputFilePath
+     * @param controlGeneScoreMatrixFilePath null if no statistic matrix is computed.
+     * @param statisticMatrixPath
+     * @return false if a file is not sorted by gene name.
+     * @throws IOException
+     */
+    private boolean mergeFiles(List<String> filePathList, List<String> sampleNameList,
+            String outputFilePath, String controlGeneScoreMatrixFilePath,
+            String statisticMatrixPath) throws IOException {
+        List<String> intermediateFileList = new ArrayList<String>();
+        boolean sorted = true;
+        try {
+            /** merge files into intermediate matrices until they can be merged at once. */
+            while (filePathList.size() > MERGE_FAN_IN) {
+                List<String> mergedFilePathList = new ArrayList<String>();
+                for (int from = 0; from < filePathList.size() && sorted; from += MERGE_FAN_IN) {
+                    int to = Math.min(from + MERGE_FAN_IN, filePathList.size());
+                    String mergedFilePath =
+                            outputFilePath + "." + intermediateFileList.size() + ".merging";
+                    intermediateFileList.add(mergedFilePath);
+                    mergedFilePathList.add(mergedFilePath);
+                    sorted =
+                            mergeRows(filePathList.subList(from, to), sampleNameList == null ? null
+                                    : sampleNameList.subList(from, to), mergedFilePath, null, null);
+                }
+                filePathList = mergedFilePathList;
+                sampleNameList = null;
+                if (!sorted)
+                    return false;
+            }
+            return mergeRows(filePathList, sampleNameList, outputFilePath,
+                    controlGeneScoreMatrixFilePath, statisticMatrixPath);
+        } finally {
+            for (String intermediateFile : intermediateFileList)
+                new File(intermediateFile).delete();
+        }
+    }
+
+    /**
+     * merge files sorted by gene name into a gene score matrix file.
+     *
+     * @param filePathList
+     * @param sampleNameList sample name of every file, or null if files are gene score matrices.
+     * @param outputFilePath
+     * @param controlGeneScoreMatrixFilePath null if no statistic matrix is computed.
+     * @param statisticMatrixPath
+     * @return false if a file is not sorted by gene name.
+     * @throws IOException
+     */
+    private boolean mergeRows(List<String> filePathList, List<String> sampleNameList,
+            String outputFilePath, String controlGeneScoreMatrixFilePath,
+            String statisticMatrixPath) throws IOException {
+        GeneScoreMatrixMerger merger = new GeneScoreMatrixMerger();
+        GeneScoreMatrixMerger controlMerger = null;
+        Writer fWriter = null;
+        Writer statisticWriter = null;
+        try {
+            for (int i = 0; i < filePathList.size(); i++) {
+                if (sampleNameList == null)
+                    merger.addInput(filePathList.get(i));
+                else
+                    merger.addInput(filePathList.get(i), sampleNameList.get(i));
+            }
+            fWriter = new BufferedWriter(openWriter(outputFilePath));
+            if (controlGeneScoreMatrixFilePath != null) {
+                controlMerger = new GeneScoreMatrixMerger();
+                controlMerger.addInput(controlGeneScoreMatrixFilePath);
+                fileCreate(statisticMatrixPath);
+                statisticWriter = new BufferedWriter(openWriter(statisticMatrixPath));
+            }
+            return writeMergedRows(merger, fWriter, controlMerger, statisticWriter);
+        } finally {
+            merger.close();
+            if (controlMerger != null)
+                controlMerger.close();
+            if (fWriter != null)
                 fWriter.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (statisticWriter != null)
+                statisticWriter.close();
+        }
+    }
+
+    /**
+     * <pre>
+     * write rows of the merger into a gene score matrix file, and compute statistic of every row
+     * with the row of the same gene in control. Rows of both mergers are sorted by gene name, so
+     * rows of control are found in the same pass.
+     * </pre>
+     *
+     * @param merger
+     * @param matrixWriter null if no gene score matrix is written.
+     * @param controlMerger null if no statistic is computed.
+     * @param statisticWriter null if no statistic is computed.
+     * @return false if a file of the mergers is not sorted by gene name.
+     * @throws IOException
+     */
+    private boolean writeMergedRows(GeneScoreMatrixMerger merger, Writer matrixWriter,
+            GeneScoreMatrixMerger controlMerger, Writer statisticWriter) throws IOException {
+        StringBuilder writeStringBuilder = new StringBuilder();
+        if (matrixWriter != null) {
+            writeStringBuilder.append("#geneName");
+            for (int column = 0; column < merger.getColumnCount(); column++)
+                writeStringBuilder.append('\t').append(merger.getSampleName(column));
+            writeStringBuilder.append('\n');
+            matrixWriter.append(writeStringBuilder);
+        }
+        if (statisticWriter != null)
+            statisticWriter.write(STATISTIC_MATRIX_HEADER);
+
+        boolean hasControlRow = controlMerger != null && controlMerger.nextRow();
+        Log.Progress progress =
+                Log.progress(statisticWriter != null ? "statistic" : "merging gene score matrix",
+                        "genes");
+        while (merger.nextRow()) {
+            progress.step();
+            String geneName = merger.getGene();
+            if (matrixWriter != null) {
+                writeStringBuilder.setLength(0);
+                writeStringBuilder.append(geneName);
+                for (int column = 0; column < merger.getColumnCount(); column++) {
+                    writeStringBuilder.append('\t');
+                    if (merger.isScored(column))
+                        appendScore(merger.getScore(column), writeStringBuilder);
+                    else
+                        writeStringBuilder.append("N/A");
+                }
+                writeStringBuilder.append('\n');
+                matrixWriter.append(writeStringBuilder);
+            }
+            if (statisticWriter != null) {
+                while (hasControlRow && controlMerger.getGene().compareTo(geneName) < 0)
+                    hasControlRow = controlMerger.nextRow();
+                computeTwoPartStatistic(merger, hasControlRow
+                        && controlMerger.getGene().equals(geneName) ? controlMerger : null);
+                writeStringBuilder.setLength(0);
+                appendStatistic(geneName, writeStringBuilder);
+                statisticWriter.append(writeStringBuilder);
+                if (Log.isDebugEnabled())
+                    Log.debug("Statistic computing for gene '" + geneName + "' done!");
             }
         }
-        System.out.println("Getting gene score matrix done!");
-        System.out.println("Output file at " + outputFolder);
+        progress.done();
+        Metrics.add(Metrics.RECORDS, progress.getCount());
+        return merger.isSorted() && (controlMerger == null || controlMerger.isSorted());
+    }
+
+    /**
+     * write a gene score matrix, rows are sorted by gene name so that the file can be merged,
+     * "N/A" for genes not scored in a sample.
+     *
+     * @param geneScoreMatrix
+     * @param writer
+     * @throws IOException
+     */
+    public void writeGeneScoreMatrix(GeneScoreMatrix geneScoreMatrix, Writer writer)
+            throws IOException {
+        StringBuilder writeStringBuilder = new StringBuilder();
+
+        /** write the header of gene score matrix file. */
+        writeStringBuilder.append("#geneName");
+        for (int column = 0; column < geneScoreMatrix.getColumnCount(); column++)
+            writeStringBuilder.append('\t').append(geneScoreMatrix.getSampleName(column));
+        writeStringBuilder.append('\n');
+        writer.append(writeStringBuilder);
+
+        final String[] geneNames = new String[geneScoreMatrix.getRowCount()];
+        Integer[] rowOrder = new Integer[geneNames.length];
+        for (int row = 0; row < geneNames.length; row++) {
+            geneNames[row] = geneDictionary.getGene(geneScoreMatrix.getGeneId(row));
+            rowOrder[row] = row;
+        }
+        Arrays.sort(rowOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer row1, Integer row2) {
+                return geneNames[row1].compareTo(geneNames[row2]);
+            }
+        });
+
+        for (int row : rowOrder) {
+            writeStringBuilder.setLength(0);
+            writeStringBuilder.append(geneNames[row]);
+            for (int column = 0; column < geneScoreMatrix.getColumnCount(); column++) {
+                writeStringBuilder.append('\t');
+                if (geneScoreMatrix.isScored(row, column))
+                    appendScore(geneScoreMatrix.getScore(row, column), writeStringBuilder);
+                else
+                    writeStringBuilder.append("N/A");
+            }
+            writeStringBuilder.append('\n');
+            writer.append(writeStringBuilder);
+        }
+    }
+
+    private void writeGeneScoreMatrix(GeneScoreMatrix geneScoreMatrix, String filePath)
+            throws IOException {
+        Writer fWriter = new BufferedWriter(openWriter(filePath));
+        try {
+            writeGeneScoreMatrix(geneScoreMatrix, fWriter);
+        } finally {
+            fWriter.close();
+        }
+    }
+
+    /**
+     * read a ".geneScoreMatrix" file, genes get ids of {@link #getGeneDictionary()}.
+     *
+     * @param geneScoreMatrixFilePath
+     * @return the gene score matrix.
+     * @throws IOException
+     */
+    public GeneScoreMatrix readGeneScoreMatrix(String geneScoreMatrixFilePath) throws IOException {
+        GeneScoreMatrix geneScoreMatrix = new GeneScoreMatrix();
+        LineTokenizer tokenizer = new LineTokenizer(openReader(geneScoreMatrixFilePath));
+        try {
+            while (tokenizer.readLine()) {
+
+                /** the header has names of samples. */
+                if (tokenizer.startsWith('#')) {
+                    if (geneScoreMatrix.getColumnCount() == 0) {
+                        for (int i = 1; i < tokenizer.getFieldCount(); i++)
+                            geneScoreMatrix.addColumn(tokenizer.getField(i));
+                    }
+                    continue;
+                }
+                if (tokenizer.isBlank())
+                    continue;
+
+                int row = geneScoreMatrix.addRow(geneDictionary.getId(tokenizer, 0));
+                int count = tokenizer.getFieldCount();
+                while (geneScoreMatrix.getColumnCount() < count - 1)
+                    geneScoreMatrix.addColumn("sample" + geneScoreMatrix.getColumnCount());
+                for (int i = 1; i < count; i++) {
+                    if (GeneScoreMatrix.isScored(tokenizer, i))
+                        geneScoreMatrix.setScore(row, i - 1, tokenizer.parseDouble(i));
+                }
+            }
+        } finally {
+            tokenizer.close();
+        }
+        geneScoreMatrix.finish();
+        return geneScoreMatrix;
     }
 
     /**
@@ -356,70 +752,132 @@ public class Statistic {
      * @param caseGeneScoreMatrixFilePath
      * @param inheritanceModel
      * @param controlGeneScoreMatrixFilePath
+     * @return false if reading or writing failed.
      */
-    public void getStatisticMatrix(String caseGeneScoreMatrixFilePath, String inheritanceModel,
-            String controlGeneScoreMatrixFilePath) {
+    public boolean getStatisticMatrix(String caseGeneScoreMatrixFilePath,
+            String inheritanceModel, String controlGeneScoreMatrixFilePath) {
         String statisticMatrixPath =
-                new File(caseGeneScoreMatrixFilePath).getParent() + File.separator
-                        + inheritanceModel + ".statisticMatrix";
+                getStatisticMatrixPath(caseGeneScoreMatrixFilePath, inheritanceModel);
         fileCreate(statisticMatrixPath);
 
-        /** 把control file中的所有sample放入map中，然后遍历case中的sample，一个一个在control的map中找. */
-        Map<String, String> controlGeneScoreMap = new TreeMap<String, String>();
-        BufferedReader br = null;
-        FileWriter fw = null;
+        /** matrices sorted by gene name are merged row by row. */
+        GeneScoreMatrixMerger caseMerger = new GeneScoreMatrixMerger();
+        GeneScoreMatrixMerger controlMerger = new GeneScoreMatrixMerger();
+        BufferedWriter bw = null;
+        boolean sorted = false;
+        boolean success = false;
         try {
-            br = new BufferedReader(new FileReader(controlGeneScoreMatrixFilePath));
-            String tempReadString = null;
-
-            while ((tempReadString = br.readLine()) != null) {
+            caseMerger.addInput(caseGeneScoreMatrixFilePath);
+            controlMerger.addInput(controlGeneScoreMatrixFilePath);
+            bw = new BufferedWriter(openWriter(statisticMatrixPath));
+            Log.info("Reading " + caseGeneScoreMatrixFilePath + " now!");
+            sorted = writeMergedRows(caseMerger, null, controlMerger, bw);
+            success = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                caseMerger.close();
+                controlMerger.close();
+                if (bw != null)
+                    bw.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            }
+        }
+        if (!success) {
+            System.err.println("Getting statistic matrix failed!");
+            return false;
+        }
+        if (sorted) {
+            Log.info("Getting statistic matrix finished!");
+            Log.info("Statistic matrix output at " + statisticMatrixPath);
+            return true;
+        }
 
-                /** skip the header. */
-                if (tempReadString.startsWith("#"))
-                    continue;
+        Log.info("Gene score matrices are not sorted by gene name, "
+                + "reading them into memory!");
+        try {
+            GeneScoreMatrix controlGeneScoreMatrix =
+                    readGeneScoreMatrix(controlGeneScoreMatrixFilePath);
+            Log.info("Reading " + caseGeneScoreMatrixFilePath + " now!");
+            GeneScoreMatrix caseGeneScoreMatrix = readGeneScoreMatrix(caseGeneScoreMatrixFilePath);
+            return getStatisticMatrix(caseGeneScoreMatrix, controlGeneScoreMatrix,
+                    statisticMatrixPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Getting statistic matrix failed!");
+            return false;
+        }
+    }
 
-                String[] columns = tempReadString.replaceFirst("\\s+", "#").split("#");
-                controlGeneScoreMap.put(columns[0], columns[1]);
-            }
-            br.close();
-            fw = new FileWriter(statisticMatrixPath);
+    /**
+     * get statistic matrix with gene score matrices in memory, genes are in the order of case.
+     *
+     * @param caseGeneScoreMatrix
+     * @param controlGeneScoreMatrix gene ids of both matrices are of
+     *        {@link #getGeneDictionary()}.
+     * @param statisticMatrixPath
+     * @return false if writing failed.
+     */
+    public boolean getStatisticMatrix(GeneScoreMatrix caseGeneScoreMatrix,
+            GeneScoreMatrix controlGeneScoreMatrix, String statisticMatrixPath) {
+        fileCreate(statisticMatrixPath);
+        BufferedWriter bw = null;
+        boolean success = false;
+        try {
+            bw = new BufferedWriter(openWriter(statisticMatrixPath));
 
             /** write the header. */
-            String writeString = "#Gene\tRS\tB\tW\tX2\tn1\tn2\tm1\tm2\n";
-            fw.write(writeString, 0, writeString.length());
-            br = new BufferedReader(new FileReader(caseGeneScoreMatrixFilePath));
-
-            System.out.println("Reading " + caseGeneScoreMatrixFilePath + " now!");
-            while ((tempReadString = br.readLine()) != null) {
-                /** skip the header. */
-                if (tempReadString.startsWith("#"))
-                    continue;
+            bw.write(STATISTIC_MATRIX_HEADER);
 
-                String[] columns = tempReadString.replaceFirst("\\s+", "#").split("#");
-                List<Double> geneStatisticList =
-                        computeRankSumAndStatistic(columns[1], controlGeneScoreMap.get(columns[0]));
-                writeString = columns[0];
-                for (Double geneStaticticItem : geneStatisticList) {
-                    writeString += "\t" + geneStaticticItem;
-                }
-                writeString += "\n";
-                fw.write(writeString, 0, writeString.length());
-                System.out.println("Statistic computing for gene '" + columns[0] + "' done!");
+            StringBuilder writeStringBuilder = new StringBuilder();
+            Log.Progress progress = Log.progress("statistic", "genes");
+            for (int row = 0; row < caseGeneScoreMatrix.getRowCount(); row++) {
+                int geneId = caseGeneScoreMatrix.getGeneId(row);
+                computeTwoPartStatistic(caseGeneScoreMatrix, row, controlGeneScoreMatrix,
+                        controlGeneScoreMatrix.getRow(geneId));
+                String geneName = geneDictionary.getGene(geneId);
+                writeStringBuilder.setLength(0);
+                appendStatistic(geneName, writeStringBuilder);
+                bw.append(writeStringBuilder);
+                if (Log.isDebugEnabled())
+                    Log.debug("Statistic computing for gene '" + geneName + "' done!");
+                progress.step();
             }
+            progress.done();
+            Metrics.add(Metrics.RECORDS, caseGeneScoreMatrix.getRowCount());
+            success = true;
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
             try {
-                if (br != null)
-                    br.close();
-                if (fw != null)
-                    fw.close();
+                if (bw != null)
+                    bw.close();
             } catch (IOException e) {
                 e.printStackTrace();
+                success = false;
             }
         }
-        System.out.println("Getting statistic matrix finished!");
-        System.out.println("Statistic matrix output at " + statisticMatrixPath);
+        if (!success) {
+            System.err.println("Getting statistic matrix failed!");
+            return false;
+        }
+        Log.info("Getting statistic matrix finished!");
+        Log.info("Statistic matrix output at " + statisticMatrixPath);
+        return true;
+    }
+
+    /**
+     * @param caseGeneScoreMatrixFilePath
+     * @param inheritanceModel
+     * @return path of "inheritanceModel.statisticMatrix" in the folder of case gene score matrix.
+     */
+    public static String getStatisticMatrixPath(String caseGeneScoreMatrixFilePath,
+            String inheritanceModel) {
+        return new File(caseGeneScoreMatrixFilePath).getParent() + File.separator
+                + inheritanceModel + ".statisticMatrix";
     }
 
     /**
@@ -431,59 +889,145 @@ public class Statistic {
      * @return a list contains RS,B,W,X2,n1,n2,m1,m2;
      */
     public List<Double> computeRankSumAndStatistic(String caseScores, String controlScores) {
-        String[] caseScoreArray = caseScores.split("\\s+");
-        String[] controlScoreArray = null;
+        computeTwoPartStatistic(caseScores, controlScores);
+        return Arrays.asList(twoPartStatistic.getRankSum(), twoPartStatistic.getB(),
+                twoPartStatistic.getW(), twoPartStatistic.getX2(), twoPartStatistic.getN1(),
+                twoPartStatistic.getN2(), twoPartStatistic.getM1(), twoPartStatistic.getM2());
+    }
+
+    /**
+     * compute statistic of a gene into {@link #twoPartStatistic} without boxing any score.
+     *
+     * @param caseScores scores seperated by whitespace.
+     * @param controlScores scores seperated by whitespace, null if the gene is not in control.
+     */
+    private void computeTwoPartStatistic(String caseScores, String controlScores) {
+        twoPartStatistic.clear();
+        addScores(caseScores, true);
         if (controlScores != null)
-            controlScoreArray = controlScores.split("\\s+");
-        double RS, B, W, X2, n1, n2, m1, m2;
-        n1 = caseScoreArray.length;
-        n2 = n1;
-        List<Double> caseScoreNonNAList = new ArrayList<Double>();
-        List<Double> controlScoreNonNAList = new ArrayList<Double>();
-        for (String score : caseScoreArray) {
-            if (!score.equals("N/A"))
-                caseScoreNonNAList.add(Double.valueOf(score));
-        }
-        m1 = n1 - caseScoreNonNAList.size();
-        if (controlScores != null) {
-            for (String score : controlScoreArray) {
-                if (!score.equals("N/A"))
-                    controlScoreNonNAList.add(Double.valueOf(score));// how can 'm2' be a negative
-                                                                     // value?
+            addScores(controlScores, false);
+        twoPartStatistic.compute();
+    }
+
+    /**
+     * add scores in a line of gene score matrix to {@link #twoPartStatistic}.
+     *
+     * @param scores scores seperated by whitespace, "N/A" or "." for not scored.
+     * @param isCase
+     */
+    private void addScores(String scores, boolean isCase) {
+        scoreTokenizer.setLine(scores);
+        int count = scoreTokenizer.getFieldCount();
+        for (int i = 0; i < count; i++) {
+            if (!GeneScoreMatrix.isScored(scoreTokenizer, i)) {
+                if (isCase)
+                    twoPartStatistic.addCaseNA();
+                else
+                    twoPartStatistic.addControlNA();
+            } else {
+                double score = scoreTokenizer.parseDouble(i);
+                if (isCase)
+                    twoPartStatistic.addCaseScore(score);
+                else
+                    twoPartStatistic.addControlScore(score);
             }
-            m2 = n2 - controlScoreNonNAList.size();
-        } else
-            m2 = n2;
-
-        List<Double> allscores = new ArrayList<Double>();
-        allscores.addAll(caseScoreNonNAList);
-        allscores.addAll(controlScoreNonNAList);
-        if (controlScoreNonNAList.size() == 0)
-            RS = 0;
-        else
-            RS = computeRankSum(caseScoreNonNAList, allscores);
-
-        double p1 = (double) m1 / n1;
-        double p2 = (double) m2 / n2;
-        double p = (double) (m1 + m2) / (n1 + n2);
-
-        // compute B(Zp)
-        if (m1 == m2 && m1 == 0 || m1 == n2 && m2 == n2)
-            B = 0;
-        else {
-            B = (p1 - p2) / Math.sqrt((double) p * (1 - p) * (n1 + n2) / (n1 * n2));
-        }
-        // compute W(Zu)
-        if (m1 == n2 || m2 == n2)
-            W = 0;
-        else {
-            double numerator = RS - (double) (n1 - m1) * (n1 - m1 + n2 - m2 + 1) / 2;
-            double denominator =
-                    Math.sqrt((double) (n1 - m1) * (n2 - m2) * (n1 - m1 + n2 - m2 + 1) / 12);
-            W = numerator / denominator;
-        }
-        X2 = B * B + W * W;
-        return Arrays.asList(RS, B, W, X2, n1, n2, m1, m2);
+        }
+    }
+
+    /**
+     * compute statistic of a gene into {@link #twoPartStatistic} with gene score matrices.
+     *
+     * @param caseGeneScoreMatrix
+     * @param caseRow
+     * @param controlGeneScoreMatrix
+     * @param controlRow -1 if the gene is not in control.
+     */
+    private void computeTwoPartStatistic(GeneScoreMatrix caseGeneScoreMatrix, int caseRow,
+            GeneScoreMatrix controlGeneScoreMatrix, int controlRow) {
+        twoPartStatistic.clear();
+        for (int column = 0; column < caseGeneScoreMatrix.getColumnCount(); column++) {
+            if (caseGeneScoreMatrix.isScored(caseRow, column))
+                twoPartStatistic.addCaseScore(caseGeneScoreMatrix.getScore(caseRow, column));
+            else
+                twoPartStatistic.addCaseNA();
+        }
+        if (controlRow >= 0) {
+            for (int column = 0; column < controlGeneScoreMatrix.getColumnCount(); column++) {
+                if (controlGeneScoreMatrix.isScored(controlRow, column))
+                    twoPartStatistic.addControlScore(controlGeneScoreMatrix.getScore(controlRow,
+                            column));
+                else
+                    twoPartStatistic.addControlNA();
+            }
+        }
+        twoPartStatistic.compute();
+    }
+
+    /**
+     * compute statistic of the gene of the current rows into {@link #twoPartStatistic}.
+     *
+     * @param caseMerger
+     * @param controlMerger null if the gene is not in control.
+     */
+    private void computeTwoPartStatistic(GeneScoreMatrixMerger caseMerger,
+            GeneScoreMatrixMerger controlMerger) {
+        twoPartStatistic.clear();
+        for (int column = 0; column < caseMerger.getColumnCount(); column++) {
+            if (caseMerger.isScored(column))
+                twoPartStatistic.addCaseScore(caseMerger.getScore(column));
+            else
+                twoPartStatistic.addCaseNA();
+        }
+        if (controlMerger != null) {
+            for (int column = 0; column < controlMerger.getColumnCount(); column++) {
+                if (controlMerger.isScored(column))
+                    twoPartStatistic.addControlScore(controlMerger.getScore(column));
+                else
+                    twoPartStatistic.addControlNA();
+            }
+        }
+        twoPartStatistic.compute();
+    }
+
+    /**
+     * append a line of statistic matrix with {@link #twoPartStatistic}.
+     *
+     * @param geneName
+     * @param stringBuilder
+     */
+    private void appendStatistic(String geneName, StringBuilder stringBuilder) {
+        stringBuilder.append(geneName).append('\t').append(twoPartStatistic.getRankSum())
+                .append('\t').append(twoPartStatistic.getB()).append('\t')
+                .append(twoPartStatistic.getW()).append('\t').append(twoPartStatistic.getX2())
+                .append('\t').append(twoPartStatistic.getN1()).append('\t')
+                .append(twoPartStatistic.getN2()).append('\t').append(twoPartStatistic.getM1())
+                .append('\t').append(twoPartStatistic.getM2()).append('\n');
+    }
+
+    /**
+     * <pre>
+     * append a score like Score writes it, with six decimals, if the six decimals are read as the
+     * same double, otherwise the shortest String of the double.
+     * </pre>
+     *
+     * @param score
+     * @param stringBuilder
+     */
+    static void appendScore(double score, StringBuilder stringBuilder) {
+        if (Math.abs(score) < 1e9) {
+            long micros = Math.round(score * 1e6);
+            if (micros / 1e6 == score) {
+                if (micros < 0 || (micros == 0 && 1 / score < 0)) {
+                    stringBuilder.append('-');
+                    micros = -micros;
+                }
+                stringBuilder.append(micros / 1000000).append('.');
+                String fraction = Long.toString(micros % 1000000 + 1000000);
+                stringBuilder.append(fraction, 1, fraction.length());
+                return;
+            }
+        }
+        stringBuilder.append(score);
     }
 
     /**
@@ -498,30 +1042,28 @@ public class Statistic {
             System.out.println("totalScoreList size is zero!");
             return 0;
         }
-        Collections.sort(totalScoreList);
-        int i = 0, rank = 0, count = 0;
-        Map<Double, Double> rankMap = new HashMap<Double, Double>();
-        for (double currentValue = totalScoreList.get(0); i < totalScoreList.size(); i++) {
-            currentValue = totalScoreList.get(i);
-            rank += i + 1;
-            count++;
-            if (i + 1 == totalScoreList.size()) {
-                rankMap.put(currentValue, (double) rank / count);
-                i++;
-            } else if (currentValue != totalScoreList.get(i + 1)) {
-                rankMap.put(currentValue, (double) rank / count);
-                rank = 0;
-                count = 0;
-            }
-        }
-        double rankSum = 0;
-        for (Double caseScore : caseScoreList) {
-            rankSum += rankMap.get(caseScore);
+        double[] caseScores = new double[caseScoreList.size()];
+        for (int i = 0; i < caseScores.length; i++)
+            caseScores[i] = caseScoreList.get(i);
+        Arrays.sort(caseScores);
+
+        /** scores of total which are not in case, remove the case scores from the sorted total. */
+        double[] totalScores = new double[totalScoreList.size()];
+        for (int i = 0; i < totalScores.length; i++)
+            totalScores[i] = totalScoreList.get(i);
+        Arrays.sort(totalScores);
+        double[] otherScores = new double[totalScores.length];
+        int otherSize = 0;
+        for (int i = 0, j = 0; i < totalScores.length; i++) {
+            if (j < caseScores.length && Double.compare(totalScores[i], caseScores[j]) == 0)
+                j++;
+            else
+                otherScores[otherSize++] = totalScores[i];
         }
-        return rankSum;
+        return TwoPartStatistic.rankSumOfSorted(caseScores, caseScores.length, otherScores,
+                otherSize);
     }
 
-
     public String getCaseFolderPath() {
         return caseFolderPath;
     }
@@ -570,13 +1112,69 @@ public class Statistic {
         this.controlOutputPath = controlOutputPath;
     }
 
+    public long getPermutations() {
+        return permutations;
+    }
+
+    public void setPermutations(long permutations) {
+        this.permutations = permutations;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public String getGeneDictionaryFilePath() {
+        return geneDictionaryFilePath;
+    }
+
+    public void setGeneDictionaryFilePath(String geneDictionaryFilePath) {
+        this.geneDictionaryFilePath = geneDictionaryFilePath;
+    }
+
+    public GeneDictionary getGeneDictionary() {
+        return geneDictionary;
+    }
+
+    /**
+     * @param geneDictionary dictionary shared with other steps of the pipeline.
+     */
+    public void setGeneDictionary(GeneDictionary geneDictionary) {
+        this.geneDictionary = geneDictionary;
+    }
+
+    public long getMaxHeapMb() {
+        return maxHeapMb;
+    }
+
+    public void setMaxHeapMb(long maxHeapMb) {
+        this.maxHeapMb = maxHeapMb;
+    }
+
     enum InputEnum {
-        CASEIN,      // input option "-casein"
-        CONTROLIN,   // input option "-controlin"
-        FREQUENCY,   // input option "-frequency"
-        INHERITANCE, // input option "-inheritance"
-        CASEOUT,     // input option "-caseout"
-        CONTROLOUT   // input option "-controlout"
+        CASEIN,       // input option "-casein"
+        CONTROLIN,    // input option "-controlin"
+        FREQUENCY,    // input option "-frequency"
+        INHERITANCE,  // input option "-inheritance"
+        CASEOUT,      // input option "-caseout"
+        CONTROLOUT,   // input option "-controlout"
+        PERMUTATIONS, // input option "-permutations"
+        SEED,         // input option "-seed"
+        THREADS,      // input option "-threads"
+        DICTIONARY,   // input option "-dictionary"
+        MAXHEAPMB     // input option "-maxHeapMb"
     }
 
 }
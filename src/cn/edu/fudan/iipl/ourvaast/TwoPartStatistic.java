@@ -0,0 +1,219 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * Rank sum and two parts statistic(RS, B, W, X2, n1, n2, m1, m2) of a gene, computed on primitive
+ * double arrays.
+ * Scores of case and control are sorted once, then midranks of tied scores are assigned in a linear
+ * sweep merging the two sorted arrays. Midranks are multiples of 0.5, so the rank sum is exact
+ * whatever the order of summation.
+ * An instance is reused gene after gene: {@link #clear()}, add scores, {@link #compute()}, then
+ * read the results by getters, buffers grow when needed and are never allocated again.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class TwoPartStatistic {
+
+    private double[] caseScores = new double[64];
+    private double[] controlScores = new double[64];
+    private int caseCount = 0;
+    private int caseNonNACount = 0;
+    private int controlNonNACount = 0;
+
+    private double rankSum, b, w, x2, n1, n2, m1, m2;
+
+    /**
+     * remove scores of the last gene.
+     */
+    public void clear() {
+        caseCount = 0;
+        caseNonNACount = 0;
+        controlNonNACount = 0;
+    }
+
+    public void addCaseScore(double score) {
+        if (caseNonNACount == caseScores.length)
+            caseScores = Arrays.copyOf(caseScores, caseScores.length * 2);
+        caseScores[caseNonNACount++] = score;
+        caseCount++;
+    }
+
+    public void addCaseNA() {
+        caseCount++;
+    }
+
+    /**
+     * @param count number of "N/A" added to case at once.
+     */
+    public void addCaseNA(int count) {
+        caseCount += count;
+    }
+
+    public void addControlScore(double score) {
+        if (controlNonNACount == controlScores.length)
+            controlScores = Arrays.copyOf(controlScores, controlScores.length * 2);
+        controlScores[controlNonNACount++] = score;
+    }
+
+    /**
+     * "N/A" of control does not take part in the statistic, see {@link #compute()}.
+     */
+    public void addControlNA() {
+    }
+
+    /**
+     * <pre>
+     * compute statistic with the scores added since {@link #clear()}.
+     * n1 and n2 are both the number of case scores, m1 and m2 are the numbers of "N/A" in case and
+     * control, which is n2 minus scores of control that are not "N/A".
+     * </pre>
+     */
+    public void compute() {
+        compute(controlNonNACount == 0 ? 0 : computeRankSum(), caseCount, caseNonNACount,
+                controlNonNACount);
+    }
+
+    /**
+     * <pre>
+     * compute statistic with a rank sum computed elsewhere, such as by permutations of labels, see
+     * {@link #compute()}. Scores added since {@link #clear()} are not used.
+     * </pre>
+     *
+     * @param rankSum sum of midranks of case scores among all scores that are not "N/A".
+     * @param caseCount number of case scores, "N/A" included.
+     * @param caseNonNACount number of case scores that are not "N/A".
+     * @param controlNonNACount number of control scores that are not "N/A".
+     */
+    public void compute(double rankSum, int caseCount, int caseNonNACount, int controlNonNACount) {
+        n1 = caseCount;
+        n2 = n1;
+        m1 = n1 - caseNonNACount;
+        m2 = n2 - controlNonNACount;
+
+        if (controlNonNACount == 0)
+            this.rankSum = 0;
+        else
+            this.rankSum = rankSum;
+
+        double p1 = m1 / n1;
+        double p2 = m2 / n2;
+        double p = (m1 + m2) / (n1 + n2);
+
+        // compute B(Zp)
+        if (m1 == m2 && m1 == 0 || m1 == n2 && m2 == n2)
+            b = 0;
+        else {
+            b = (p1 - p2) / Math.sqrt(p * (1 - p) * (n1 + n2) / (n1 * n2));
+        }
+        // compute W(Zu)
+        if (m1 == n2 || m2 == n2)
+            w = 0;
+        else {
+            double numerator = this.rankSum - (n1 - m1) * (n1 - m1 + n2 - m2 + 1) / 2;
+            double denominator =
+                    Math.sqrt((n1 - m1) * (n2 - m2) * (n1 - m1 + n2 - m2 + 1) / 12);
+            w = numerator / denominator;
+        }
+        x2 = b * b + w * w;
+    }
+
+    /**
+     * @return sum of midranks of case scores among all scores(case and control).
+     */
+    private double computeRankSum() {
+        Arrays.sort(caseScores, 0, caseNonNACount);
+        Arrays.sort(controlScores, 0, controlNonNACount);
+        return rankSumOfSorted(caseScores, caseNonNACount, controlScores, controlNonNACount);
+    }
+
+    /**
+     * <pre>
+     * sum of midranks of the first array among both arrays, tied scores get the average of their
+     * ranks.
+     * </pre>
+     *
+     * @param sortedCaseScores sorted by {@link Arrays#sort(double[])}.
+     * @param caseSize
+     * @param sortedControlScores sorted by {@link Arrays#sort(double[])}.
+     * @param controlSize
+     * @return rank sum of the first array.
+     */
+    public static double rankSumOfSorted(double[] sortedCaseScores, int caseSize,
+            double[] sortedControlScores, int controlSize) {
+        int i = 0, j = 0;
+        long rank = 0;
+        double rankSum = 0;
+        while (i < caseSize || j < controlSize) {
+            double value;
+            if (j == controlSize
+                    || (i < caseSize && Double.compare(sortedCaseScores[i],
+                            sortedControlScores[j]) <= 0))
+                value = sortedCaseScores[i];
+            else
+                value = sortedControlScores[j];
+
+            int tiedCaseCount = 0;
+            while (i < caseSize && tied(sortedCaseScores[i], value)) {
+                i++;
+                tiedCaseCount++;
+            }
+            int tiedCount = tiedCaseCount;
+            while (j < controlSize && tied(sortedControlScores[j], value)) {
+                j++;
+                tiedCount++;
+            }
+
+            /** ranks rank+1 ... rank+tiedCount share the midrank. */
+            rankSum += tiedCaseCount * (rank + (tiedCount + 1) / 2.0);
+            rank += tiedCount;
+        }
+        return rankSum;
+    }
+
+    /**
+     * 0.0 and -0.0 are tied, NaN are tied with each other.
+     */
+    private static boolean tied(double score, double value) {
+        return score == value || (Double.isNaN(score) && Double.isNaN(value));
+    }
+
+    public double getRankSum() {
+        return rankSum;
+    }
+
+    public double getB() {
+        return b;
+    }
+
+    public double getW() {
+        return w;
+    }
+
+    public double getX2() {
+        return x2;
+    }
+
+    public double getN1() {
+        return n1;
+    }
+
+    public double getN2() {
+        return n2;
+    }
+
+    public double getM1() {
+        return m1;
+    }
+
+    public double getM2() {
+        return m2;
+    }
+}
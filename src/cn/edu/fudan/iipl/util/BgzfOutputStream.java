@@ -0,0 +1,195 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <pre>
+ * Write BGZF, the blocked gzip of samtools and tabix: data is cut into blocks of at most 65280
+ * bytes, every block is a gzip member with its compressed size in the extra field, and an empty
+ * block marks the end of file. Any gzip reader reads it, and blocks are compressed independently,
+ * so they are compressed concurrently by the executor and written in order.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class BgzfOutputStream extends OutputStream {
+
+    /** maximum uncompressed size of a block, the same as htslib. */
+    public static final int BLOCK_SIZE = 0xff00;
+
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final int MAX_BLOCK_SIZE = 0x10000;
+
+    /** the empty block at the end of file. */
+    private static final byte[] EOF_BLOCK = {0x1f, (byte) 0x8b, 0x08, 0x04, 0, 0, 0, 0, 0,
+            (byte) 0xff, 0x06, 0, 0x42, 0x43, 0x02, 0, 0x1b, 0, 0x03, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    private OutputStream out = null;
+    private ExecutorService executor = null;
+    private int maxPendingBlocks = 0;
+    private Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * @param out
+     * @param executor compresses blocks, null for compressing in the writing thread.
+     * @param maxPendingBlocks maximum number of blocks being compressed, it bounds the memory.
+     */
+    public BgzfOutputStream(OutputStream out, ExecutorService executor, int maxPendingBlocks) {
+        this.out = out;
+        this.executor = executor;
+        this.maxPendingBlocks = Math.max(1, maxPendingBlocks);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == BLOCK_SIZE)
+            submitBlock();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == BLOCK_SIZE)
+                submitBlock();
+            int length = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, buffer, count, length);
+            count += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * write all complete blocks. The current block is not cut, so blocks stay full.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pendingBlocks.isEmpty())
+            writePendingBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (count > 0)
+                submitBlock();
+            while (!pendingBlocks.isEmpty())
+                writePendingBlock();
+            out.write(EOF_BLOCK);
+        } finally {
+            for (Future<byte[]> future : pendingBlocks)
+                future.cancel(true);
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = Arrays.copyOf(buffer, count);
+        count = 0;
+        if (executor == null) {
+            out.write(compress(data));
+            return;
+        }
+        while (pendingBlocks.size() >= maxPendingBlocks)
+            writePendingBlock();
+        pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(data);
+            }
+        }));
+    }
+
+    private void writePendingBlock() throws IOException {
+        try {
+            out.write(pendingBlocks.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("compressing BGZF block interrupted!");
+        } catch (ExecutionException e) {
+            throw new IOException("compressing BGZF block failed!", e.getCause());
+        }
+    }
+
+    /**
+     * @param data at most {@link #BLOCK_SIZE} bytes.
+     * @return a BGZF block.
+     */
+    static byte[] compress(byte[] data) {
+        byte[] block = new byte[MAX_BLOCK_SIZE];
+        int compressedSize = deflate(data, block, Deflater.DEFAULT_COMPRESSION);
+        if (compressedSize < 0) {
+            /** incompressible data, stored blocks always fit. */
+            compressedSize = deflate(data, block, Deflater.NO_COMPRESSION);
+        }
+        int blockSize = HEADER_SIZE + compressedSize + FOOTER_SIZE;
+
+        block[0] = 0x1f;
+        block[1] = (byte) 0x8b;
+        block[2] = 0x08;           // deflate
+        block[3] = 0x04;           // FEXTRA
+        block[9] = (byte) 0xff;    // unknown OS
+        block[10] = 0x06;          // XLEN
+        block[12] = 0x42;          // 'B'
+        block[13] = 0x43;          // 'C'
+        block[14] = 0x02;          // SLEN
+        writeShort(block, 16, blockSize - 1);
+
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        writeInt(block, HEADER_SIZE + compressedSize, (int) crc32.getValue());
+        writeInt(block, HEADER_SIZE + compressedSize + 4, data.length);
+        return Arrays.copyOf(block, blockSize);
+    }
+
+    /**
+     * @return compressed size, -1 if it does not fit in a block.
+     */
+    private static int deflate(byte[] data, byte[] block, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int capacity = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+            int compressedSize = deflater.deflate(block, HEADER_SIZE, capacity);
+            return deflater.finished() ? compressedSize : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        writeShort(bytes, offset, value);
+        writeShort(bytes, offset + 2, value >>> 16);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+/**
+ * <pre>
+ * Upper tail probability of chi-square distribution, the same as
+ * "pchisq(x, df, lower.tail=FALSE)" in R.
+ * For even degrees of freedom the closed form is used, so the two parts test(df=2) is simply
+ * exp(-x/2), which keeps full double precision down to the smallest subnormal number.
+ * For odd degrees of freedom the regularized upper incomplete gamma function is used.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class ChiSquareUtil {
+
+    private static final int MAX_ITERATIONS = 1000;
+    private static final double EPSILON = 1e-16;
+    private static final double TINY = Double.MIN_NORMAL / EPSILON;
+
+    /** coefficients of Lanczos approximation(g=7, n=9) for log gamma. */
+    private static final double[] LANCZOS = {0.99999999999980993, 676.5203681218851,
+            -1259.1392167224028, 771.32342877765313, -176.61502916214059, 12.507343278686905,
+            -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+
+    /**
+     * get P(X > x) where X follows chi-square distribution with "df" degrees of freedom.
+     *
+     * @param x statistic, NaN will get NaN.
+     * @param df degrees of freedom, must be positive.
+     * @return upper tail probability.
+     */
+    public static double upperTail(double x, int df) {
+        if (df <= 0)
+            throw new IllegalArgumentException("degrees of freedom must be positive: " + df);
+        if (Double.isNaN(x))
+            return Double.NaN;
+        if (x <= 0)
+            return 1;
+        if (df == 2)
+            return Math.exp(-x / 2);
+        if (df % 2 == 0)
+            return upperTailEvenDf(x, df);
+        return regularizedGammaQ(df / 2.0, x / 2);
+    }
+
+    /**
+     * <pre>
+     * Q(k, x/2) = exp(-x/2) * sum((x/2)^i / i!), i = 0 ... k-1, k = df/2.
+     * every term is computed in log space so that large x do not overflow.
+     * </pre>
+     */
+    private static double upperTailEvenDf(double x, int df) {
+        double halfX = x / 2;
+        double logHalfX = Math.log(halfX);
+        double logTerm = -halfX;
+        double sum = Math.exp(logTerm);
+        for (int i = 1; i < df / 2; i++) {
+            logTerm += logHalfX - Math.log(i);
+            sum += Math.exp(logTerm);
+        }
+        return Math.min(sum, 1);
+    }
+
+    /**
+     * regularized upper incomplete gamma function Q(a, x), series for x < a+1, continued fraction
+     * otherwise.
+     */
+    private static double regularizedGammaQ(double a, double x) {
+        double logPrefix = a * Math.log(x) - x - logGamma(a);
+        if (x < a + 1) {
+            double term = 1 / a;
+            double sum = term;
+            for (int n = 1; n < MAX_ITERATIONS; n++) {
+                term *= x / (a + n);
+                sum += term;
+                if (Math.abs(term) < Math.abs(sum) * EPSILON)
+                    break;
+            }
+            return 1 - Math.exp(logPrefix) * sum;
+        }
+
+        /** modified Lentz's method. */
+        double b = x + 1 - a;
+        double c = 1 / TINY;
+        double d = 1 / b;
+        double h = d;
+        for (int n = 1; n < MAX_ITERATIONS; n++) {
+            double an = -n * (n - a);
+            b += 2;
+            d = an * d + b;
+            if (Math.abs(d) < TINY)
+                d = TINY;
+            c = b + an / c;
+            if (Math.abs(c) < TINY)
+                c = TINY;
+            d = 1 / d;
+            double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1) < EPSILON)
+                break;
+        }
+        return Math.exp(logPrefix) * h;
+    }
+
+    /**
+     * log gamma by Lanczos approximation, relative error is about 1e-15 for positive arguments.
+     */
+    private static double logGamma(double a) {
+        if (a < 0.5)
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * a))) - logGamma(1 - a);
+        a -= 1;
+        double sum = LANCZOS[0];
+        double t = a + 7.5;
+        for (int i = 1; i < LANCZOS.length; i++)
+            sum += LANCZOS[i] / (a + i);
+        return 0.5 * Math.log(2 * Math.PI) + (a + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <pre>
+ * Open data files of the pipeline(samples, ".avgScore", ".genescore", gene score matrices ...)
+ * with transparent compression.
+ * Readers detect gzip by its magic number, so plain, gzip and BGZF files are all read whatever
+ * their names are. Writers write plain text, or BGZF if it is turned on by
+ * {@link #setBgzfOutput(boolean)} or "-Dourvaast.bgzf=true". Names of files are never changed,
+ * so steps after a compressed step need not know it.
+ * Blocks of all BGZF writers are compressed by a shared pool of "compressionThreads" threads.
+ * Files and bytes(on disk) read and written are counted in {@link Metrics}.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class CompressionUtil {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static volatile boolean bgzfOutput = Boolean.getBoolean("ourvaast.bgzf");
+    private static volatile int compressionThreads = Integer.getInteger(
+            "ourvaast.bgzf.threads", Runtime.getRuntime().availableProcessors());
+    private static ExecutorService compressionExecutor = null;
+
+    /**
+     * open a file to read, gzip and BGZF are decompressed.
+     *
+     * @param filePath
+     * @return reader of the text.
+     * @throws IOException
+     */
+    public static Reader openReader(String filePath) throws IOException {
+        return new InputStreamReader(openInputStream(filePath));
+    }
+
+    /**
+     * @see CompressionUtil#openReader(String)
+     */
+    public static Reader openReader(File file) throws IOException {
+        return openReader(file.getPath());
+    }
+
+    /**
+     * open a file to read, gzip and BGZF are decompressed.
+     *
+     * @param filePath
+     * @return stream of uncompressed bytes.
+     * @throws IOException
+     */
+    public static InputStream openInputStream(String filePath) throws IOException {
+        BufferedInputStream bis =
+                new BufferedInputStream(Metrics.countRead(new FileInputStream(filePath)),
+                        BUFFER_SIZE);
+        try {
+            bis.mark(2);
+            int b1 = bis.read();
+            int b2 = bis.read();
+            bis.reset();
+            if (b1 == 0x1f && b2 == 0x8b)
+                return new GZIPInputStream(bis, BUFFER_SIZE);
+            return bis;
+        } catch (IOException e) {
+            bis.close();
+            throw e;
+        }
+    }
+
+    /**
+     * open a file to write, it is BGZF if {@link #isBgzfOutput()}.
+     *
+     * @param filePath
+     * @return writer of the text.
+     * @throws IOException
+     */
+    public static Writer openWriter(String filePath) throws IOException {
+        OutputStream outputStream = Metrics.countWritten(new FileOutputStream(filePath));
+        if (!bgzfOutput)
+            return new OutputStreamWriter(outputStream);
+        int threads = compressionThreads;
+        return new OutputStreamWriter(new BgzfOutputStream(outputStream,
+                threads > 1 ? getCompressionExecutor() : null, threads * 2));
+    }
+
+    /**
+     * @see CompressionUtil#openWriter(String)
+     */
+    public static Writer openWriter(File file) throws IOException {
+        return openWriter(file.getPath());
+    }
+
+    /**
+     * @return true if files are written in BGZF.
+     */
+    public static boolean isBgzfOutput() {
+        return bgzfOutput;
+    }
+
+    public static void setBgzfOutput(boolean bgzfOutput) {
+        CompressionUtil.bgzfOutput = bgzfOutput;
+    }
+
+    public static int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * @param compressionThreads threads compressing BGZF blocks, 1 for compressing in writing
+     *        threads. It must be set before the first BGZF file is written.
+     */
+    public static void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1)
+            throw new IllegalArgumentException("compression threads must be positive: "
+                    + compressionThreads);
+        CompressionUtil.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * @return the shared pool, its threads are daemons so it never blocks exiting.
+     */
+    private static synchronized ExecutorService getCompressionExecutor() {
+        if (compressionExecutor == null) {
+            compressionExecutor =
+                    Executors.newFixedThreadPool(compressionThreads, new ThreadFactory() {
+                        private int count = 0;
+
+                        @Override
+                        public synchronized Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "bgzf-" + (++count));
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return compressionExecutor;
+    }
+}
@@ -6,9 +6,12 @@ package cn.edu.fudan.iipl.util;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 
 /**
  * a useful util class for file or directory exist judging and creating
@@ -90,7 +93,7 @@ public class FileUtil {
             File file = new File(filePath);
             if (file.exists())
                 if (file.isFile()) {
-                    System.out.println("file " + filePath + " already exist!");
+                    Log.debug("file " + filePath + " already exist!");
                     return filePath;
                 } else {
                     System.err.println("exist! And " + filePath + "is not a file!");
@@ -98,7 +101,8 @@ public class FileUtil {
                 }
             else {
                 if (file.createNewFile()) {
-                    System.out.println("create file " + filePath + " success!");
+                    Metrics.add(Metrics.FILES_CREATED, 1);
+                    Log.debug("create file " + filePath + " success!");
                     return filePath;
                 } else {
                     System.err.println("create file " + filePath + " failed!");
@@ -123,7 +127,7 @@ public class FileUtil {
         File dir = new File(dirPath);
         if (dir.exists())
             if (dir.isDirectory()) {
-                System.out.println("dir " + dirPath + " already exist!");
+                Log.debug("dir " + dirPath + " already exist!");
                 return dirPath;
             } else {
                 System.err.println("exist! And " + dirPath + "is not a directory!");
@@ -131,7 +135,11 @@ public class FileUtil {
             }
         else {
             if (dir.mkdir()) {
-                System.out.println("create dir " + dirPath + " success!");
+                Log.debug("create dir " + dirPath + " success!");
+                return dirPath;
+            } else if (dir.isDirectory()) {
+                /** created by another thread just now. */
+                Log.debug("dir " + dirPath + " already exist!");
                 return dirPath;
             } else {
                 System.err.println("create directory " + dirPath + " failed!");
@@ -153,7 +161,7 @@ public class FileUtil {
         File dir = new File(dirPath);
         if (dir.exists())
             if (dir.isDirectory()) {
-                System.out.println("dir " + dirPath + " already exist!");
+                Log.debug("dir " + dirPath + " already exist!");
                 return dirPath;
             } else {
                 System.err.println("exist! And " + dirPath + "is not a directory!");
@@ -161,7 +169,11 @@ public class FileUtil {
             }
         else {
             if (dir.mkdirs()) {
-                System.out.println("create dir " + dirPath + " success!");
+                Log.debug("create dir " + dirPath + " success!");
+                return dirPath;
+            } else if (dir.isDirectory()) {
+                /** created by another thread just now. */
+                Log.debug("dir " + dirPath + " already exist!");
                 return dirPath;
             } else {
                 System.err.println("create directory " + dirPath + " failed!");
@@ -208,8 +220,11 @@ public class FileUtil {
 
     /**
      * <pre>
-     * copy file from src to obj. both src and obj are file paths.
+     * copy file from src to obj byte for byte. both src and obj are file paths.
      * src must exist and obj must not exist! otherwise system will exit immediately.
+     * </pre>
+     *
+     * @see FileUtil#copyFile(String, String, CopyStrategy)
      */
     public static void copyFile(String src, String obj) {
         fileJudge(src);
@@ -217,31 +232,186 @@ public class FileUtil {
             System.out.println(obj + " already exist! copying failed!");
             System.exit(1);
         }
+        if (!copyFile(src, obj, CopyStrategy.COPY))
+            System.exit(1);
+    }
+
+    /**
+     * <pre>
+     * materialize file src at obj with the strategy, both src and obj are file paths.
+     * Materialized files are counted in {@link Metrics#FILES_COPIED}, and bytes copied(not
+     * linked) in {@link Metrics#BYTES_COPIED}.
+     * If the strategy is not supported by the file system(such as hard link across file systems),
+     * the file will be copied by {@link CopyStrategy#COPY}.
+     * </pre>
+     *
+     * @param src the file must exist.
+     * @param obj the file must not exist.
+     * @param strategy
+     * @return true if success, false if src not exist, obj already exist or copying failed.
+     */
+    public static boolean copyFile(String src, String obj, CopyStrategy strategy) {
+        if (materialize(src, obj, strategy)) {
+            Metrics.add(Metrics.FILES_COPIED, 1);
+            return true;
+        }
+        return false;
+    }
 
-        fileCreate(obj);
+    private static boolean materialize(String src, String obj, CopyStrategy strategy) {
+        File srcFile = new File(src);
+        File objFile = new File(obj);
+        if (!srcFile.isFile()) {
+            System.err.println(src + " not exist!");
+            return false;
+        }
+        if (objFile.exists()) {
+            System.err.println(obj + " already exist! copying failed!");
+            return false;
+        }
 
-        BufferedReader bReader = null;
-        FileWriter fWriter = null;
         try {
-            bReader = new BufferedReader(new FileReader(src));
-            fWriter = new FileWriter(obj);
-            String tempString = null;
-            while ((tempString = bReader.readLine()) != null) {
-                fWriter.write(tempString + "\n", 0, (tempString + "\n").length());
+            switch (strategy) {
+                case HARD_LINK:
+                    try {
+                        Files.createLink(objFile.toPath(), srcFile.toPath());
+                        return true;
+                    } catch (IOException e) {
+                        // e.g. src and obj are not in the same file system.
+                    } catch (UnsupportedOperationException e) {
+                    }
+                    break;
+                case SYMBOLIC_LINK:
+                    try {
+                        Files.createSymbolicLink(objFile.toPath(), srcFile.getCanonicalFile()
+                                .toPath());
+                        return true;
+                    } catch (IOException e) {
+                    } catch (UnsupportedOperationException e) {
+                    }
+                    break;
+                case REFLINK:
+                    if (reflink(srcFile, objFile))
+                        return true;
+                    break;
+                case COPY:
+                    break;
             }
+            transfer(srcFile, objFile);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            objFile.delete();
+        }
+        return false;
+    }
+
+    /**
+     * copy bytes of src to obj by {@link FileChannel#transferTo}, the kernel copies data without
+     * passing through the JVM heap where it is supported.
+     */
+    private static void transfer(File srcFile, File objFile) throws IOException {
+        FileInputStream inputStream = new FileInputStream(srcFile);
+        try {
+            FileOutputStream outputStream = new FileOutputStream(objFile);
+            try {
+                FileChannel srcChannel = inputStream.getChannel();
+                FileChannel objChannel = outputStream.getChannel();
+                long size = srcChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += srcChannel.transferTo(position, size - position, objChannel);
+                }
+                Metrics.add(Metrics.BYTES_COPIED, size);
+            } finally {
+                outputStream.close();
+            }
         } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * <pre>
+     * clone src to obj with "cp --reflink=always", data blocks are shared copy-on-write on file
+     * systems such as btrfs or xfs. Only works under linux.
+     * </pre>
+     *
+     * @return true if success, false if the file system does not support it.
+     */
+    private static boolean reflink(File srcFile, File objFile) {
+        String[] cmds =
+                {"cp", "--reflink=always", srcFile.getAbsolutePath(), objFile.getAbsolutePath()};
+        try {
+            Process process = new ProcessBuilder(cmds).redirectErrorStream(true).start();
+            BufferedReader outputbr =
+                    new BufferedReader(new InputStreamReader(process.getInputStream()));
             try {
-                fWriter.close();
-                bReader.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                while (outputbr.readLine() != null) {
+                }
+            } finally {
+                outputbr.close();
             }
+            if (process.waitFor() == 0)
+                return true;
+        } catch (IOException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        objFile.delete();
+        return false;
+    }
+
+    /**
+     * <pre>
+     * delete the file or the directory with everything in it. Symbolic links are deleted, but
+     * files they point to are not.
+     * </pre>
+     *
+     * @param path
+     * @return true if path not exist any more.
+     */
+    public static boolean deleteRecursively(String path) {
+        File file = new File(path);
+        if (file.isDirectory() && !Files.isSymbolicLink(file.toPath())) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children)
+                    deleteRecursively(child.getPath());
+            }
+        }
+        if (!file.delete() && (file.exists() || Files.isSymbolicLink(file.toPath()))) {
+            System.err.println("delete " + path + " failed!");
+            return false;
+        }
+        return true;
     }
 
     public static String getFileName(String path) {
         return new File(getCanonicalPath(path)).getName();
     }
+
+    /**
+     * strategies to materialize a file at another path.
+     */
+    public enum CopyStrategy {
+        COPY,          // copy bytes, by FileChannel.transferTo
+        HARD_LINK,     // another name of the same file, src and obj must be in a file system
+        SYMBOLIC_LINK, // obj points to canonical path of src
+        REFLINK;       // copy-on-write clone, needs btrfs, xfs ...
+
+        /**
+         * @param name such as "copy", "hard_link", "hardlink"
+         * @return the strategy.
+         */
+        public static CopyStrategy parse(String name) {
+            String upperName = name.trim().toUpperCase();
+            for (CopyStrategy strategy : values()) {
+                if (strategy.name().equals(upperName)
+                        || strategy.name().replace("_", "").equals(upperName))
+                    return strategy;
+            }
+            throw new IllegalArgumentException("unknown copy strategy: " + name);
+        }
+    }
 }
@@ -0,0 +1,528 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * <pre>
+ * A reusable tokenizer for whitespace delimited lines, the replacement of
+ * "line.trim().split("\\s+")" in hot loops.
+ * The current line is kept in a reused char buffer and only offsets of fields are recorded, so
+ * reading a line allocates nothing. Fields are located lazily, only up to the column requested,
+ * and a String is created only if {@link #getField(int)} is called. Numbers are parsed straight
+ * from the buffer, and fields can be written to a Writer without creating Strings.
+ * Like {@link java.io.BufferedReader#readLine()}, a line is terminated by '\n', '\r' or "\r\n".
+ * Whitespace is the same as "\\s" in regular expressions, that is " \t\n\u000B\f\r".
+ *
+ * usage:
+ *     LineTokenizer tokenizer = new LineTokenizer(new FileReader(file));
+ *     try {
+ *         while (tokenizer.readLine()) {
+ *             String geneName = tokenizer.getField(4);
+ *             double score = tokenizer.parseDouble(5);
+ *         }
+ *     } finally {
+ *         tokenizer.close();
+ *     }
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class LineTokenizer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /** 10^0 ~ 10^22 are exactly representable as double. */
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private Reader reader;
+    private char[] readBuffer;
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private boolean skipLineFeed = false;
+
+    /** lines read since the last {@link #close()}, added to {@link Metrics#LINES_READ} once. */
+    private long lineCount = 0;
+
+    /** the current line. */
+    private char[] line = new char[256];
+    private int lineLength = 0;
+
+    /** offsets of located fields, field i is line[fieldStart[i], fieldEnd[i]). */
+    private int[] fieldStart = new int[32];
+    private int[] fieldEnd = new int[32];
+    private int locatedFieldCount = 0;
+    private int scanPosition = 0;
+
+    /**
+     * create a tokenizer reading lines from the reader.
+     *
+     * @param reader
+     */
+    public LineTokenizer(Reader reader) {
+        this.reader = reader;
+        this.readBuffer = new char[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * create a tokenizer without reader, lines are set by {@link #setLine(CharSequence)}.
+     */
+    public LineTokenizer() {
+    }
+
+    /**
+     * read the next line into the buffer.
+     *
+     * @return false if end of stream is reached.
+     * @throws IOException
+     */
+    public boolean readLine() throws IOException {
+        lineLength = 0;
+        resetFields();
+        boolean readAny = false;
+        while (true) {
+            if (readPosition >= readLimit) {
+                readLimit = reader.read(readBuffer, 0, readBuffer.length);
+                readPosition = 0;
+                if (readLimit <= 0) {
+                    readLimit = 0;
+                    if (readAny)
+                        lineCount++;
+                    return readAny;
+                }
+            }
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (readBuffer[readPosition] == '\n') {
+                    readPosition++;
+                    continue;
+                }
+            }
+            readAny = true;
+            int start = readPosition;
+            while (readPosition < readLimit) {
+                char c = readBuffer[readPosition];
+                if (c == '\n' || c == '\r') {
+                    appendToLine(start, readPosition);
+                    readPosition++;
+                    skipLineFeed = c == '\r';
+                    lineCount++;
+                    return true;
+                }
+                readPosition++;
+            }
+            appendToLine(start, readPosition);
+        }
+    }
+
+    /**
+     * use the characters of "lineString" as the current line.
+     *
+     * @param lineString
+     */
+    public void setLine(CharSequence lineString) {
+        lineLength = 0;
+        resetFields();
+        ensureLineCapacity(lineString.length());
+        for (int i = 0; i < lineString.length(); i++)
+            line[i] = lineString.charAt(i);
+        lineLength = lineString.length();
+    }
+
+    /**
+     * @return true if the current line starts with the character, leading whitespace is not
+     *         skipped.
+     */
+    public boolean startsWith(char c) {
+        return lineLength > 0 && line[0] == c;
+    }
+
+    /**
+     * @return true if the current line has no field.
+     */
+    public boolean isBlank() {
+        return !locateField(0);
+    }
+
+    /**
+     * @return number of fields in the current line, all fields are located.
+     */
+    public int getFieldCount() {
+        while (locateField(locatedFieldCount)) {
+        }
+        return locatedFieldCount;
+    }
+
+    /**
+     * @param index column index, starts from 0.
+     * @return true if the current line has the field.
+     */
+    public boolean hasField(int index) {
+        return locateField(index);
+    }
+
+    /**
+     * create a String of the field.
+     *
+     * @param index column index, starts from 0.
+     * @return the field.
+     */
+    public String getField(int index) {
+        checkField(index);
+        return new String(line, fieldStart[index], fieldEnd[index] - fieldStart[index]);
+    }
+
+    /**
+     * @param index column index, starts from 0.
+     * @return length of the field.
+     */
+    public int getFieldLength(int index) {
+        checkField(index);
+        return fieldEnd[index] - fieldStart[index];
+    }
+
+    /**
+     * @param index column index, starts from 0.
+     * @return offset of the first character of the field in the current line.
+     */
+    public int getFieldStart(int index) {
+        checkField(index);
+        return fieldStart[index];
+    }
+
+    /**
+     * @param index column index, starts from 0.
+     * @return offset after the last character of the field in the current line.
+     */
+    public int getFieldEnd(int index) {
+        checkField(index);
+        return fieldEnd[index];
+    }
+
+    /**
+     * compare the field with a String without creating a String.
+     *
+     * @param index column index, starts from 0.
+     * @param value
+     * @return true if equals.
+     */
+    public boolean fieldEquals(int index, String value) {
+        checkField(index);
+        int length = fieldEnd[index] - fieldStart[index];
+        if (length != value.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (line[fieldStart[index] + i] != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * hash the field without creating a String.
+     *
+     * @param index column index, starts from 0.
+     * @return the same as getField(index).hashCode().
+     */
+    public int fieldHashCode(int index) {
+        checkField(index);
+        int hash = 0;
+        for (int i = fieldStart[index]; i < fieldEnd[index]; i++)
+            hash = 31 * hash + line[i];
+        return hash;
+    }
+
+    /**
+     * @param index column index, starts from 0.
+     * @param c
+     * @return true if the field starts with the character.
+     */
+    public boolean fieldStartsWith(int index, char c) {
+        checkField(index);
+        return line[fieldStart[index]] == c;
+    }
+
+    /**
+     * parse the field as a double, the result is the same as
+     * {@link Double#parseDouble(String)}.
+     *
+     * @param index column index, starts from 0.
+     * @return the number.
+     * @throws NumberFormatException if the field is not a number.
+     */
+    public double parseDouble(int index) {
+        checkField(index);
+        return parseDouble(line, fieldStart[index], fieldEnd[index]);
+    }
+
+    /**
+     * parse the field as an int.
+     *
+     * @param index column index, starts from 0.
+     * @return the number.
+     * @throws NumberFormatException if the field is not an integer.
+     */
+    public int parseInt(int index) {
+        checkField(index);
+        int start = fieldStart[index];
+        int end = fieldEnd[index];
+        boolean negative = false;
+        if (start < end && (line[start] == '-' || line[start] == '+')) {
+            negative = line[start] == '-';
+            start++;
+        }
+        if (start == end || end - start > 9)
+            return Integer.parseInt(getField(index));
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line[i];
+            if (c < '0' || c > '9')
+                throw new NumberFormatException("For input string: \"" + getField(index) + "\"");
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * append the field to a StringBuilder.
+     *
+     * @param index column index, starts from 0.
+     * @param stringBuilder
+     * @return the StringBuilder.
+     */
+    public StringBuilder appendField(int index, StringBuilder stringBuilder) {
+        checkField(index);
+        return stringBuilder.append(line, fieldStart[index], fieldEnd[index] - fieldStart[index]);
+    }
+
+    /**
+     * append fields in [from, to) joined by '\t' to a StringBuilder.
+     *
+     * @param from column index, inclusive.
+     * @param to column index, exclusive, may be larger than field count.
+     * @param stringBuilder
+     * @return the StringBuilder.
+     */
+    public StringBuilder appendFields(int from, int to, StringBuilder stringBuilder) {
+        for (int i = from; i < to && locateField(i); i++) {
+            if (i > from)
+                stringBuilder.append('\t');
+            stringBuilder.append(line, fieldStart[i], fieldEnd[i] - fieldStart[i]);
+        }
+        return stringBuilder;
+    }
+
+    /**
+     * write the field to a Writer.
+     *
+     * @param index column index, starts from 0.
+     * @param writer
+     * @throws IOException
+     */
+    public void writeField(int index, Writer writer) throws IOException {
+        checkField(index);
+        writer.write(line, fieldStart[index], fieldEnd[index] - fieldStart[index]);
+    }
+
+    /**
+     * write fields in [from, to) joined by '\t' to a Writer.
+     *
+     * @param from column index, inclusive.
+     * @param to column index, exclusive, may be larger than field count.
+     * @param writer
+     * @throws IOException
+     */
+    public void writeFields(int from, int to, Writer writer) throws IOException {
+        for (int i = from; i < to && locateField(i); i++) {
+            if (i > from)
+                writer.write('\t');
+            writer.write(line, fieldStart[i], fieldEnd[i] - fieldStart[i]);
+        }
+    }
+
+    /**
+     * write the current line untouched(without line terminator) to a Writer.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void writeLine(Writer writer) throws IOException {
+        writer.write(line, 0, lineLength);
+    }
+
+    /**
+     * write the rest of the current line untouched, starts from the field.
+     *
+     * @param index column index, starts from 0.
+     * @param writer
+     * @throws IOException
+     */
+    public void writeLineFrom(int index, Writer writer) throws IOException {
+        checkField(index);
+        writer.write(line, fieldStart[index], lineLength - fieldStart[index]);
+    }
+
+    /**
+     * @return a String of the current line(without line terminator).
+     */
+    public String getLine() {
+        return new String(line, 0, lineLength);
+    }
+
+    /**
+     * @return a String of the rest of the current line, starts from the field.
+     */
+    public String getLineFrom(int index) {
+        checkField(index);
+        return new String(line, fieldStart[index], lineLength - fieldStart[index]);
+    }
+
+    /**
+     * close the reader.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (lineCount > 0) {
+            Metrics.add(Metrics.LINES_READ, lineCount);
+            lineCount = 0;
+        }
+        if (reader != null)
+            reader.close();
+    }
+
+    /**
+     * <pre>
+     * parse a double from chars in [start, end), the result is the same as
+     * {@link Double#parseDouble(String)}.
+     * Plain decimals with at most 15 significant digits, such as "0.123456", are computed
+     * with a single exactly rounded division, others fall back to Double.parseDouble.
+     * </pre>
+     *
+     * @param chars
+     * @param start inclusive.
+     * @param end exclusive.
+     * @return the number.
+     */
+    public static double parseDouble(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        boolean plain = i < end;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                if (mantissa != 0 || c != '0')
+                    digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (point)
+                    fractionDigits++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                plain = false;
+                break;
+            }
+        }
+        if (plain && digits <= 15 && fractionDigits < POWERS_OF_TEN.length
+                && (i - start) > (point ? 1 : 0) + (negative || chars[start] == '+' ? 1 : 0)) {
+            double value = (double) mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(chars, start, end - start));
+    }
+
+    /**
+     * parse a double from a CharSequence, such as a reused StringBuilder.
+     *
+     * @see LineTokenizer#parseDouble(char[], int, int)
+     */
+    public static double parseDouble(CharSequence charSequence, char[] buffer) {
+        int length = charSequence.length();
+        if (buffer.length < length)
+            return Double.parseDouble(charSequence.toString());
+        for (int i = 0; i < length; i++)
+            buffer[i] = charSequence.charAt(i);
+        return parseDouble(buffer, 0, length);
+    }
+
+    private void checkField(int index) {
+        if (!locateField(index))
+            throw new ArrayIndexOutOfBoundsException(index);
+    }
+
+    /**
+     * locate fields up to "index".
+     *
+     * @return true if the field exists.
+     */
+    private boolean locateField(int index) {
+        while (locatedFieldCount <= index) {
+            int i = scanPosition;
+            while (i < lineLength && isWhitespace(line[i]))
+                i++;
+            if (i >= lineLength) {
+                scanPosition = lineLength;
+                return false;
+            }
+            int start = i;
+            while (i < lineLength && !isWhitespace(line[i]))
+                i++;
+            if (locatedFieldCount == fieldStart.length) {
+                int[] newFieldStart = new int[fieldStart.length * 2];
+                int[] newFieldEnd = new int[fieldEnd.length * 2];
+                System.arraycopy(fieldStart, 0, newFieldStart, 0, locatedFieldCount);
+                System.arraycopy(fieldEnd, 0, newFieldEnd, 0, locatedFieldCount);
+                fieldStart = newFieldStart;
+                fieldEnd = newFieldEnd;
+            }
+            fieldStart[locatedFieldCount] = start;
+            fieldEnd[locatedFieldCount] = i;
+            locatedFieldCount++;
+            scanPosition = i;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private void resetFields() {
+        locatedFieldCount = 0;
+        scanPosition = 0;
+    }
+
+    private void appendToLine(int start, int end) {
+        int length = end - start;
+        ensureLineCapacity(lineLength + length);
+        System.arraycopy(readBuffer, start, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private void ensureLineCapacity(int capacity) {
+        if (capacity > line.length) {
+            char[] newLine = new char[Math.max(capacity, line.length * 2)];
+            System.arraycopy(line, 0, newLine, 0, lineLength);
+            line = newLine;
+        }
+    }
+}
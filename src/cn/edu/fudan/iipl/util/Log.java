@@ -0,0 +1,320 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * Leveled logger with an asynchronous appender, the replacement of System.out in hot loops.
+ * Callers only put a message into a bounded queue, a daemon thread formats messages and writes
+ * them in batches, DEBUG and INFO to System.out, WARN and ERROR to System.err. When the queue is
+ * full DEBUG messages are dropped(and counted), other levels wait. Messages are flushed when the
+ * JVM exits, or by {@link #flush()}.
+ * Messages of every record(gene, variant, file ...) are DEBUG, a loop over records reports a
+ * {@link Progress} summary of its stage at most every "progressSeconds" at INFO instead.
+ * The level is INFO by default, set by {@link #setLevel(Level)} or "-Dourvaast.log.level=DEBUG",
+ * the interval of progress is 10 seconds by default, set by
+ * {@link #setProgressSeconds(double)} or "-Dourvaast.log.progressSeconds=30".
+ *
+ * usage:
+ *     Log.Progress progress = Log.progress("statistic", "genes");
+ *     for (...) {
+ *         if (Log.isDebugEnabled())
+ *             Log.debug("Statistic computing for gene '" + geneName + "' done!");
+ *         progress.step();
+ *     }
+ *     progress.done();
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final int QUEUE_CAPACITY = 8192;
+
+    private static volatile Level level = Level.valueOf(System.getProperty("ourvaast.log.level",
+            "INFO").toUpperCase(Locale.ROOT));
+    private static volatile long progressNanos = (long) (Double.parseDouble(System.getProperty(
+            "ourvaast.log.progressSeconds", "10")) * 1e9);
+
+    private static final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(
+            QUEUE_CAPACITY);
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static Thread appender = null;
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    /**
+     * @return true if DEBUG messages are written, check it before building a message of a record.
+     */
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    /**
+     * @param task what the loop does, such as "statistic".
+     * @param unit name of records, such as "genes".
+     * @return progress of a loop in the stage of the current thread.
+     */
+    public static Progress progress(String task, String unit) {
+        return new Progress(Metrics.getStage(), task, unit);
+    }
+
+    /**
+     * wait until all messages logged before are written.
+     */
+    public static void flush() {
+        if (!isStarted())
+            return;
+        Event event = new Event(null, null);
+        try {
+            queue.put(event);
+            event.flushed.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    public static double getProgressSeconds() {
+        return progressNanos / 1e9;
+    }
+
+    /**
+     * @param progressSeconds minimum seconds between two progress summaries of a loop.
+     */
+    public static void setProgressSeconds(double progressSeconds) {
+        if (!(progressSeconds > 0))
+            throw new IllegalArgumentException("progress seconds must be positive: "
+                    + progressSeconds);
+        progressNanos = (long) (progressSeconds * 1e9);
+    }
+
+    private static void log(Level messageLevel, String message) {
+        if (messageLevel.compareTo(level) < 0)
+            return;
+        start();
+        Event event = new Event(messageLevel, message);
+        if (messageLevel == Level.DEBUG) {
+            if (!queue.offer(event))
+                droppedCount.incrementAndGet();
+            return;
+        }
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println(message);
+        }
+    }
+
+    private static synchronized boolean isStarted() {
+        return appender != null;
+    }
+
+    /**
+     * start the appender thread at the first message, and flush it when the JVM exits.
+     */
+    private static synchronized void start() {
+        if (appender != null)
+            return;
+        appender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                append();
+            }
+        }, "log-appender");
+        appender.setDaemon(true);
+        appender.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "log-flush"));
+    }
+
+    /**
+     * write messages in batches, only this thread formats time.
+     */
+    private static void append() {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.ROOT);
+        StringBuilder outBuilder = new StringBuilder();
+        StringBuilder errBuilder = new StringBuilder();
+        List<Event> eventList = new ArrayList<Event>();
+        while (true) {
+            try {
+                eventList.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(eventList);
+            long dropped = droppedCount.getAndSet(0);
+            if (dropped > 0) {
+                appendLine(timeFormat, System.currentTimeMillis(), Level.WARN, dropped
+                        + " DEBUG messages are dropped, the log queue is full!", errBuilder);
+            }
+            for (Event event : eventList) {
+                if (event.level == null) {
+                    write(outBuilder, errBuilder);
+                    event.flushed.countDown();
+                    continue;
+                }
+                if (event.level.compareTo(Level.WARN) >= 0) {
+                    /** keep the order of messages between the two streams. */
+                    write(outBuilder, null);
+                    appendLine(timeFormat, event.time, event.level, event.message, errBuilder);
+                } else {
+                    write(null, errBuilder);
+                    appendLine(timeFormat, event.time, event.level, event.message, outBuilder);
+                }
+            }
+            eventList.clear();
+            write(outBuilder, errBuilder);
+        }
+    }
+
+    private static void appendLine(SimpleDateFormat timeFormat, long time, Level messageLevel,
+            String message, StringBuilder sb) {
+        sb.append(timeFormat.format(new Date(time))).append(' ').append(messageLevel)
+                .append(' ').append(message).append('\n');
+    }
+
+    private static void write(StringBuilder outBuilder, StringBuilder errBuilder) {
+        if (outBuilder != null && outBuilder.length() > 0) {
+            System.out.print(outBuilder);
+            System.out.flush();
+            outBuilder.setLength(0);
+        }
+        if (errBuilder != null && errBuilder.length() > 0) {
+            System.err.print(errBuilder);
+            System.err.flush();
+            errBuilder.setLength(0);
+        }
+    }
+
+    /**
+     * a message, or a flush marker if level is null.
+     */
+    private static class Event {
+        private final Level level;
+        private final String message;
+        private final long time = System.currentTimeMillis();
+        private final CountDownLatch flushed = new CountDownLatch(1);
+
+        Event(Level level, String message) {
+            this.level = level;
+            this.message = message;
+        }
+    }
+
+    /**
+     * <pre>
+     * count of records done by a loop, it may be stepped by many threads. A summary of the stage
+     * is logged at INFO at most every "progressSeconds", and when the loop is done:
+     *     [score case 10%] scoring: 1200 samples done, 35.2 samples/s in 34.1s
+     * </pre>
+     */
+    public static class Progress {
+        private final String stage;
+        private final String task;
+        private final String unit;
+        private final long startTime = System.nanoTime();
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nextReportTime = new AtomicLong(startTime + progressNanos);
+
+        Progress(String stage, String task, String unit) {
+            this.stage = stage;
+            this.task = task;
+            this.unit = unit;
+        }
+
+        public void step() {
+            step(1);
+        }
+
+        /**
+         * @param records number of records done.
+         */
+        public void step(long records) {
+            long done = count.addAndGet(records);
+            long now = System.nanoTime();
+            long next = nextReportTime.get();
+            if (now >= next && nextReportTime.compareAndSet(next, now + progressNanos))
+                report(done, now, "");
+        }
+
+        /**
+         * @param recordTask
+         * @return the task stepping the progress by a record when it is finished.
+         */
+        public <T> Callable<T> stepAfter(final Callable<T> recordTask) {
+            return new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return recordTask.call();
+                    } finally {
+                        step();
+                    }
+                }
+            };
+        }
+
+        /**
+         * log the summary of the loop.
+         */
+        public void done() {
+            report(count.get(), System.nanoTime(), " in total");
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        private void report(long done, long now, String suffix) {
+            double seconds = (now - startTime) / 1e9;
+            info(String.format(Locale.ROOT, "[%s] %s: %d %s done%s, %.1f %s/s in %.1fs", stage,
+                    task, done, unit, suffix, seconds > 0 ? done / seconds : 0, unit, seconds));
+        }
+    }
+}
@@ -0,0 +1,524 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * Lightweight registry of metrics of the pipeline, kept per stage: counters(lines, bytes, files,
+ * records), latency histograms(seconds of a sample, seconds of a stage) and the peak heap.
+ * The stage of a thread is set by {@link #setStage(String)} and inherited by threads it creates,
+ * so work done by thread pools of a stage is counted in that stage. Metrics are only updated by
+ * atomic adds, a hot loop should count locally and add once, like {@link LineTokenizer}.
+ * The summary with GC of the JVM is written as JSON by {@link #writeJson(String)}, and in
+ * Prometheus text format by {@link #writePrometheus(String)}.
+ *
+ * usage:
+ *     Metrics.setStage("score case 10%");
+ *     long startTime = System.nanoTime();
+ *     ...
+ *     Metrics.add(Metrics.RECORDS, geneCount);
+ *     Metrics.observeSince(Metrics.SAMPLE_SECONDS, startTime);
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class Metrics {
+
+    /** counters. */
+    public static final String LINES_READ = "lines_read";
+    public static final String BYTES_READ = "bytes_read";
+    public static final String BYTES_WRITTEN = "bytes_written";
+    public static final String BYTES_COPIED = "bytes_copied";
+    public static final String FILES_READ = "files_read";
+    public static final String FILES_WRITTEN = "files_written";
+    public static final String FILES_CREATED = "files_created";
+    public static final String FILES_COPIED = "files_copied";
+    public static final String RECORDS = "records";
+
+    /** histograms. */
+    public static final String SAMPLE_SECONDS = "sample_seconds";
+    public static final String STAGE_SECONDS = "stage_seconds";
+
+    /** gauges. */
+    public static final String HEAP_PEAK_BYTES = "heap_peak_bytes";
+
+    /** stage of threads not running any stage, such as a module run alone. */
+    public static final String DEFAULT_STAGE = "main";
+
+    private static final String PREFIX = "ourvaast_";
+
+    /** upper bounds of buckets of histograms in seconds, the last bucket is +Inf. */
+    private static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30,
+            60, 300};
+
+    private static final InheritableThreadLocal<String> stage =
+            new InheritableThreadLocal<String>() {
+                @Override
+                protected String initialValue() {
+                    return DEFAULT_STAGE;
+                }
+            };
+
+    /** metrics by name, then by stage. */
+    private static final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> counters =
+            new ConcurrentSkipListMap<String, ConcurrentMap<String, AtomicLong>>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms =
+            new ConcurrentSkipListMap<String, ConcurrentMap<String, Histogram>>();
+    private static final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> gauges =
+            new ConcurrentSkipListMap<String, ConcurrentMap<String, AtomicLong>>();
+
+    /**
+     * @param stageName stage of the current thread and threads created by it.
+     */
+    public static void setStage(String stageName) {
+        stage.set(stageName == null ? DEFAULT_STAGE : stageName);
+    }
+
+    public static String getStage() {
+        return stage.get();
+    }
+
+    /**
+     * add to a counter of the current stage.
+     *
+     * @param name
+     * @param delta
+     */
+    public static void add(String name, long delta) {
+        getCounter(name).addAndGet(delta);
+    }
+
+    /**
+     * @param name
+     * @return the counter of the current stage, it may be kept to count in other threads.
+     */
+    public static AtomicLong getCounter(String name) {
+        return get(counters, name, stage.get());
+    }
+
+    /**
+     * @param name
+     * @param stageName
+     * @return value of the counter, 0 if it is never added.
+     */
+    public static long getCount(String name, String stageName) {
+        ConcurrentMap<String, AtomicLong> stageMap = counters.get(name);
+        AtomicLong counter = stageMap == null ? null : stageMap.get(stageName);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * add a duration to a histogram of the current stage.
+     *
+     * @param name
+     * @param nanos
+     */
+    public static void observe(String name, long nanos) {
+        ConcurrentMap<String, Histogram> stageMap = histograms.get(name);
+        if (stageMap == null) {
+            histograms.putIfAbsent(name, new ConcurrentSkipListMap<String, Histogram>());
+            stageMap = histograms.get(name);
+        }
+        String stageName = stage.get();
+        Histogram histogram = stageMap.get(stageName);
+        if (histogram == null) {
+            stageMap.putIfAbsent(stageName, new Histogram());
+            histogram = stageMap.get(stageName);
+        }
+        histogram.observe(nanos);
+    }
+
+    /**
+     * add the duration since "startNanos"(of {@link System#nanoTime()}) to a histogram of the
+     * current stage, and sample the heap.
+     *
+     * @param name
+     * @param startNanos
+     */
+    public static void observeSince(String name, long startNanos) {
+        observe(name, System.nanoTime() - startNanos);
+        sampleHeap();
+    }
+
+    /**
+     * @param name
+     * @param task
+     * @return the task adding its duration to a histogram of the stage where it runs.
+     */
+    public static <T> Callable<T> timed(final String name, final Callable<T> task) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                long startTime = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    observeSince(name, startTime);
+                }
+            }
+        };
+    }
+
+    /**
+     * sample the used heap into the peak heap of the current stage. It is cheap, but only sees
+     * the heap at the moment, the peak of the JVM is in the summary as well.
+     */
+    public static void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        AtomicLong peak = get(gauges, HEAP_PEAK_BYTES, stage.get());
+        long current = peak.get();
+        while (used > current && !peak.compareAndSet(current, used))
+            current = peak.get();
+    }
+
+    /**
+     * count a file opened to read, and bytes read from it in the current stage.
+     *
+     * @param inputStream
+     * @return stream counting bytes read.
+     */
+    public static InputStream countRead(InputStream inputStream) {
+        add(FILES_READ, 1);
+        final AtomicLong bytesRead = getCounter(BYTES_READ);
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0)
+                    bytesRead.incrementAndGet();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0)
+                    bytesRead.addAndGet(count);
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long count = super.skip(n);
+                bytesRead.addAndGet(count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * count a file opened to write, and bytes written to it in the current stage.
+     *
+     * @param outputStream
+     * @return stream counting bytes written.
+     */
+    public static OutputStream countWritten(OutputStream outputStream) {
+        add(FILES_WRITTEN, 1);
+        final AtomicLong bytesWritten = getCounter(BYTES_WRITTEN);
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten.addAndGet(len);
+            }
+        };
+    }
+
+    /**
+     * drop all metrics, such as before a new run in the same JVM.
+     */
+    public static void clear() {
+        counters.clear();
+        histograms.clear();
+        gauges.clear();
+    }
+
+    /**
+     * <pre>
+     * write a summary of every stage and the JVM:
+     *     {
+     *       "stages": {
+     *         "score case 10%": {"stage_seconds": 1.2, "records": 100,
+     *             "records_per_second": 83.3, "lines_read": ..., "sample_seconds": {...}, ...},
+     *         ...
+     *       },
+     *       "jvm": {"heap_peak_bytes": ..., "heap_max_bytes": ..., "gc": {...}}
+     *     }
+     * </pre>
+     *
+     * @param filePath
+     * @throws IOException
+     */
+    public static void writeJson(String filePath) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"stages\": {");
+        boolean firstStage = true;
+        for (String stageName : getStageNames()) {
+            sb.append(firstStage ? "\n" : ",\n");
+            firstStage = false;
+            sb.append("    ");
+            appendJsonString(stageName, sb).append(": {");
+            double stageSeconds = getSeconds(STAGE_SECONDS, stageName);
+            sb.append("\n      \"").append(STAGE_SECONDS).append("\": ");
+            appendNumber(stageSeconds, sb);
+            for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> entry : counters.entrySet()) {
+                AtomicLong counter = entry.getValue().get(stageName);
+                if (counter == null)
+                    continue;
+                sb.append(",\n      \"").append(entry.getKey()).append("\": ")
+                        .append(counter.get());
+                if ((entry.getKey().equals(RECORDS) || entry.getKey().equals(LINES_READ))
+                        && stageSeconds > 0) {
+                    sb.append(",\n      \"").append(entry.getKey()).append("_per_second\": ");
+                    appendNumber(counter.get() / stageSeconds, sb);
+                }
+            }
+            for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> entry : gauges.entrySet()) {
+                AtomicLong gauge = entry.getValue().get(stageName);
+                if (gauge != null) {
+                    sb.append(",\n      \"").append(entry.getKey()).append("\": ")
+                            .append(gauge.get());
+                }
+            }
+            for (Map.Entry<String, ConcurrentMap<String, Histogram>> entry : histograms
+                    .entrySet()) {
+                Histogram histogram = entry.getValue().get(stageName);
+                if (histogram == null || entry.getKey().equals(STAGE_SECONDS))
+                    continue;
+                sb.append(",\n      \"").append(entry.getKey()).append("\": {\"count\": ")
+                        .append(histogram.getCount()).append(", \"sum\": ");
+                appendNumber(histogram.sumNanos.get() / 1e9, sb).append(", \"max\": ");
+                appendNumber(histogram.maxNanos.get() / 1e9, sb).append(", \"buckets\": {");
+                for (int i = 0; i <= BUCKETS.length; i++) {
+                    sb.append(i == 0 ? "\"" : ", \"").append(getBucketName(i)).append("\": ")
+                            .append(histogram.counts.get(i));
+                }
+                sb.append("}}");
+            }
+            sb.append("\n    }");
+        }
+        sb.append("\n  },\n  \"jvm\": {\n    \"heap_peak_bytes\": ").append(getJvmHeapPeak());
+        sb.append(",\n    \"heap_max_bytes\": ").append(Runtime.getRuntime().maxMemory());
+        sb.append(",\n    \"gc\": {");
+        boolean firstGc = true;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append(firstGc ? "\n      " : ",\n      ");
+            firstGc = false;
+            appendJsonString(gc.getName(), sb).append(": {\"collections\": ")
+                    .append(Math.max(0, gc.getCollectionCount())).append(", \"seconds\": ");
+            appendNumber(Math.max(0, gc.getCollectionTime()) / 1e3, sb).append('}');
+        }
+        sb.append("\n    }\n  }\n}\n");
+        write(filePath, sb);
+    }
+
+    /**
+     * write all metrics in Prometheus text format, names are prefixed by "ourvaast_" and every
+     * metric of a stage has the label "stage".
+     *
+     * @param filePath
+     * @throws IOException
+     */
+    public static void writePrometheus(String filePath) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> entry : counters.entrySet()) {
+            String name = PREFIX + entry.getKey() + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            for (Map.Entry<String, AtomicLong> stageEntry : entry.getValue().entrySet()) {
+                appendSample(name, stageEntry.getKey(), null, sb).append(' ')
+                        .append(stageEntry.getValue().get()).append('\n');
+            }
+        }
+        for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> entry : gauges.entrySet()) {
+            String name = PREFIX + entry.getKey();
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            for (Map.Entry<String, AtomicLong> stageEntry : entry.getValue().entrySet()) {
+                appendSample(name, stageEntry.getKey(), null, sb).append(' ')
+                        .append(stageEntry.getValue().get()).append('\n');
+            }
+        }
+        for (Map.Entry<String, ConcurrentMap<String, Histogram>> entry : histograms.entrySet()) {
+            String name = PREFIX + entry.getKey();
+            sb.append("# TYPE ").append(name).append(" histogram\n");
+            for (Map.Entry<String, Histogram> stageEntry : entry.getValue().entrySet()) {
+                Histogram histogram = stageEntry.getValue();
+                long cumulative = 0;
+                for (int i = 0; i <= BUCKETS.length; i++) {
+                    cumulative += histogram.counts.get(i);
+                    appendSample(name + "_bucket", stageEntry.getKey(), getBucketName(i), sb)
+                            .append(' ').append(cumulative).append('\n');
+                }
+                appendSample(name + "_sum", stageEntry.getKey(), null, sb).append(' ');
+                appendNumber(histogram.sumNanos.get() / 1e9, sb).append('\n');
+                appendSample(name + "_count", stageEntry.getKey(), null, sb).append(' ')
+                        .append(cumulative).append('\n');
+            }
+        }
+
+        sb.append("# TYPE ").append(PREFIX).append("jvm_heap_peak_bytes gauge\n");
+        sb.append(PREFIX).append("jvm_heap_peak_bytes ").append(getJvmHeapPeak()).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append("jvm_heap_max_bytes gauge\n");
+        sb.append(PREFIX).append("jvm_heap_max_bytes ").append(Runtime.getRuntime().maxMemory())
+                .append('\n');
+        StringBuilder secondsBuilder = new StringBuilder();
+        sb.append("# TYPE ").append(PREFIX).append("gc_collections_total counter\n");
+        secondsBuilder.append("# TYPE ").append(PREFIX).append("gc_seconds_total counter\n");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sb.append(PREFIX).append("gc_collections_total{gc=");
+            appendJsonString(gc.getName(), sb).append("} ")
+                    .append(Math.max(0, gc.getCollectionCount())).append('\n');
+            secondsBuilder.append(PREFIX).append("gc_seconds_total{gc=");
+            appendJsonString(gc.getName(), secondsBuilder).append("} ");
+            appendNumber(Math.max(0, gc.getCollectionTime()) / 1e3, secondsBuilder).append('\n');
+        }
+        sb.append(secondsBuilder);
+        write(filePath, sb);
+    }
+
+    private static AtomicLong get(ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> map,
+            String name, String stageName) {
+        ConcurrentMap<String, AtomicLong> stageMap = map.get(name);
+        if (stageMap == null) {
+            map.putIfAbsent(name, new ConcurrentSkipListMap<String, AtomicLong>());
+            stageMap = map.get(name);
+        }
+        AtomicLong value = stageMap.get(stageName);
+        if (value == null) {
+            stageMap.putIfAbsent(stageName, new AtomicLong());
+            value = stageMap.get(stageName);
+        }
+        return value;
+    }
+
+    /**
+     * @return stages having any metric, in the order of names.
+     */
+    private static TreeSet<String> getStageNames() {
+        TreeSet<String> stageNames = new TreeSet<String>();
+        for (ConcurrentMap<String, AtomicLong> stageMap : counters.values())
+            stageNames.addAll(stageMap.keySet());
+        for (ConcurrentMap<String, Histogram> stageMap : histograms.values())
+            stageNames.addAll(stageMap.keySet());
+        for (ConcurrentMap<String, AtomicLong> stageMap : gauges.values())
+            stageNames.addAll(stageMap.keySet());
+        return stageNames;
+    }
+
+    private static double getSeconds(String name, String stageName) {
+        ConcurrentMap<String, Histogram> stageMap = histograms.get(name);
+        Histogram histogram = stageMap == null ? null : stageMap.get(stageName);
+        return histogram == null ? 0 : histogram.sumNanos.get() / 1e9;
+    }
+
+    /**
+     * @return sum of peaks of heap memory pools, the peak heap of the JVM since it started.
+     */
+    private static long getJvmHeapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static String getBucketName(int bucket) {
+        return bucket < BUCKETS.length ? Double.toString(BUCKETS[bucket]) : "+Inf";
+    }
+
+    private static StringBuilder appendSample(String name, String stageName, String le,
+            StringBuilder sb) {
+        sb.append(name).append("{stage=");
+        appendJsonString(stageName, sb);
+        if (le != null)
+            sb.append(",le=\"").append(le).append('"');
+        return sb.append('}');
+    }
+
+    /** quote a string, the escapes of Prometheus label values are the same as JSON. */
+    private static StringBuilder appendJsonString(String value, StringBuilder sb) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c == '\n')
+                sb.append("\\n");
+            else
+                sb.append(c);
+        }
+        return sb.append('"');
+    }
+
+    private static StringBuilder appendNumber(double value, StringBuilder sb) {
+        return sb.append(String.format(Locale.ROOT, "%.6f", value));
+    }
+
+    private static void write(String filePath, StringBuilder sb) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(filePath));
+        try {
+            writer.append(sb);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * counts of durations in buckets of {@link Metrics#BUCKETS}, not cumulative.
+     */
+    private static class Histogram {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+        private final AtomicLong sumNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket])
+                bucket++;
+            counts.incrementAndGet(bucket);
+            sumNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+                max = maxNanos.get();
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++)
+                count += counts.get(i);
+            return count;
+        }
+    }
+}
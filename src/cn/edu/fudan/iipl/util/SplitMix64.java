@@ -0,0 +1,54 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+/**
+ * <pre>
+ * SplitMix64 random generator. Unlike {@link java.util.Random} it is not synchronized, so every
+ * task(a gene, a replicate ...) has its own instance, seeded by a seed and the index of the task,
+ * and results do not depend on how tasks are scheduled on threads.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class SplitMix64 {
+
+    private long state = 0;
+
+    public SplitMix64(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * @param seed seed of a run.
+     * @param stream index of a task in the run.
+     */
+    public SplitMix64(long seed, long stream) {
+        this(mix(seed) ^ mix(stream));
+    }
+
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public long nextLong() {
+        return mix(state += 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * @param bound
+     * @return uniform in [0, bound), by rejection like {@link java.util.Random#nextInt(int)}.
+     */
+    public int nextInt(int bound) {
+        int u = (int) (nextLong() >>> 33);
+        int r;
+        while (u - (r = u % bound) + (bound - 1) < 0)
+            u = (int) (nextLong() >>> 33);
+        return r;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * a util class for running independent tasks(samples, files, replicates ...) concurrently
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class TaskUtil {
+
+    /**
+     * <pre>
+     * run tasks in a thread pool whose size is at most "threads", or in the calling thread if the
+     * pool would have a single thread. All tasks are waited for even if one of them failed.
+     * </pre>
+     *
+     * @param taskList
+     * @param threads
+     * @return results in the order of tasks.
+     * @throws Exception the first failure in the order of tasks.
+     */
+    public static <T> List<T> runTasks(List<? extends Callable<T>> taskList, int threads)
+            throws Exception {
+        List<T> resultList = new ArrayList<T>();
+        int poolSize = Math.max(1, Math.min(threads, taskList.size()));
+        if (poolSize == 1) {
+            for (Callable<T> task : taskList)
+                resultList.add(task.call());
+            return resultList;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+        try {
+            for (Future<T> future : executor.invokeAll(taskList))
+                resultList.add(future.get());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+        return resultList;
+    }
+}
@@ -4,30 +4,45 @@
 
 package cn.edu.fudan.iipl.vaast;
 
+import static cn.edu.fudan.iipl.util.CompressionUtil.openReader;
+import static cn.edu.fudan.iipl.util.CompressionUtil.openWriter;
 import static cn.edu.fudan.iipl.util.FileUtil.dirCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.dirJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.fileCreate;
 import static cn.edu.fudan.iipl.util.FileUtil.fileJudge;
 import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
+import static cn.edu.fudan.iipl.util.TaskUtil.runTasks;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import cn.edu.fudan.iipl.ourvaast.ShuffledCaseOverlay;
+import cn.edu.fudan.iipl.util.LineTokenizer;
+import cn.edu.fudan.iipl.util.Log;
+import cn.edu.fudan.iipl.util.SplitMix64;
+
 /**
+ * <pre>
  * Get vcf format of samples after shuffling.
+ * Files of a frequency are written concurrently, every vcf line is streamed to its file. Random
+ * genotype fields of fabricated lines come from a random stream of (seed, frequency, file name),
+ * so output files are the same whatever the number of threads.
+ * Frequency folders written by Shuffle with overlays are read through their manifest.
+ * </pre>
  *
  * @author Yong Chen
  * @since 2015-06-17
@@ -38,9 +53,11 @@ public class GetVcfAfterShuffling {
     private String caseFrequencyFolderPath = null;
     private String toBeShuffledGeneNameFilePath = null;
     private String outputPath = null;
+    private long seed = new Random().nextLong();
+    private int threads = Runtime.getRuntime().availableProcessors();
     
     enum InputEnum {
-        FREQUENCY, GENE, OUT, VCF
+        FREQUENCY, GENE, OUT, VCF, SEED, THREADS
     }
     
     public static void main(String[] args) {
@@ -87,14 +104,17 @@ public class GetVcfAfterShuffling {
         String simplifiedVcfFolderPath =
                 getVcfAfterShuffling.getVcfSamplesFolderPath() + "_simplified";
 
-        getVcfAfterShuffling.getVcfAfterShuffled(getVcfAfterShuffling.getCaseFrequencyFolderPath(),
-                simplifiedVcfFolderPath, getVcfAfterShuffling.getOutputPath() + File.separator
-                        + "case", new HashSet<String>(diseaseGeneNameList));
+        if (!getVcfAfterShuffling.getVcfAfterShuffled(
+                getVcfAfterShuffling.getCaseFrequencyFolderPath(), simplifiedVcfFolderPath,
+                getVcfAfterShuffling.getOutputPath() + File.separator + "case",
+                new HashSet<String>(diseaseGeneNameList)))
+            System.exit(1);
 
 
-        getVcfAfterShuffling.copyVcfToControlFolder(simplifiedVcfFolderPath,
+        if (!getVcfAfterShuffling.copyVcfToControlFolder(simplifiedVcfFolderPath,
                 getVcfAfterShuffling.getOutputPath() + File.separator + "case",
-                getVcfAfterShuffling.getOutputPath() + File.separator + "control");
+                getVcfAfterShuffling.getOutputPath() + File.separator + "control"))
+            System.exit(1);
 
     }
     
@@ -107,10 +127,14 @@ public class GetVcfAfterShuffling {
                         + "\n\t"
                         + "-vcf vcfSamplesFolderPath: [required] The directory for all vcf samples. We will simplify these vcf samples first(retain columns 0-9, 14-15, discard others)."
                         + "\n\t"
-                        + "-frequency caseFrequencyFolderPath: [required] The directory for case variant score folder. There must be frequency folders in this path, such as \"2%, 3%, 4%...\"."
+                        + "-frequency caseFrequencyFolderPath: [required] The directory for case variant score folder. There must be frequency folders in this path, such as \"2%, 3%, 4%...\". Frequency folders written by Shuffle with -d true are read through their overlay manifest."
                         + "\n\t"
                         + "-gene toBeShuffledGeneNameFilePath: [required] The path to the file whose content is a list of disease gene names."
-                        + "\n\t" + "-out outputPath: [required] The output path.";
+                        + "\n\t" + "-out outputPath: [required] The output path."
+                        + "\n\t"
+                        + "-seed seed: [optional] Seed of random genotype fields of shuffled variants, the same seed gets the same vcf files. Default is a random seed, which is printed."
+                        + "\n\t"
+                        + "-threads threads: [optional] Maximum number of vcf files written concurrently. Default is the number of processors.";
         System.out.println(usage);
     }
     
@@ -118,8 +142,9 @@ public class GetVcfAfterShuffling {
      * copy vcf files(control) to target folder, excluding those in case folder.
      * 
      * @param args
+     * @return false if a vcf file failed to be copied.
      */
-    public void copyVcfToControlFolder(String vcfFilesPath, String caseVcfFilesPath,
+    public boolean copyVcfToControlFolder(String vcfFilesPath, String caseVcfFilesPath,
             String targetPath) {
         try {
             dirJudge(vcfFilesPath);
@@ -133,28 +158,81 @@ public class GetVcfAfterShuffling {
             Set<String> vcfSet =
                     new HashSet<String>(Arrays.asList(new File(caseVcfFilesPath).list()));
             String[] grossVcfFileNames = new File(vcfFilesPath).list();
-            for (String vcfFile : grossVcfFileNames) {
+            List<Callable<Boolean>> taskList = new ArrayList<Callable<Boolean>>();
+            for (final String vcfFile : grossVcfFileNames) {
                 if (!vcfSet.contains(vcfFile)) {
-                    BufferedReader br =
-                            new BufferedReader(new FileReader(vcfFilesPath + File.separatorChar
-                                    + vcfFile));
-                    BufferedWriter bw =
-                            new BufferedWriter(new FileWriter(targetPath + File.separatorChar
-                                    + vcfFile));
-                    String tempString = null, writeString = "";
-                    while ((tempString = br.readLine()) != null) {
-                        writeString += tempString + "\n";
-                    }
-                    bw.write(writeString, 0, writeString.length());
-                    bw.close();
-                    br.close();
-                    writeString = null;
-                    tempString = null;
+                    final String srcPath = vcfFilesPath + File.separatorChar + vcfFile;
+                    final String objPath = targetPath + File.separatorChar + vcfFile;
+                    taskList.add(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            try {
+                                copyVcf(srcPath, objPath);
+                                return true;
+                            } catch (Exception e) {
+                                System.err.println("copying " + vcfFile + " failed!");
+                                e.printStackTrace();
+                                return false;
+                            }
+                        }
+                    });
                 }
             }
-            System.out.println("copyVcfToControlFolder done!");
-        } catch (IOException e) {
+            if (!runFileTasks(taskList)) {
+                System.err.println("copyVcfToControlFolder failed!");
+                return false;
+            }
+            Log.info("copyVcfToControlFolder done!");
+            return true;
+        } catch (Exception e) {
             e.printStackTrace();
+            System.err.println("copyVcfToControlFolder failed!");
+            return false;
+        }
+    }
+
+    /**
+     * run tasks of files, every task reports its own failure and returns false, so a failed file
+     * does not stop the others.
+     *
+     * @param taskList
+     * @return false if a task failed or the calling thread is interrupted.
+     */
+    private boolean runFileTasks(List<Callable<Boolean>> taskList) {
+        boolean success = true;
+        try {
+            for (boolean result : runTasks(taskList, threads))
+                success &= result;
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            success = false;
+        }
+        return success;
+    }
+
+    /**
+     * copy a vcf file line by line.
+     *
+     * @param srcPath
+     * @param objPath
+     */
+    private static void copyVcf(String srcPath, String objPath) throws IOException {
+        BufferedReader br = new BufferedReader(openReader(srcPath));
+        try {
+            BufferedWriter bw = new BufferedWriter(openWriter(objPath));
+            try {
+                String tempString = null;
+                while ((tempString = br.readLine()) != null) {
+                    bw.write(tempString);
+                    bw.write('\n');
+                }
+            } finally {
+                bw.close();
+            }
+        } finally {
+            br.close();
         }
     }
 
@@ -193,87 +271,157 @@ public class GetVcfAfterShuffling {
      *        create the concentration folder). e.g.
      *        "E:\experiment\retinaDiseaseGeneSimulation\retina_1gene_2variants\USH2A\vcf\case "
      * @param geneNameSet a set of disease gene names.
+     * @return false if a vcf file failed to be written, other files are still written.
      */
-    public void getVcfAfterShuffled(String shuffledFrequencyFolderPath,
-            String simplifiedVcfFolderPath, String outputPath, Set<String> geneNameSet) {
-        Random random = new Random();
+    public boolean getVcfAfterShuffled(String shuffledFrequencyFolderPath,
+            final String simplifiedVcfFolderPath, String outputPath,
+            final Set<String> geneNameSet) {
         dirJudge(shuffledFrequencyFolderPath);
         dirJudge(simplifiedVcfFolderPath);
         dirCreate(outputPath);
+        Log.info("seed of genotype fields: " + seed + ", use \"-seed " + seed
+                + "\" to replay it.");
 
+        boolean success = true;
         List<String> frequencyList = getConcentrationFolderList(shuffledFrequencyFolderPath);
-        for (String frequency : frequencyList) {
-            File outputFolderFile = new File(outputPath + File.separatorChar + frequency);
+        for (final String frequency : frequencyList) {
+            final File outputFolderFile = new File(outputPath + File.separatorChar + frequency);
             if (!outputFolderFile.exists())
                 outputFolderFile.mkdir();
-            File inputFolderFile =
+            final File inputFolderFile =
                     new File(shuffledFrequencyFolderPath + File.separatorChar + frequency);
-            String[] inputFileNames = inputFolderFile.list();
-            for (String inputFileName : inputFileNames) {
-                String tempString = null;
-                String writeString = "";
-                BufferedReader vcfFileBufferedReader = null;
-                BufferedReader variantFileBufferedReader = null;
-                String[] feature = null;
-                BufferedWriter bw = null;
-                try {
-                    vcfFileBufferedReader =
-                            new BufferedReader(new FileReader(simplifiedVcfFolderPath
-                                    + File.separatorChar + inputFileName.split("\\.")[0]
-                                    + ".filt.vcf"));
-                    variantFileBufferedReader =
-                            new BufferedReader(new FileReader(inputFolderFile.getAbsolutePath()
-                                    + File.separatorChar + inputFileName));
-                    tempString = variantFileBufferedReader.readLine();
-                    writeString += vcfFileBufferedReader.readLine() + "\n";
-                    tempString = variantFileBufferedReader.readLine();
-                    feature = tempString.split("\\s+");
-                    if (geneNameSet.contains(feature[4])) {
-                        writeString +=
-                                feature[0] + "\t" + feature[1] + "\t.\t" + feature[2] + "\t"
-                                        + feature[3] + "\t60\tPASS\t.\tGT:VR:RR:DP:GQ\t0/1:"
-                                        + random.nextInt(100) + ":" + random.nextInt(200) + ":"
-                                        + random.nextInt(300) + ":.\t"
-                                        + inputFileName.split("\\.")[0] + "\t" + feature[4] + "\n";
-                        for (int i = 0; i < geneNameSet.size() * 2 - 1; i++) {
-                            tempString = variantFileBufferedReader.readLine();
-                            feature = tempString.split("\\s+");
-                            writeString +=
-                                    feature[0] + "\t" + feature[1] + "\t.\t" + feature[2] + "\t"
-                                            + feature[3] + "\t60\tPASS\t.\tGT:VR:RR:DP:GQ\t0/1:"
-                                            + random.nextInt(100) + ":" + random.nextInt(200) + ":"
-                                            + random.nextInt(300) + ":.\t"
-                                            + inputFileName.split("\\.")[0] + "\t" + feature[4]
-                                            + "\n";
+
+            /** samples of an overlay folder are listed and read through its manifest. */
+            final ShuffledCaseOverlay overlay;
+            try {
+                overlay = ShuffledCaseOverlay.readIfPresent(inputFolderFile.getPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println(frequency + " failed!");
+                success = false;
+                continue;
+            }
+            List<String> inputFileNames =
+                    overlay != null ? overlay.getSampleNames() : Arrays.asList(inputFolderFile
+                            .list());
+            Log.Progress progress = Log.progress("shuffled vcf of " + frequency, "samples");
+            List<Callable<Boolean>> taskList = new ArrayList<Callable<Boolean>>();
+            for (final String inputFileName : inputFileNames) {
+                taskList.add(progress.stepAfter(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        try {
+                            Reader sampleReader =
+                                    overlay != null ? overlay.openSample(inputFileName)
+                                            : openReader(inputFolderFile.getAbsolutePath()
+                                                    + File.separatorChar + inputFileName);
+                            writeShuffledVcf(sampleReader, inputFileName, simplifiedVcfFolderPath,
+                                    outputFolderFile, geneNameSet, new SplitMix64(seed, SplitMix64
+                                            .mix(frequencyStream(frequency)
+                                                    + inputFileName.hashCode())));
+                            Log.debug(inputFileName.split("\\.")[0] + " done!");
+                            return true;
+                        } catch (Exception e) {
+                            System.err.println("writing vcf of " + inputFileName + " failed!");
+                            e.printStackTrace();
+                            return false;
                         }
                     }
-                    bw =
-                            new BufferedWriter(new FileWriter(outputFolderFile.getAbsolutePath()
-                                    + File.separatorChar + inputFileName.split("\\.")[0]
-                                    + ".filt.vcf"));
-                    while ((tempString = vcfFileBufferedReader.readLine()) != null) {
-                        writeString += tempString + "\n";
-                    }
-                    bw.write(writeString, 0, writeString.length());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    try {
-                        bw.close();
-                        vcfFileBufferedReader.close();
-                        variantFileBufferedReader.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                }));
+            }
+            boolean frequencySuccess = runFileTasks(taskList);
+            progress.done();
+            Log.info(frequency + (frequencySuccess ? " done!" : " failed!"));
+            success &= frequencySuccess;
+        }
+        return success;
+    }
+
+    /**
+     * @param frequency name of a frequency folder, such as "10%".
+     * @return index of the random stream of a frequency, files of the frequency get streams mixed
+     *         from it and their names, like Shuffle does.
+     */
+    private static long frequencyStream(String frequency) {
+        return SplitMix64.mix(frequency.hashCode());
+    }
+
+    /**
+     * write vcf of a shuffled case sample: header of the simplified vcf, fabricated vcf lines of
+     * shuffled variants, then the other lines of the simplified vcf.
+     *
+     * @param sampleReader reader of the shuffled case sample, closed when it is written.
+     * @param inputFileName name of the shuffled case sample.
+     * @param simplifiedVcfFolderPath
+     * @param outputFolderFile
+     * @param geneNameSet a set of disease gene names.
+     * @param random generator of genotype fields of this file.
+     */
+    private void writeShuffledVcf(Reader sampleReader, String inputFileName,
+            String simplifiedVcfFolderPath, File outputFolderFile, Set<String> geneNameSet,
+            SplitMix64 random) throws IOException {
+        String tempString = null;
+        BufferedReader vcfFileBufferedReader = null;
+        LineTokenizer variantTokenizer = new LineTokenizer(sampleReader);
+        BufferedWriter bw = null;
+        try {
+            vcfFileBufferedReader =
+                    new BufferedReader(openReader(simplifiedVcfFolderPath
+                            + File.separatorChar + inputFileName.split("\\.")[0] + ".filt.vcf"));
+            bw =
+                    new BufferedWriter(openWriter(outputFolderFile.getAbsolutePath()
+                            + File.separatorChar + inputFileName.split("\\.")[0] + ".filt.vcf"));
+            variantTokenizer.readLine();
+            bw.write(vcfFileBufferedReader.readLine() + "\n");
+            variantTokenizer.readLine();
+            if (geneNameSet.contains(variantTokenizer.getField(4))) {
+                bw.write(getFabricatedVcfLine(variantTokenizer, random, inputFileName));
+                for (int i = 0; i < geneNameSet.size() * 2 - 1; i++) {
+                    variantTokenizer.readLine();
+                    bw.write(getFabricatedVcfLine(variantTokenizer, random, inputFileName));
                 }
-                System.out.println(inputFileName.split("\\.")[0] + " done!");
             }
-            System.out.println(frequency + " done!");
+            while ((tempString = vcfFileBufferedReader.readLine()) != null) {
+                bw.write(tempString);
+                bw.write('\n');
+            }
+        } finally {
+            try {
+                if (bw != null)
+                    bw.close();
+                if (vcfFileBufferedReader != null)
+                    vcfFileBufferedReader.close();
+                variantTokenizer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
+    /**
+     * fabricate a vcf line for the variant in the tokenizer, genotype fields are random.
+     *
+     * @param variantTokenizer current line is a variant in a shuffled case sample.
+     * @param random
+     * @param inputFileName name of the shuffled case sample.
+     * @return the vcf line ends with '\n'.
+     */
+    private String getFabricatedVcfLine(LineTokenizer variantTokenizer, SplitMix64 random,
+            String inputFileName) {
+        StringBuilder lineBuilder = new StringBuilder();
+        variantTokenizer.appendField(0, lineBuilder).append("\t");
+        variantTokenizer.appendField(1, lineBuilder).append("\t.\t");
+        variantTokenizer.appendField(2, lineBuilder).append("\t");
+        variantTokenizer.appendField(3, lineBuilder).append("\t60\tPASS\t.\tGT:VR:RR:DP:GQ\t0/1:");
+        lineBuilder.append(random.nextInt(100)).append(":").append(random.nextInt(200))
+                .append(":").append(random.nextInt(300)).append(":.\t")
+                .append(inputFileName.split("\\.")[0]).append("\t");
+        variantTokenizer.appendField(4, lineBuilder).append("\n");
+        return lineBuilder.toString();
+    }
+
     public void processInput(String[] args) {
-        for (int i = 0; i < 8; i++) {
+        for (int i = 0; i < args.length; i++) {
             if (i % 2 == 0) {
                 switch (InputEnum.valueOf(args[i].substring(1).toUpperCase())) {
                     case VCF:
@@ -292,6 +440,17 @@ public class GetVcfAfterShuffling {
                         dirCreate(args[++i]);
                         setOutputPath(getCanonicalPath(args[i]));
                         break;
+                    case SEED:
+                        setSeed(Long.parseLong(args[++i]));
+                        break;
+                    case THREADS:
+                        setThreads(Integer.parseInt(args[++i]));
+                        if (getThreads() < 1) {
+                            System.err
+                                    .println("-threads parameter error! threads must be positive!");
+                            System.exit(1);
+                        }
+                        break;
                 }
             }
         }
@@ -312,23 +471,24 @@ public class GetVcfAfterShuffling {
         dirCreate(outputFolderPath);
 
         String[] vcfFileNames = vcfFile.list();
-        BufferedReader br = null;
+        LineTokenizer tokenizer = null;
         StringBuilder writeString = new StringBuilder();
-        String readString = null;
+        Log.Progress progress = Log.progress("simplifying vcf", "samples");
         for (String fileName : vcfFileNames) {
             fileCreate(outputFolderPath + File.separator + fileName);
-            System.out.println("Simplifying " + fileName + " now!");
+            Log.debug("Simplifying " + fileName + " now!");
             BufferedWriter bWriter = null;
             try {
                 bWriter =
-                        new BufferedWriter(new FileWriter(outputFolderPath + File.separator
+                        new BufferedWriter(openWriter(outputFolderPath + File.separator
                                 + fileName));
-                br = new BufferedReader(new FileReader(vcfFolderPath + File.separator + fileName));
-                while ((readString = br.readLine()) != null) {
-                    String[] feature = readString.trim().split("\\s+");
-                    for (int i = 0; i < feature.length; i++) {
+                tokenizer =
+                        new LineTokenizer(openReader(vcfFolderPath + File.separator + fileName));
+                while (tokenizer.readLine()) {
+                    int fieldCount = tokenizer.getFieldCount();
+                    for (int i = 0; i < fieldCount; i++) {
                         if (i <= 9 || i > 13 && i < 16) {
-                            writeString.append(feature[i]);
+                            tokenizer.appendField(i, writeString);
                             if (i < 15) {
                                 writeString.append("\t");
                             } else {
@@ -344,14 +504,16 @@ public class GetVcfAfterShuffling {
             } finally {
                 try {
                     bWriter.close();
-                    br.close();
+                    tokenizer.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
+            progress.step();
         }
-        System.out.println("simplifyVcf done!");
-        System.out.println("Output at " + outputFolderPath);
+        progress.done();
+        Log.info("simplifyVcf done!");
+        Log.info("Output at " + outputFolderPath);
     }
     
 
@@ -371,6 +533,14 @@ public class GetVcfAfterShuffling {
         return vcfSamplesFolderPath;
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
     public void setCaseFrequencyFolderPath(String caseFrequencyFolderPath) {
         this.caseFrequencyFolderPath = caseFrequencyFolderPath;
     }
@@ -386,4 +556,12 @@ public class GetVcfAfterShuffling {
     public void setVcfSamplesFolderPath(String vcfSamplesFolderPath) {
         this.vcfSamplesFolderPath = vcfSamplesFolderPath;
     }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
 }
@@ -0,0 +1,491 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.vaast;
+
+import static cn.edu.fudan.iipl.util.FileUtil.dirJudge;
+import static cn.edu.fudan.iipl.util.FileUtil.getCanonicalPath;
+import static cn.edu.fudan.iipl.util.TaskUtil.runTasks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+
+import cn.edu.fudan.iipl.util.Log;
+
+/**
+ * <pre>
+ * Sort gvf files by chromosome and start, in place. Lines starting with '#' at the beginning of a
+ * file are headers, they are kept at the beginning.
+ * Chromosome rank(chr1 ... chr22, chrX, chrY, chrM, other chromosomes before chr1) and start of a
+ * record are parsed once into a primitive key. Records are read into a chunk until the chunk
+ * reaches its memory budget, the chunk is sorted by keys and spilled to a temporary file with the
+ * key before every line, then spill files are merged k-way, at most MERGE_FAN_IN of them at once.
+ * A file fitting in a chunk is not spilled. Records with the same key keep their order in the file.
+ * Files in all concentration folders of case and in control are sorted concurrently, every file
+ * gets an equal share of the memory budget.
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class SortGvf {
+
+    private String gvfFolderPath = null;
+    private long maxMemoryMb = 256;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private static final String GVF_SUFFIX = ".gvf";
+    private static final String SPILL_SUFFIX = ".spill";
+    private static final String SORTING_SUFFIX = ".sorting";
+
+    /** maximum number of spill files merged at once, more are merged into intermediate ones. */
+    private static final int MERGE_FAN_IN = 128;
+
+    /** bits of the key: chromosome rank, start, then index of the record in its chunk. */
+    private static final int START_BITS = 32;
+    private static final int INDEX_BITS = 26;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    /** String of a line costs about 2 bytes per char and 64 bytes of headers. */
+    private static final int LINE_OVERHEAD = 64;
+
+    private static final Map<String, Integer> CHROMOSOME_RANK_MAP =
+            new HashMap<String, Integer>();
+    static {
+        for (int i = 1; i <= 22; i++)
+            CHROMOSOME_RANK_MAP.put("chr" + i, i);
+        CHROMOSOME_RANK_MAP.put("chrX", 23);
+        CHROMOSOME_RANK_MAP.put("chrY", 24);
+        CHROMOSOME_RANK_MAP.put("chrM", 25);
+    }
+
+    enum InputEnum {
+        PATH, MEMORY, THREADS
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+
+        SortGvf sortGvf = new SortGvf();
+
+        /** process input, preserve input args. */
+        sortGvf.processInput(args);
+
+        if (!sortGvf.sortAll(sortGvf.getGvfFolderPath()))
+            System.exit(1);
+    }
+
+    public static void usage() {
+        String usage = "\n\t";
+        usage +=
+                "This modual sorts gvf files by chromosome and start in place, header lines are kept at the beginning. "
+                        + "Files larger than the memory budget are sorted in chunks, spilled to disk and merged.";
+        usage += "\n\t";
+        usage +=
+                "Usage: java SortGvf"
+                        + "\n\t"
+                        + "-path gvfFolderPath: [required] The folder contains \"case\" folder whose sub folders are concentrations(such as \"2%, 3%, 4%...\") and \"control\" folder, "
+                        + "\n\t\t"
+                        + "gvf files in all of them are sorted. If there is no \"case\" folder, gvf files in the folder itself are sorted."
+                        + "\n\t"
+                        + "-memory maxMemoryMb: [optional] Memory budget in MB for records of all files being sorted. Default is 256."
+                        + "\n\t"
+                        + "-threads threads: [optional] Maximum number of files sorted concurrently. Default is the number of processors.";
+        System.out.println(usage);
+    }
+
+    public void processInput(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i % 2 == 0) {
+                switch (InputEnum.valueOf(args[i].substring(1).toUpperCase())) {
+                    case PATH:
+                        dirJudge(args[++i]);
+                        setGvfFolderPath(getCanonicalPath(args[i]));
+                        break;
+                    case MEMORY:
+                        setMaxMemoryMb(Long.parseLong(args[++i]));
+                        break;
+                    case THREADS:
+                        setThreads(Integer.parseInt(args[++i]));
+                        break;
+                }
+            }
+        }
+        if (maxMemoryMb < 1 || threads < 1) {
+            System.err.println("-memory and -threads must be positive!");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * sort gvf files in all concentration folders of "case" and in "control" of the folder, or
+     * in the folder itself if it has no "case" folder.
+     *
+     * @param gvfFolderPath
+     * @return true if all files are sorted.
+     */
+    public boolean sortAll(String gvfFolderPath) {
+        List<File> folderList = new ArrayList<File>();
+        File caseFolder = new File(gvfFolderPath, "case");
+        if (caseFolder.isDirectory()) {
+            File[] concentrationFolders = caseFolder.listFiles();
+            Arrays.sort(concentrationFolders);
+            for (File concentrationFolder : concentrationFolders) {
+                if (concentrationFolder.isDirectory())
+                    folderList.add(concentrationFolder);
+            }
+            folderList.add(new File(gvfFolderPath, "control"));
+        } else {
+            folderList.add(new File(gvfFolderPath));
+        }
+
+        List<File> gvfFileList = new ArrayList<File>();
+        for (File folder : folderList) {
+            dirJudge(folder.getPath());
+            File[] files = folder.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(GVF_SUFFIX))
+                    gvfFileList.add(file);
+            }
+        }
+
+        /** every file being sorted gets an equal share of the budget. */
+        final long chunkBytes =
+                Math.max(1L << 20, (maxMemoryMb << 20)
+                        / Math.max(1, Math.min(threads, gvfFileList.size())));
+        List<Callable<Void>> taskList = new ArrayList<Callable<Void>>();
+        for (final File gvfFile : gvfFileList) {
+            taskList.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    Log.debug("processing " + gvfFile);
+                    sort(gvfFile, chunkBytes);
+                    return null;
+                }
+            });
+        }
+        try {
+            runTasks(taskList, threads);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        Log.info("done!");
+        return true;
+    }
+
+    /**
+     * sort a gvf file in place.
+     *
+     * @param gvfFile
+     * @param chunkBytes memory budget of records read at once.
+     */
+    public static void sort(File gvfFile, long chunkBytes) throws IOException {
+        File sortingFile = new File(gvfFile.getPath() + SORTING_SUFFIX);
+        List<File> spillFileList = new ArrayList<File>();
+        BufferedReader br = new BufferedReader(new FileReader(gvfFile));
+        BufferedWriter bw = null;
+        try {
+            bw = new BufferedWriter(new FileWriter(sortingFile));
+
+            /** header lines. */
+            String tempString = br.readLine();
+            while (tempString != null && tempString.startsWith("#")) {
+                bw.write(tempString);
+                bw.write('\n');
+                tempString = br.readLine();
+            }
+
+            Chunk chunk = new Chunk();
+            while (tempString != null) {
+                chunk.add(tempString);
+                if (chunk.bytes >= chunkBytes || chunk.size > INDEX_MASK) {
+                    File spillFile =
+                            new File(gvfFile.getPath() + "." + spillFileList.size()
+                                    + SPILL_SUFFIX);
+                    spillFileList.add(spillFile);
+                    chunk.spill(spillFile);
+                    chunk = new Chunk();
+                }
+                tempString = br.readLine();
+            }
+            br.close();
+            br = null;
+
+            if (spillFileList.isEmpty())
+                chunk.write(bw);
+            else {
+                if (chunk.size > 0) {
+                    File spillFile =
+                            new File(gvfFile.getPath() + "." + spillFileList.size()
+                                    + SPILL_SUFFIX);
+                    spillFileList.add(spillFile);
+                    chunk.spill(spillFile);
+                }
+                chunk = null;
+                merge(gvfFile, spillFileList, bw);
+            }
+            bw.close();
+            bw = null;
+
+            if (!sortingFile.renameTo(gvfFile)) {
+                /** some file systems do not replace an existing file by renaming. */
+                if (!gvfFile.delete() || !sortingFile.renameTo(gvfFile))
+                    throw new IOException("replacing " + gvfFile + " by " + sortingFile
+                            + " failed!");
+            }
+        } finally {
+            try {
+                if (br != null)
+                    br.close();
+                if (bw != null)
+                    bw.close();
+            } finally {
+                sortingFile.delete();
+                for (File spillFile : spillFileList)
+                    spillFile.delete();
+            }
+        }
+    }
+
+    /**
+     * merge spill files, they are merged into intermediate spill files first if there are more
+     * than {@link #MERGE_FAN_IN} of them. Intermediate files are added to the list, so they are
+     * deleted with the other spill files.
+     *
+     * @param gvfFile
+     * @param spillFileList
+     * @param bw
+     */
+    private static void merge(File gvfFile, List<File> spillFileList, BufferedWriter bw)
+            throws IOException {
+        List<File> inputFileList = new ArrayList<File>(spillFileList);
+        while (inputFileList.size() > MERGE_FAN_IN) {
+            List<File> mergedFileList = new ArrayList<File>();
+            for (int from = 0; from < inputFileList.size(); from += MERGE_FAN_IN) {
+                int to = Math.min(from + MERGE_FAN_IN, inputFileList.size());
+                File mergedFile =
+                        new File(gvfFile.getPath() + "." + spillFileList.size() + SPILL_SUFFIX);
+                spillFileList.add(mergedFile);
+                mergedFileList.add(mergedFile);
+                BufferedWriter mergedWriter = new BufferedWriter(new FileWriter(mergedFile));
+                try {
+                    mergeSpills(inputFileList.subList(from, to), mergedWriter, true);
+                } finally {
+                    mergedWriter.close();
+                }
+
+                /** merged files are not read again, free their space early. */
+                for (File inputFile : inputFileList.subList(from, to))
+                    inputFile.delete();
+            }
+            inputFileList = mergedFileList;
+        }
+        mergeSpills(inputFileList, bw, false);
+    }
+
+    /**
+     * k-way merge of spill files, a record with the same key as another one in a later spill file
+     * goes first. Consecutive spill files merged into one keep the order of records.
+     *
+     * @param spillFileList
+     * @param bw
+     * @param keepKeys true to write keys before lines, as an intermediate spill file.
+     */
+    private static void mergeSpills(List<File> spillFileList, BufferedWriter bw, boolean keepKeys)
+            throws IOException {
+        PriorityQueue<SpillReader> queue =
+                new PriorityQueue<SpillReader>(Math.max(1, spillFileList.size()));
+        try {
+            for (int i = 0; i < spillFileList.size(); i++) {
+                SpillReader reader = new SpillReader(spillFileList.get(i), i);
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            while (!queue.isEmpty()) {
+                SpillReader reader = queue.poll();
+                int lineStart = keepKeys ? 0 : reader.lineStart;
+                bw.write(reader.line, lineStart, reader.line.length() - lineStart);
+                bw.write('\n');
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+        } finally {
+            for (SpillReader reader : queue)
+                reader.close();
+        }
+    }
+
+    /**
+     * @param line a record of gvf.
+     * @return chromosome rank and start, the rank is the high bits.
+     */
+    static long parseKey(String line) throws IOException {
+        /** fields are seperated by whitespace, start is the 4th field. */
+        int length = line.length();
+        int field = 0;
+        int i = 0;
+        int chromosomeEnd = -1;
+        long start = -1;
+        while (i < length && field <= 3) {
+            while (i < length && Character.isWhitespace(line.charAt(i)))
+                i++;
+            int fieldStart = i;
+            while (i < length && !Character.isWhitespace(line.charAt(i)))
+                i++;
+            if (field == 0)
+                chromosomeEnd = i;
+            else if (field == 3 && i > fieldStart)
+                start = parseStart(line, fieldStart, i);
+            field++;
+        }
+        if (start < 0)
+            throw new IOException("no start in gvf line: " + line);
+        Integer rank = CHROMOSOME_RANK_MAP.get(line.substring(0, chromosomeEnd).trim());
+        return ((long) (rank == null ? 0 : rank) << START_BITS) | start;
+    }
+
+    private static long parseStart(String line, int from, int to) throws IOException {
+        long start = 0;
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9' || start >= 1L << START_BITS)
+                throw new IOException("illegal start in gvf line: " + line);
+            start = start * 10 + (c - '0');
+        }
+        if (start >= 1L << START_BITS)
+            throw new IOException("illegal start in gvf line: " + line);
+        return start;
+    }
+
+    public String getGvfFolderPath() {
+        return gvfFolderPath;
+    }
+
+    public void setGvfFolderPath(String gvfFolderPath) {
+        this.gvfFolderPath = gvfFolderPath;
+    }
+
+    public long getMaxMemoryMb() {
+        return maxMemoryMb;
+    }
+
+    public void setMaxMemoryMb(long maxMemoryMb) {
+        this.maxMemoryMb = maxMemoryMb;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * records read at once, sorted by (key, index) packed in a long.
+     */
+    private static class Chunk {
+
+        private List<String> lineList = new ArrayList<String>();
+        private long[] sortKeys = new long[1024];
+        private int size = 0;
+        private long bytes = 0;
+
+        public void add(String line) throws IOException {
+            if (size == sortKeys.length)
+                sortKeys = Arrays.copyOf(sortKeys, size * 2);
+            sortKeys[size] = (parseKey(line) << INDEX_BITS) | size;
+            lineList.add(line);
+            size++;
+            bytes += 2L * line.length() + LINE_OVERHEAD + 8;
+        }
+
+        public void write(BufferedWriter bw) throws IOException {
+            Arrays.sort(sortKeys, 0, size);
+            for (int i = 0; i < size; i++) {
+                bw.write(lineList.get((int) (sortKeys[i] & INDEX_MASK)));
+                bw.write('\n');
+            }
+        }
+
+        /**
+         * write sorted records into the spill file, every line starts with its key and a tab.
+         */
+        public void spill(File spillFile) throws IOException {
+            Arrays.sort(sortKeys, 0, size);
+            BufferedWriter bw = new BufferedWriter(new FileWriter(spillFile));
+            try {
+                for (int i = 0; i < size; i++) {
+                    bw.write(Long.toString(sortKeys[i] >>> INDEX_BITS));
+                    bw.write('\t');
+                    bw.write(lineList.get((int) (sortKeys[i] & INDEX_MASK)));
+                    bw.write('\n');
+                }
+            } finally {
+                bw.close();
+            }
+        }
+    }
+
+    /**
+     * current record of a spill file.
+     */
+    private static class SpillReader implements Comparable<SpillReader> {
+
+        private BufferedReader br = null;
+        private int spillIndex = 0;
+        private long key = 0;
+        private String line = null;
+        private int lineStart = 0;
+
+        public SpillReader(File spillFile, int spillIndex) throws IOException {
+            this.br = new BufferedReader(new FileReader(spillFile));
+            this.spillIndex = spillIndex;
+        }
+
+        /**
+         * @return false if there is no more record.
+         */
+        public boolean next() throws IOException {
+            line = br.readLine();
+            if (line == null)
+                return false;
+            int tab = line.indexOf('\t');
+            key = Long.parseLong(line.substring(0, tab));
+            lineStart = tab + 1;
+            return true;
+        }
+
+        public void close() throws IOException {
+            br.close();
+        }
+
+        @Override
+        public int compareTo(SpillReader o) {
+            if (key != o.key)
+                return key < o.key ? -1 : 1;
+            return spillIndex < o.spillIndex ? -1 : (spillIndex == o.spillIndex ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static cn.edu.fudan.iipl.ourvaast.DiseaseVariantIndex.BIN_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that {@link DiseaseVariantIndex} finds what parsing the disease variants file finds, and
+ * that its sidecar file is rebuilt when it does not match the disease variants file.
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class DiseaseVariantIndexTest {
+
+    private static final String[] CHROMOSOMES = {"chr1", "chr2", "chrX"};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void findsVariantsOfGenesLikeParse() throws IOException {
+        File diseaseFile = writeDiseaseFile(randomLines(5000, 20150620));
+        DiseaseVariantIndex index = DiseaseVariantIndex.open(diseaseFile.getPath());
+
+        Map<String, List<String>> parsed = DiseaseVariantIndex.parse(diseaseFile.getPath(), null);
+        Set<String> geneNameSet = new HashSet<String>(parsed.keySet());
+        geneNameSet.add("NOT_A_GENE");
+        assertEquals(parsed, index.getVariantsOfGenes(geneNameSet));
+
+        Set<String> someGenes = new HashSet<String>(Arrays.asList("G1", "G7", "NOT_A_GENE"));
+        assertEquals(DiseaseVariantIndex.parse(diseaseFile.getPath(), someGenes),
+                index.getVariantsOfGenes(someGenes));
+        assertEquals(DiseaseVariantIndex.parse(diseaseFile.getPath(), someGenes),
+                DiseaseVariantIndex.load(diseaseFile.getPath(), someGenes));
+    }
+
+    @Test
+    public void findsVariantsInRegionsAroundBinBoundaries() throws IOException {
+        List<String> lineList = randomLines(3000, 1);
+        File diseaseFile = writeDiseaseFile(lineList);
+        DiseaseVariantIndex index = DiseaseVariantIndex.open(diseaseFile.getPath());
+
+        List<String> variantList = new ArrayList<String>();
+        for (List<String> geneVariantList : DiseaseVariantIndex.parse(diseaseFile.getPath(),
+                null).values())
+            variantList.addAll(geneVariantList);
+        for (String chromosome : CHROMOSOMES) {
+            for (long k = 1; k <= 3; k++) {
+                long boundary = k * BIN_SIZE;
+                long[][] regions = {{boundary - 1, boundary - 1}, {boundary, boundary},
+                        {boundary - 1, boundary}, {boundary - 2, boundary - 1},
+                        {boundary, boundary + 1}, {0, boundary - 1}, {boundary, 4L * BIN_SIZE},
+                        {boundary - BIN_SIZE, boundary + BIN_SIZE}};
+                for (long[] region : regions)
+                    assertRegion(index, variantList, chromosome, region[0], region[1]);
+            }
+        }
+        assertRegion(index, variantList, "chrNotIndexed", 0, 4L * BIN_SIZE);
+    }
+
+    @Test
+    public void keepsASidecarThatMatches() throws IOException {
+        File diseaseFile = writeDiseaseFile(randomLines(100, 2));
+        DiseaseVariantIndex.open(diseaseFile.getPath());
+        File sidecarFile = new File(diseaseFile.getPath() + DiseaseVariantIndex.SIDECAR_SUFFIX);
+        assertTrue(sidecarFile.setLastModified(1000000000000L));
+
+        DiseaseVariantIndex.open(diseaseFile.getPath());
+        assertEquals(1000000000000L, sidecarFile.lastModified());
+    }
+
+    @Test
+    public void rebuildsTheSidecarWhenSizeChanges() throws IOException {
+        List<String> lineList = randomLines(100, 3);
+        File diseaseFile = writeDiseaseFile(lineList);
+        long lastModified = diseaseFile.lastModified();
+        DiseaseVariantIndex.open(diseaseFile.getPath());
+
+        lineList.add("chr1\t12345\tA\tT\tNEW_GENE\t0.5\tx\ty");
+        writeLines(diseaseFile, lineList);
+        assertTrue(diseaseFile.setLastModified(lastModified));
+        DiseaseVariantIndex index = DiseaseVariantIndex.open(diseaseFile.getPath());
+        assertEquals(Arrays.asList("chr1\t12345\tA\tT\tNEW_GENE\t0.5"),
+                index.getVariantsOfGenes(Collections.singleton("NEW_GENE")).get("NEW_GENE"));
+        assertSidecarMatches(diseaseFile);
+    }
+
+    @Test
+    public void rebuildsTheSidecarWhenLastModifiedChanges() throws IOException {
+        List<String> lineList = randomLines(100, 4);
+        File diseaseFile = writeDiseaseFile(lineList);
+        assertTrue(diseaseFile.setLastModified(1000000000000L));
+        DiseaseVariantIndex.open(diseaseFile.getPath());
+
+        /** the same size, a gene renamed. */
+        String line = lineList.get(0);
+        String[] feature = line.split("\t");
+        String renamedGene = "Z" + feature[4].substring(1);
+        lineList.set(0, line.replace("\t" + feature[4] + "\t", "\t" + renamedGene + "\t"));
+        writeLines(diseaseFile, lineList);
+        assertTrue(diseaseFile.setLastModified(1000000002000L));
+
+        DiseaseVariantIndex index = DiseaseVariantIndex.open(diseaseFile.getPath());
+        assertEquals(DiseaseVariantIndex.parse(diseaseFile.getPath(), null).get(renamedGene),
+                index.getVariantsOfGenes(Collections.singleton(renamedGene)).get(renamedGene));
+        assertSidecarMatches(diseaseFile);
+    }
+
+    @Test
+    public void rebuildsATruncatedSidecar() throws IOException {
+        File diseaseFile = writeDiseaseFile(randomLines(500, 5));
+        DiseaseVariantIndex.open(diseaseFile.getPath());
+        File sidecarFile = new File(diseaseFile.getPath() + DiseaseVariantIndex.SIDECAR_SUFFIX);
+        long length = sidecarFile.length();
+
+        /** cut the trailer, then cut into the directory. */
+        for (long cut : new long[] {1, 30, length / 2}) {
+            RandomAccessFile raf = new RandomAccessFile(sidecarFile, "rw");
+            try {
+                raf.setLength(length - cut);
+            } finally {
+                raf.close();
+            }
+            assertFindsLikeParse(diseaseFile, DiseaseVariantIndex.open(diseaseFile.getPath()));
+            assertEquals(length, sidecarFile.length());
+        }
+    }
+
+    @Test
+    public void rebuildsAForeignSidecar() throws IOException {
+        File diseaseFile = writeDiseaseFile(randomLines(500, 6));
+        File otherFile = temporaryFolder.newFile("other.txt");
+        writeLines(otherFile, randomLines(300, 7));
+        DiseaseVariantIndex.open(diseaseFile.getPath());
+        DiseaseVariantIndex.open(otherFile.getPath());
+        File sidecarFile = new File(diseaseFile.getPath() + DiseaseVariantIndex.SIDECAR_SUFFIX);
+        File otherSidecarFile = new File(otherFile.getPath() + DiseaseVariantIndex.SIDECAR_SUFFIX);
+
+        /** the sidecar of another file. */
+        String header = readLines(sidecarFile).get(0);
+        writeLines(sidecarFile, readLines(otherSidecarFile));
+        assertFindsLikeParse(diseaseFile, DiseaseVariantIndex.open(diseaseFile.getPath()));
+        assertEquals(header, readLines(sidecarFile).get(0));
+
+        /** not a sidecar at all, with the header of this file. */
+        writeLines(sidecarFile, Arrays.asList(readLines(sidecarFile).get(0), "garbage"));
+        assertFindsLikeParse(diseaseFile, DiseaseVariantIndex.open(diseaseFile.getPath()));
+        assertSidecarMatches(diseaseFile);
+    }
+
+    /**
+     * compare variants of a region with the variants filtered from all of them.
+     */
+    private static void assertRegion(DiseaseVariantIndex index, List<String> variantList,
+            String chromosome, long start, long end) throws IOException {
+        List<String> expected = new ArrayList<String>();
+        for (String variant : variantList) {
+            String[] feature = variant.split("\t");
+            long position = Long.parseLong(feature[1]);
+            if (feature[0].equals(chromosome) && position >= start && position <= end)
+                expected.add(variant);
+        }
+        List<String> actual = index.getVariantsInRegion(chromosome, start, end);
+        String message = chromosome + ":" + start + "-" + end;
+        for (int i = 1; i < actual.size(); i++) {
+            assertTrue(message, Long.parseLong(actual.get(i - 1).split("\t")[1]) <= Long
+                    .parseLong(actual.get(i).split("\t")[1]));
+        }
+
+        /** variants at the same position are in no particular order. */
+        Collections.sort(expected);
+        actual = new ArrayList<String>(actual);
+        Collections.sort(actual);
+        assertEquals(message, expected, actual);
+    }
+
+    private static void assertFindsLikeParse(File diseaseFile, DiseaseVariantIndex index)
+            throws IOException {
+        Map<String, List<String>> parsed = DiseaseVariantIndex.parse(diseaseFile.getPath(), null);
+        assertEquals(parsed, index.getVariantsOfGenes(parsed.keySet()));
+    }
+
+    /** a sidecar rebuilt from scratch is the same file. */
+    private void assertSidecarMatches(File diseaseFile) throws IOException {
+        File sidecarFile = new File(diseaseFile.getPath() + DiseaseVariantIndex.SIDECAR_SUFFIX);
+        List<String> sidecarLineList = readLines(sidecarFile);
+        assertTrue(sidecarFile.delete());
+        DiseaseVariantIndex.open(diseaseFile.getPath());
+        assertEquals(readLines(sidecarFile), sidecarLineList);
+    }
+
+    /**
+     * variants of 50 genes, positions are crowded around the first bin boundaries.
+     */
+    private static List<String> randomLines(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> lineList = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            long boundary = (random.nextInt(4) + 1) * (long) BIN_SIZE;
+            long position = Math.max(1, boundary + random.nextInt(7) - 3);
+            if (random.nextInt(4) == 0)
+                position = random.nextInt(4 * BIN_SIZE) + 1;
+            lineList.add(CHROMOSOMES[random.nextInt(CHROMOSOMES.length)] + "\t" + position
+                    + "\tA\tG\tG" + random.nextInt(50) + "\t" + random.nextInt(1000) / 1000.0
+                    + "\textra" + i + "\tlast");
+        }
+        return lineList;
+    }
+
+    private File writeDiseaseFile(List<String> lineList) throws IOException {
+        File diseaseFile = temporaryFolder.newFile("disease.txt");
+        writeLines(diseaseFile, lineList);
+        return diseaseFile;
+    }
+
+    private static void writeLines(File file, List<String> lineList) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            for (String line : lineList)
+                writer.write(line + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lineList = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String tempString = null;
+            while ((tempString = br.readLine()) != null)
+                lineList.add(tempString);
+        } finally {
+            br.close();
+        }
+        return lineList;
+    }
+}
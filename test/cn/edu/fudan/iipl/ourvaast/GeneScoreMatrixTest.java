@@ -0,0 +1,147 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import cn.edu.fudan.iipl.util.LineTokenizer;
+
+/**
+ * Check the bitmap and ranks of packed columns of {@link GeneScoreMatrix}.
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class GeneScoreMatrixTest {
+
+    @Test
+    public void findsScoresAroundWordBoundaries() {
+        int[] scoredRows = {0, 1, 62, 63, 64, 65, 126, 127, 128, 191, 192};
+        for (int rowCount : new int[] {64, 65, 128, 129, 193, 200}) {
+            GeneScoreMatrix matrix = newMatrix(rowCount);
+            int column = matrix.addColumn("sample");
+
+            /** set in reverse order, columns sort scores by row when packed. */
+            for (int i = scoredRows.length - 1; i >= 0; i--) {
+                if (scoredRows[i] < rowCount)
+                    matrix.setScore(scoredRows[i], column, scoredRows[i] + 0.5);
+            }
+            matrix.finish();
+            assertColumn(matrix, column, scoredRows);
+        }
+    }
+
+    @Test
+    public void keepsTheLastScoreOfDuplicatedRows() {
+        GeneScoreMatrix matrix = newMatrix(130);
+        int column = matrix.addColumn("sample");
+        matrix.setScore(63, column, 1);
+        matrix.setScore(64, column, 2);
+        matrix.setScore(63, column, 3);
+        matrix.setScore(0, column, 4);
+        matrix.setScore(64, column, 5);
+        matrix.setScore(64, column, 6);
+        matrix.setScore(129, column, 7);
+        matrix.finish();
+
+        assertEquals(3, matrix.getScore(63, column), 0);
+        assertEquals(6, matrix.getScore(64, column), 0);
+        assertEquals(4, matrix.getScore(0, column), 0);
+        assertEquals(7, matrix.getScore(129, column), 0);
+        assertFalse(matrix.isScored(62, column));
+        assertFalse(matrix.isScored(65, column));
+        assertFalse(matrix.isScored(128, column));
+    }
+
+    @Test
+    public void matchesDenseColumnsOfRandomScores() {
+        Random random = new Random(20150620);
+        int rowCount = 1000;
+        int columnCount = 8;
+        GeneScoreMatrix matrix = newMatrix(rowCount);
+        double[][] dense = new double[columnCount][rowCount];
+        boolean[][] scored = new boolean[columnCount][rowCount];
+        for (int column = 0; column < columnCount; column++) {
+            assertEquals(column, matrix.addColumn("sample" + column));
+
+            /** density from empty to full, duplicated rows included. */
+            int scores = column * rowCount / (columnCount - 2);
+            for (int i = 0; i < scores; i++) {
+                int row = random.nextInt(rowCount);
+                double score = random.nextDouble();
+                matrix.setScore(row, column, score);
+                dense[column][row] = score;
+                scored[column][row] = true;
+            }
+        }
+        matrix.finish();
+
+        for (int column = 0; column < columnCount; column++) {
+            for (int row = 0; row < rowCount; row++) {
+                assertEquals(scored[column][row], matrix.isScored(row, column));
+                if (scored[column][row])
+                    assertEquals(dense[column][row], matrix.getScore(row, column), 0);
+            }
+        }
+    }
+
+    @Test
+    public void keepsRowsOfGenes() {
+        GeneScoreMatrix matrix = new GeneScoreMatrix();
+        assertEquals(0, matrix.addRow(5000));
+        assertEquals(1, matrix.addRow(3));
+        assertEquals(0, matrix.addRow(5000));
+        assertEquals(2, matrix.getRowCount());
+        assertEquals(5000, matrix.getGeneId(0));
+        assertEquals(1, matrix.getRow(3));
+        assertEquals(-1, matrix.getRow(4));
+        assertEquals(-1, matrix.getRow(100000));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsScoresAfterFinish() {
+        GeneScoreMatrix matrix = newMatrix(1);
+        int column = matrix.addColumn("sample");
+        matrix.finish();
+        matrix.setScore(0, column, 1);
+    }
+
+    @Test
+    public void treatsNaAndDotAsMissing() {
+        LineTokenizer tokenizer = new LineTokenizer();
+        tokenizer.setLine("GENE\tN/A\t.\t0.5\t0");
+        assertFalse(GeneScoreMatrix.isScored(tokenizer, 1));
+        assertFalse(GeneScoreMatrix.isScored(tokenizer, 2));
+        assertTrue(GeneScoreMatrix.isScored(tokenizer, 3));
+        assertTrue(GeneScoreMatrix.isScored(tokenizer, 4));
+    }
+
+    /** a matrix whose row i is gene id i. */
+    private static GeneScoreMatrix newMatrix(int rowCount) {
+        GeneScoreMatrix matrix = new GeneScoreMatrix();
+        for (int i = 0; i < rowCount; i++)
+            assertEquals(i, matrix.addRow(i));
+        return matrix;
+    }
+
+    private static void assertColumn(GeneScoreMatrix matrix, int column, int[] scoredRows) {
+        boolean[] scored = new boolean[matrix.getRowCount()];
+        for (int row : scoredRows) {
+            if (row < scored.length)
+                scored[row] = true;
+        }
+        for (int row = 0; row < scored.length; row++) {
+            assertEquals("row " + row, scored[row], matrix.isScored(row, column));
+            if (scored[row])
+                assertEquals("row " + row, row + 0.5, matrix.getScore(row, column), 0);
+        }
+    }
+}
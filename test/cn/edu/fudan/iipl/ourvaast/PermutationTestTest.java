@@ -0,0 +1,176 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that {@link PermutationTest} gets the same permutation matrix whatever the number of
+ * threads, and that its observed X2 is {@link TwoPartStatistic#compute()} of the same rows.
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class PermutationTestTest {
+
+    private static final String MODEL = "recessive_model";
+    private static final String CASE_MATRIX_FILE_NAME = "case_" + MODEL + ".geneScoreMatrix";
+    private static final String PERMUTATION_MATRIX_FILE_NAME = MODEL + ".permutationMatrix";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File caseMatrixFile = null;
+    private File controlMatrixFile = null;
+
+    @Before
+    public void writeMatrices() throws IOException {
+        Random random = new Random(20150620);
+        caseMatrixFile =
+                writeMatrix(new File(temporaryFolder.newFolder("case"), CASE_MATRIX_FILE_NAME),
+                        30, 150, random, 0);
+        controlMatrixFile =
+                writeMatrix(temporaryFolder.newFile("control_" + MODEL + ".geneScoreMatrix"), 40,
+                        150, random, 5);
+    }
+
+    @Test
+    public void getsTheSameMatrixWhateverTheThreads() throws IOException {
+        byte[] expected = Files.readAllBytes(permute(1, "threads1").toPath());
+        for (int threads : new int[] {2, 4, 7})
+            assertArrayEquals(expected, Files.readAllBytes(permute(threads, "threads"
+                    + threads).toPath()));
+    }
+
+    @Test
+    public void observedX2IsTheTwoPartStatistic() throws IOException {
+        Map<String, String[]> caseRows = readRows(caseMatrixFile);
+        Map<String, String[]> controlRows = readRows(controlMatrixFile);
+        List<String[]> permutationRows =
+                new ArrayList<String[]>(readRows(permute(3, "statistic")).values());
+        assertEquals(caseRows.size(), permutationRows.size());
+
+        TwoPartStatistic statistic = new TwoPartStatistic();
+        for (String[] row : permutationRows) {
+            statistic.clear();
+            String[] caseRow = caseRows.get(row[0]);
+            for (int i = 1; i < caseRow.length; i++) {
+                if (caseRow[i].equals("N/A"))
+                    statistic.addCaseNA();
+                else
+                    statistic.addCaseScore(Double.parseDouble(caseRow[i]));
+            }
+            String[] controlRow = controlRows.get(row[0]);
+            for (int i = 1; controlRow != null && i < controlRow.length; i++) {
+                if (controlRow[i].equals("N/A"))
+                    statistic.addControlNA();
+                else
+                    statistic.addControlScore(Double.parseDouble(controlRow[i]));
+            }
+            statistic.compute();
+
+            /** midranks are halves of integers, their sums are exact. */
+            assertEquals(row[0], Double.toString(statistic.getX2()), row[1]);
+
+            long permutations = Long.parseLong(row[2]);
+            int exceeded = Integer.parseInt(row[3]);
+            assertTrue(row[0], permutations <= 5000 && exceeded <= 20);
+            if (permutations > 0)
+                assertEquals(row[0], (exceeded + 1.0) / (permutations + 1.0),
+                        Double.parseDouble(row[4]), 0);
+        }
+    }
+
+    /**
+     * @return the permutation matrix of a copy of the case matrix in a new folder.
+     */
+    private File permute(int threads, String folderName) throws IOException {
+        File folder = temporaryFolder.newFolder(folderName);
+        File caseMatrixCopy = new File(folder, CASE_MATRIX_FILE_NAME);
+        Files.copy(caseMatrixFile.toPath(), caseMatrixCopy.toPath());
+        PermutationTest permutationTest = new PermutationTest();
+        permutationTest.setSeed(7);
+        permutationTest.setMaxPermutations(5000);
+        permutationTest.setExceedances(20);
+        permutationTest.setThreads(threads);
+        assertTrue(permutationTest.getPermutationMatrix(caseMatrixCopy.getPath(), MODEL,
+                controlMatrixFile.getPath()));
+        return new File(folder, PERMUTATION_MATRIX_FILE_NAME);
+    }
+
+    /**
+     * scores are drawn from a few values, so they are often tied, a fifth of them are "N/A".
+     *
+     * @param missingGenes genes of every missingGenes-th row are left out, 0 for none.
+     */
+    private static File writeMatrix(File file, int sampleCount, int geneCount, Random random,
+            int missingGenes) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("#geneName");
+            for (int sample = 0; sample < sampleCount; sample++)
+                writer.write("\tS" + sample);
+            writer.write('\n');
+            for (int gene = 0; gene < geneCount; gene++) {
+                if (missingGenes > 0 && gene % missingGenes == 0)
+                    continue;
+
+                /** some genes are not scored at all. */
+                int naPercent = gene % 25 == 1 ? 100 : 20;
+                writer.write(String.format("GENE%04d", gene));
+                for (int sample = 0; sample < sampleCount; sample++) {
+                    if (random.nextInt(100) < naPercent)
+                        writer.write("\tN/A");
+                    else
+                        writer.write("\t" + (random.nextInt(12) / 8.0));
+                }
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * @return rows without the header, key is the gene.
+     */
+    private static Map<String, String[]> readRows(File file) throws IOException {
+        Map<String, String[]> rows = new HashMap<String, String[]>();
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String tempString = null;
+            while ((tempString = br.readLine()) != null) {
+                if (!tempString.startsWith("#")) {
+                    String[] columns = tempString.split("\t");
+                    rows.put(columns[0], columns);
+                }
+            }
+        } finally {
+            br.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that a sample opened by {@link ShuffledCaseOverlay#openSample(String)} reads the same
+ * bytes as the case file {@link Shuffle} writes with the same shuffled variants.
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class ShuffledCaseOverlayTest {
+
+    private static final String HEADER = "#chr\tpos\tref\talt\tgenename\tscore";
+    private static final List<String> VARIANTS = Arrays.asList("chr1\t100\tA\tG\tG1\t0.5",
+            "chr2\t200\tC\tT\tG2\t0.25");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File caseFolder = null;
+    private File shuffledFolder = null;
+    private File overlayFolder = null;
+    private Shuffle shuffle = new Shuffle();
+
+    @Before
+    public void createFolders() throws IOException {
+        caseFolder = temporaryFolder.newFolder("case");
+        shuffledFolder = temporaryFolder.newFolder("shuffled");
+        overlayFolder = temporaryFolder.newFolder("overlay");
+        shuffle.setCaseFolderPath(caseFolder.getPath());
+    }
+
+    @Test
+    public void readsShuffledVariantsAfterTheHeader() throws IOException {
+        writeCaseFile("S1.score.out", HEADER, "chr3\t300\tG\tA\tG3\t0.75",
+                "chr4\t400\tT\tC\tG4\t0.125");
+        assertSameSample("S1.score.out", VARIANTS);
+    }
+
+    @Test
+    public void readsTheCaseFileWithoutShuffledVariants() throws IOException {
+        writeCaseFile("S1.score.out", HEADER, "chr3\t300\tG\tA\tG3\t0.75");
+        assertSameSample("S1.score.out", Collections.<String> emptyList());
+    }
+
+    @Test
+    public void readsAHeaderOnlyCaseFile() throws IOException {
+        writeCaseFile("S1.score.out", HEADER);
+        writeCaseFile("S2.score.out", HEADER);
+        assertSameSample("S1.score.out", VARIANTS);
+        assertSameSample("S2.score.out", Collections.<String> emptyList());
+    }
+
+    @Test
+    public void readsALargeCaseFileInPieces() throws IOException {
+        Random random = new Random(20150620);
+        List<String> lineList = new ArrayList<String>();
+        lineList.add(HEADER);
+        for (int i = 0; i < 20000; i++) {
+            lineList.add("chr" + (random.nextInt(22) + 1) + "\t" + random.nextInt(100000000)
+                    + "\tA\tG\tG" + random.nextInt(500) + "\t" + random.nextDouble());
+        }
+        writeCaseFile("S1.score.out", lineList.toArray(new String[lineList.size()]));
+        assertSameSample("S1.score.out", lineList.subList(1, 1001));
+    }
+
+    @Test
+    public void keepsSamplesThroughTheManifest() throws IOException {
+        writeCaseFile("S1.score.out", HEADER, "chr3\t300\tG\tA\tG3\t0.75");
+        writeCaseFile("S2.score.out", HEADER);
+        ShuffledCaseOverlay overlay = new ShuffledCaseOverlay(caseFolder.getPath());
+        overlay.addSample("S2.score.out", VARIANTS);
+        overlay.addSample("S1.score.out", Collections.<String> emptyList());
+        assertFalse(ShuffledCaseOverlay.isOverlayFolder(overlayFolder.getPath()));
+        overlay.write(overlayFolder.getPath());
+        assertTrue(ShuffledCaseOverlay.isOverlayFolder(overlayFolder.getPath()));
+
+        ShuffledCaseOverlay readOverlay = ShuffledCaseOverlay.readIfPresent(overlayFolder
+                .getPath());
+        assertEquals(caseFolder.getPath(), readOverlay.getBaseFolderPath());
+        assertEquals(Arrays.asList("S2.score.out", "S1.score.out"), readOverlay.getSampleNames());
+        for (String sampleName : readOverlay.getSampleNames()) {
+            assertArrayEquals(sampleName, read(overlay.openSample(sampleName)),
+                    read(readOverlay.openSample(sampleName)));
+        }
+        assertNull(ShuffledCaseOverlay.readIfPresent(shuffledFolder.getPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsASampleNotInTheOverlay() throws IOException {
+        new ShuffledCaseOverlay(caseFolder.getPath()).openSample("S1.score.out");
+    }
+
+    /**
+     * write the case file by Shuffle, and compare it with the sample of an overlay.
+     */
+    private void assertSameSample(String caseFileName, List<String> variantList)
+            throws IOException {
+        shuffle.writeShuffledCaseFile(caseFileName, shuffledFolder.getPath(), variantList);
+        ShuffledCaseOverlay overlay = new ShuffledCaseOverlay(caseFolder.getPath());
+        overlay.addSample(caseFileName, variantList);
+        assertArrayEquals(Files.readAllBytes(new File(shuffledFolder, caseFileName).toPath()),
+                read(overlay.openSample(caseFileName)));
+    }
+
+    /** read in pieces of uneven sizes. */
+    private static byte[] read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[8191];
+        Random random = new Random(1);
+        try {
+            int length;
+            while ((length = reader.read(buffer, 0, random.nextInt(buffer.length) + 1)) >= 0)
+                sb.append(buffer, 0, length);
+        } finally {
+            reader.close();
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    private void writeCaseFile(String caseFileName, String... lines) throws IOException {
+        Writer writer = new FileWriter(new File(caseFolder, caseFileName));
+        try {
+            for (String line : lines)
+                writer.write(line + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
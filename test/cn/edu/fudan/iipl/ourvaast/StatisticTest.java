@@ -0,0 +1,135 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.ourvaast;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that gene score matrices merged from sorted ".genescore" files, by
+ * {@link Statistic#mergeGeneScoreMatrixFromGeneScoreFiles} and by merging spilled parts, are the
+ * same as the matrix read into memory by {@link Statistic#getGeneScoreMatrixFromGeneScoreFiles}.
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class StatisticTest {
+
+    private static final String MODEL = "recessive_model";
+    private static final String MATRIX_FILE_NAME = "control_" + MODEL + ".geneScoreMatrix";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void mergesLikeReadingIntoMemory() throws IOException {
+        File folder = writeSamples(12, 400, new Random(20150620), false);
+        assertMergedLikeInMemory(folder);
+    }
+
+    @Test
+    public void mergesMoreFilesThanTheFanIn() throws IOException {
+        File folder = writeSamples(300, 60, new Random(1), false);
+        assertMergedLikeInMemory(folder);
+    }
+
+    @Test
+    public void keepsTheLastScoreOfAGeneDuplicatedInAFile() throws IOException {
+        File folder = temporaryFolder.newFolder("duplicated");
+        writeLines(new File(folder, "S1.genescore"), "#gene\tscore", "A\t0.5", "B\t1.0",
+                "B\t2.0", "C\t3.0", "C\tN/A", "D\tN/A", "D\t4.0", "E\t5.0");
+        writeLines(new File(folder, "S2.genescore"), "#gene\tscore", "B\t6.0", "C\t7.0",
+                "C\t8.0", "C\tN/A", "F\t9.0");
+        File merged = assertMergedLikeInMemory(folder);
+        assertArrayEquals(("#geneName\tS1\tS2\nA\t0.500000\tN/A\nB\t2.000000\t6.000000\n"
+                + "C\t3.000000\t8.000000\nD\t4.000000\tN/A\nE\t5.000000\tN/A\n"
+                + "F\tN/A\t9.000000\n").getBytes("UTF-8"), Files.readAllBytes(merged.toPath()));
+    }
+
+    @Test
+    public void fallsBackToMemoryForUnsortedFiles() throws IOException {
+        File folder = writeSamples(20, 200, new Random(2), true);
+        assertMergedLikeInMemory(folder);
+    }
+
+    /**
+     * merge the samples, read them into memory, and read them into memory spilling every sample.
+     *
+     * @return the merged matrix file.
+     */
+    private File assertMergedLikeInMemory(File folder) throws IOException {
+        File mergedFolder = temporaryFolder.newFolder();
+        File inMemoryFolder = temporaryFolder.newFolder();
+        File spilledFolder = temporaryFolder.newFolder();
+        assertTrue(new Statistic().mergeGeneScoreMatrixFromGeneScoreFiles(folder.getPath(),
+                "control", MODEL, mergedFolder.getPath(), null));
+        assertTrue(new Statistic().getGeneScoreMatrixFromGeneScoreFiles(folder.getPath(),
+                "control", MODEL, inMemoryFolder.getPath()));
+        Statistic spillingStatistic = new Statistic();
+        spillingStatistic.setMaxHeapMb(0);
+        assertTrue(spillingStatistic.getGeneScoreMatrixFromGeneScoreFiles(folder.getPath(),
+                "control", MODEL, spilledFolder.getPath()));
+
+        byte[] inMemory = Files.readAllBytes(new File(inMemoryFolder, MATRIX_FILE_NAME).toPath());
+        File merged = new File(mergedFolder, MATRIX_FILE_NAME);
+        assertArrayEquals(inMemory, Files.readAllBytes(merged.toPath()));
+        assertArrayEquals(inMemory,
+                Files.readAllBytes(new File(spilledFolder, MATRIX_FILE_NAME).toPath()));
+        assertArrayEquals(new String[] {MATRIX_FILE_NAME}, spilledFolder.list());
+        return merged;
+    }
+
+    /**
+     * samples scoring random subsets of genes, some scores are "N/A".
+     *
+     * @param unsorted true to swap two genes of the last sample.
+     */
+    private File writeSamples(int sampleCount, int geneCount, Random random, boolean unsorted)
+            throws IOException {
+        File folder = temporaryFolder.newFolder("samples");
+        for (int sample = 0; sample < sampleCount; sample++) {
+            List<String> lineList = new ArrayList<String>();
+            lineList.add("#gene\tscore");
+            for (int gene = 0; gene < geneCount; gene++) {
+                if (random.nextInt(3) == 0)
+                    continue;
+                String score =
+                        random.nextInt(10) == 0 ? "N/A" : String.format(Locale.ROOT, "%.6f",
+                                random.nextInt(2000000) / 1e6);
+                lineList.add(String.format("GENE%05d\t%s", gene, score));
+            }
+            if (unsorted && sample == sampleCount - 1)
+                Collections.swap(lineList, 1, lineList.size() - 1);
+            writeLines(new File(folder, String.format("S%03d.genescore", sample)),
+                    lineList.toArray(new String[lineList.size()]));
+        }
+        return folder;
+    }
+
+    private static void writeLines(File file, String... lines) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            for (String line : lines)
+                writer.write(line + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
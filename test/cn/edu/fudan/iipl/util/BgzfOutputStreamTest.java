@@ -0,0 +1,161 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+/**
+ * Check that BGZF written by {@link BgzfOutputStream} is read back by {@link GZIPInputStream},
+ * and that its blocks and the end of file marker follow the layout of samtools.
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class BgzfOutputStreamTest {
+
+    /** the empty block samtools writes at the end of file. */
+    private static final byte[] EOF_BLOCK = {0x1f, (byte) 0x8b, 0x08, 0x04, 0, 0, 0, 0, 0,
+            (byte) 0xff, 0x06, 0, 0x42, 0x43, 0x02, 0, 0x1b, 0, 0x03, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    @Test
+    public void emptyFileIsTheEofBlock() throws IOException {
+        byte[] bgzf = write(new byte[0], null);
+        assertArrayEquals(EOF_BLOCK, bgzf);
+        assertArrayEquals(new byte[0], gunzip(bgzf));
+    }
+
+    @Test
+    public void roundTripsOneBlock() throws IOException {
+        byte[] data = text(1000);
+        byte[] bgzf = write(data, null);
+        assertArrayEquals(data, gunzip(bgzf));
+        assertEquals(2, checkBlocks(bgzf, data.length));
+    }
+
+    @Test
+    public void roundTripsBlockBoundaries() throws IOException {
+        int[] sizes = {BgzfOutputStream.BLOCK_SIZE - 1, BgzfOutputStream.BLOCK_SIZE,
+                BgzfOutputStream.BLOCK_SIZE + 1, 3 * BgzfOutputStream.BLOCK_SIZE};
+        for (int size : sizes) {
+            byte[] data = text(size);
+            byte[] bgzf = write(data, null);
+            assertArrayEquals(data, gunzip(bgzf));
+            int blocks = (size + BgzfOutputStream.BLOCK_SIZE - 1) / BgzfOutputStream.BLOCK_SIZE;
+            assertEquals(blocks + 1, checkBlocks(bgzf, size));
+        }
+    }
+
+    @Test
+    public void roundTripsIncompressibleMultiBlockFile() throws IOException {
+        byte[] data = new byte[5 * BgzfOutputStream.BLOCK_SIZE + 12345];
+        new Random(20150620).nextBytes(data);
+        byte[] bgzf = write(data, null);
+        assertArrayEquals(data, gunzip(bgzf));
+        assertEquals(7, checkBlocks(bgzf, data.length));
+    }
+
+    @Test
+    public void writesTheSameBlocksWithAnExecutor() throws IOException {
+        byte[] data = text(20 * BgzfOutputStream.BLOCK_SIZE + 777);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            byte[] bgzf = write(data, executor);
+            assertArrayEquals(write(data, null), bgzf);
+            assertArrayEquals(data, gunzip(bgzf));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /** write "data" in pieces of uneven sizes, mixing single bytes and arrays. */
+    private static byte[] write(byte[] data, ExecutorService executor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BgzfOutputStream out = new BgzfOutputStream(bytes, executor, 3);
+        Random random = new Random(data.length);
+        int offset = 0;
+        while (offset < data.length) {
+            if (random.nextInt(8) == 0) {
+                out.write(data[offset++]);
+                continue;
+            }
+            int length = Math.min(random.nextInt(40000), data.length - offset);
+            out.write(data, offset, length);
+            offset += length;
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bgzf) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bgzf));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) > 0)
+            bytes.write(buffer, 0, length);
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * walk blocks by the size in their extra field.
+     *
+     * @return number of blocks, the end of file block included.
+     */
+    private static int checkBlocks(byte[] bgzf, int dataLength) {
+        int blocks = 0;
+        int offset = 0;
+        long uncompressed = 0;
+        while (offset < bgzf.length) {
+            assertEquals(0x1f, bgzf[offset] & 0xff);
+            assertEquals(0x8b, bgzf[offset + 1] & 0xff);
+            assertEquals('B', bgzf[offset + 12]);
+            assertEquals('C', bgzf[offset + 13]);
+            int blockSize = readShort(bgzf, offset + 16) + 1;
+            int size = readShort(bgzf, offset + blockSize - 4)
+                    | readShort(bgzf, offset + blockSize - 2) << 16;
+            assertTrue(size <= BgzfOutputStream.BLOCK_SIZE);
+            uncompressed += size;
+            offset += blockSize;
+            blocks++;
+        }
+        assertEquals(bgzf.length, offset);
+        assertEquals(dataLength, uncompressed);
+        assertArrayEquals(EOF_BLOCK,
+                Arrays.copyOfRange(bgzf, bgzf.length - EOF_BLOCK.length, bgzf.length));
+        return blocks;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    /** tab separated lines like the gene score files. */
+    private static byte[] text(int length) {
+        StringBuilder sb = new StringBuilder(length + 64);
+        Random random = new Random(length);
+        while (sb.length() < length) {
+            sb.append("chr").append(random.nextInt(22) + 1).append('\t')
+                    .append(random.nextInt(100000000)).append("\tGENE").append(random.nextInt(500))
+                    .append('\t').append(random.nextDouble()).append('\n');
+        }
+        sb.setLength(length);
+        return sb.toString().getBytes();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import static cn.edu.fudan.iipl.util.ChiSquareUtil.upperTail;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * <pre>
+ * Compare {@link ChiSquareUtil#upperTail(double, int)} with reference values of
+ * "pchisq(x, df, lower.tail=FALSE)", computed with 80 digits from the closed forms
+ *     df=1: erfc(sqrt(x/2))
+ *     df=2: exp(-x/2)
+ *     df=3: erfc(sqrt(x/2)) + sqrt(2x/pi) * exp(-x/2)
+ *     df=4: exp(-x/2) * (1 + x/2)
+ * </pre>
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class ChiSquareUtilTest {
+
+    /** relative error allowed, odd degrees of freedom go through log gamma. */
+    private static final double RELATIVE_ERROR = 1e-13;
+
+    /** df, x, upper tail probability. */
+    private static final double[][] REFERENCES = {
+            {1, 0.5, 4.7950012218695348e-01},
+            {1, 1, 3.1731050786291409e-01},
+            {1, 3.75, 5.2807511416113624e-02},
+            {1, 10, 1.5654022580025497e-03},
+            {1, 50, 1.5374597944280349e-12},
+            {1, 150, 1.7336432457178264e-34},
+            {2, 0.5, 7.7880078307140488e-01},
+            {2, 1, 6.0653065971263342e-01},
+            {2, 3.75, 1.5335496684492847e-01},
+            {2, 10, 6.7379469990854670e-03},
+            {2, 50, 1.3887943864964021e-11},
+            {2, 150, 2.6786369618080778e-33},
+            {3, 0.5, 9.1889141165467580e-01},
+            {3, 1, 8.0125195690120077e-01},
+            {3, 3.75, 2.8975578119338335e-01},
+            {3, 10, 1.8566135463043233e-02},
+            {3, 50, 7.9891792449514717e-11},
+            {3, 150, 2.6349139284880438e-32},
+            {4, 0.5, 9.7350097883925613e-01},
+            {4, 1, 9.0979598956895014e-01},
+            {4, 3.75, 4.4089552967916934e-01},
+            {4, 10, 4.0427681994512805e-02},
+            {4, 50, 3.6108654048906452e-10},
+            {4, 150, 2.0357640909741394e-31}};
+
+    /** df, x, upper tail probability near 1e-300. */
+    private static final double[][] TINY_TAILS = {
+            {1, 1376, 3.4491513001148363e-301},
+            {1, 1400, 2.1010145162642176e-306},
+            {2, 1380, 2.1717382813898272e-300},
+            {3, 1392, 1.6036586535475110e-301},
+            {3, 1410, 1.9918083986808717e-305},
+            {4, 1392, 3.7520910915248491e-300}};
+
+    @Test
+    public void matchesReferencesForDfOneToFour() {
+        assertReferences(REFERENCES);
+    }
+
+    @Test
+    public void keepsPrecisionOfTailsNear1eMinus300() {
+        assertReferences(TINY_TAILS);
+    }
+
+    @Test
+    public void twoPartsTestIsExpOfHalfStatistic() {
+        for (double x = 0.125; x < 1500; x *= 1.5)
+            assertEquals(Math.exp(-x / 2), upperTail(x, 2), 0);
+    }
+
+    @Test
+    public void handlesBoundaries() {
+        assertEquals(1, upperTail(0, 1), 0);
+        assertEquals(1, upperTail(-1, 3), 0);
+        assertTrue(Double.isNaN(upperTail(Double.NaN, 2)));
+        assertEquals(0, upperTail(Double.POSITIVE_INFINITY, 2), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveDf() {
+        upperTail(1, 0);
+    }
+
+    private static void assertReferences(double[][] references) {
+        for (double[] reference : references) {
+            int df = (int) reference[0];
+            double x = reference[1];
+            double expected = reference[2];
+            double actual = upperTail(x, df);
+            assertEquals("df=" + df + ", x=" + x, expected, actual, expected * RELATIVE_ERROR);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * @Copyright cn.edu.fudan.iipl
+ */
+
+package cn.edu.fudan.iipl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Check that {@link LineTokenizer#parseDouble(int)} gets exactly what
+ * {@link Double#parseDouble(String)} gets, on its fast path and on its fallback.
+ *
+ * @author Yong Chen
+ * @since 2015-06-20
+ */
+public class LineTokenizerTest {
+
+    private static final String[] EDGE_INPUTS = {"0", "-0", "+0", "0.0", "-0.0", "-0.", ".5",
+            "-.5", "+.5", "5.", "1", "-1", "+1", "0.1", "-0.1", "0.30000000000000004",
+            "123456789012345", "1234567890123456", "12345678901234567890",
+            "0.000000000000000000001", "0.0000000000000000000001", "0.00000000000000000000001",
+            "999999999999999.9", "9007199254740993", "3.141592653589793238462643383279",
+            "-2.2250738585072014E-308", "1e10", "1E-10", "-1.5e+300", "4.9e-324",
+            "2.4703282292062328e-324", "1.7976931348623157e308", "1e309", "-1e-400",
+            "6.02214076e23", "0.006737946999085467", "1d", "2.5f", "NaN", "-Infinity", "0x1.8p1",
+            " 1.5", "1.5 ", "000000000000000000000012.5"};
+
+    private static final String[] INVALID_INPUTS = {"", ".", "-", "+", "-.", "1.2.3", "1e",
+            "abc", "--1", "1,5"};
+
+    @Test
+    public void parsesEdgeInputsLikeDoubleParseDouble() {
+        for (String input : EDGE_INPUTS)
+            assertSameDouble(input);
+    }
+
+    @Test
+    public void parsesRandomDecimalsLikeDoubleParseDouble() {
+        Random random = new Random(20150620);
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 200000; n++) {
+            sb.setLength(0);
+            if (random.nextInt(3) == 0)
+                sb.append(random.nextBoolean() ? '-' : '+');
+            int integerDigits = random.nextInt(12);
+            for (int i = 0; i < integerDigits; i++)
+                sb.append((char) ('0' + random.nextInt(10)));
+            sb.append('.');
+            int fractionDigits = random.nextInt(integerDigits == 0 ? 24 : 12) + 1;
+            for (int i = 0; i < fractionDigits; i++)
+                sb.append((char) ('0' + random.nextInt(10)));
+            if (random.nextInt(4) == 0)
+                sb.append('e').append(random.nextInt(640) - 320);
+            assertSameDouble(sb.toString());
+        }
+    }
+
+    @Test
+    public void rejectsWhatDoubleParseDoubleRejects() {
+        for (String input : INVALID_INPUTS) {
+            char[] chars = input.toCharArray();
+            try {
+                LineTokenizer.parseDouble(chars, 0, chars.length);
+                fail("\"" + input + "\" should not be parsed");
+            } catch (NumberFormatException e) {
+                /** expected. */
+            }
+        }
+    }
+
+    @Test
+    public void parsesFieldsOfTheLine() {
+        LineTokenizer tokenizer = new LineTokenizer();
+        tokenizer.setLine("gene\t-0\t1.25\t-3e2");
+        assertEquals(Double.doubleToRawLongBits(-0.0),
+                Double.doubleToRawLongBits(tokenizer.parseDouble(1)));
+        assertEquals(1.25, tokenizer.parseDouble(2), 0);
+        assertEquals(-300, tokenizer.parseDouble(3), 0);
+    }
+
+    private static void assertSameDouble(String input) {
+        long expected = Double.doubleToRawLongBits(Double.parseDouble(input));
+        char[] chars = ("x" + input + "y").toCharArray();
+        assertEquals(input, expected,
+                Double.doubleToRawLongBits(LineTokenizer.parseDouble(chars, 1, chars.length - 1)));
+        assertEquals(input, expected, Double.doubleToRawLongBits(LineTokenizer.parseDouble(input,
+                new char[input.length()])));
+    }
+}